@@ -0,0 +1,101 @@
+import { CharStream, CommonTokenStream, Token } from 'antlr4';
+import { TextSource } from '../common/source';
+import CELLexer from '../gen/CELLexer';
+import CELParser from '../gen/CELParser';
+import { AllMacros } from '../parser/macro';
+import {
+  enableIdentEscapeSyntax,
+  enableOptionalSyntax,
+  macros,
+  Parser,
+} from '../parser/parser';
+import { clearDFA } from '../parser/warmup';
+import { allocatedBytes } from './allocation';
+import { conformanceWorkloads, stressWorkloads, Workload } from './workloads';
+
+/**
+ * Benchmarks for the parser front end: lexing alone, parsing a pre-lexed token
+ * stream alone and the full source-to-AST pipeline. Each workload is measured
+ * for throughput with warm DFA caches and as a single cold shot after the
+ * caches have been cleared. The bytes allocated per operation are printed
+ * before the benchmarks run.
+ */
+
+const parser = new Parser(
+  macros(...AllMacros),
+  enableOptionalSyntax(true),
+  enableIdentEscapeSyntax(true)
+);
+
+function lex(expressions: string[]) {
+  for (const expr of expressions) {
+    const lexer = new CELLexer(new CharStream(expr));
+    lexer.removeErrorListeners();
+    while (lexer.nextToken().type !== Token.EOF) {
+      // Drain the token source.
+    }
+  }
+}
+
+function tokenize(expressions: string[]) {
+  return expressions.map((expr) => {
+    const lexer = new CELLexer(new CharStream(expr));
+    lexer.removeErrorListeners();
+    const stream = new CommonTokenStream(lexer);
+    stream.fill();
+    return stream;
+  });
+}
+
+function parseTokens(streams: CommonTokenStream[]) {
+  for (const stream of streams) {
+    stream.seek(0);
+    const celParser = new CELParser(stream);
+    celParser.removeErrorListeners();
+    celParser.start();
+  }
+}
+
+function frontEnd(sources: TextSource[]) {
+  for (const source of sources) {
+    parser.parse(source);
+  }
+}
+
+const workloads: Workload[] = [...conformanceWorkloads(), ...stressWorkloads()];
+
+const singleShot = {
+  iterations: 1,
+  time: 0,
+  warmupIterations: 0,
+  warmupTime: 0,
+  setup: () => clearDFA(),
+};
+
+const allocations: Record<string, Record<string, number>> = {};
+for (const { name, expressions } of workloads) {
+  const streams = tokenize(expressions);
+  const sources = expressions.map((expr) => new TextSource(expr));
+  allocations[name] = {
+    lex: allocatedBytes(() => lex(expressions)),
+    parse: allocatedBytes(() => parseTokens(streams)),
+    'front end': allocatedBytes(() => frontEnd(sources)),
+  };
+}
+console.log('Bytes allocated per operation');
+console.table(allocations);
+
+for (const { name, expressions } of workloads) {
+  describe(`${name} (${expressions.length} expressions)`, () => {
+    const streams = tokenize(expressions);
+    const sources = expressions.map((expr) => new TextSource(expr));
+
+    bench('lex', () => lex(expressions));
+    bench('parse', () => parseTokens(streams));
+    bench('front end', () => frontEnd(sources));
+
+    bench('lex (single shot)', () => lex(expressions), singleShot);
+    bench('parse (single shot)', () => parseTokens(streams), singleShot);
+    bench('front end (single shot)', () => frontEnd(sources), singleShot);
+  });
+}
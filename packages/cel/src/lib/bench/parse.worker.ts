@@ -0,0 +1,31 @@
+import { CharStream, CommonTokenStream } from 'antlr4';
+import { parentPort, workerData } from 'worker_threads';
+import CELLexer from '../gen/CELLexer';
+import CELParser from '../gen/CELParser';
+import { DFASnapshot, loadDFASnapshot } from '../parser/warmup';
+
+/**
+ * Parses the corpus with the generated lexer and parser on request. Each
+ * worker has its own copy of the DFA caches, seeded from the snapshot which
+ * the main thread trained, so the workers never share prediction state.
+ */
+
+const { expressions, snapshot } = workerData as {
+  expressions: string[];
+  snapshot: DFASnapshot;
+};
+
+loadDFASnapshot(snapshot);
+
+parentPort?.on('message', (rounds: number) => {
+  for (let i = 0; i < rounds; i++) {
+    for (const expr of expressions) {
+      const lexer = new CELLexer(new CharStream(expr));
+      lexer.removeErrorListeners();
+      const parser = new CELParser(new CommonTokenStream(lexer));
+      parser.removeErrorListeners();
+      parser.start();
+    }
+  }
+  parentPort?.postMessage(rounds);
+});
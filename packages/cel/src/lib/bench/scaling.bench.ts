@@ -0,0 +1,105 @@
+import { buildSync } from 'esbuild';
+import { cpus } from 'os';
+import { join } from 'path';
+import { Worker } from 'worker_threads';
+import { conformanceExpressions } from '../conformance/corpus';
+import { trainDFASnapshot } from '../parser/warmup';
+
+/**
+ * Measures how parse throughput scales with the number of worker threads.
+ *
+ * JavaScript threads do not share heaps, so every worker has its own DFA
+ * caches and parses without contention. What a worker does need is warm
+ * caches: the main thread trains a DFA snapshot once and each worker replays
+ * it at startup. Every benchmark parses the same total amount of work split
+ * evenly across the workers, so ideal scaling doubles the throughput each
+ * time the worker count doubles.
+ */
+
+const expressions = [...conformanceExpressions().values()].flat();
+const snapshot = trainDFASnapshot(expressions);
+const totalRounds = 64;
+
+// The worker imports TypeScript sources, so it is bundled into a single
+// script which worker_threads can evaluate.
+const workerScript = buildSync({
+  entryPoints: [join(__dirname, 'parse.worker.ts')],
+  bundle: true,
+  platform: 'node',
+  format: 'cjs',
+  write: false,
+}).outputFiles[0].text;
+
+class ParsePool {
+  private _workers: Worker[] = [];
+
+  constructor(size: number) {
+    for (let i = 0; i < size; i++) {
+      this._workers.push(
+        new Worker(workerScript, {
+          eval: true,
+          workerData: { expressions, snapshot },
+        })
+      );
+    }
+  }
+
+  /**
+   * Run splits the rounds across the workers and resolves once every worker
+   * has finished its share.
+   */
+  run(rounds: number) {
+    return Promise.all(
+      this._workers.map((worker, i) => {
+        const share =
+          Math.floor(rounds / this._workers.length) +
+          (i < rounds % this._workers.length ? 1 : 0);
+        return new Promise<void>((resolve, reject) => {
+          worker.once('error', reject);
+          worker.once('message', () => {
+            worker.off('error', reject);
+            resolve();
+          });
+          worker.postMessage(share);
+        });
+      })
+    );
+  }
+
+  terminate() {
+    return Promise.all(this._workers.map((worker) => worker.terminate()));
+  }
+}
+
+const workerCounts: number[] = [];
+for (let n = 1; n <= cpus().length; n *= 2) {
+  workerCounts.push(n);
+}
+if (workerCounts[workerCounts.length - 1] !== cpus().length) {
+  workerCounts.push(cpus().length);
+}
+
+describe(`${totalRounds} rounds of ${expressions.length} expressions`, () => {
+  for (const count of workerCounts) {
+    let pool: ParsePool | undefined;
+    bench(
+      `${count} ${count === 1 ? 'worker' : 'workers'}`,
+      async () => {
+        await pool?.run(totalRounds);
+      },
+      {
+        setup: async () => {
+          if (pool === undefined) {
+            pool = new ParsePool(count);
+            // Wait for every worker to start and replay the snapshot.
+            await pool.run(count);
+          }
+        },
+        teardown: async () => {
+          await pool?.terminate();
+          pool = undefined;
+        },
+      }
+    );
+  }
+});
@@ -0,0 +1,153 @@
+import {
+  DynType,
+  IntType,
+  listType,
+  mapType,
+  StringType,
+  variable,
+} from '../cel/decls';
+import { Ast, Env } from '../cel/env';
+import { conformanceExpressions } from '../conformance/corpus';
+
+/**
+ * Workload is a named set of expressions which a benchmark processes as a
+ * single operation.
+ */
+export interface Workload {
+  name: string;
+  expressions: string[];
+}
+
+/**
+ * The conformance files used as benchmark workloads. Together they cover
+ * literals, operators, macros, string functions, optional syntax and the
+ * parser edge cases.
+ */
+export const conformanceWorkloadFiles = [
+  'basic',
+  'comparisons',
+  'fields',
+  'lists',
+  'logic',
+  'macros',
+  'optionals',
+  'parse',
+  'string_ext',
+];
+
+/**
+ * ConformanceWorkloads returns one workload per selected conformance file.
+ */
+export function conformanceWorkloads(
+  files = conformanceWorkloadFiles
+): Workload[] {
+  const corpus = conformanceExpressions();
+  return files.map((name) => {
+    const expressions = corpus.get(`${name}.json`);
+    if (expressions === undefined) {
+      throw new Error(`unknown conformance file: ${name}`);
+    }
+    return { name, expressions };
+  });
+}
+
+/**
+ * StressWorkloads returns synthetic expressions which exercise the shapes the
+ * conformance suite barely covers: deep nesting, long logical chains and large
+ * list literals. The sizes stay within the default parser limits.
+ */
+export function stressWorkloads(): Workload[] {
+  const depth = 100;
+  return [
+    {
+      name: 'deep nesting',
+      expressions: [
+        `${'('.repeat(depth)}a${')'.repeat(depth)}`,
+        `${'f('.repeat(depth)}a${')'.repeat(depth)}`,
+        `${'['.repeat(depth)}1${']'.repeat(depth)}`,
+        `a${'.b'.repeat(depth)}`,
+      ],
+    },
+    {
+      name: '|| chain',
+      expressions: [
+        repeat(1000, (i) => `a${i} == ${i}`, ' || '),
+        repeat(1000, (i) => `x.f${i}`, ' || '),
+      ],
+    },
+    {
+      name: 'large list',
+      expressions: [
+        `[${repeat(5000, (i) => `${i}`, ', ')}]`,
+        `[${repeat(1000, (i) => `"s${i}"`, ', ')}]`,
+        `[${repeat(1000, (i) => `{"k${i}": [${i}, ${i}.5]}`, ', ')}]`,
+      ],
+    },
+  ];
+}
+
+/**
+ * RuleWorkload is a checked expression evaluated against a fixed input,
+ * shaped like the access and validation rules CEL programs usually are.
+ */
+export interface RuleWorkload {
+  name: string;
+  ast: Ast;
+}
+
+/**
+ * The environment of the rule workloads.
+ */
+export const ruleEnv = new Env(
+  variable('user', StringType),
+  variable('age', IntType),
+  variable('score', IntType),
+  variable('limit', IntType),
+  variable('roles', listType(StringType)),
+  variable('request', mapType(StringType, DynType))
+);
+
+/**
+ * The input every rule workload is evaluated against.
+ */
+export const ruleInput = {
+  user: 'alice',
+  age: BigInt(30),
+  score: BigInt(75),
+  limit: BigInt(20),
+  roles: ['user', 'editor'],
+  request: {
+    auth: { claims: { sub: 'alice', groups: ['staff', 'editors'] } },
+  },
+};
+
+/**
+ * RuleWorkloads returns the rule workloads, one per kind of operation an
+ * evaluation tier may speed up.
+ */
+export function ruleWorkloads(): RuleWorkload[] {
+  const rules: Record<string, string> = {
+    logic: `age >= 18 && score > 50 || 'admin' in roles`,
+    arithmetic: `(score * 3 + age * 2 - limit) / 2 > 40`,
+    strings: `user.startsWith('a') && size(user) < 20 && user != 'root'`,
+    conditional: `age < 13 ? 'child' : age < 18 ? 'teen' : score > 90 ? 'gold' : 'adult'`,
+    macro: `roles.exists(r, r == 'admin') || score > limit`,
+    repeated: `request.auth.claims.groups.exists(g, g == 'admins') || 'editors' in request.auth.claims.groups && request.auth.claims.sub == user`,
+    constants: `score * 60 * 60 > 24 * 60 * 60 && 'gold' in ['gold', 'silver'] && size('admin') < age`,
+  };
+  return Object.entries(rules).map(([name, expr]) => {
+    const ast = ruleEnv.compile(expr);
+    if (!(ast instanceof Ast)) {
+      throw new Error(`invalid rule ${name}: ${ast}`);
+    }
+    return { name, ast };
+  });
+}
+
+function repeat(
+  count: number,
+  term: (i: number) => string,
+  separator: string
+) {
+  return Array.from({ length: count }, (_, i) => term(i)).join(separator);
+}
@@ -5,15 +5,19 @@ import { BoolRefVal } from '../common/types/bool';
 import { IntRefVal } from '../common/types/int';
 import { Activation } from '../interpreter/activation';
 import { ExprSchema } from '../protogen/cel/expr/syntax_pb.js';
-import { BoolType, StringType, variable } from './decls';
+import { BoolType, IntType, StringType, variable } from './decls';
 import { Ast, CustomEnv, Env, Issues } from './env';
 import { StdLib } from './library';
 import {
   abbrevs,
   container,
+  costLimit,
   crossTypeNumericComparisons,
   enableIdentifierEscapeSyntax,
   EnvOption,
+  EvalOption,
+  evalOptions,
+  globals,
   types,
 } from './options';
 import { Program } from './program';
@@ -224,6 +228,63 @@ describe('cel', () => {
     }
   });
 
+  describe('Program reuse', () => {
+    const env = new Env(variable('a', IntType), variable('b', IntType));
+    const ast = env.compile('a + b > 10 ? a : b') as Ast;
+
+    it('evaluates one program against many activations', () => {
+      const prg = env.program(ast) as Program;
+      for (let i = 0; i < 20; i++) {
+        const [out, _, err] = prg.eval({ a: BigInt(i), b: BigInt(5) });
+        expect(err).toBeNull();
+        expect(out?.value()).toEqual(BigInt(i + 5 > 10 ? i : 5));
+      }
+    });
+
+    it('accepts custom activations', () => {
+      const prg = env.program(ast) as Program;
+      const vars: Activation = {
+        resolveName: (name: string) => (name === 'a' ? BigInt(7) : BigInt(4)),
+        parent: () => null,
+      };
+      const [out, _, err] = prg.eval(vars);
+      expect(err).toBeNull();
+      expect(out?.value()).toEqual(BigInt(7));
+    });
+
+    it('lets inputs shadow globals', () => {
+      const prg = env.program(ast, globals({ a: BigInt(1), b: BigInt(2) }));
+      const [out] = (prg as Program).eval({ b: BigInt(20) });
+      expect(out?.value()).toEqual(BigInt(1));
+      const [out2] = (prg as Program).eval({});
+      expect(out2?.value()).toEqual(BigInt(2));
+    });
+
+    it('tracks cost separately for each evaluation', () => {
+      const prg = env.program(
+        ast,
+        evalOptions(EvalOption.TrackCost)
+      ) as Program;
+      const costs = [];
+      for (let i = 0; i < 3; i++) {
+        const [out, details, err] = prg.eval({ a: BigInt(8), b: BigInt(3) });
+        expect(err).toBeNull();
+        expect(out?.value()).toEqual(BigInt(8));
+        costs.push(details?.actualCost());
+      }
+      expect(costs[0]).toBeGreaterThan(BigInt(0));
+      expect(costs).toEqual([costs[0], costs[0], costs[0]]);
+    });
+
+    it('cancels evaluations over the cost limit', () => {
+      const prg = env.program(ast, costLimit(BigInt(1))) as Program;
+      const [out, details, err] = prg.eval({ a: BigInt(8), b: BigInt(3) });
+      expect(out).toBeNull();
+      expect(err?.message).toContain('actual cost limit exceeded');
+      expect(details?.actualCost()).toBeGreaterThan(BigInt(1));
+    });
+  });
+
   // TODO: more tests
 });
 
@@ -15,6 +15,9 @@ import { NoLocation } from '../common/location';
 import { Adapter, isRegistry, Provider } from '../common/ref/provider';
 import { TextSource, Source as œSource } from '../common/source';
 import { Registry } from '../common/types/provider';
+import { VariableSlots } from '../interpreter/activation';
+import { BatchEvaluator } from '../interpreter/batch';
+import { foldConstants } from '../interpreter/folding';
 import { Macro } from '../parser/macro';
 import {
   enableIdentEscapeSyntax,
@@ -31,7 +34,7 @@ import {
   EnvOption,
   ProgramOption,
 } from './options';
-import { newProgram, Program } from './program';
+import { newInterpreter, newProgram, Program } from './program';
 
 /**
  * Source interface representing a user-provided expression.
@@ -155,6 +158,9 @@ export class EnvBase {
   chk: CheckerEnv | null = null;
   chkErr: Error | null = null;
   // chkOnce  sync.Once
+
+  // Slots of the declared variables, assigned on first use.
+  varSlots: VariableSlots | null = null;
   chkOpts!: CheckerEnvOptions;
 
   // Program options tied to the environment
@@ -496,6 +502,50 @@ export class EnvBase {
     return new Coster(ast.nativeRep(), estimator, ...extendedOptions).cost();
   }
 
+  /**
+   * FoldConstants returns a copy of the Ast in which constant subexpressions
+   * are replaced by literals, together with the number of expression nodes
+   * that were eliminated. Programs created with the Optimize evaluation
+   * option are folded the same way.
+   */
+  foldConstants(ast: Ast): [Ast, number] | Error {
+    const interp = newInterpreter(this);
+    if (interp instanceof Error) {
+      return interp;
+    }
+    const [folded, eliminated] = foldConstants(
+      interp,
+      ast.nativeRep(),
+      this.functions
+    );
+    return [new Ast(ast.source(), folded), eliminated];
+  }
+
+  /**
+   * BatchEvaluator returns an evaluator of the checked Ast over batches of
+   * rows whose variables are given as columns of values.
+   */
+  batchEvaluator(ast: Ast): BatchEvaluator | Error {
+    const interp = newInterpreter(this);
+    if (interp instanceof Error) {
+      return interp;
+    }
+    return new BatchEvaluator(interp, ast.nativeRep());
+  }
+
+  /**
+   * VariableSlots returns the slots of the variables declared in the
+   * environment. Programs created with the SlotVariables evaluation option
+   * load the variables from a SlotActivation of these slots by index.
+   */
+  variableSlots(): VariableSlots {
+    if (isNil(this.varSlots)) {
+      const names = new Set(this.variables.map((v) => v.name()));
+      this.varSlots = new VariableSlots([...names]);
+    }
+    return this.varSlots;
+  }
+
   private _initChecker() {
     if (!isNil(this.chk)) {
       return;
@@ -316,11 +316,15 @@ export enum EvalOption {
 
   /**
    * Optimize precomputes functions and operators with constants as arguments
-   * at program creation time. It also pre-compiles regex pattern constants
+   * at program creation time, for standard library overloads and overloads
+   * marked with overloadIsPure. It also pre-compiles regex pattern constants
    * passed to 'matches', reports any compilation errors at program creation
    * and uses the compiled regex pattern for all 'matches' function
-   * invocations. This flag is useful when the expression will be evaluated
-   * repeatedly against a series of different inputs.
+   * invocations. Subexpressions which occur more than once in a checked
+   * expression are evaluated at most once per evaluation, unless the program
+   * tracks state or cost. This flag is useful
+   * when the expression will be evaluated repeatedly against a series of
+   * different inputs.
    */
   Optimize,
 
@@ -339,6 +343,72 @@ export enum EvalOption {
    * cost within evalDetails cost calculation is available via func ActualCost()
    */
   TrackCost,
+
+  /**
+   * Compile generates JavaScript for the operators and function calls of the
+   * expression when the program is created, instead of evaluating them
+   * through a tree of Interpretable nodes. Results are the same as for the
+   * interpreted program. It has no effect when state or cost is tracked.
+   */
+  Compile,
+
+  /**
+   * CompileClosures composes the operators and function calls of the
+   * expression into closures when the program is created. It speeds up
+   * evaluation less than Compile but creates programs about as fast as the
+   * interpreter, which suits expressions that are compiled at high rates.
+   * Compile takes precedence when both are set.
+   */
+  CompileClosures,
+
+  /**
+   * OrderLogicalByCost flattens the nested && and || operators of checked
+   * expressions and evaluates their operands in order of the cost the static
+   * cost model estimates for them, cheapest first. Results are the same,
+   * except that the error reported when several operands fail may differ.
+   */
+  OrderLogicalByCost,
+
+  /**
+   * AdaptiveLogical orders the operands of && and || like OrderLogicalByCost
+   * and keeps reordering them while the program runs, moving operands which
+   * often decide the result at a low cost to the front. It works through an
+   * InterpretableDecorator, so the program is planned rather than compiled.
+   */
+  AdaptiveLogical,
+
+  /**
+   * SlotVariables plans references to the variables declared in the
+   * environment as loads from the slots of Env.variableSlots(). Programs
+   * evaluated against a SlotActivation of those slots read the variables by
+   * index instead of looking them up by name, including inside
+   * comprehensions. Other activations are still accepted.
+   */
+  SlotVariables,
+}
+
+/**
+ * EvalOptions sets one or more evaluation options which may affect the
+ * evaluation or Result.
+ */
+export function evalOptions(...opts: EvalOption[]): ProgramOption {
+  return (p) => {
+    p.evalOpts.push(...opts);
+    return p;
+  };
+}
+
+/**
+ * CostLimit enables cost tracking and sets the maximum runtime cost of an
+ * evaluation, which is cancelled once the limit is exceeded. The
+ * cancellation is returned as the error of Program.eval.
+ */
+export function costLimit(limit: bigint): ProgramOption {
+  return (p) => {
+    p.costLimit = limit;
+    p.evalOpts.push(EvalOption.TrackCost);
+    return p;
+  };
 }
 
 /**
@@ -1,8 +1,9 @@
 import {
   Activation,
   HierarchicalActivation,
+  isActivation,
   MapActivation,
-  PartialActivation,
+  VariableSlots,
 } from './../interpreter/activation';
 import {
   EvalObserver,
@@ -22,15 +23,24 @@ import {
   AttributeFactory,
   enableErrorOnBadPresenceTest,
 } from '../interpreter/attributes';
-import { InterpretableDecorator } from '../interpreter/decorators';
+import { closureInterpretable } from '../interpreter/closures';
+import { generateInterpretable } from '../interpreter/codegen';
+import { ExprCompiler } from '../interpreter/compiler';
+import {
+  decAdaptiveLogical,
+  InterpretableDecorator,
+} from '../interpreter/decorators';
 import { DefaultDispatcher, Dispatcher } from '../interpreter/dispatcher';
 import { EvalState } from '../interpreter/evalstate';
+import { foldConstants } from '../interpreter/folding';
 import { Interpretable } from '../interpreter/interpretable';
+import { exprCosts, reorderLogical } from '../interpreter/reorder';
 import {
   ActualCostEstimator,
   costObserver,
   CostTracker,
   CostTrackerOption,
+  EvalCancelledError,
 } from '../interpreter/runtimecost';
 import { Env } from './env';
 import { Feature } from './library';
@@ -152,29 +162,32 @@ export class prog implements Program {
     }
     // Build a hierarchical activation if there are default vars set.
     let vars: Activation;
-    switch (reflectNativeType(input)) {
-      case EmptyActivation:
-      case MapActivation:
-      case HierarchicalActivation:
-      case PartialActivation:
-        vars = input as Activation;
-        break;
-      case Object:
-      case Map:
-        vars = new MapActivation(
-          input as Map<string, any> | Record<string, any>
-        );
-        break;
-      default:
-        return [
-          null,
-          null,
-          new Error(
-            `invalid input, wanted Activation or map[string]any, got: (${input})${input}`
-          ),
-        ];
+    // Custom activations may be plain objects, so they are recognized before
+    // objects are treated as maps of variables.
+    if (isActivation(input)) {
+      vars = input;
+    } else {
+      switch (reflectNativeType(input)) {
+        case Object:
+        case Map:
+          vars = new MapActivation(input);
+          break;
+        default:
+          return [
+            null,
+            null,
+            new Error(
+              `invalid input, wanted Activation or map[string]any, got: (${input})${input}`
+            ),
+          ];
+      }
     }
-    if (!isNil(this.defaultVars)) {
+    // Without globals there is nothing for the input to shadow, and skipping
+    // the extra layer saves a lookup for every variable reference.
+    if (
+      !isNil(this.defaultVars) &&
+      !(this.defaultVars instanceof EmptyActivation)
+    ) {
       vars = new HierarchicalActivation(this.defaultVars, vars);
     }
     const v = this.interpretable.eval(vars);
@@ -213,44 +226,55 @@ export function newProgram(
     }
   }
 
-  // Add the function bindings created via Function() options.
-  for (const fn of e.functions.values()) {
-    const bindings = fn.bindings();
-    const err = disp.add(...bindings);
-    if (err instanceof Error) {
-      return err;
-    }
+  let compiler: ExprCompiler | null = null;
+  if (p.evalOpts.includes(EvalOption.Compile)) {
+    compiler = generateInterpretable;
+  } else if (p.evalOpts.includes(EvalOption.CompileClosures)) {
+    compiler = closureInterpretable;
   }
-
-  // Set the attribute factory after the options have been set.
-  let attrFactory: AttributeFactory;
-  // TODO: partial eval
-  // if p.evalOpts&OptPartialEval == OptPartialEval {
-  // 	attrFactory = interpreter.NewPartialAttributeFactory(e.Container, e.adapter, e.provider, attrFactorOpts...)
-  // } else {
-  // 	attrFactory = interpreter.NewAttributeFactory(e.Container, e.adapter, e.provider, attrFactorOpts...)
-  // }
-  // eslint-disable-next-line prefer-const
-  attrFactory = new AttrFactory(
-    e.container,
-    e.adapter,
-    e.provider,
-    enableErrorOnBadPresenceTest(
-      p.env.hasFeature(Feature.EnableErrorOnBadPresenceTest)
-    )
-  );
-  const interp = new ExprInterpreter(
+  // Observers record every evaluation step, so memoized values, which skip
+  // the steps of repeated subexpressions, are not used for observed programs.
+  const observed =
+    p.evalOpts.includes(EvalOption.ExhaustiveEval) ||
+    p.evalOpts.includes(EvalOption.TrackState) ||
+    p.evalOpts.includes(EvalOption.TrackCost);
+  const interp = newInterpreter(
+    e,
     disp,
-    e.container,
-    e.provider,
-    e.adapter,
-    attrFactory
+    compiler,
+    p.evalOpts.includes(EvalOption.Optimize) && !observed,
+    p.evalOpts.includes(EvalOption.SlotVariables) ? e.variableSlots() : null
   );
+  if (interp instanceof Error) {
+    return interp;
+  }
   p.interpreter = interp;
 
   // Translate the EvalOption flags into InterpretableDecorator instances.
   const decorators: InterpretableDecorator[] = [...p.decorators];
 
+  // Fold constant subexpressions before planning. The folder evaluates them
+  // with its own interpreter, so they are planned rather than compiled.
+  if (p.evalOpts.includes(EvalOption.Optimize)) {
+    const folder = newInterpreter(e);
+    if (folder instanceof Error) {
+      return folder;
+    }
+    [a] = foldConstants(folder, a, e.functions);
+  }
+
+  // Order the operands of && and || by cost once the constants are folded.
+  // Adaptive ordering replaces the planned operators, so its decorator runs
+  // before any which wrap them.
+  const adaptive = p.evalOpts.includes(EvalOption.AdaptiveLogical);
+  if (adaptive || p.evalOpts.includes(EvalOption.OrderLogicalByCost)) {
+    const costs = exprCosts(a, ...e.costOptions);
+    a = reorderLogical(a, costs);
+    if (adaptive) {
+      decorators.unshift(decAdaptiveLogical(costs));
+    }
+  }
+
   // TODO: observers and regex optimization
   //   // Enable interrupt checking if there's a non-zero check frequency
   // 	if p.interruptCheckFrequency > 0 {
@@ -269,21 +293,13 @@ export function newProgram(
   // TODO: exhaustive eval
   // Enable exhaustive eval, state tracking and cost tracking last since they
   // require a factory.
-  if (
-    p.evalOpts.includes(EvalOption.ExhaustiveEval) ||
-    p.evalOpts.includes(EvalOption.TrackState) ||
-    p.evalOpts.includes(EvalOption.TrackCost)
-  ) {
-    const factory = (state: EvalState, costTracker: CostTracker) => {
+  if (observed) {
+    const gen = new progGen((state: EvalState, costTracker: CostTracker) => {
       costTracker.estimator = p.callCostEstimator;
       costTracker.limit = p.costLimit;
       for (const costOpt of p.costOptions) {
         costOpt(costTracker);
       }
-      // Limit capacity to guarantee a reallocation when calling 'append(decs, ...)' below. This
-      // prevents the underlying memory from being shared between factory function calls causing
-      // undesired mutations.
-      const decs = decorators.slice(0, decorators.length);
       const observers: EvalObserver[] = [];
 
       if (
@@ -297,66 +313,149 @@ export function newProgram(
       if (p.evalOpts.includes(EvalOption.TrackCost)) {
         observers.push(costObserver(costTracker));
       }
+      return observers;
+    });
 
-      // Enable exhaustive eval over a basic observer since it offers a superset of features.
-      if (p.evalOpts.includes(EvalOption.ExhaustiveEval)) {
-        // TODO: exhaustive eval
-        // decs = append(decs, interpreter.ExhaustiveEval(), interpreter.Observe(observers...))
-      } else if (observers.length > 0) {
-        decs.push(observe(...observers));
-      }
-
-      return p.clone().initInterpretable(a, decs);
-    };
-    return new progGen(factory);
+    // The plan is shared by every evaluation. Its observers forward to the
+    // observers of the evaluation in progress, so the expression does not
+    // need to be planned again for each call.
+    const decs = [...decorators];
+    // Enable exhaustive eval over a basic observer since it offers a superset of features.
+    if (p.evalOpts.includes(EvalOption.ExhaustiveEval)) {
+      // TODO: exhaustive eval
+      // decs = append(decs, interpreter.ExhaustiveEval(), interpreter.Observe(observers...))
+    } else if (p.evalOpts.includes(EvalOption.TrackCost)) {
+      decs.push(
+        observe((id, programStep, value) =>
+          gen.observe(id, programStep, value)
+        )
+      );
+    }
+    const planned = p.initInterpretable(a, decs);
+    if (planned instanceof Error) {
+      return planned;
+    }
+    gen.prog = planned;
+    return gen;
   }
   return p.initInterpretable(a, decorators);
 }
 
-// progFactory is a helper alias for marking a program creation factory function.
-type progFactory = (state: EvalState, tracker: CostTracker) => prog | Error;
+/**
+ * newInterpreter creates an interpreter for the function bindings of the
+ * environment, which are added to the dispatcher. When `memoize` is set,
+ * repeated subexpressions are evaluated once per evaluation. When
+ * `variables` is given, references to declared variables load them from
+ * their slots.
+ */
+export function newInterpreter(
+  e: Env,
+  disp: Dispatcher = new DefaultDispatcher(),
+  compiler: ExprCompiler | null = null,
+  memoize = false,
+  variables: VariableSlots | null = null
+): Interpreter | Error {
+  // Add the function bindings created via Function() options.
+  for (const fn of e.functions.values()) {
+    const bindings = fn.bindings();
+    const err = disp.add(...bindings);
+    if (err instanceof Error) {
+      return err;
+    }
+  }
+
+  // Set the attribute factory after the options have been set.
+  // TODO: partial eval
+  // if p.evalOpts&OptPartialEval == OptPartialEval {
+  // 	attrFactory = interpreter.NewPartialAttributeFactory(e.Container, e.adapter, e.provider, attrFactorOpts...)
+  // } else {
+  // 	attrFactory = interpreter.NewAttributeFactory(e.Container, e.adapter, e.provider, attrFactorOpts...)
+  // }
+  const attrFactory: AttributeFactory = new AttrFactory(
+    e.container,
+    e.adapter,
+    e.provider,
+    enableErrorOnBadPresenceTest(
+      e.hasFeature(Feature.EnableErrorOnBadPresenceTest)
+    )
+  );
+  return new ExprInterpreter(
+    disp,
+    e.container,
+    e.provider,
+    e.adapter,
+    attrFactory,
+    compiler,
+    memoize,
+    variables,
+    e.functions
+  );
+}
 
 /**
- * progGen holds a reference to a progFactory instance and implements the
- * Program interface.
+ * observerFactory creates the observers for a single evaluation, which record
+ * into the evaluation's state and cost tracker.
+ */
+type observerFactory = (
+  state: EvalState,
+  tracker: CostTracker
+) => EvalObserver[];
+
+/**
+ * progGen implements the Program interface for programs which track state or
+ * cost. Each call to eval gets its own EvalState and CostTracker, while the
+ * planned program is shared between calls.
  */
 class progGen implements Program {
-  factory: progFactory;
+  prog: prog | null = null;
+  #factory: observerFactory;
+  #observers: EvalObserver[] = [];
 
-  constructor(factory: progFactory) {
-    // Test the factory to make sure that configuration errors are spotted at config
-    const tracker = new CostTracker(null);
-    const maybeErr = factory(new EvalState(), tracker);
-    if (maybeErr instanceof Error) {
-      throw maybeErr;
+  constructor(factory: observerFactory) {
+    this.#factory = factory;
+  }
+
+  /**
+   * Observe forwards an observed value to the observers of the evaluation in
+   * progress.
+   */
+  observe(id: bigint, programStep: any, value: RefVal) {
+    for (const observer of this.#observers) {
+      observer(id, programStep, value);
     }
-    this.factory = factory;
   }
 
   eval(
     input: Activation | Record<string, any> | Map<string, any>
   ): [RefVal | null, EvalDetails | null, Error | null] {
-    // The factory based Eval() differs from the standard evaluation model in
-    // that it generates a new EvalState instance for each call to ensure that
-    // unique evaluations yield unique stateful results.
+    // Unlike the standard evaluation model, every evaluation records into a
+    // new EvalState and CostTracker so that unique evaluations yield unique
+    // stateful results.
     const state = new EvalState();
     const costTracker = new CostTracker(null);
 
     const det = new EvalDetails(state, costTracker);
-
-    // Generate a new instance of the interpretable using the factory
-    // configured during the call to newProgram(). It is incredibly unlikely
-    // that the factory call will generate an error given the factory test
-    // performed within the Program() call.
-    const p = this.factory(state, costTracker);
-    if (p instanceof Error) {
-      return [null, det, p];
+    if (isNil(this.prog)) {
+      return [null, det, new Error('program not initialized')];
     }
 
-    // Evaluate the input, returning the result and the 'state' within
-    // EvalDetails.
-    const [v, _, err] = p.eval(input);
-    return [v, det, err];
+    // Observers are restored afterwards in case the program is evaluated
+    // again from within one of its own function calls.
+    const outer = this.#observers;
+    this.#observers = this.#factory(state, costTracker);
+    try {
+      // Evaluate the input, returning the result and the 'state' within
+      // EvalDetails.
+      const [v, _, err] = this.prog.eval(input);
+      return [v, det, err];
+    } catch (e) {
+      if (e instanceof EvalCancelledError) {
+        return [null, det, e];
+      }
+      throw e;
+    } finally {
+      this.#observers = outer;
+    }
   }
 }
 
@@ -481,6 +481,10 @@ export class Coster {
    */
   presenceTestCost: CostEstimate = new CostEstimate(BigInt(1), BigInt(1));
   #cachedCost?: CostEstimate;
+  /**
+   * exprCosts tracks the cost estimate of every subexpression.
+   */
+  #exprCosts: Map<bigint, CostEstimate> = new Map();
 
   constructor(
     checked: AST,
@@ -502,6 +506,15 @@ export class Coster {
     return this.#cachedCost;
   }
 
+  /**
+   * ExprCosts returns the cost estimates of the subexpressions by expression
+   * id.
+   */
+  exprCosts(): Map<bigint, CostEstimate> {
+    this.cost();
+    return this.#exprCosts;
+  }
+
   #costExpr(e: Expr): CostEstimate {
     let cost: CostEstimate;
     switch (e.exprKind.case) {
@@ -536,6 +549,7 @@ export class Coster {
       default:
         return new CostEstimate(BigInt(0), BigInt(0));
     }
+    this.#exprCosts.set(e.id, cost);
     return cost;
   }
 
@@ -925,10 +939,11 @@ export class Coster {
         break;
       case LOGICAL_OR_OVERLOAD:
       case LOGICAL_AND_OVERLOAD:
-        const lhs = argCosts[0];
-        const rhs = argCosts[1];
         // min cost is min of LHS for short circuited && or ||
-        const argCost = new CostEstimate(lhs.min, lhs.add(rhs).max);
+        const argCost = new CostEstimate(
+          argCosts[0].min,
+          argCosts.reduce((sum, c) => sum.add(c)).max
+        );
         return new CallEstimate(argCost);
       case CONDITIONAL_OVERLOAD:
         const size = this.#sizeEstimate(args[1]).union(
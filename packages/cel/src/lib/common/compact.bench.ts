@@ -0,0 +1,77 @@
+import { setFlagsFromString } from 'v8';
+import { runInNewContext } from 'vm';
+import { conformanceExpressions } from '../conformance/corpus';
+import { AllMacros } from '../parser/macro';
+import {
+  enableIdentEscapeSyntax,
+  enableOptionalSyntax,
+  macros,
+  Parser,
+  populateMacroCalls,
+} from '../parser/parser';
+import { AST } from './ast';
+import { CompactAST } from './compact';
+import { TextSource } from './source';
+
+const parser = new Parser(
+  macros(...AllMacros),
+  enableOptionalSyntax(true),
+  enableIdentEscapeSyntax(true),
+  populateMacroCalls(true)
+);
+
+const asts: AST[] = [];
+for (const exprs of conformanceExpressions().values()) {
+  for (const expr of exprs) {
+    const ast = parser.parse(new TextSource(expr));
+    if (parser.errors.length() === 0) {
+      asts.push(ast);
+    }
+  }
+}
+const compacts = asts.map((ast) => CompactAST.fromAST(ast));
+
+setFlagsFromString('--expose_gc');
+const gc = runInNewContext('gc') as () => void;
+
+/**
+ * retainedHeap returns the number of heap bytes retained by the values built
+ * from each AST, measured after a full collection.
+ */
+function retainedHeap<T>(build: (ast: AST) => T) {
+  gc();
+  const before = process.memoryUsage().heapUsed;
+  const retained = asts.map(build);
+  gc();
+  const after = process.memoryUsage().heapUsed;
+  // Reading the array keeps the values reachable until after the second
+  // measurement.
+  return retained.length > 0 ? after - before : 0;
+}
+
+// Each AST is rebuilt from its compact form so that both measurements only
+// count freshly allocated nodes and share the same sources.
+const astHeap = retainedHeap((ast) => CompactAST.fromAST(ast).toAST());
+const compactHeap = retainedHeap((ast) => CompactAST.fromAST(ast));
+console.table({
+  expressions: { AST: asts.length, CompactAST: asts.length },
+  'heap bytes': { AST: astHeap, CompactAST: compactHeap },
+  'heap bytes per expression': {
+    AST: Math.round(astHeap / asts.length),
+    CompactAST: Math.round(compactHeap / asts.length),
+  },
+});
+
+describe('conformance corpus', () => {
+  bench('CompactAST.fromAST', () => {
+    for (const ast of asts) {
+      CompactAST.fromAST(ast);
+    }
+  });
+
+  bench('CompactAST.toAST', () => {
+    for (const compact of compacts) {
+      compact.toAST();
+    }
+  });
+});
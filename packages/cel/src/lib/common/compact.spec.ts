@@ -0,0 +1,133 @@
+import { conformanceExpressions } from '../conformance/corpus';
+import { AccumulatorName, AllMacros } from '../parser/macro';
+import {
+  enableIdentEscapeSyntax,
+  enableOptionalSyntax,
+  macros,
+  Parser,
+  populateMacroCalls,
+} from '../parser/parser';
+import { OffsetRange } from './ast';
+import { CompactAST, CompactKind } from './compact';
+import { TextSource } from './source';
+
+const parser = new Parser(
+  macros(...AllMacros),
+  enableOptionalSyntax(true),
+  enableIdentEscapeSyntax(true),
+  populateMacroCalls(true)
+);
+
+function parse(expr: string) {
+  const ast = parser.parse(new TextSource(expr));
+  expect(parser.errors.length(), expr).toEqual(0);
+  return ast;
+}
+
+function expectRoundTrip(expr: string) {
+  const ast = parse(expr);
+  const restored = CompactAST.fromAST(ast).toAST();
+  expect(restored.expr(), expr).toEqual(ast.expr());
+  const info = ast.sourceInfo();
+  const restoredInfo = restored.sourceInfo();
+  expect(restoredInfo.macroCalls(), expr).toEqual(info.macroCalls());
+  for (const [id, range] of restoredInfo.offsetRanges()) {
+    expect(info.getOffsetRange(id), expr).toEqual(range);
+  }
+}
+
+describe('CompactAST', () => {
+  const expressions = [
+    'a',
+    'a.b.c',
+    'has(a.b)',
+    'a.b(c, d)',
+    'f(1, 2u, 3.5, -0.0, 0.0, "s", b"b", true, null)',
+    '[1, ?a, 1, ?b.c]',
+    '{"a": 1, ?"b": x}',
+    'google.expr.Message{name: "a", ?value: b}',
+    'Message{}',
+    '{}',
+    'a ? b : c',
+    'items.filter(i, i > 1).map(i, i * 2)',
+    '[1, 2].exists(x, [3].all(y, x < y))',
+    'a.`b-c`',
+  ];
+  for (const expr of expressions) {
+    it(`should round trip ${expr}`, () => {
+      expectRoundTrip(expr);
+    });
+  }
+
+  for (const [file, exprs] of conformanceExpressions()) {
+    it(`should round trip the ${file} conformance expressions`, () => {
+      for (const expr of exprs) {
+        const ast = parser.parse(new TextSource(expr));
+        if (parser.errors.length() > 0) {
+          continue;
+        }
+        const restored = CompactAST.fromAST(ast).toAST();
+        expect(restored.expr(), expr).toEqual(ast.expr());
+        expect(restored.sourceInfo().macroCalls(), expr).toEqual(
+          ast.sourceInfo().macroCalls()
+        );
+      }
+    });
+  }
+
+  it('should navigate the encoded nodes', () => {
+    const ast = parse('a.b(1, x.y) + [1, ?z]');
+    const compact = CompactAST.fromAST(ast);
+    const root = compact.root();
+    expect(compact.kind(root)).toEqual(CompactKind.CALL);
+    expect(compact.name(root)).toEqual('_+_');
+    expect(compact.hasReceiver(root)).toBeFalsy();
+    expect(compact.childCount(root)).toEqual(2);
+
+    const call = compact.child(root, 0);
+    expect(compact.kind(call)).toEqual(CompactKind.CALL);
+    expect(compact.name(call)).toEqual('b');
+    expect(compact.hasReceiver(call)).toBeTruthy();
+    expect(compact.childCount(call)).toEqual(3);
+    const target = compact.child(call, 0);
+    expect(compact.kind(target)).toEqual(CompactKind.IDENT);
+    expect(compact.name(target)).toEqual('a');
+    expect(compact.offsetRange(target)).toEqual(new OffsetRange(0, 1));
+    const one = compact.child(call, 1);
+    expect(compact.constant(one)?.constantKind).toEqual({
+      case: 'int64Value',
+      value: BigInt(1),
+    });
+    const select = compact.child(call, 2);
+    expect(compact.kind(select)).toEqual(CompactKind.SELECT);
+    expect(compact.name(select)).toEqual('y');
+    expect(compact.isTestOnly(select)).toBeFalsy();
+
+    const list = compact.child(root, 1);
+    expect(compact.kind(list)).toEqual(CompactKind.LIST);
+    expect(compact.isOptional(compact.child(list, 0))).toBeFalsy();
+    expect(compact.isOptional(compact.child(list, 1))).toBeTruthy();
+    // Equal literals share a constant pool entry.
+    expect(compact.constant(compact.child(list, 0))).toBe(
+      compact.constant(one)
+    );
+    expect(() => compact.child(list, 2)).toThrow(RangeError);
+  });
+
+  it('should encode comprehensions and macro calls', () => {
+    const ast = parse('[1].exists(x, x > 0)');
+    const compact = CompactAST.fromAST(ast);
+    const root = compact.root();
+    expect(compact.kind(root)).toEqual(CompactKind.COMPREHENSION);
+    expect(compact.iterVar(root)).toEqual('x');
+    expect(compact.iterVar2(root)).toEqual('');
+    expect(compact.accuVar(root)).toEqual(AccumulatorName);
+    expect(compact.childCount(root)).toEqual(5);
+    const calls = compact.macroCalls();
+    expect(calls.length).toEqual(1);
+    const [id, node] = calls[0];
+    expect(id).toEqual(compact.id(root));
+    expect(compact.kind(node)).toEqual(CompactKind.CALL);
+    expect(compact.name(node)).toEqual('exists');
+  });
+});
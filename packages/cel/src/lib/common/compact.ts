@@ -0,0 +1,677 @@
+import { create } from '@bufbuild/protobuf';
+import {
+  Constant,
+  ConstantSchema,
+  Expr,
+  Expr_CreateStruct_EntrySchema,
+  ExprSchema,
+} from '../protogen/cel/expr/syntax_pb.js';
+import { AST, newSourceInfo, OffsetRange, SourceInfo } from './ast';
+import { Source } from './source';
+import { SymbolTable } from './symbols';
+
+export enum CompactKind {
+  /**
+   * An expression with no kind set, e.g. the id-only placeholders recorded in
+   * macro calls.
+   */
+  UNSPECIFIED,
+  /**
+   * A literal. The value is stored in the constant pool.
+   */
+  CONSTANT,
+  /**
+   * An identifier. The name is stored in the string pool.
+   */
+  IDENT,
+  /**
+   * A field selection or presence test. The field name is stored in the
+   * string pool and the single child is the operand.
+   */
+  SELECT,
+  /**
+   * A function call. The function name is stored in the string pool. When the
+   * call has a receiver it is the first child, followed by the arguments.
+   */
+  CALL,
+  /**
+   * A list literal. The children are the elements.
+   */
+  LIST,
+  /**
+   * A map or message literal. The message name (empty for maps) is stored in
+   * the string pool and the children are MAP_ENTRY or FIELD_ENTRY nodes.
+   */
+  STRUCT,
+  /**
+   * A comprehension. The children are the iteration range, accumulator
+   * initializer, loop condition, loop step and result, in that order.
+   */
+  COMPREHENSION,
+  /**
+   * A map literal entry. The children are the key and the value.
+   */
+  MAP_ENTRY,
+  /**
+   * A message literal field. The field name is stored in the string pool and
+   * the single child is the value.
+   */
+  FIELD_ENTRY,
+}
+
+const TEST_ONLY = 1;
+const RECEIVER = 2;
+const OPTIONAL = 4;
+const HAS_RANGE = 8;
+
+const MAX_ID = 0x7fffffff;
+
+/**
+ * CompactAST is a read-only, struct-of-arrays encoding of a parsed AST.
+ *
+ * Each expression node (including map and message entries) is a row in a set
+ * of parallel typed arrays holding its kind, flags, id, payload and source
+ * offsets. Children are stored as runs of node indexes in a shared edge
+ * array, literals are stored once in a constant pool and names once in a
+ * string pool. Nodes are numbered in pre-order, so the root of the expression
+ * is always node 0. A missing child (e.g. a select without an operand) is
+ * stored as -1.
+ *
+ * Macro call expressions are encoded as additional roots in the same arrays.
+ * Offset ranges are kept for every node in the expression and in the macro
+ * calls; ranges recorded for ids which appear in neither are dropped.
+ *
+ * Expression ids must fit in a signed 32-bit integer.
+ */
+export class CompactAST {
+  private _source: Source;
+  private _kinds: Uint8Array;
+  private _flags: Uint8Array;
+  private _ids: Int32Array;
+  private _data: Int32Array;
+  private _firstEdge: Int32Array;
+  private _childCounts: Int32Array;
+  private _starts: Int32Array;
+  private _stops: Int32Array;
+  private _edges: Int32Array;
+  private _aux: Int32Array;
+  private _strings: string[];
+  private _symbols: Int32Array;
+  private _constants: Constant[];
+  private _macroIds: Int32Array;
+  private _macroRoots: Int32Array;
+
+  private constructor(
+    source: Source,
+    builder: CompactBuilder,
+    symbols?: SymbolTable
+  ) {
+    this._source = source;
+    this._kinds = Uint8Array.from(builder.kinds);
+    this._flags = Uint8Array.from(builder.flags);
+    this._ids = Int32Array.from(builder.ids);
+    this._data = Int32Array.from(builder.data);
+    this._firstEdge = Int32Array.from(builder.firstEdge);
+    this._childCounts = Int32Array.from(builder.childCounts);
+    this._starts = Int32Array.from(builder.starts);
+    this._stops = Int32Array.from(builder.stops);
+    this._edges = Int32Array.from(builder.edges);
+    this._aux = Int32Array.from(builder.aux);
+    this._strings = builder.strings;
+    this._symbols =
+      symbols === undefined
+        ? new Int32Array(0)
+        : Int32Array.from(builder.strings, (name) => symbols.intern(name));
+    this._constants = builder.constants;
+    this._macroIds = Int32Array.from(builder.macroIds);
+    this._macroRoots = Int32Array.from(builder.macroRoots);
+  }
+
+  /**
+   * FromAST encodes the expression, offset ranges and macro calls of a parsed
+   * AST. Type and reference information of checked ASTs is not retained.
+   * When a symbol table is given, every name is interned into it and the
+   * symbol ids are available through `symbol`.
+   */
+  static fromAST(ast: AST, symbols?: SymbolTable) {
+    const info = ast.sourceInfo();
+    const builder = new CompactBuilder(info);
+    builder.add(ast.expr());
+    for (const [id, call] of info.macroCalls()) {
+      builder.macroIds.push(checkID(id));
+      builder.macroRoots.push(builder.add(call));
+    }
+    return new CompactAST(info.source(), builder, symbols);
+  }
+
+  /**
+   * Source returns the source the expression was parsed from.
+   */
+  source() {
+    return this._source;
+  }
+
+  /**
+   * Size returns the number of nodes, including macro call nodes.
+   */
+  size() {
+    return this._kinds.length;
+  }
+
+  /**
+   * Root returns the node index of the expression root.
+   */
+  root() {
+    return 0;
+  }
+
+  kind(node: number): CompactKind {
+    return this._kinds[node];
+  }
+
+  id(node: number) {
+    return BigInt(this._ids[node]);
+  }
+
+  childCount(node: number) {
+    return this._childCounts[node];
+  }
+
+  /**
+   * Child returns the node index of the i-th child of the node, or -1 if that
+   * child is not set.
+   */
+  child(node: number, i: number) {
+    if (i < 0 || i >= this._childCounts[node]) {
+      throw new RangeError(`child index out of range: ${i}`);
+    }
+    return this._edges[this._firstEdge[node] + i];
+  }
+
+  /**
+   * Name returns the identifier name, selected field, function name, message
+   * name or field entry name of the node.
+   */
+  name(node: number) {
+    switch (this._kinds[node]) {
+      case CompactKind.IDENT:
+      case CompactKind.SELECT:
+      case CompactKind.CALL:
+      case CompactKind.STRUCT:
+      case CompactKind.FIELD_ENTRY:
+        return this._strings[this._data[node]];
+      default:
+        return '';
+    }
+  }
+
+  /**
+   * Symbol returns the symbol id of the node's name in the table the AST was
+   * encoded with, or -1 if the node has no name or no table was given.
+   */
+  symbol(node: number) {
+    if (this._symbols.length === 0) {
+      return -1;
+    }
+    switch (this._kinds[node]) {
+      case CompactKind.IDENT:
+      case CompactKind.SELECT:
+      case CompactKind.CALL:
+      case CompactKind.STRUCT:
+      case CompactKind.FIELD_ENTRY:
+        return this._symbols[this._data[node]];
+      default:
+        return -1;
+    }
+  }
+
+  /**
+   * Constant returns the literal value of a CONSTANT node.
+   */
+  constant(node: number) {
+    if (this._kinds[node] !== CompactKind.CONSTANT) {
+      return null;
+    }
+    return this._constants[this._data[node]];
+  }
+
+  /**
+   * IterVar returns the iteration variable of a COMPREHENSION node.
+   */
+  iterVar(node: number) {
+    return this._comprehensionVar(node, 0);
+  }
+
+  /**
+   * IterVar2 returns the second iteration variable of a COMPREHENSION node.
+   */
+  iterVar2(node: number) {
+    return this._comprehensionVar(node, 1);
+  }
+
+  /**
+   * AccuVar returns the accumulator variable of a COMPREHENSION node.
+   */
+  accuVar(node: number) {
+    return this._comprehensionVar(node, 2);
+  }
+
+  /**
+   * IsTestOnly reports whether a SELECT node is a presence test.
+   */
+  isTestOnly(node: number) {
+    return (this._flags[node] & TEST_ONLY) !== 0;
+  }
+
+  /**
+   * HasReceiver reports whether the first child of a CALL node is the call
+   * target.
+   */
+  hasReceiver(node: number) {
+    return (this._flags[node] & RECEIVER) !== 0;
+  }
+
+  /**
+   * IsOptional reports whether a list element or struct entry node is
+   * optional.
+   */
+  isOptional(node: number) {
+    return (this._flags[node] & OPTIONAL) !== 0;
+  }
+
+  /**
+   * OffsetRange returns the source range of the node, if one was recorded.
+   */
+  offsetRange(node: number) {
+    if ((this._flags[node] & HAS_RANGE) === 0) {
+      return null;
+    }
+    return new OffsetRange(this._starts[node], this._stops[node]);
+  }
+
+  /**
+   * MacroCalls returns the expression id and node index of every recorded
+   * macro call.
+   */
+  macroCalls() {
+    const calls: [bigint, number][] = [];
+    for (let i = 0; i < this._macroIds.length; i++) {
+      calls.push([BigInt(this._macroIds[i]), this._macroRoots[i]]);
+    }
+    return calls;
+  }
+
+  /**
+   * ToExpr rebuilds the protobuf expression rooted at the node.
+   */
+  toExpr(node = 0): Expr {
+    const id = this.id(node);
+    switch (this._kinds[node]) {
+      case CompactKind.CONSTANT:
+        return create(ExprSchema, {
+          id,
+          exprKind: {
+            case: 'constExpr',
+            value: create(ConstantSchema, {
+              constantKind: this._constants[this._data[node]].constantKind,
+            }),
+          },
+        });
+      case CompactKind.IDENT:
+        return create(ExprSchema, {
+          id,
+          exprKind: { case: 'identExpr', value: { name: this.name(node) } },
+        });
+      case CompactKind.SELECT:
+        return create(ExprSchema, {
+          id,
+          exprKind: {
+            case: 'selectExpr',
+            value: {
+              operand: this._childExpr(node, 0),
+              field: this.name(node),
+              testOnly: this.isTestOnly(node),
+            },
+          },
+        });
+      case CompactKind.CALL: {
+        const receiver = this.hasReceiver(node);
+        const args: Expr[] = [];
+        for (let i = receiver ? 1 : 0; i < this.childCount(node); i++) {
+          args.push(this.toExpr(this.child(node, i)));
+        }
+        return create(ExprSchema, {
+          id,
+          exprKind: {
+            case: 'callExpr',
+            value: {
+              target: receiver ? this._childExpr(node, 0) : undefined,
+              function: this.name(node),
+              args,
+            },
+          },
+        });
+      }
+      case CompactKind.LIST: {
+        const elements: Expr[] = [];
+        const optionalIndices: number[] = [];
+        for (let i = 0; i < this.childCount(node); i++) {
+          const element = this.child(node, i);
+          if (this.isOptional(element)) {
+            optionalIndices.push(i);
+          }
+          elements.push(this.toExpr(element));
+        }
+        return create(ExprSchema, {
+          id,
+          exprKind: { case: 'listExpr', value: { elements, optionalIndices } },
+        });
+      }
+      case CompactKind.STRUCT: {
+        const entries = [];
+        for (let i = 0; i < this.childCount(node); i++) {
+          const entry = this.child(node, i);
+          const field = this._kinds[entry] === CompactKind.FIELD_ENTRY;
+          entries.push(
+            create(Expr_CreateStruct_EntrySchema, {
+              id: this.id(entry),
+              keyKind: field
+                ? { case: 'fieldKey', value: this.name(entry) }
+                : { case: 'mapKey', value: this._childExpr(entry, 0) },
+              value: this._childExpr(entry, field ? 0 : 1),
+              optionalEntry: this.isOptional(entry),
+            })
+          );
+        }
+        return create(ExprSchema, {
+          id,
+          exprKind: {
+            case: 'structExpr',
+            value: { messageName: this.name(node), entries },
+          },
+        });
+      }
+      case CompactKind.COMPREHENSION:
+        return create(ExprSchema, {
+          id,
+          exprKind: {
+            case: 'comprehensionExpr',
+            value: {
+              iterVar: this.iterVar(node),
+              iterVar2: this.iterVar2(node),
+              iterRange: this._childExpr(node, 0),
+              accuVar: this.accuVar(node),
+              accuInit: this._childExpr(node, 1),
+              loopCondition: this._childExpr(node, 2),
+              loopStep: this._childExpr(node, 3),
+              result: this._childExpr(node, 4),
+            },
+          },
+        });
+      default:
+        return create(ExprSchema, { id });
+    }
+  }
+
+  /**
+   * ToSourceInfo rebuilds the source info, including the offset range of
+   * every node and the macro calls. A different source with the same text
+   * (e.g. one with another description) may be given.
+   */
+  toSourceInfo(source = this._source): SourceInfo {
+    const info = newSourceInfo(source);
+    for (let node = 0; node < this._kinds.length; node++) {
+      const range = this.offsetRange(node);
+      if (range !== null) {
+        info.setOffsetRange(this.id(node), range);
+      }
+    }
+    for (const [id, node] of this.macroCalls()) {
+      info.setMacroCall(id, this.toExpr(node));
+    }
+    return info;
+  }
+
+  /**
+   * ToAST expands the compact representation back into an AST.
+   */
+  toAST(source = this._source) {
+    return new AST(this.toExpr(), this.toSourceInfo(source));
+  }
+
+  private _childExpr(node: number, i: number) {
+    const child = this.child(node, i);
+    return child === -1 ? undefined : this.toExpr(child);
+  }
+
+  private _comprehensionVar(node: number, i: number) {
+    if (this._kinds[node] !== CompactKind.COMPREHENSION) {
+      return '';
+    }
+    return this._strings[this._aux[this._data[node] + i]];
+  }
+}
+
+/**
+ * CompactBuilder accumulates the columns of a CompactAST while walking the
+ * protobuf expressions in pre-order.
+ */
+class CompactBuilder {
+  kinds: number[] = [];
+  flags: number[] = [];
+  ids: number[] = [];
+  data: number[] = [];
+  firstEdge: number[] = [];
+  childCounts: number[] = [];
+  starts: number[] = [];
+  stops: number[] = [];
+  edges: number[] = [];
+  aux: number[] = [];
+  strings: string[] = [];
+  constants: Constant[] = [];
+  macroIds: number[] = [];
+  macroRoots: number[] = [];
+
+  private _stringIndexes = new Map<string, number>();
+  private _constantIndexes = new Map<string, number>();
+
+  constructor(private readonly _info: SourceInfo) {}
+
+  /**
+   * Add appends the expression and its descendants and returns the index of
+   * its node.
+   */
+  add(expr: Expr, flags = 0): number {
+    switch (expr.exprKind.case) {
+      case 'constExpr':
+        return this._node(
+          expr.id,
+          CompactKind.CONSTANT,
+          flags,
+          this._constant(expr.exprKind.value),
+          []
+        );
+      case 'identExpr':
+        return this._node(
+          expr.id,
+          CompactKind.IDENT,
+          flags,
+          this._string(expr.exprKind.value.name),
+          []
+        );
+      case 'selectExpr': {
+        const sel = expr.exprKind.value;
+        return this._node(
+          expr.id,
+          CompactKind.SELECT,
+          flags | (sel.testOnly ? TEST_ONLY : 0),
+          this._string(sel.field),
+          [sel.operand]
+        );
+      }
+      case 'callExpr': {
+        const call = expr.exprKind.value;
+        const receiver = call.target !== undefined;
+        return this._node(
+          expr.id,
+          CompactKind.CALL,
+          flags | (receiver ? RECEIVER : 0),
+          this._string(call.function),
+          receiver ? [call.target, ...call.args] : call.args
+        );
+      }
+      case 'listExpr': {
+        const list = expr.exprKind.value;
+        const optionals = new Set(list.optionalIndices);
+        return this._node(
+          expr.id,
+          CompactKind.LIST,
+          flags,
+          -1,
+          list.elements,
+          (i) => (optionals.has(i) ? OPTIONAL : 0)
+        );
+      }
+      case 'structExpr': {
+        const struct = expr.exprKind.value;
+        const node = this._node(
+          expr.id,
+          CompactKind.STRUCT,
+          flags,
+          this._string(struct.messageName),
+          []
+        );
+        const first = this._reserve(node, struct.entries.length);
+        struct.entries.forEach((entry, i) => {
+          const entryFlags = entry.optionalEntry ? OPTIONAL : 0;
+          if (entry.keyKind.case === 'fieldKey') {
+            this.edges[first + i] = this._node(
+              entry.id,
+              CompactKind.FIELD_ENTRY,
+              entryFlags,
+              this._string(entry.keyKind.value),
+              [entry.value]
+            );
+          } else {
+            this.edges[first + i] = this._node(
+              entry.id,
+              CompactKind.MAP_ENTRY,
+              entryFlags,
+              -1,
+              [entry.keyKind.value, entry.value]
+            );
+          }
+        });
+        return node;
+      }
+      case 'comprehensionExpr': {
+        const comp = expr.exprKind.value;
+        const vars = this.aux.length;
+        this.aux.push(
+          this._string(comp.iterVar),
+          this._string(comp.iterVar2),
+          this._string(comp.accuVar)
+        );
+        return this._node(expr.id, CompactKind.COMPREHENSION, flags, vars, [
+          comp.iterRange,
+          comp.accuInit,
+          comp.loopCondition,
+          comp.loopStep,
+          comp.result,
+        ]);
+      }
+      default:
+        return this._node(expr.id, CompactKind.UNSPECIFIED, flags, -1, []);
+    }
+  }
+
+  private _node(
+    id: bigint,
+    kind: CompactKind,
+    flags: number,
+    data: number,
+    children: (Expr | undefined)[],
+    childFlags: (i: number) => number = () => 0
+  ) {
+    const node = this.kinds.length;
+    const range = this._info.getOffsetRange(id);
+    this.kinds.push(kind);
+    this.flags.push(flags | (range !== null ? HAS_RANGE : 0));
+    this.ids.push(checkID(id));
+    this.data.push(data);
+    this.starts.push(range?.start ?? -1);
+    this.stops.push(range?.stop ?? -1);
+    this.firstEdge.push(this.edges.length);
+    this.childCounts.push(0);
+    const first = this._reserve(node, children.length);
+    children.forEach((child, i) => {
+      this.edges[first + i] =
+        child === undefined ? -1 : this.add(child, childFlags(i));
+    });
+    return node;
+  }
+
+  private _reserve(node: number, count: number) {
+    const first = this.edges.length;
+    this.firstEdge[node] = first;
+    this.childCounts[node] = count;
+    for (let i = 0; i < count; i++) {
+      this.edges.push(-1);
+    }
+    return first;
+  }
+
+  private _string(value: string) {
+    let index = this._stringIndexes.get(value);
+    if (index === undefined) {
+      index = this.strings.length;
+      this.strings.push(value);
+      this._stringIndexes.set(value, index);
+    }
+    return index;
+  }
+
+  private _constant(value: Constant) {
+    const key = constantKey(value);
+    if (key !== null) {
+      const index = this._constantIndexes.get(key);
+      if (index !== undefined) {
+        return index;
+      }
+      this._constantIndexes.set(key, this.constants.length);
+    }
+    this.constants.push(value);
+    return this.constants.length - 1;
+  }
+}
+
+/**
+ * ConstantKey returns a key which identifies equal scalar constants, or null
+ * for constants which are not shared (durations and timestamps).
+ */
+function constantKey(value: Constant) {
+  const kind = value.constantKind;
+  switch (kind.case) {
+    case 'nullValue':
+      return 'null';
+    case 'boolValue':
+    case 'int64Value':
+    case 'uint64Value':
+    case 'stringValue':
+      return `${kind.case}:${kind.value}`;
+    case 'doubleValue':
+      // -0 and 0 are distinct literals.
+      return `${kind.case}:${Object.is(kind.value, -0) ? '-0' : kind.value}`;
+    case 'bytesValue':
+      return `${kind.case}:${kind.value.join(',')}`;
+    default:
+      return null;
+  }
+}
+
+function checkID(id: bigint) {
+  if (id < BigInt(0) || id > BigInt(MAX_ID)) {
+    throw new RangeError(`expression id out of range: ${id}`);
+  }
+  return Number(id);
+}
@@ -187,9 +187,7 @@ describe('ConstantsTest', () => {
   });
 
   it('parseString_hexEscapeSequence', () => {
-    // TODO: this doesn't work because of the double escapes. the same test with single escapes works
-    // it somehow ends up with "hx65lx6co" instead of "hello"
-    // testQuotedString('\\x68\\x65\\x6c\\x6c\\x6f', 'hello');
+    testQuotedString('\\x68\\x65\\x6c\\x6c\\x6f', 'hello');
     testQuotedString('\x68\x65\x6c\x6c\x6f', 'hello');
   });
 
@@ -199,9 +197,7 @@ describe('ConstantsTest', () => {
   });
 
   it('parseString_shortUnicodeEscapeSequence', () => {
-    // TODO: this doesn't work because of the double escapes. the same test with single escapes works
-    // it somehow ends up with "hu0065lu006co" instead of "hello"
-    // testQuotedString('\\u0068\\u0065\\u006c\\u006c\\u006f', 'hello');
+    testQuotedString('\\u0068\\u0065\\u006c\\u006c\\u006f', 'hello');
     testQuotedString('\u0068\u0065\u006c\u006c\u006f', 'hello');
   });
 
@@ -210,14 +206,13 @@ describe('ConstantsTest', () => {
     expect(() => parseStringConstant('"\\u009g"')).toThrow(ParseException);
   });
 
-  // TODO: this doesn't work because of the double escapes. the same test with single escapes works
-  // it somehow ends up with "hU00000065lU0000006co" instead of "hello"
-  //   it('parseString_longUnicodeEscapeSequence', () => {
-  //     testQuotedString(
-  //       '\\U00000068\\U00000065\\U0000006c\\U0000006c\\U0000006f',
-  //       'hello'
-  //     );
-  //   });
+  it('parseString_longUnicodeEscapeSequence', () => {
+    testQuotedString(
+      '\\U00000068\\U00000065\\U0000006c\\U0000006c\\U0000006f',
+      'hello'
+    );
+    testQuotedString('\\U0001F600', '\u{1F600}');
+  });
 
   it('parseString_throwsOnInvalidLongUnicodeEscapeSequence', () => {
     expect(() => parseStringConstant('"\\U0000009"')).toThrow(ParseException);
@@ -269,10 +264,9 @@ describe('ConstantsTest', () => {
     expect(() => parseBytesConstant('"\\\\\\"')).toThrow(ParseException);
   });
 
-  // TODO: this doesn't work. I'm guessing it's the same double escape issue
-  //   it('parseBytes_octalEscapeSequence', () => {
-  //     testQuotedBytes('\\150\\145\\154\\154\\157', 'hello');
-  //   });
+  it('parseBytes_octalEscapeSequence', () => {
+    testQuotedBytes('\\150\\145\\154\\154\\157', 'hello');
+  });
 
   it('parseBytes_throwsOnInvalidOctalEscapeSequence', () => {
     expect(() => parseBytesConstant('"\\0"')).toThrow(ParseException);
@@ -280,8 +274,7 @@ describe('ConstantsTest', () => {
   });
 
   it('parseBytes_hexEscapeSequence', () => {
-    // TODO: this doesn't work because of the double escapes. The same test with single escapes works
-    // testQuotedBytes("\\x68\\x65\\x6c\\x6c\\x6f", "hello");
+    testQuotedBytes('\\x68\\x65\\x6c\\x6c\\x6f', 'hello');
     testQuotedBytes('\x68\x65\x6c\x6c\x6f', 'hello');
   });
 
@@ -399,4 +392,28 @@ describe('ConstantsTest', () => {
     testRawBytes("BR'''" + actual + "'''", expected);
     testRawBytes("RB'''" + actual + "'''", expected);
   }
+
+  it('parseBytes_highByteEscapeSequences', () => {
+    const constant = parseBytesConstant('b"\\xff\\377\\x00"');
+    expect(constant.constantKind.value).toEqual(
+      new Uint8Array([0xff, 0xff, 0x00])
+    );
+  });
+
+  it('parseBytes_encodesSurrogatePairsAsOneCodePoint', () => {
+    testQuotedBytes('\u{1F600}a', '\u{1F600}a');
+  });
+
+  it('parseRawString_keepsEscapedCarriageReturns', () => {
+    testRawString('r"a\\\r\nb"', 'a\\\r\nb');
+    testRawString('r"a\r\nb"', 'a\nb');
+    testRawBytes('br"a\\\r\nb"', 'a\\\r\nb');
+  });
+
+  it('parseString_mixesEscapesWithPlainText', () => {
+    testQuotedString(
+      'plain \\u00e9 text\\n\r\nmore \\x41',
+      'plain \u00e9 text\n\nmore A'
+    );
+  });
 });
@@ -1,4 +1,3 @@
-/* eslint-disable @typescript-eslint/no-non-null-assertion */
 import { create } from '@bufbuild/protobuf';
 import { ParseException } from '../exceptions';
 import { ConstantSchema } from '../protogen/cel/expr/syntax_pb.js';
@@ -7,8 +6,9 @@ const DOUBLE_QUOTE = `"`;
 const SINGLE_QUOTE = `'`;
 const TRIPLE_DOUBLE_QUOTE = `"""`;
 const TRIPLE_SINGLE_QUOTE = `'''`;
-const MAX_SCRATCH_CODE_POINTS = 8;
-const MIN_CODE_POINT = 0;
+const BACKSLASH = 0x5c;
+const CR = 0x0d;
+const LF = 0x0a;
 const MAX_CODE_POINT = 0x10ffff;
 const MIN_SURROGATE = 0xd800;
 const MAX_SURROGATE = 0xdfff;
@@ -131,531 +131,376 @@ export function parseDoubleConstant(text: string) {
   });
 }
 
-function nextInts(
-  iterator: IterableIterator<string>,
-  count: number,
-  scratch: number[]
-): boolean {
-  if (count > scratch.length) {
-    throw new ParseException('Count exceeds scratch array length', 0);
-  }
-  let index = 0;
-  let next = iterator.next();
-  while (!next.done && index < count) {
-    scratch[index++] = next.value.codePointAt(0)!;
-    next = iterator.next();
-  }
-  return index === count;
-}
-
-function isOctalDigit(codePoint: number): boolean {
-  return codePoint >= '0'.charCodeAt(0) && codePoint <= '7'.charCodeAt(0);
+/**
+ * LiteralBody describes the part of a string or bytes literal between its
+ * quotes.
+ */
+interface LiteralBody {
+  start: number;
+  end: number;
+  raw: boolean;
+  /**
+   * Whether the body can be used as is, i.e. it has no escape sequences to
+   * decode and no carriage returns to normalize.
+   */
+  verbatim: boolean;
 }
 
-function areOctalDigits(codePoints: number[], count: number): boolean {
-  checkArgument(count <= codePoints.length);
-  for (let index = 0; index < count; index++) {
-    if (!isOctalDigit(codePoints[index])) {
-      return false;
+/**
+ * scanLiteral locates the body of the literal, checking that it is quoted
+ * and that the closing quote is not escaped. It also notes whether the body
+ * needs to be decoded at all, so plain literals are only scanned once.
+ */
+function scanLiteral(text: string, bytes: boolean): LiteralBody {
+  const kind = bytes ? 'Bytes' : 'String';
+  let i = 0;
+  let raw = false;
+  if (bytes) {
+    if (isRawPrefix(text, i)) {
+      raw = true;
+      i++;
     }
-  }
-  return true;
-}
-
-function isHexDigit(codePoint: number): boolean {
-  return (
-    (codePoint >= 'a'.charCodeAt(0) && codePoint <= 'f'.charCodeAt(0)) ||
-    (codePoint >= 'A'.charCodeAt(0) && codePoint <= 'F'.charCodeAt(0)) ||
-    (codePoint >= '0'.charCodeAt(0) && codePoint <= '9'.charCodeAt(0))
-  );
-}
-
-function areHexDigits(codePoints: number[], count: number): boolean {
-  checkArgument(count <= codePoints.length);
-  for (let index = 0; index < count; index++) {
-    if (!isHexDigit(codePoints[index])) {
-      return false;
+    if (!isBytesPrefix(text, i)) {
+      throw new ParseException(
+        "Bytes literal is missing leading 'b' or 'B' prefix",
+        0
+      );
     }
+    i++;
   }
-  return true;
-}
-
-function isDigit(codePoint: number): boolean {
-  return codePoint >= '0'.charCodeAt(0) && codePoint <= '9'.charCodeAt(0);
-}
-
-function toLowerCase(codePoint: number): number {
-  return codePoint >= 'A'.charCodeAt(0) && codePoint <= 'Z'.charCodeAt(0)
-    ? codePoint - 'A'.charCodeAt(0) + 'a'.charCodeAt(0)
-    : codePoint;
-}
-
-function checkArgument(condition: boolean): void {
-  if (!condition) {
-    throw new ParseException('Invalid argument', 0);
+  if (!raw && isRawPrefix(text, i)) {
+    raw = true;
+    i++;
   }
-}
 
-function checkForClosingQuote(text: string, quote: string): void {
-  if (quote.length === 0) {
-    return;
+  let quote: string;
+  if (text.startsWith(TRIPLE_DOUBLE_QUOTE, i)) {
+    quote = TRIPLE_DOUBLE_QUOTE;
+  } else if (text.startsWith(TRIPLE_SINGLE_QUOTE, i)) {
+    quote = TRIPLE_SINGLE_QUOTE;
+  } else if (text.startsWith(DOUBLE_QUOTE, i)) {
+    quote = DOUBLE_QUOTE;
+  } else if (text.startsWith(SINGLE_QUOTE, i)) {
+    quote = SINGLE_QUOTE;
+  } else {
+    throw new ParseException(
+      `${kind} literal is missing surrounding single or double quotes`,
+      0
+    );
   }
-  if (text.length < quote.length) {
+  const start = i + quote.length;
+  if (text.length - start < quote.length) {
     throw new ParseException(
       `String literal missing terminating quote ${quote}`,
       0
     );
   }
-  let position = 0;
-  let isClosed = false;
+
+  const quoteChar = quote.charCodeAt(0);
+  let verbatim = true;
+  let closed = false;
+  let position = start;
   while (position + quote.length <= text.length) {
-    const codeUnit = text.charAt(position);
-    if (codeUnit !== '\\') {
-      if (text.substring(position).startsWith(quote)) {
-        isClosed = position + quote.length === text.length;
-        break;
-      }
-    } else {
-      position++;
+    const c = text.charCodeAt(position);
+    if (c === BACKSLASH) {
+      // Raw literals keep their escape sequences as they are.
+      verbatim = verbatim && raw;
+      position += 2;
+      continue;
+    }
+    if (c === CR) {
+      verbatim = false;
+    } else if (c === quoteChar && text.startsWith(quote, position)) {
+      closed = position + quote.length === text.length;
+      break;
     }
     position++;
   }
-  if (!isClosed) {
+  if (!closed) {
     throw new ParseException(
       `String literal contains unescaped terminating quote ${quote}`,
-      position
+      position - start
     );
   }
+  return { start, end: text.length - quote.length, raw, verbatim };
 }
 
-function unhex(value: number, nextValue: number): number {
-  if (isDigit(nextValue)) {
-    return value * 16 + (nextValue - '0'.charCodeAt(0));
-  } else {
-    return value * 16 + (toLowerCase(nextValue) - 'a'.charCodeAt(0) + 10);
-  }
+function isRawPrefix(text: string, i: number) {
+  const c = text.charCodeAt(i);
+  return c === 0x72 /* r */ || c === 0x52 /* R */;
 }
 
-function unhexFromArray(codePoints: number[], length: number): number {
-  let value = 0;
-
-  for (let index = 0; index < length; index++) {
-    value = unhex(value, codePoints[index]);
-  }
-
-  return value;
+function isBytesPrefix(text: string, i: number) {
+  const c = text.charCodeAt(i);
+  return c === 0x62 /* b */ || c === 0x42 /* B */;
 }
 
-// function unhex(value: number | number[], nextValue?: number): number {
-//   if (Array.isArray(value)) {
-//     let result = 0;
-//     for (let index = 0; index < value.length; index++) {
-//       result = unhex(result, value[index]);
-//     }
-//     return result;
-//   } else {
-//     if (isDigit(nextValue!)) {
-//       return value * 16 + (nextValue! - '0'.charCodeAt(0));
-//     } else {
-//       return (
-//         value * 16 +
-//         (nextValue!.toString().toLowerCase().charCodeAt(0) -
-//           'a'.charCodeAt(0) +
-//           10)
-//       );
-//     }
-//   }
-// }
-
-export class ByteString {
-  private readonly data: Uint8Array;
-
-  private constructor(data: Uint8Array) {
-    this.data = data;
-  }
-
-  static copyFrom(bytes: Uint8Array): ByteString {
-    const copiedBytes = new Uint8Array(bytes);
-    return new ByteString(copiedBytes);
-  }
-
-  static newOutput(initialCapacity: number): Output {
-    return new Output(initialCapacity);
-  }
-
-  toUint8Array(): Uint8Array {
-    return new Uint8Array(this.data);
-  }
-
-  toString(encoding: BufferEncoding = 'utf-8'): string {
-    const buffer = Buffer.from(this.data);
-    return buffer.toString(encoding);
-  }
+function isOctalDigit(c: number) {
+  return c >= 0x30 && c <= 0x37;
 }
 
-class Output {
-  private buffer: Uint8Array = new Uint8Array();
-
-  constructor(private initialCapacity: number) {}
-
-  write(value: number): void {
-    const newBuffer = new Uint8Array(this.buffer.length + 1);
-    newBuffer.set(this.buffer);
-    newBuffer[this.buffer.length] = value;
-    this.buffer = newBuffer;
+/**
+ * hexValue returns the value of a hex digit, or -1 if the code unit is not
+ * one.
+ */
+function hexValue(c: number) {
+  if (c >= 0x30 && c <= 0x39) {
+    return c - 0x30;
   }
-
-  toByteString(): ByteString {
-    return ByteString.copyFrom(this.buffer);
+  // Fold to lower case.
+  const lower = c | 0x20;
+  if (lower >= 0x61 && lower <= 0x66) {
+    return lower - 0x61 + 10;
   }
+  return -1;
 }
 
-export class StringBuilder {
-  private value: string;
-
-  constructor(initialValue = '') {
-    this.value = initialValue;
-  }
-
-  append(str: string): void {
-    this.value += str;
-  }
-
-  appendCodePoint(codePoint: number): void {
-    this.value += String.fromCodePoint(codePoint);
-  }
-
-  toString(): string {
-    return this.value;
+/**
+ * escapeLength returns the number of code units in the escape sequence
+ * starting with a backslash followed by `c`.
+ */
+function escapeLength(c: number) {
+  switch (c) {
+    case 0x30: // 0
+    case 0x31: // 1
+    case 0x32: // 2
+    case 0x33: // 3
+    case 0x78: // x
+    case 0x58: // X
+      return 4;
+    case 0x75: // u
+      return 6;
+    case 0x55: // U
+      return 10;
+    default:
+      return 2;
   }
 }
 
-interface DecodeBuffer<T> {
-  appendByte(b: number): void;
-  appendCodePoint(codePoint: number): void;
-  toDecodedValue(): T;
-}
-
-class DecodeByteStringBuffer implements DecodeBuffer<ByteString> {
-  private readonly output: Output;
-
-  constructor(initialCapacity: number) {
-    this.output = ByteString.newOutput(initialCapacity);
-  }
-
-  appendByte(b: number): void {
-    this.output.write(b);
-  }
-
-  appendCodePoint(codePoint: number): void {
-    if (codePoint < MIN_CODE_POINT || codePoint > MAX_CODE_POINT) {
-      throw new ParseException('Invalid code point', 0);
+/**
+ * decodeEscape decodes the escape sequence at `i`, which must be a backslash
+ * followed by at least one code unit of the body. Escapes which denote a
+ * single byte (e.g. `\n` or `\xff`) return the byte value; unicode escapes
+ * return a code point and are rejected in bytes literals.
+ */
+function decodeEscape(
+  text: string,
+  i: number,
+  end: number,
+  bytes: boolean
+): number {
+  const c = text.charCodeAt(i + 1);
+  switch (c) {
+    case 0x61: // a
+      return 7;
+    case 0x62: // b
+      return 8;
+    case 0x66: // f
+      return 12;
+    case 0x6e: // n
+      return 10;
+    case 0x72: // r
+      return 13;
+    case 0x74: // t
+      return 9;
+    case 0x76: // v
+      return 11;
+    case 0x22: // "
+    case 0x27: // '
+    case 0x5c: // \
+    case 0x3f: // ?
+    case 0x60: // `
+      return c;
+    case 0x30:
+    case 0x31:
+    case 0x32:
+    case 0x33: {
+      // There needs to be 2 octal digits.
+      const d1 = i + 2 < end ? text.charCodeAt(i + 2) : -1;
+      const d2 = i + 3 < end ? text.charCodeAt(i + 3) : -1;
+      if (!isOctalDigit(d1) || !isOctalDigit(d2)) {
+        throw new ParseException('Invalid octal escape sequence', i);
+      }
+      return (c - 0x30) * 64 + (d1 - 0x30) * 8 + (d2 - 0x30);
     }
-
-    if (codePoint < 0x80) {
-      this.output.write(codePoint);
-    } else if (codePoint < 0x800) {
-      this.output.write((0xf << 6) | (codePoint >>> 6));
-      this.output.write(0x80 | (0x3f & codePoint));
-    } else if (codePoint < 0x10000) {
-      this.output.write((0xf << 5) | (codePoint >>> 12));
-      this.output.write(0x80 | (0x3f & (codePoint >>> 6)));
-      this.output.write(0x80 | (0x3f & codePoint));
-    } else {
-      this.output.write((0xf << 4) | (codePoint >>> 18));
-      this.output.write(0x80 | (0x3f & (codePoint >>> 12)));
-      this.output.write(0x80 | (0x3f & (codePoint >>> 6)));
-      this.output.write(0x80 | (0x3f & codePoint));
+    case 0x78:
+    case 0x58: {
+      // There needs to be 2 hex digits.
+      const value = decodeHex(text, i + 2, 2, end);
+      if (value < 0) {
+        throw new ParseException('Invalid hex escape sequence', i);
+      }
+      return value;
     }
-  }
-
-  toDecodedValue(): ByteString {
-    return this.output.toByteString();
+    case 0x75:
+    case 0x55: {
+      if (bytes) {
+        throw new ParseException(
+          'Illegal escape sequence: Unicode escape sequences cannot be used in bytes literal',
+          i
+        );
+      }
+      // There needs to be 4 or 8 hex digits.
+      const value = decodeHex(text, i + 2, c === 0x75 ? 4 : 8, end);
+      if (value < 0) {
+        throw new ParseException('Invalid unicode escape sequence', i);
+      }
+      if (
+        value > MAX_CODE_POINT ||
+        (value >= MIN_SURROGATE && value <= MAX_SURROGATE)
+      ) {
+        throw new ParseException('Invalid unicode code point', i);
+      }
+      return value;
+    }
+    default:
+      throw new ParseException('Illegal escape sequence', i);
   }
 }
 
-class DecodeStringBuffer implements DecodeBuffer<string> {
-  private readonly builder: StringBuilder;
-
-  constructor() {
-    this.builder = new StringBuilder();
-  }
-
-  appendByte(b: number): void {
-    this.builder.appendCodePoint(b & 0xff);
+/**
+ * decodeHex returns the value of `count` hex digits at `i`, or -1 if they are
+ * not all present and valid.
+ */
+function decodeHex(text: string, i: number, count: number, end: number) {
+  if (i + count > end) {
+    return -1;
   }
-
-  appendCodePoint(codePoint: number): void {
-    if (codePoint < MIN_CODE_POINT || codePoint > MAX_CODE_POINT) {
-      throw new ParseException('Invalid code point', 0);
+  let value = 0;
+  for (let k = i; k < i + count; k++) {
+    const digit = hexValue(text.charCodeAt(k));
+    if (digit < 0) {
+      return -1;
     }
-    this.builder.appendCodePoint(codePoint);
-  }
-
-  toDecodedValue(): string {
-    return this.builder.toString();
+    value = value * 16 + digit;
   }
+  return value;
 }
 
-function decodeString<T>(
-  offset: number,
-  text: string,
-  buffer: DecodeBuffer<T>,
-  isRawLiteral: boolean,
-  isBytesLiteral: boolean
-): void {
-  let skipNewline = false;
-  const iterator = text[Symbol.iterator]();
-  let scratchCodePoints: number[] | null = null;
-
-  // eslint-disable-next-line no-constant-condition
-  while (true) {
-    const seqOffset = offset; // Save offset for the start of this sequence.
-    const result = iterator.next();
-
-    if (result.done) {
-      break;
-    }
-
-    const codePoint = result.value;
-    offset++;
+function danglingEscape(raw: boolean, bytes: boolean, offset: number) {
+  return new ParseException(
+    raw
+      ? 'Raw literals cannot end with an odd number of \\'
+      : bytes
+      ? 'Bytes literal cannot end with \\'
+      : 'String literal cannot end with \\',
+    offset
+  );
+}
 
-    if (codePoint !== '\\') {
-      if (codePoint !== '\r') {
-        if (codePoint === '\n' && skipNewline) {
-          skipNewline = false;
-          continue;
-        }
-        skipNewline = false;
-        buffer.appendCodePoint(codePoint.codePointAt(0)!);
-      } else {
-        // Normalize '\r' and '\r\n' to '\n'.
-        buffer.appendCodePoint('\n'.codePointAt(0)!);
-        skipNewline = true;
+/**
+ * decodeStringBody decodes the body of a string literal in a single pass.
+ * Runs of text without escapes or carriage returns are copied as slices of
+ * the source text.
+ */
+function decodeStringBody(text: string, body: LiteralBody) {
+  const { start, end, raw } = body;
+  let out = '';
+  let run = start;
+  let i = start;
+  while (i < end) {
+    const c = text.charCodeAt(i);
+    if (c === CR) {
+      // Normalize '\r' and '\r\n' to '\n'.
+      out += text.substring(run, i) + '\n';
+      i += i + 1 < end && text.charCodeAt(i + 1) === LF ? 2 : 1;
+      run = i;
+    } else if (c === BACKSLASH) {
+      if (i + 1 >= end) {
+        throw danglingEscape(raw, false, i);
+      }
+      if (raw) {
+        // For raw literals, all escapes are valid and those characters come
+        // through literally in the string.
+        i += 2;
+        continue;
       }
+      out += text.substring(run, i);
+      out += String.fromCodePoint(decodeEscape(text, i, end, false));
+      i += escapeLength(text.charCodeAt(i + 1));
+      run = i;
     } else {
-      // An escape sequence.
-      skipNewline = false;
+      i++;
+    }
+  }
+  return out + text.substring(run, end);
+}
 
-      const nextResult = iterator.next();
-      if (nextResult.done) {
-        throw new ParseException(
-          isRawLiteral
-            ? 'Raw literals cannot end with an odd number of \\'
-            : isBytesLiteral
-            ? 'Bytes literal cannot end with \\'
-            : 'String literal cannot end with \\',
-          seqOffset
-        );
+/**
+ * decodeBytesBody decodes the body of a bytes literal straight into a byte
+ * array. Text is encoded as UTF-8 and escape sequences denote single bytes.
+ */
+function decodeBytesBody(text: string, body: LiteralBody) {
+  const { start, end, raw } = body;
+  // Every code unit encodes to at most 3 bytes.
+  const out = new Uint8Array((end - start) * 3);
+  let n = 0;
+  let i = start;
+  while (i < end) {
+    let c = text.charCodeAt(i);
+    if (c === CR) {
+      out[n++] = LF;
+      i += i + 1 < end && text.charCodeAt(i + 1) === LF ? 2 : 1;
+      continue;
+    }
+    if (c === BACKSLASH) {
+      if (i + 1 >= end) {
+        throw danglingEscape(raw, true, i);
       }
-
-      const nextCodePoint = nextResult.value;
-      offset++;
-
-      if (isRawLiteral) {
-        // For raw literals, all escapes are valid and those characters come through literally in the string.
-        buffer.appendCodePoint('\\'.codePointAt(0)!);
-        buffer.appendCodePoint(nextCodePoint.codePointAt(0)!);
+      if (!raw) {
+        out[n++] = decodeEscape(text, i, end, true);
+        i += escapeLength(text.charCodeAt(i + 1));
         continue;
       }
-
-      switch (nextCodePoint) {
-        case 'a':
-          buffer.appendByte(7);
-          break;
-        case 'b':
-          buffer.appendByte('\b'.codePointAt(0)!);
-          break;
-        case 'f':
-          buffer.appendByte('\f'.codePointAt(0)!);
-          break;
-        case 'n':
-          buffer.appendByte('\n'.codePointAt(0)!);
-          break;
-        case 'r':
-          buffer.appendByte('\r'.codePointAt(0)!);
-          break;
-        case 't':
-          buffer.appendByte('\t'.codePointAt(0)!);
-          break;
-        case 'v':
-          buffer.appendByte(11);
-          break;
-        case '"':
-          buffer.appendByte('"'.codePointAt(0)!);
-          break;
-        case "'":
-          buffer.appendByte("'".codePointAt(0)!);
-          break;
-        case '\\':
-          buffer.appendByte('\\'.codePointAt(0)!);
-          break;
-        case '?':
-          buffer.appendByte('?'.codePointAt(0)!);
-          break;
-        case '`':
-          buffer.appendByte('`'.codePointAt(0)!);
-          break;
-        case '0':
-        case '1':
-        case '2':
-        case '3':
-          {
-            if (scratchCodePoints === null) {
-              scratchCodePoints = new Array(MAX_SCRATCH_CODE_POINTS);
-            }
-            // There needs to be 2 octal digits.
-            if (
-              !nextInts(iterator, 2, scratchCodePoints) ||
-              !areOctalDigits(scratchCodePoints, 2)
-            ) {
-              throw new ParseException(
-                'Invalid octal escape sequence',
-                seqOffset
-              );
-            }
-            let octalValue =
-              nextCodePoint.codePointAt(0)! - '0'.codePointAt(0)!;
-            octalValue =
-              octalValue * 8 + (scratchCodePoints[0] - '0'.codePointAt(0)!);
-            octalValue =
-              octalValue * 8 + (scratchCodePoints[1] - '0'.codePointAt(0)!);
-            buffer.appendByte(octalValue);
-            offset += 2;
-          }
-          break;
-        case 'x':
-        case 'X':
-          {
-            if (scratchCodePoints === null) {
-              scratchCodePoints = new Array(MAX_SCRATCH_CODE_POINTS);
-            }
-            // There needs to be 2 hex digits.
-            if (
-              !nextInts(iterator, 2, scratchCodePoints) ||
-              !areHexDigits(scratchCodePoints, 2)
-            ) {
-              throw new ParseException(
-                'Invalid hex escape sequence',
-                seqOffset
-              );
-            }
-            const value = unhexFromArray(scratchCodePoints, 2);
-            buffer.appendByte(value);
-            offset += 2;
-          }
-          break;
-        case 'u':
-          {
-            if (isBytesLiteral) {
-              throw new ParseException(
-                'Illegal escape sequence: Unicode escape sequences cannot be used in bytes literal',
-                seqOffset
-              );
-            }
-            if (scratchCodePoints === null) {
-              scratchCodePoints = new Array(MAX_SCRATCH_CODE_POINTS);
-            }
-            // There needs to be 4 hex digits.
-            if (
-              !nextInts(iterator, 4, scratchCodePoints) ||
-              !areHexDigits(scratchCodePoints, 4)
-            ) {
-              throw new ParseException(
-                'Invalid unicode escape sequence',
-                seqOffset
-              );
-            }
-            const value = unhexFromArray(scratchCodePoints, 4);
-            if (
-              value < MIN_CODE_POINT ||
-              value > MAX_CODE_POINT ||
-              (value >= MIN_SURROGATE && value <= MAX_SURROGATE)
-            ) {
-              throw new ParseException('Invalid unicode code point', seqOffset);
-            }
-            buffer.appendCodePoint(value);
-            offset += 4;
-          }
-          break;
-        case 'U':
-          {
-            if (isBytesLiteral) {
-              throw new ParseException(
-                'Illegal escape sequence: Unicode escape sequences cannot be used in bytes literal',
-                offset
-              );
-            }
-            if (scratchCodePoints === null) {
-              scratchCodePoints = new Array(MAX_SCRATCH_CODE_POINTS);
-            }
-            // There needs to be 8 hex digits.
-            if (
-              !nextInts(iterator, 8, scratchCodePoints) ||
-              !areHexDigits(scratchCodePoints, 8)
-            ) {
-              throw new ParseException(
-                'Invalid unicode escape sequence',
-                seqOffset
-              );
-            }
-            const value = unhexFromArray(scratchCodePoints, 8);
-            if (
-              value < MIN_CODE_POINT ||
-              value > MAX_CODE_POINT ||
-              (value >= MIN_SURROGATE && value <= MAX_SURROGATE)
-            ) {
-              throw new ParseException('Invalid unicode code point', seqOffset);
-            }
-            buffer.appendCodePoint(value);
-            offset += 8;
-          }
-          break;
-        default:
-          throw new ParseException('Illegal escape sequence', seqOffset);
+      if (text.charCodeAt(i + 1) === CR) {
+        // Raw escapes come through literally, without normalizing newlines.
+        out[n++] = BACKSLASH;
+        out[n++] = CR;
+        i += 2;
+        continue;
       }
     }
+    i++;
+    if (c >= MIN_SURROGATE && c < 0xdc00 && i < end) {
+      const low = text.charCodeAt(i);
+      if (low >= 0xdc00 && low <= MAX_SURROGATE) {
+        c = 0x10000 + ((c - MIN_SURROGATE) << 10) + (low - 0xdc00);
+        i++;
+      }
+    }
+    if (c < 0x80) {
+      out[n++] = c;
+    } else if (c < 0x800) {
+      out[n++] = 0xc0 | (c >>> 6);
+      out[n++] = 0x80 | (c & 0x3f);
+    } else if (c < 0x10000) {
+      out[n++] = 0xe0 | (c >>> 12);
+      out[n++] = 0x80 | ((c >>> 6) & 0x3f);
+      out[n++] = 0x80 | (c & 0x3f);
+    } else {
+      out[n++] = 0xf0 | (c >>> 18);
+      out[n++] = 0x80 | ((c >>> 12) & 0x3f);
+      out[n++] = 0x80 | ((c >>> 6) & 0x3f);
+      out[n++] = 0x80 | (c & 0x3f);
+    }
   }
+  return out.slice(0, n);
 }
 
+/**
+ * Parse a string literal, including raw and triple-quoted forms, to its
+ * value. Literals without escape sequences or carriage returns are returned
+ * as a slice of the text without being decoded.
+ *
+ * @param text the text of the literal, including its prefix and quotes
+ * @returns the value of the literal
+ */
 export function parseString(text: string) {
-  let offset = 0;
-  let isRawLiteral = false;
-
-  if (text.startsWith('r') || text.startsWith('R')) {
-    isRawLiteral = true;
-    text = text.substring(1);
-    offset++;
-  }
-
-  let quote: string;
-  if (text.startsWith(TRIPLE_DOUBLE_QUOTE)) {
-    quote = TRIPLE_DOUBLE_QUOTE;
-    text = text.substring(quote.length);
-  } else if (text.startsWith(TRIPLE_SINGLE_QUOTE)) {
-    quote = TRIPLE_SINGLE_QUOTE;
-    text = text.substring(quote.length);
-  } else if (text.startsWith(DOUBLE_QUOTE)) {
-    quote = DOUBLE_QUOTE;
-    text = text.substring(quote.length);
-  } else if (text.startsWith(SINGLE_QUOTE)) {
-    quote = SINGLE_QUOTE;
-    text = text.substring(quote.length);
-  } else {
-    throw new ParseException(
-      'String literal is missing surrounding single or double quotes',
-      0
-    );
+  const body = scanLiteral(text, false);
+  if (body.verbatim) {
+    return text.substring(body.start, body.end);
   }
-
-  checkForClosingQuote(text, quote);
-  offset += quote.length;
-  text = text.substring(0, text.length - quote.length);
-
-  const buffer = new DecodeStringBuffer();
-  decodeString(offset, text, buffer, isRawLiteral, false);
-
-  return buffer.toDecodedValue();
+  return decodeStringBody(text, body);
 }
 
 export function parseStringConstant(text: string) {
@@ -668,70 +513,15 @@ export function parseStringConstant(text: string) {
   });
 }
 
+/**
+ * Parse a bytes literal, including raw and triple-quoted forms, to its
+ * value.
+ *
+ * @param text the text of the literal, including its prefix and quotes
+ * @returns the value of the literal
+ */
 export function parseBytes(text: string) {
-  let isRawLiteral = false;
-  let offset = 0;
-
-  if (text.startsWith('r') || text.startsWith('R')) {
-    isRawLiteral = true;
-    text = text.substring(1);
-    offset++;
-
-    if (!text.startsWith('b') && !text.startsWith('B')) {
-      throw new ParseException(
-        "Bytes literal is missing leading 'b' or 'B' prefix",
-        0
-      );
-    }
-
-    text = text.substring(1);
-    offset++;
-  } else {
-    if (!text.startsWith('b') && !text.startsWith('B')) {
-      throw new ParseException(
-        "Bytes literal is missing leading 'b' or 'B' prefix",
-        0
-      );
-    }
-
-    text = text.substring(1);
-    offset++;
-
-    if (text.startsWith('r') || text.startsWith('R')) {
-      isRawLiteral = true;
-      text = text.substring(1);
-      offset++;
-    }
-  }
-
-  let quote: string;
-  if (text.startsWith(TRIPLE_DOUBLE_QUOTE)) {
-    quote = TRIPLE_DOUBLE_QUOTE;
-    text = text.substring(quote.length);
-  } else if (text.startsWith(TRIPLE_SINGLE_QUOTE)) {
-    quote = TRIPLE_SINGLE_QUOTE;
-    text = text.substring(quote.length);
-  } else if (text.startsWith(DOUBLE_QUOTE)) {
-    quote = DOUBLE_QUOTE;
-    text = text.substring(quote.length);
-  } else if (text.startsWith(SINGLE_QUOTE)) {
-    quote = SINGLE_QUOTE;
-    text = text.substring(quote.length);
-  } else {
-    throw new ParseException(
-      'Bytes literal is missing surrounding single or double quotes',
-      0
-    );
-  }
-
-  checkForClosingQuote(text, quote);
-  offset += quote.length;
-  text = text.substring(0, text.length - quote.length);
-
-  const buffer = new DecodeByteStringBuffer(text.length);
-  decodeString(offset, text, buffer, isRawLiteral, true);
-
-  return buffer.toDecodedValue().toUint8Array();
+  return decodeBytesBody(text, scanLiteral(text, true));
 }
 
 export function parseBytesConstant(text: string) {
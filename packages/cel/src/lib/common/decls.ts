@@ -555,6 +555,12 @@ interface OverloadDeclInput {
    * rather than a concrete type.
    */
   operandTraits?: Trait[];
+  /**
+   * pure indicates that the function has no side effects and always returns
+   * the same result for the same arguments, so calls over constants may be
+   * evaluated once when a program is optimized.
+   */
+  pure?: boolean;
 
   // Function implementation options. Optional, but encouraged.
 
@@ -583,6 +589,7 @@ export class OverloadDecl {
   private readonly _isMemberFunction: boolean;
   nonStrict: boolean;
   operandTraits: Trait[];
+  pure: boolean;
   unaryOp?: UnaryOp;
   binaryOp?: BinaryOp;
   functionOp?: FunctionOp;
@@ -594,6 +601,7 @@ export class OverloadDecl {
     this._isMemberFunction = input.isMemberFunction ?? false;
     this.nonStrict = input.nonStrict ?? true;
     this.operandTraits = input.operandTraits ?? [];
+    this.pure = input.pure ?? false;
     this.unaryOp = input.unaryOp;
     this.binaryOp = input.binaryOp;
     this.functionOp = input.functionOp;
@@ -927,6 +935,18 @@ export function overloadIsNonStrict(): OverloadOpt {
   };
 }
 
+/**
+ * OverloadIsPure marks the overload as free of side effects and deterministic,
+ * which allows calls over constants to be folded when a program is optimized.
+ * Standard library overloads are folded without it.
+ */
+export function overloadIsPure(): OverloadOpt {
+  return (o: OverloadDecl) => {
+    o.pure = true;
+    return o;
+  };
+}
+
 /**
  * OverloadOperandTrait configures a set of traits which the first argument to
  * the overload must implement in order to be successfully invoked.
@@ -0,0 +1,90 @@
+import { AllMacros } from '../parser/macro';
+import {
+  enableDirectParsing,
+  enableHandWrittenLexer,
+  enableIdentEscapeSyntax,
+  macros,
+  Parser,
+  ParserOption,
+  symbolTable,
+} from '../parser/parser';
+import { CompactAST, CompactKind } from './compact';
+import { TextSource } from './source';
+import { SymbolTable } from './symbols';
+
+describe('SymbolTable', () => {
+  it('assigns dense ids in the order names are first seen', () => {
+    const symbols = new SymbolTable();
+    expect(symbols.intern('a')).toEqual(0);
+    expect(symbols.intern('b')).toEqual(1);
+    expect(symbols.intern('a')).toEqual(0);
+    expect(symbols.internRange('x.b.y', 2, 3)).toEqual(1);
+    expect(symbols.internRange('x.c.y', 2, 3)).toEqual(2);
+    expect(symbols.size()).toEqual(3);
+    expect(symbols.name(2)).toEqual('c');
+    expect(() => symbols.name(3)).toThrow(RangeError);
+  });
+
+  it('looks up names without interning them', () => {
+    const symbols = new SymbolTable();
+    symbols.intern('abc');
+    expect(symbols.lookup('abc')).toEqual(0);
+    expect(symbols.lookup('ab')).toEqual(-1);
+    expect(symbols.size()).toEqual(1);
+  });
+
+  it('keeps ids stable as the table grows', () => {
+    const symbols = new SymbolTable();
+    for (let i = 0; i < 1000; i++) {
+      expect(symbols.intern(`name${i}`)).toEqual(i);
+    }
+    for (let i = 0; i < 1000; i++) {
+      expect(symbols.lookup(`name${i}`)).toEqual(i);
+      expect(symbols.name(i)).toEqual(`name${i}`);
+    }
+  });
+
+  it('interns the names of parsed expressions', () => {
+    const expr = 'a.b(c) && .d.`e` == f({}) && g.H{i: 1}';
+    const options: ParserOption[][] = [
+      [],
+      [enableHandWrittenLexer(true)],
+      [enableDirectParsing(true)],
+    ];
+    const expected = new Parser(
+      macros(...AllMacros),
+      enableIdentEscapeSyntax(true)
+    ).parse(new TextSource(expr));
+    for (const opts of options) {
+      const symbols = new SymbolTable();
+      const parser = new Parser(
+        macros(...AllMacros),
+        enableIdentEscapeSyntax(true),
+        symbolTable(symbols),
+        ...opts
+      );
+      const ast = parser.parse(new TextSource(expr));
+      expect(parser.errors.length()).toEqual(0);
+      expect(ast.expr()).toEqual(expected.expr());
+      for (const name of ['a', 'b', 'c', '.d', 'e', 'f', 'g.H', 'i']) {
+        expect(symbols.lookup(name), name).toBeGreaterThanOrEqual(0);
+      }
+    }
+  });
+
+  it('carries symbol ids on compact AST nodes', () => {
+    const symbols = new SymbolTable();
+    const parser = new Parser(symbolTable(symbols));
+    const ast = parser.parse(new TextSource('x.y + x'));
+    const compact = CompactAST.fromAST(ast, symbols);
+    const call = compact.root();
+    expect(compact.kind(call)).toEqual(CompactKind.CALL);
+    expect(compact.symbol(call)).toEqual(symbols.lookup('_+_'));
+    const select = compact.child(call, 0);
+    expect(compact.symbol(select)).toEqual(symbols.lookup('y'));
+    const x = symbols.lookup('x');
+    expect(compact.symbol(compact.child(select, 0))).toEqual(x);
+    expect(compact.symbol(compact.child(call, 1))).toEqual(x);
+    expect(CompactAST.fromAST(ast).symbol(call)).toEqual(-1);
+  });
+});
@@ -0,0 +1,130 @@
+const INITIAL_SLOTS = 64;
+const FNV_OFFSET = 0x811c9dc5;
+const FNV_PRIME = 0x01000193;
+
+/**
+ * SymbolTable interns identifier names and assigns each distinct name a
+ * dense integer id, starting at 0 in the order the names were first seen.
+ *
+ * Names can be interned straight from a range of a larger string (e.g. the
+ * source text while it is being scanned), in which case a name which is
+ * already known is resolved without allocating a substring. Every id maps
+ * back to a single canonical string instance, so names produced through the
+ * same table compare and hash as cheaply as the engine allows, and stages
+ * which are given the ids can index arrays by them instead of hashing names.
+ */
+export class SymbolTable {
+  #names: string[] = [];
+  #hashes: number[] = [];
+  // Open addressing table of symbol ids, -1 marks an empty slot.
+  #slots = new Int32Array(INITIAL_SLOTS).fill(-1);
+
+  /**
+   * Intern returns the id of the name, adding it to the table if needed.
+   */
+  intern(name: string) {
+    return this.internRange(name, 0, name.length);
+  }
+
+  /**
+   * InternRange returns the id of the name held in `[start, end)` of the
+   * input, adding it to the table if needed.
+   */
+  internRange(input: string, start: number, end: number) {
+    const hash = hashRange(input, start, end);
+    const slot = this._find(hash, input, start, end);
+    let id = this.#slots[slot];
+    if (id >= 0) {
+      return id;
+    }
+    id = this.#names.length;
+    this.#names.push(
+      start === 0 && end === input.length
+        ? input
+        : input.substring(start, end)
+    );
+    this.#hashes.push(hash);
+    this.#slots[slot] = id;
+    if (this.#names.length * 2 > this.#slots.length) {
+      this._grow();
+    }
+    return id;
+  }
+
+  /**
+   * Lookup returns the id of the name, or -1 if it has not been interned.
+   */
+  lookup(name: string) {
+    const hash = hashRange(name, 0, name.length);
+    return this.#slots[this._find(hash, name, 0, name.length)];
+  }
+
+  /**
+   * Name returns the canonical string for the symbol id.
+   */
+  name(id: number) {
+    if (id < 0 || id >= this.#names.length) {
+      throw new RangeError(`unknown symbol id: ${id}`);
+    }
+    return this.#names[id];
+  }
+
+  /**
+   * Size returns the number of interned names, which is also one more than
+   * the largest id handed out.
+   */
+  size() {
+    return this.#names.length;
+  }
+
+  /**
+   * _find returns the slot which holds the name, or the empty slot where it
+   * would be inserted.
+   */
+  private _find(hash: number, input: string, start: number, end: number) {
+    const slots = this.#slots;
+    const mask = slots.length - 1;
+    const length = end - start;
+    let slot = hash & mask;
+    for (;;) {
+      const id = slots[slot];
+      if (id < 0) {
+        return slot;
+      }
+      const name = this.#names[id];
+      if (
+        this.#hashes[id] === hash &&
+        name.length === length &&
+        input.startsWith(name, start)
+      ) {
+        return slot;
+      }
+      slot = (slot + 1) & mask;
+    }
+  }
+
+  private _grow() {
+    const slots = new Int32Array(this.#slots.length * 2).fill(-1);
+    const mask = slots.length - 1;
+    for (let id = 0; id < this.#names.length; id++) {
+      let slot = this.#hashes[id] & mask;
+      while (slots[slot] >= 0) {
+        slot = (slot + 1) & mask;
+      }
+      slots[slot] = id;
+    }
+    this.#slots = slots;
+  }
+}
+
+/**
+ * hashRange computes the 32-bit FNV-1a hash of the code units in
+ * `[start, end)` of the input.
+ */
+function hashRange(input: string, start: number, end: number) {
+  let hash = FNV_OFFSET;
+  for (let i = start; i < end; i++) {
+    hash = Math.imul(hash ^ input.charCodeAt(i), FNV_PRIME);
+  }
+  return hash >>> 0;
+}
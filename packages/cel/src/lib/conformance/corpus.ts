@@ -0,0 +1,29 @@
+import { readdirSync, readFileSync } from 'fs';
+import { join } from 'path';
+
+const testdataDir = join(__dirname, 'testdata');
+
+/**
+ * ConformanceExpressions collects every expression in the conformance
+ * testdata, keyed by file. It is shared by the specs and benchmarks which use
+ * the conformance suite as a corpus and is not part of the library build.
+ */
+export function conformanceExpressions() {
+  const corpus = new Map<string, string[]>();
+  for (const file of readdirSync(testdataDir)) {
+    if (!file.endsWith('.json')) {
+      continue;
+    }
+    const data = JSON.parse(readFileSync(join(testdataDir, file), 'utf-8'));
+    const exprs: string[] = [];
+    for (const section of data.section ?? []) {
+      for (const test of section.test ?? []) {
+        if (typeof test.expr === 'string') {
+          exprs.push(test.expr);
+        }
+      }
+    }
+    corpus.set(file, exprs);
+  }
+  return corpus;
+}
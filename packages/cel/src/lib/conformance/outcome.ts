@@ -0,0 +1,30 @@
+/* eslint-disable @typescript-eslint/no-explicit-any */
+import { Ast, Env } from '../cel/env';
+import { ProgramOption } from '../cel/options';
+
+/**
+ * ProgramOutcome creates a program for the AST and evaluates it against the
+ * input, returning its result, error or thrown message in a form which specs
+ * can compare between program options. It is not part of the library build.
+ */
+export function programOutcome(
+  env: Env,
+  ast: Ast,
+  input: Record<string, any>,
+  ...opts: ProgramOption[]
+) {
+  const prg = env.program(ast, ...opts);
+  if (prg instanceof Error) {
+    return { error: prg.message };
+  }
+  try {
+    const [val, , err] = prg.eval(input);
+    return {
+      type: val?.type().typeName(),
+      value: val?.value(),
+      error: err?.message,
+    };
+  } catch (e) {
+    return { thrown: (e as Error).message };
+  }
+}
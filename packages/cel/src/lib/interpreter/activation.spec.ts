@@ -1,12 +1,28 @@
 /* eslint-disable @typescript-eslint/no-explicit-any */
 /* eslint-disable @typescript-eslint/no-non-null-assertion */
 import { timestampNow } from '@bufbuild/protobuf/wkt';
+import {
+  IntType,
+  listType,
+  mapType,
+  StringType,
+  variable,
+} from '../cel/decls';
+import { Ast, Env } from '../cel/env';
+import { EvalOption, evalOptions, globals } from '../cel/options';
+import { Program } from '../cel/program';
 import { RefVal } from '../common/ref/reference';
 import { BoolRefVal } from '../common/types/bool';
 import { IntRefVal } from '../common/types/int';
 import { StringRefVal } from '../common/types/string';
 import { TimestampRefVal } from '../common/types/timestamp';
-import { HierarchicalActivation, newActivation } from './activation';
+import {
+  HierarchicalActivation,
+  MapActivation,
+  newActivation,
+  SlotActivation,
+  VariableSlots,
+} from './activation';
 
 describe('Activation', () => {
   it('newActivation', () => {
@@ -87,3 +103,99 @@ describe('Activation', () => {
     );
   });
 });
+
+describe('SlotActivation', () => {
+  const env = new Env(
+    variable('x', IntType),
+    variable('names', listType(StringType)),
+    variable('user', mapType(StringType, StringType))
+  );
+
+  function program(expr: string, ...opts: EvalOption[]) {
+    return env.program(
+      env.compile(expr) as Ast,
+      evalOptions(EvalOption.SlotVariables, ...opts)
+    ) as Program;
+  }
+
+  it('should resolve variables by slot', () => {
+    const slots = new VariableSlots(['a', 'b']);
+    const frame = slots.frame([BoolRefVal.True, () => IntRefVal.IntOne]);
+    expect(slots.index('b')).toEqual(1);
+    expect(frame.resolveName('a')).toStrictEqual(BoolRefVal.True);
+    expect(frame.resolveName('b')).toStrictEqual(IntRefVal.IntOne);
+    expect(frame.values[1]).toStrictEqual(IntRefVal.IntOne);
+    expect(frame.resolveName('c')).toBeNull();
+    expect(frame.load(0)).toStrictEqual(BoolRefVal.True);
+  });
+
+  it('should assign slots to the declared variables', () => {
+    expect(env.variableSlots().names()).toEqual(['x', 'names', 'user']);
+    expect(env.variableSlots()).toBe(env.variableSlots());
+  });
+
+  it('should evaluate programs against frames', () => {
+    const slots = env.variableSlots();
+    const prg = program(
+      "x > 1 && user.name in names && names.all(n, n.size() < x)"
+    );
+    const values = new Array(slots.size());
+    const frame = slots.frame(values);
+    values[slots.index('x')!] = BigInt(6);
+    values[slots.index('names')!] = ['alice', 'bob'];
+    values[slots.index('user')!] = { name: 'bob' };
+    expect(prg.eval(frame)[0]?.value()).toEqual(true);
+    values[slots.index('x')!] = BigInt(5);
+    expect(prg.eval(frame)[0]?.value()).toEqual(false);
+  });
+
+  it('should resolve comprehension variables which shadow slots', () => {
+    const slots = env.variableSlots();
+    const prg = program('[1, 2, 3].map(x, x * 10).exists(y, y == x)');
+    const frame = slots.frame([BigInt(20), [], {}]);
+    expect(prg.eval(frame)[0]?.value()).toEqual(true);
+    expect(
+      program('[1, 2].exists(x, [3].exists(n, x + n == 5))').eval(frame)[0]
+        ?.value()
+    ).toEqual(true);
+  });
+
+  it('should accept other activations', () => {
+    const prg = program('x + size(names)', EvalOption.Optimize);
+    expect(prg.eval({ x: BigInt(1), names: ['a'] })[0]?.value()).toEqual(
+      BigInt(2)
+    );
+    const frame = env.variableSlots().frame([BigInt(1), ['a', 'b']]);
+    expect(prg.eval(frame)[0]?.value()).toEqual(BigInt(3));
+  });
+
+  it('should fall back to the globals for unset slots', () => {
+    const prg = env.program(
+      env.compile('x + 1') as Ast,
+      evalOptions(EvalOption.SlotVariables),
+      globals({ x: BigInt(41) })
+    ) as Program;
+    const frame = env.variableSlots().frame();
+    expect(prg.eval(frame)[0]?.value()).toEqual(BigInt(42));
+    const [, , err] = program('x + 1').eval(frame);
+    expect(err?.message).toContain('no such attribute');
+    // Frames of other slots are resolved by name.
+    const other = new SlotActivation(new VariableSlots(['x']), [BigInt(2)]);
+    expect(program('x + 1').eval(other)[0]?.value()).toEqual(BigInt(3));
+  });
+
+  it('should let child activations override slots of their parent', () => {
+    const prg = program('x + size(names)', EvalOption.Optimize);
+    const frame = env.variableSlots().frame([BigInt(1), ['a', 'b']]);
+    const vars = new HierarchicalActivation(
+      frame,
+      new MapActivation({ x: BigInt(10) })
+    );
+    expect(prg.eval(vars)[0]?.value()).toEqual(BigInt(12));
+    const child = new HierarchicalActivation(
+      new MapActivation({ x: BigInt(10) }),
+      frame
+    );
+    expect(prg.eval(child)[0]?.value()).toEqual(BigInt(3));
+  });
+});
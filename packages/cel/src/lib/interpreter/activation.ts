@@ -24,6 +24,10 @@ export interface Activation {
   parent(): Activation | null;
 }
 
+export function isActivation(value: any): value is Activation {
+  return value && isFunction(value.resolveName) && isFunction(value.parent);
+}
+
 /**
  * EmptyActivation returns a variable-free activation.
  */
@@ -86,7 +90,9 @@ export class HierarchicalActivation implements Activation {
 
   resolveName<T = any>(name: string): T | null {
     const value = this.#child.resolveName(name);
-    if (!isNil(value)) {
+    // A slot frame of the parent would be read before the child's bindings
+    // of the same variables, so only the child's frame is exposed.
+    if (!isNil(value) || name === SLOT_FRAME) {
       return value;
     }
     return this.#parent.resolveName(name);
@@ -165,3 +171,94 @@ export class PartialActivation implements Activation {
     return this._unknowns;
   }
 }
+
+/**
+ * The name under which a SlotActivation resolves itself, so that slot loads
+ * find the frame through the activations which wrap it. Like the names the
+ * macros use for their accumulators it cannot be written in an expression.
+ * Activations which bind variables ahead of a frame must not expose it under
+ * this name, since slot loads would bypass their bindings.
+ */
+export const SLOT_FRAME = '#slots';
+
+/**
+ * VariableSlots assigns each declared variable of an environment an index
+ * into a flat frame of values. Programs created with the SlotVariables
+ * evaluation option load the variables from these indices when they are
+ * evaluated against a SlotActivation of the same VariableSlots.
+ */
+export class VariableSlots {
+  #names: string[];
+  #indices: Map<string, number>;
+
+  constructor(names: string[]) {
+    this.#names = names;
+    this.#indices = new Map(names.map((name, i) => [name, i]));
+  }
+
+  /**
+   * Index returns the slot of a variable, or undefined if it has none.
+   */
+  index(name: string) {
+    return this.#indices.get(name);
+  }
+
+  /**
+   * Names returns the names of the variables in slot order.
+   */
+  names() {
+    return this.#names;
+  }
+
+  size() {
+    return this.#names.length;
+  }
+
+  /**
+   * Frame returns an activation over the values of the variables, given in
+   * slot order. The array is used as is, so a caller may refill it between
+   * evaluations.
+   */
+  frame(values: any[] = new Array(this.#names.length)) {
+    return new SlotActivation(this, values);
+  }
+}
+
+/**
+ * SlotActivation is an Activation over a flat frame of values indexed by the
+ * slots of a VariableSlots. As with MapActivation, a value may be a function
+ * which lazily supplies it.
+ */
+export class SlotActivation implements Activation {
+  readonly slots: VariableSlots;
+  readonly values: any[];
+
+  constructor(slots: VariableSlots, values: any[]) {
+    this.slots = slots;
+    this.values = values;
+  }
+
+  /**
+   * Load returns the value of a slot, or null if it is not set.
+   */
+  load(index: number): any {
+    let obj = this.values[index];
+    if (isFunction(obj)) {
+      obj = obj();
+      this.values[index] = obj;
+    }
+    return isNil(obj) ? null : obj;
+  }
+
+  resolveName<T = any>(name: string): T | null {
+    if (name === SLOT_FRAME) {
+      return this as T;
+    }
+    const index = this.slots.index(name);
+    return index === undefined ? null : this.load(index);
+  }
+
+  parent() {
+    return null;
+  }
+}
@@ -25,7 +25,12 @@ import { isMapper } from '../common/types/traits/mapper';
 import { Kind, Type } from '../common/types/types';
 import { UintRefVal } from '../common/types/uint';
 import { isUnknownRefVal, UnknownRefVal } from '../common/types/unknown';
-import { Activation } from './activation';
+import {
+  Activation,
+  SLOT_FRAME,
+  SlotActivation,
+  VariableSlots,
+} from './activation';
 import { Interpretable } from './interpretable';
 
 /**
@@ -49,6 +54,19 @@ export interface AttributeFactory {
    */
   absoluteAttribute(id: bigint, ...names: string[]): NamespacedAttribute;
 
+  /**
+   * SlotAttribute creates an absolute attribute for a declared variable
+   * which has a slot. When the attribute is resolved against a
+   * SlotActivation of the same VariableSlots, the variable is loaded from
+   * its slot rather than looked up by name.
+   */
+  slotAttribute(
+    id: bigint,
+    name: string,
+    slots: VariableSlots,
+    index: number
+  ): NamespacedAttribute;
+
   /**
    * ConditionalAttribute creates an attribute with two Attribute branches,
    * where the Attribute that is resolved depends on the boolean evaluation of
@@ -280,6 +298,25 @@ export class AttrFactory implements AttributeFactory {
     );
   }
 
+  slotAttribute(
+    id: bigint,
+    name: string,
+    slots: VariableSlots,
+    index: number
+  ): NamespacedAttribute {
+    return new AbsoluteAttribute(
+      id,
+      [name],
+      [],
+      this.#adapter,
+      this.#provider,
+      this,
+      this.errorOnBadPresenceTest,
+      slots,
+      index
+    );
+  }
+
   conditionalAttribute(
     id: bigint,
     expr: Interpretable,
@@ -352,6 +389,8 @@ class AbsoluteAttribute implements NamespacedAttribute {
   #provider: Provider;
   #fac: AttributeFactory;
   #errorOnBadPresesenceTest = false;
+  #slots: VariableSlots | null;
+  #slot: number;
 
   constructor(
     id: bigint,
@@ -360,7 +399,9 @@ class AbsoluteAttribute implements NamespacedAttribute {
     adapter: Adapter,
     provider: Provider,
     fac: AttributeFactory,
-    errorOnBadPresenceTest?: boolean
+    errorOnBadPresenceTest?: boolean,
+    slots: VariableSlots | null = null,
+    slot = -1
   ) {
     this.#id = id;
     this.#namespacedNames = names;
@@ -368,6 +409,8 @@ class AbsoluteAttribute implements NamespacedAttribute {
     this.#adapter = adapter;
     this.#provider = provider;
     this.#fac = fac;
+    this.#slots = slots;
+    this.#slot = slot;
 
     if (!isNil(errorOnBadPresenceTest)) {
       this.#errorOnBadPresesenceTest = errorOnBadPresenceTest;
@@ -397,26 +440,24 @@ class AbsoluteAttribute implements NamespacedAttribute {
    * indicating the name of the first variable searched as missing.
    */
   resolve(vars: Activation): any | Error {
+    if (!isNil(this.#slots)) {
+      const frame =
+        vars instanceof SlotActivation
+          ? vars
+          : vars.resolveName<SlotActivation>(SLOT_FRAME);
+      if (frame?.slots === this.#slots) {
+        const obj = frame.load(this.#slot);
+        if (!isNil(obj)) {
+          return this.#qualify(vars, obj);
+        }
+      }
+    }
     for (const nm of this.#namespacedNames) {
       // If the variable is found, process it. Otherwise, wait until the checks
       // to determine whether the type is unknown before returning.
       const obj = vars.resolveName(nm);
       if (!isNil(obj)) {
-        if (isErrorRefVal(obj)) {
-          return obj.value();
-        }
-        const [_obj, isOpt, err] = applyQualifiers(vars, obj, this.#qualifiers);
-        if (!isNil(err)) {
-          return err;
-        }
-        if (isOpt) {
-          const val = this.#adapter.nativeToValue(_obj);
-          if (isUnknownRefVal(val)) {
-            return val;
-          }
-          return new OptionalRefVal(val);
-        }
-        return _obj;
+        return this.#qualify(vars, obj);
       }
       // Attempt to resolve the qualified type name if the name is not a
       // variable identifier.
@@ -428,6 +469,28 @@ class AbsoluteAttribute implements NamespacedAttribute {
     return new ResolutionError(this.#namespacedNames.join(', '));
   }
 
+  /**
+   * Qualify applies the qualifiers of the attribute to the value of its
+   * variable.
+   */
+  #qualify(vars: Activation, obj: any): any | Error {
+    if (isErrorRefVal(obj)) {
+      return obj.value();
+    }
+    const [_obj, isOpt, err] = applyQualifiers(vars, obj, this.#qualifiers);
+    if (!isNil(err)) {
+      return err;
+    }
+    if (isOpt) {
+      const val = this.#adapter.nativeToValue(_obj);
+      if (isUnknownRefVal(val)) {
+        return val;
+      }
+      return new OptionalRefVal(val);
+    }
+    return _obj;
+  }
+
   id(): bigint {
     const qualCount = this.#qualifiers.length;
     if (qualCount === 0) {
@@ -0,0 +1,51 @@
+import { ruleEnv } from '../bench/workloads';
+import { Ast } from '../cel/env';
+import { Program } from '../cel/program';
+import { BatchEvaluator, Column } from './batch';
+
+/**
+ * Compares evaluating rules over a batch of rows one row at a time with a
+ * program and with a BatchEvaluator over columns of the same values.
+ */
+
+const size = 4096;
+const users = ['alice', 'bob', 'carol', 'root', 'dave'];
+const columns: Record<string, Column> = {
+  user: {
+    codes: Int32Array.from({ length: size }, (_, row) => row % users.length),
+    dictionary: users,
+  },
+  age: BigInt64Array.from({ length: size }, (_, row) => BigInt(row % 90)),
+  score: BigInt64Array.from({ length: size }, (_, row) => BigInt(row % 101)),
+  limit: BigInt64Array.from({ length: size }, () => BigInt(75)),
+};
+const rows = Array.from({ length: size }, (_, row) => ({
+  user: users[row % users.length],
+  age: BigInt(row % 90),
+  score: BigInt(row % 101),
+  limit: BigInt(75),
+}));
+
+const rules = {
+  logic: `age >= 18 && score > 50 || user == 'root'`,
+  arithmetic: `(score * 3 + age * 2 - limit) / 2 > 40`,
+  strings: `user.startsWith('a') && size(user) < 20 && user != 'root'`,
+};
+
+for (const [name, rule] of Object.entries(rules)) {
+  const ast = ruleEnv.compile(rule) as Ast;
+  const prg = ruleEnv.program(ast) as Program;
+  const batch = ruleEnv.batchEvaluator(ast) as BatchEvaluator;
+
+  describe(`${name} over ${size} rows`, () => {
+    bench('row at a time', () => {
+      for (const row of rows) {
+        prg.eval(row);
+      }
+    });
+
+    bench('batch', () => {
+      batch.eval(columns, size);
+    });
+  });
+}
@@ -0,0 +1,184 @@
+/* eslint-disable @typescript-eslint/no-explicit-any */
+import {
+  BoolType,
+  DoubleType,
+  IntType,
+  StringType,
+  UintType,
+  variable,
+} from '../cel/decls';
+import { Ast, Env } from '../cel/env';
+import { Program } from '../cel/program';
+import { RefVal } from '../common/ref/reference';
+import { isErrorRefVal } from '../common/types/error';
+import { MAX_INT64, MIN_INT64 } from '../common/types/int';
+import { UintRefVal } from '../common/types/uint';
+import { MapActivation } from './activation';
+import { BatchEvaluator, Column, DictionaryColumn } from './batch';
+
+function outcome(val: RefVal | null, err?: Error | null) {
+  if (isErrorRefVal(val)) {
+    return { error: val.value().message };
+  }
+  if (val === null) {
+    return { error: err?.message };
+  }
+  return { type: val.type().typeName(), value: val.value() };
+}
+
+describe('BatchEvaluator', () => {
+  const env = new Env(
+    variable('i', IntType),
+    variable('j', IntType),
+    variable('u', UintType),
+    variable('d', DoubleType),
+    variable('b', BoolType),
+    variable('s', StringType)
+  );
+  const names = ['bob', 'alice', '', 'carol'];
+  const dictionary: DictionaryColumn = {
+    codes: [0, 1, 2, 3, 1, 0, 2, 3],
+    dictionary: names,
+  };
+  const columns: Record<string, Column> = {
+    i: BigInt64Array.from(
+      [1, -2, 0, 7, 100, -100, 3, 0].map((v) => BigInt(v))
+    ).fill(MAX_INT64, 6, 7),
+    j: BigInt64Array.from(
+      [2, 0, -1, 7, -3, 100, 1, 5].map((v) => BigInt(v))
+    ).fill(MIN_INT64, 7, 8),
+    u: BigUint64Array.from([3, 0, 1, 8, 2, 9, 1, 4].map((v) => BigInt(v))),
+    d: Float64Array.from([1.5, -0.5, NaN, 2 ** 60, 0, 3, -Infinity, 1]),
+    b: Uint8Array.from([1, 0, 1, 0, 1, 1, 0, 0]),
+    s: dictionary,
+  };
+  const size = 8;
+
+  /**
+   * Rows returns the input of each row as an activation of native values.
+   */
+  function rows() {
+    return Array.from({ length: size }, (_, row) => ({
+      i: (columns['i'] as BigInt64Array)[row],
+      j: (columns['j'] as BigInt64Array)[row],
+      u: new UintRefVal((columns['u'] as BigUint64Array)[row]),
+      d: (columns['d'] as Float64Array)[row],
+      b: (columns['b'] as Uint8Array)[row] === 1,
+      s: names[dictionary.codes[row]],
+    }));
+  }
+
+  const exprs = [
+    'i + j',
+    'i - j * 2',
+    'i / j',
+    'i % j',
+    '-j',
+    'i < j || j == 0',
+    'i > 0 && j > 0 && i + j > 0',
+    'b && i / j > 0',
+    'i / j > 0 || !b',
+    'i / j > 0 && j / i > 0',
+    'u + u * u',
+    'u - 1u',
+    'u / u > 0u',
+    'd * 2.0 + 1.0',
+    'd < 1.0',
+    'd == d',
+    '-d >= 0.0',
+    'b ? i : j',
+    'i > 0 ? i * 2 : j / i',
+    'b == (i > 0)',
+    's.startsWith("a") || s.size() == 0',
+    's + "!"',
+    'size(s) > 3 && i > 0',
+    "s == 'bob' ? d : 0.0",
+    '[i, j].exists(x, x > 5)',
+    'i == 1 ? s : "none"',
+    '{"a": i}.a + 1',
+  ];
+
+  for (const expr of exprs) {
+    it(`should evaluate ${expr} like a program`, () => {
+      const ast = env.compile(expr) as Ast;
+      const prg = env.program(ast) as Program;
+      const batch = env.batchEvaluator(ast) as BatchEvaluator;
+      const result = batch.eval(columns, size);
+      rows().forEach((input, row) => {
+        const [val, , err] = prg.eval(input);
+        expect(outcome(result.value(row))).toEqual(outcome(val, err));
+      });
+    });
+  }
+
+  it('should select the rows for which a filter is true', () => {
+    const ast = env.compile('i > 0 && (b || s == "carol")') as Ast;
+    const batch = env.batchEvaluator(ast) as BatchEvaluator;
+    expect([...batch.eval(columns, size).selected()]).toEqual([0, 3, 4]);
+  });
+
+  it('should select the rows for which a dyn result is true', () => {
+    const ast = env.compile('dyn(i != j)') as Ast;
+    const batch = env.batchEvaluator(ast) as BatchEvaluator;
+    const prg = env.program(ast) as Program;
+    const expected = rows().flatMap((input, row) =>
+      prg.eval(input)[0]?.value() === true ? [row] : []
+    );
+    expect(expected.length).toBeGreaterThan(0);
+    expect([...batch.eval(columns, size).selected()]).toEqual(expected);
+  });
+
+  it('should evaluate subexpressions once per dictionary entry', () => {
+    let calls = 0;
+    const ast = env.compile('s.size() > 2 && i > 0') as Ast;
+    const batch = env.batchEvaluator(ast) as BatchEvaluator;
+    const dict = {
+      codes: dictionary.codes,
+      dictionary: new Proxy(names, {
+        get(target, prop) {
+          if (/^\d+$/.test(String(prop))) {
+            calls++;
+          }
+          return target[prop as any];
+        },
+      }),
+    };
+    const first = batch.eval({ s: dict, i: columns['i'] }, size);
+    expect(calls).toEqual(names.length);
+    batch.eval({ s: dict, i: columns['i'] }, size);
+    expect(calls).toEqual(names.length);
+    expect([...first.selected()]).toEqual([0, 3, 4]);
+  });
+
+  it('should evaluate entries added to a shared dictionary', () => {
+    const ast = env.compile('s.size() > 3') as Ast;
+    const batch = env.batchEvaluator(ast) as BatchEvaluator;
+    const dict = { codes: [0, 1], dictionary: ['bob', 'alice'] };
+    expect([...batch.eval({ s: dict }, 2).selected()]).toEqual([1]);
+    dict.dictionary.push('frank');
+    dict.codes = [2, 0, 2];
+    const result = batch.eval({ s: dict }, 3);
+    expect([...result.selected()]).toEqual([0, 2]);
+    expect(result.value(0).value()).toEqual(true);
+  });
+
+  it('should resolve variables without columns from the activation', () => {
+    const ast = env.compile('i + j') as Ast;
+    const batch = env.batchEvaluator(ast) as BatchEvaluator;
+    const result = batch.eval(
+      { i: columns['i'] },
+      2,
+      new MapActivation({ j: BigInt(10) })
+    );
+    expect(result.value(0).value()).toEqual(BigInt(11));
+    expect(result.value(1).value()).toEqual(BigInt(8));
+  });
+
+  it('should accept arrays of values as columns', () => {
+    const ast = env.compile('i * 2 + size(s)') as Ast;
+    const batch = env.batchEvaluator(ast) as BatchEvaluator;
+    const result = batch.eval({ i: [BigInt(1), BigInt(2)], s: ['ab', 'c'] }, 2);
+    expect(result.value(0).value()).toEqual(BigInt(4));
+    expect(result.value(1).value()).toEqual(BigInt(5));
+  });
+});
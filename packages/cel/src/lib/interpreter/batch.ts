@@ -0,0 +1,917 @@
+/* eslint-disable @typescript-eslint/no-explicit-any */
+import { isNil } from '@bearclaw/is';
+import { AST, CheckedAST } from '../common/ast';
+import {
+  CONDITIONAL_OPERATOR,
+  EQUALS_OPERATOR,
+  LOGICAL_AND_OPERATOR,
+  LOGICAL_NOT_OPERATOR,
+  LOGICAL_OR_OPERATOR,
+  NEGATE_OPERATOR,
+  NOT_EQUALS_OPERATOR,
+} from '../common/operators';
+import { RefVal } from '../common/ref/reference';
+import { BoolRefVal } from '../common/types/bool';
+import { DoubleRefVal } from '../common/types/double';
+import {
+  ErrorRefVal,
+  isErrorRefVal,
+  labelErrorNode,
+} from '../common/types/error';
+import { IntRefVal } from '../common/types/int';
+import {
+  BoolType,
+  DoubleType,
+  IntType,
+  Kind,
+  Type,
+  UintType,
+} from '../common/types/types';
+import { UintRefVal } from '../common/types/uint';
+import { isUnknownOrError } from '../common/types/utils';
+import { Expr } from '../protogen/cel/expr/syntax_pb.js';
+import { Activation, EmptyActivation } from './activation';
+import { Interpretable } from './interpretable';
+import { Interpreter } from './interpreter';
+import {
+  arithmeticKernels,
+  comparisonKernel,
+  negateKernel,
+  NumericKind,
+} from './numeric';
+
+/**
+ * DictionaryColumn is a column of strings stored as codes into a dictionary
+ * of the distinct values. A dictionary may be shared by the columns of
+ * several batches and grow between them, but its entries must not change.
+ */
+export interface DictionaryColumn {
+  codes: ArrayLike<number>;
+  dictionary: string[];
+}
+
+/**
+ * Column holds the values of one variable for every row of a batch.
+ *
+ * - BigInt64Array for int variables.
+ * - BigUint64Array for uint variables.
+ * - Float64Array for double variables.
+ * - Uint8Array for bool variables, holding 0 for false and 1 for true.
+ * - DictionaryColumn for string variables.
+ * - An array of values of any type, which are adapted like the values of an
+ *   activation.
+ */
+export type Column =
+  | BigInt64Array
+  | BigUint64Array
+  | Float64Array
+  | Uint8Array
+  | DictionaryColumn
+  | unknown[];
+
+export function isDictionaryColumn(value: any): value is DictionaryColumn {
+  return (
+    !isNil(value) && !isNil(value.codes) && Array.isArray(value.dictionary)
+  );
+}
+
+/**
+ * VectorKind is the representation of the values of a Vector.
+ */
+enum VectorKind {
+  Bool,
+  Int,
+  Uint,
+  Double,
+  Value,
+}
+
+/**
+ * Vector holds the values of an expression for the rows of a batch. Values
+ * are stored unboxed according to the kind of the vector, except for rows
+ * whose value is an error, an unknown or of another type, which are kept in
+ * `exceptions`. Only the rows of the selection the vector was evaluated for
+ * are set.
+ */
+interface Vector {
+  kind: VectorKind;
+  data: any;
+  exceptions: Map<number, RefVal> | null;
+}
+
+/**
+ * Selection lists the rows of a batch an expression is evaluated for.
+ */
+interface Selection {
+  rows: Int32Array;
+  count: number;
+}
+
+type VectorOp = (ctx: BatchContext, sel: Selection) => Vector;
+
+/**
+ * BatchContext holds the columns of the batch being evaluated and an
+ * activation which reads the variables of one row from them.
+ */
+class BatchContext {
+  columns: Map<string, Column>;
+  size: number;
+  row: RowActivation;
+
+  constructor(columns: Map<string, Column>, size: number, vars: Activation) {
+    this.columns = columns;
+    this.size = size;
+    this.row = new RowActivation(columns, vars);
+  }
+}
+
+/**
+ * RowActivation resolves variables to the values of their columns at the
+ * current row, and other names from the activation it wraps. A single
+ * instance is reused for every row of a batch.
+ */
+class RowActivation implements Activation {
+  index = 0;
+  #columns: Map<string, Column>;
+  #vars: Activation;
+
+  constructor(columns: Map<string, Column>, vars: Activation) {
+    this.#columns = columns;
+    this.#vars = vars;
+  }
+
+  resolveName(name: string): any {
+    const col = this.#columns.get(name);
+    if (col === undefined) {
+      return this.#vars.resolveName(name);
+    }
+    if (isDictionaryColumn(col)) {
+      return col.dictionary[col.codes[this.index]];
+    }
+    if (col instanceof Uint8Array) {
+      return col[this.index] !== 0;
+    }
+    if (col instanceof BigUint64Array) {
+      return new UintRefVal(col[this.index]);
+    }
+    return col[this.index];
+  }
+
+  parent() {
+    return this.#vars;
+  }
+}
+
+/**
+ * BatchEvaluator evaluates a checked expression over batches of rows whose
+ * variables are bound to columns. Each node of the expression is evaluated
+ * once per batch over the selection of rows which reach it: && and || only
+ * evaluate their remaining operands for the rows they have not decided yet,
+ * and the branches of a conditional only for the rows which take them.
+ *
+ * Logical operators, conditionals, and the arithmetic, comparison and
+ * negation operators over bool, int, uint and double values run as loops
+ * over unboxed column values. Subexpressions whose only variable is a
+ * dictionary-encoded string column are evaluated once per dictionary entry.
+ * All other subexpressions, as well as the rows where a kernel would
+ * overflow or compare NaN, are evaluated by the interpreter one row at a
+ * time, so the results are the same as for evaluating each row with a
+ * Program.
+ */
+export class BatchEvaluator {
+  #op: VectorOp;
+  #kind: VectorKind;
+
+  constructor(interp: Interpreter, a: AST) {
+    const compiler = new BatchCompiler(interp, a);
+    this.#kind = compiler.kind(a.expr());
+    this.#op = compiler.compile(a.expr());
+  }
+
+  /**
+   * Eval evaluates the expression for the first `size` rows of the columns.
+   * Variables without a column are resolved from `vars`.
+   */
+  eval(
+    columns: Record<string, Column> | Map<string, Column>,
+    size: number,
+    vars: Activation = new EmptyActivation()
+  ): BatchResult {
+    const cols =
+      columns instanceof Map ? columns : new Map(Object.entries(columns));
+    const ctx = new BatchContext(cols, size, vars);
+    const rows = new Int32Array(size);
+    for (let i = 0; i < size; i++) {
+      rows[i] = i;
+    }
+    const sel = { rows, count: size };
+    const vec = toKind(this.#op(ctx, sel), this.#kind, ctx, sel);
+    return new BatchResult(vec, size);
+  }
+}
+
+/**
+ * BatchResult holds the values of an expression for the rows of a batch.
+ */
+export class BatchResult {
+  #vec: Vector;
+  #size: number;
+
+  constructor(vec: Vector, size: number) {
+    this.#vec = vec;
+    this.#size = size;
+  }
+
+  /**
+   * Size returns the number of rows of the batch.
+   */
+  size() {
+    return this.#size;
+  }
+
+  /**
+   * Value returns the value of the expression for a row.
+   */
+  value(row: number): RefVal {
+    return this.#vec.exceptions?.get(row) ?? box(this.#vec, row);
+  }
+
+  /**
+   * Selected returns the rows for which the expression is true, the result
+   * of using it as a filter.
+   */
+  selected(): Int32Array {
+    const rows = new Int32Array(this.#size);
+    let n = 0;
+    for (let row = 0; row < this.#size; row++) {
+      if (this.#vec.exceptions?.has(row)) {
+        continue;
+      }
+      if (this.#vec.kind === VectorKind.Bool) {
+        if (this.#vec.data[row] === 1) {
+          rows[n++] = row;
+        }
+        continue;
+      }
+      // Values are compared by content, since the interpreter does not only
+      // return the shared BoolRefVal instances.
+      const val: RefVal | undefined = this.#vec.data[row];
+      if (val?.type() === BoolType && val.value() === true) {
+        rows[n++] = row;
+      }
+    }
+    return rows.slice(0, n);
+  }
+}
+
+class BatchCompiler {
+  #interp: Interpreter;
+  #ast: AST;
+
+  constructor(interp: Interpreter, a: AST) {
+    this.#interp = interp;
+    this.#ast = a;
+  }
+
+  kind(e: Expr): VectorKind {
+    return kindOf(this.#ast.typeMap().get(e.id));
+  }
+
+  compile(e: Expr): VectorOp {
+    const op = this.compileNode(e);
+    const dictVar = this.dictionaryVar(e);
+    if (dictVar === null) {
+      return op;
+    }
+    const perEntry = this.perEntry(e, dictVar);
+    return (ctx, sel) => {
+      const col = ctx.columns.get(dictVar);
+      return isDictionaryColumn(col) ? perEntry(ctx, sel, col) : op(ctx, sel);
+    };
+  }
+
+  compileNode(e: Expr): VectorOp {
+    const kind = this.kind(e);
+    switch (e.exprKind.case) {
+      case 'constExpr':
+        return this.constant(e, kind);
+      case 'identExpr':
+        return this.variable(e, kind, this.varName(e));
+      case 'selectExpr': {
+        const ref = this.#ast.referenceMap().get(e.id);
+        if (!isNil(ref) && isNil(ref.value) && !isNil(ref.name)) {
+          return this.variable(e, kind, ref.name);
+        }
+        break;
+      }
+      case 'callExpr': {
+        const call = e.exprKind.value;
+        if (!isNil(call.target)) {
+          break;
+        }
+        switch (call.function) {
+          case LOGICAL_AND_OPERATOR:
+            return this.logical(e, call.args, false);
+          case LOGICAL_OR_OPERATOR:
+            return this.logical(e, call.args, true);
+          case CONDITIONAL_OPERATOR:
+            return this.conditional(e, kind, call.args);
+          default:
+            break;
+        }
+        if (call.args.length === 1) {
+          const fn = unaryKernel(call.function, this.kind(call.args[0]));
+          if (!isNil(fn)) {
+            return this.unary(e, kind, call.args[0], fn);
+          }
+        }
+        if (
+          call.args.length === 2 &&
+          this.kind(call.args[0]) === this.kind(call.args[1])
+        ) {
+          const fn = binaryKernel(call.function, this.kind(call.args[0]));
+          if (!isNil(fn)) {
+            return this.binary(e, kind, call.args[0], call.args[1], fn);
+          }
+        }
+        break;
+      }
+      default:
+        break;
+    }
+    const fallback = this.rowwise(e);
+    return (ctx, sel) => {
+      const out = newVector(kind, ctx.size);
+      fallback(ctx, sel.rows, sel.count, out);
+      return out;
+    };
+  }
+
+  constant(e: Expr, kind: VectorKind): VectorOp {
+    let value: RefVal | null = null;
+    let cached: Vector | null = null;
+    const fallback = this.rowwise(e);
+    return (ctx) => {
+      if (value === null) {
+        const out = newVector(VectorKind.Value, 1);
+        fallback(ctx, new Int32Array(1), 1, out);
+        value = out.data[0] as RefVal;
+      }
+      if (cached === null || cached.data.length < ctx.size) {
+        cached = newVector(kind, ctx.size);
+        for (let row = 0; row < ctx.size; row++) {
+          store(cached, row, value);
+        }
+      }
+      return cached;
+    };
+  }
+
+  variable(e: Expr, kind: VectorKind, name: string): VectorOp {
+    const fallback = this.rowwise(e);
+    return (ctx, sel) => {
+      const col = ctx.columns.get(name);
+      if (!isNil(col) && columnKind(col) === kind) {
+        return { kind, data: col, exceptions: null };
+      }
+      const out = newVector(kind, ctx.size);
+      fallback(ctx, sel.rows, sel.count, out);
+      return out;
+    };
+  }
+
+  /**
+   * Logical evaluates each term of && (`shortCircuit` false) or || only for
+   * the rows the previous terms have not decided, following EvalAnd and
+   * EvalOr.
+   */
+  logical(e: Expr, args: Expr[], shortCircuit: boolean): VectorOp {
+    const terms = args.map((arg) => ({
+      op: this.compile(arg),
+      kind: this.kind(arg),
+    }));
+    const decided = shortCircuit ? 1 : 0;
+    return (ctx, sel) => {
+      const out = newVector(VectorKind.Bool, ctx.size);
+      const errs = new Map<number, RefVal>();
+      let active = sel;
+      for (const term of terms) {
+        if (active.count === 0) {
+          break;
+        }
+        const v = toKind(
+          term.op(ctx, active),
+          VectorKind.Bool,
+          ctx,
+          active
+        );
+        const next = new Int32Array(active.count);
+        let n = 0;
+        for (let i = 0; i < active.count; i++) {
+          const row = active.rows[i];
+          const exc = v.exceptions?.get(row);
+          if (exc === undefined) {
+            if (v.data[row] === decided) {
+              out.data[row] = decided;
+              continue;
+            }
+          } else if (!errs.has(row)) {
+            errs.set(
+              row,
+              labelErrorNode(
+                e.id,
+                isErrorRefVal(exc) ? exc : ErrorRefVal.maybeNoSuchOverload(exc)
+              )
+            );
+          }
+          next[n++] = row;
+        }
+        active = { rows: next, count: n };
+      }
+      for (let i = 0; i < active.count; i++) {
+        const row = active.rows[i];
+        const err = errs.get(row);
+        if (err !== undefined) {
+          setException(out, row, err);
+        } else {
+          out.data[row] = 1 - decided;
+        }
+      }
+      return out;
+    };
+  }
+
+  /**
+   * Conditional evaluates each branch only for the rows which take it. Rows
+   * whose condition is not a bool are evaluated by the interpreter.
+   */
+  conditional(e: Expr, kind: VectorKind, args: Expr[]): VectorOp {
+    const cond = this.compile(args[0]);
+    const branches = [this.compile(args[1]), this.compile(args[2])];
+    const fallback = this.rowwise(e);
+    return (ctx, sel) => {
+      const out = newVector(kind, ctx.size);
+      const c = toKind(cond(ctx, sel), VectorKind.Bool, ctx, sel);
+      const taken = [new Int32Array(sel.count), new Int32Array(sel.count)];
+      const counts = [0, 0];
+      const other = new Int32Array(sel.count);
+      let others = 0;
+      for (let i = 0; i < sel.count; i++) {
+        const row = sel.rows[i];
+        if (c.exceptions?.has(row)) {
+          other[others++] = row;
+        } else {
+          const branch = c.data[row] === 1 ? 0 : 1;
+          taken[branch][counts[branch]++] = row;
+        }
+      }
+      for (let b = 0; b < 2; b++) {
+        if (counts[b] === 0) {
+          continue;
+        }
+        const branchSel = { rows: taken[b], count: counts[b] };
+        const v = toKind(branches[b](ctx, branchSel), kind, ctx, branchSel);
+        copyRows(v, out, branchSel);
+      }
+      if (others > 0) {
+        fallback(ctx, other, others, out);
+      }
+      return out;
+    };
+  }
+
+  unary(e: Expr, kind: VectorKind, arg: Expr, fn: UnaryKernel): VectorOp {
+    const operand = this.compile(arg);
+    const fallback = this.rowwise(e);
+    return (ctx, sel) => {
+      const out = newVector(kind, ctx.size);
+      const v = operand(ctx, sel);
+      const retry: number[] = [];
+      for (let i = 0; i < sel.count; i++) {
+        const row = sel.rows[i];
+        const exc = v.exceptions?.get(row);
+        if (exc !== undefined) {
+          if (isUnknownOrError(exc)) {
+            setException(out, row, exc);
+          } else {
+            retry.push(row);
+          }
+          continue;
+        }
+        const r = fn(v.data[row]);
+        if (r === undefined) {
+          retry.push(row);
+        } else {
+          out.data[row] = r;
+        }
+      }
+      if (retry.length > 0) {
+        fallback(ctx, Int32Array.from(retry), retry.length, out);
+      }
+      return out;
+    };
+  }
+
+  /**
+   * Binary follows EvalBinary, EvalEq and EvalNe: errors and unknowns of the
+   * left operand take precedence over those of the right one.
+   */
+  binary(
+    e: Expr,
+    kind: VectorKind,
+    lhs: Expr,
+    rhs: Expr,
+    fn: BinaryKernel
+  ): VectorOp {
+    const left = this.compile(lhs);
+    const right = this.compile(rhs);
+    const fallback = this.rowwise(e);
+    return (ctx, sel) => {
+      const out = newVector(kind, ctx.size);
+      const l = left(ctx, sel);
+      const r = right(ctx, sel);
+      const retry: number[] = [];
+      for (let i = 0; i < sel.count; i++) {
+        const row = sel.rows[i];
+        const lExc = l.exceptions?.get(row);
+        const rExc = r.exceptions?.get(row);
+        if (lExc !== undefined || rExc !== undefined) {
+          if (lExc !== undefined && isUnknownOrError(lExc)) {
+            setException(out, row, lExc);
+          } else if (
+            lExc === undefined &&
+            rExc !== undefined &&
+            isUnknownOrError(rExc)
+          ) {
+            setException(out, row, rExc);
+          } else {
+            retry.push(row);
+          }
+          continue;
+        }
+        const result = fn(l.data[row], r.data[row]);
+        if (result === undefined) {
+          retry.push(row);
+        } else {
+          out.data[row] = result;
+        }
+      }
+      if (retry.length > 0) {
+        fallback(ctx, Int32Array.from(retry), retry.length, out);
+      }
+      return out;
+    };
+  }
+
+  /**
+   * PerEntry evaluates the expression once for each entry of the dictionary
+   * of its only variable, and copies the results to the rows by their codes.
+   * The results are kept for as long as the batches share the dictionary,
+   * and are evaluated again when entries have been added to it.
+   */
+  perEntry(
+    e: Expr,
+    name: string
+  ): (ctx: BatchContext, sel: Selection, col: DictionaryColumn) => Vector {
+    const kind = this.kind(e);
+    const fallback = this.rowwise(e);
+    const entries = new WeakMap<string[], Vector>();
+    return (ctx, sel, col) => {
+      const size = col.dictionary.length;
+      let values = entries.get(col.dictionary);
+      if (values === undefined || values.data.length !== size) {
+        const codes = new Int32Array(size);
+        for (let i = 0; i < size; i++) {
+          codes[i] = i;
+        }
+        const dictCtx = new BatchContext(
+          new Map([[name, { codes, dictionary: col.dictionary }]]),
+          size,
+          ctx.row.parent()
+        );
+        values = newVector(kind, size);
+        fallback(dictCtx, codes, size, values);
+        entries.set(col.dictionary, values);
+      }
+      const out = newVector(kind, ctx.size);
+      for (let i = 0; i < sel.count; i++) {
+        const row = sel.rows[i];
+        const code = col.codes[row];
+        const exc = values.exceptions?.get(code);
+        if (exc !== undefined) {
+          setException(out, row, exc);
+        } else {
+          out.data[row] = values.data[code];
+        }
+      }
+      return out;
+    };
+  }
+
+  /**
+   * Rowwise returns a function which evaluates the expression with the
+   * interpreter for each of the given rows, storing the values in a vector.
+   * The expression is planned when it is first needed.
+   */
+  rowwise(
+    e: Expr
+  ): (ctx: BatchContext, rows: Int32Array, count: number, out: Vector) => void {
+    let i: Interpretable | null = null;
+    return (ctx, rows, count, out) => {
+      if (i === null) {
+        const planned = this.#interp.newInterpretable(this.ast(e));
+        if (planned instanceof Error) {
+          throw planned;
+        }
+        i = planned;
+      }
+      const vars = ctx.row;
+      for (let n = 0; n < count; n++) {
+        vars.index = rows[n];
+        store(out, rows[n], i.eval(vars));
+      }
+    };
+  }
+
+  ast(e: Expr): AST {
+    const parsed = new AST(e, this.#ast.sourceInfo());
+    if (!this.#ast.isChecked()) {
+      return parsed;
+    }
+    return new CheckedAST(
+      parsed,
+      this.#ast.typeMap(),
+      this.#ast.referenceMap()
+    );
+  }
+
+  varName(e: Expr): string {
+    const ref = this.#ast.referenceMap().get(e.id);
+    if (!isNil(ref?.name)) {
+      return ref.name;
+    }
+    return e.exprKind.case === 'identExpr' ? e.exprKind.value.name : '';
+  }
+
+  /**
+   * DictionaryVar returns the name of the only variable of an expression if
+   * it is a string, and the expression does more than reading it.
+   */
+  dictionaryVar(e: Expr): string | null {
+    if (!this.#ast.isChecked() || e.exprKind.case === 'identExpr') {
+      return null;
+    }
+    const vars = new Map<string, Expr>();
+    this.freeVars(e, new Set(), vars);
+    if (vars.size !== 1) {
+      return null;
+    }
+    const [[name, ident]] = vars;
+    const t = this.#ast.typeMap().get(ident.id);
+    return ident !== e && t?.kind() === Kind.STRING ? name : null;
+  }
+
+  freeVars(e: Expr, bound: Set<string>, vars: Map<string, Expr>) {
+    switch (e.exprKind.case) {
+      case 'identExpr': {
+        const ref = this.#ast.referenceMap().get(e.id);
+        if (!bound.has(e.exprKind.value.name) && isNil(ref?.value)) {
+          vars.set(this.varName(e), e);
+        }
+        return;
+      }
+      case 'selectExpr': {
+        const ref = this.#ast.referenceMap().get(e.id);
+        if (!isNil(ref)) {
+          if (isNil(ref.value)) {
+            vars.set(ref.name!, e);
+          }
+          return;
+        }
+        if (!isNil(e.exprKind.value.operand)) {
+          this.freeVars(e.exprKind.value.operand, bound, vars);
+        }
+        return;
+      }
+      case 'callExpr':
+        if (!isNil(e.exprKind.value.target)) {
+          this.freeVars(e.exprKind.value.target, bound, vars);
+        }
+        for (const arg of e.exprKind.value.args) {
+          this.freeVars(arg, bound, vars);
+        }
+        return;
+      case 'listExpr':
+        for (const elem of e.exprKind.value.elements) {
+          this.freeVars(elem, bound, vars);
+        }
+        return;
+      case 'structExpr':
+        for (const entry of e.exprKind.value.entries) {
+          if (entry.keyKind.case === 'mapKey') {
+            this.freeVars(entry.keyKind.value, bound, vars);
+          }
+          if (!isNil(entry.value)) {
+            this.freeVars(entry.value, bound, vars);
+          }
+        }
+        return;
+      case 'comprehensionExpr': {
+        const comp = e.exprKind.value;
+        const loop = new Set(bound);
+        loop.add(comp.iterVar).add(comp.iterVar2).add(comp.accuVar);
+        for (const [child, scope] of [
+          [comp.iterRange, bound],
+          [comp.accuInit, bound],
+          [comp.loopCondition, loop],
+          [comp.loopStep, loop],
+          [comp.result, new Set(bound).add(comp.accuVar)],
+        ] as const) {
+          if (!isNil(child)) {
+            this.freeVars(child, scope, vars);
+          }
+        }
+        return;
+      }
+      default:
+        return;
+    }
+  }
+}
+
+type UnaryKernel = (v: any) => any;
+
+type BinaryKernel = (l: any, r: any) => any;
+
+const numericKinds = new Map<VectorKind, NumericKind>([
+  [VectorKind.Int, NumericKind.Int],
+  [VectorKind.Uint, NumericKind.Uint],
+  [VectorKind.Double, NumericKind.Double],
+]);
+
+function binaryKernel(fn: string, kind: VectorKind): BinaryKernel | null {
+  if (kind === VectorKind.Bool) {
+    switch (fn) {
+      case EQUALS_OPERATOR:
+        return (l, r) => Number(l === r);
+      case NOT_EQUALS_OPERATOR:
+        return (l, r) => Number(l !== r);
+      default:
+        return null;
+    }
+  }
+  const numeric = numericKinds.get(kind);
+  if (numeric === undefined) {
+    return null;
+  }
+  const cmp = comparisonKernel(fn, numeric);
+  if (!isNil(cmp)) {
+    return (l, r) => {
+      const result = cmp(l, r);
+      return result === undefined ? undefined : Number(result);
+    };
+  }
+  return arithmeticKernels[numeric][fn] ?? null;
+}
+
+function unaryKernel(fn: string, kind: VectorKind): UnaryKernel | null {
+  if (fn === LOGICAL_NOT_OPERATOR && kind === VectorKind.Bool) {
+    return (v) => 1 - v;
+  }
+  const numeric = numericKinds.get(kind);
+  if (fn !== NEGATE_OPERATOR || numeric === undefined) {
+    return null;
+  }
+  return negateKernel(numeric);
+}
+
+function kindOf(t: Type | undefined): VectorKind {
+  switch (t?.kind()) {
+    case Kind.BOOL:
+      return VectorKind.Bool;
+    case Kind.INT:
+      return VectorKind.Int;
+    case Kind.UINT:
+      return VectorKind.Uint;
+    case Kind.DOUBLE:
+      return VectorKind.Double;
+    default:
+      return VectorKind.Value;
+  }
+}
+
+function columnKind(col: Column): VectorKind | null {
+  if (col instanceof Uint8Array) {
+    return VectorKind.Bool;
+  }
+  if (col instanceof BigInt64Array) {
+    return VectorKind.Int;
+  }
+  if (col instanceof BigUint64Array) {
+    return VectorKind.Uint;
+  }
+  if (col instanceof Float64Array) {
+    return VectorKind.Double;
+  }
+  return null;
+}
+
+function newVector(kind: VectorKind, size: number): Vector {
+  let data: any;
+  switch (kind) {
+    case VectorKind.Bool:
+      data = new Uint8Array(size);
+      break;
+    case VectorKind.Int:
+      data = new BigInt64Array(size);
+      break;
+    case VectorKind.Uint:
+      data = new BigUint64Array(size);
+      break;
+    case VectorKind.Double:
+      data = new Float64Array(size);
+      break;
+    default:
+      data = new Array(size);
+      break;
+  }
+  return { kind, data, exceptions: null };
+}
+
+function setException(vec: Vector, row: number, val: RefVal) {
+  if (vec.exceptions === null) {
+    vec.exceptions = new Map();
+  }
+  vec.exceptions.set(row, val);
+}
+
+const kindTypes = new Map<VectorKind, Type>([
+  [VectorKind.Bool, BoolType],
+  [VectorKind.Int, IntType],
+  [VectorKind.Uint, UintType],
+  [VectorKind.Double, DoubleType],
+]);
+
+/**
+ * Store sets the value of a row, unboxing it if it has the type of the
+ * vector.
+ */
+function store(vec: Vector, row: number, val: RefVal) {
+  if (vec.kind === VectorKind.Value) {
+    vec.data[row] = val;
+  } else if (val.type() === kindTypes.get(vec.kind)) {
+    vec.data[row] =
+      vec.kind === VectorKind.Bool ? Number(val.value()) : val.value();
+  } else {
+    setException(vec, row, val);
+  }
+}
+
+function box(vec: Vector, row: number): RefVal {
+  const v = vec.data[row];
+  switch (vec.kind) {
+    case VectorKind.Bool:
+      return v === 1 ? BoolRefVal.True : BoolRefVal.False;
+    case VectorKind.Int:
+      return new IntRefVal(v);
+    case VectorKind.Uint:
+      return new UintRefVal(v);
+    case VectorKind.Double:
+      return new DoubleRefVal(v);
+    default:
+      return v;
+  }
+}
+
+function copyRows(from: Vector, to: Vector, sel: Selection) {
+  for (let i = 0; i < sel.count; i++) {
+    const row = sel.rows[i];
+    const exc = from.exceptions?.get(row);
+    if (exc !== undefined) {
+      setException(to, row, exc);
+    } else {
+      to.data[row] = from.data[row];
+    }
+  }
+}
+
+/**
+ * ToKind converts the selected rows of a vector to another kind, boxing or
+ * unboxing the values.
+ */
+function toKind(
+  vec: Vector,
+  kind: VectorKind,
+  ctx: BatchContext,
+  sel: Selection
+): Vector {
+  if (vec.kind === kind) {
+    return vec;
+  }
+  const out = newVector(kind, ctx.size);
+  for (let i = 0; i < sel.count; i++) {
+    const row = sel.rows[i];
+    store(out, row, vec.exceptions?.get(row) ?? box(vec, row));
+  }
+  return out;
+}
@@ -0,0 +1,331 @@
+/* eslint-disable @typescript-eslint/no-explicit-any */
+import { IN_OPERATOR } from '../common/operators';
+import { BoolRefVal } from '../common/types/bool';
+import {
+  ErrorRefVal,
+  isErrorRefVal,
+  labelErrorNode,
+} from '../common/types/error';
+import { Trait } from '../common/types/traits/trait';
+import { BoolType } from '../common/types/types';
+import { isUnknownRefVal, mergeUnknowns } from '../common/types/unknown';
+import { isUnknownOrError } from '../common/types/utils';
+import { Expr } from '../protogen/cel/expr/syntax_pb.js';
+import {
+  CallKind,
+  CompiledCall,
+  EvalCompiled,
+  ExprCompiler,
+  planAttributeCall,
+  resolveCall,
+} from './compiler';
+import { Dispatcher } from './dispatcher';
+import { Interpretable, isInterpretableConst } from './interpretable';
+import { Planner } from './planner';
+
+/**
+ * The helpers the generated code refers to by name.
+ */
+const runtime = {
+  BoolRefVal,
+  BoolType,
+  ErrorRefVal,
+  isErrorRefVal,
+  isUnknownOrError,
+  isUnknownRefVal,
+  labelErrorNode,
+  mergeUnknowns,
+  RECEIVER_TYPE: Trait.RECEIVER_TYPE,
+};
+
+const prelude = `const { ${Object.keys(runtime).join(', ')} } = rt;`;
+
+/**
+ * generateInterpretable compiles an expression into JavaScript source and
+ * loads it with the Function constructor, so that the logical operators,
+ * (in)equality and function calls of the expression become straight-line
+ * code the engine can optimize as a whole instead of a tree of Interpretable
+ * nodes.
+ *
+ * Identifiers, selections, literals and comprehensions are planned by the
+ * planner and called from the generated code. Conditionals and index
+ * operations are planned as attributes with compiled operands, because the
+ * planner qualifies them together with the selections around them.
+ *
+ * Where code generation is not allowed, such as under a content security
+ * policy without 'unsafe-eval', the planned expression is returned instead.
+ */
+export const generateInterpretable: ExprCompiler = (
+  planner: Planner,
+  disp: Dispatcher,
+  expr: Expr
+) => {
+  try {
+    return new CodeGenerator(planner, disp).compile(expr);
+  } catch (e) {
+    if (e instanceof EvalError) {
+      return planner.plan(expr);
+    }
+    throw e;
+  }
+};
+
+class CodeGenerator {
+  #planner: Planner;
+  #disp: Dispatcher;
+
+  constructor(planner: Planner, disp: Dispatcher) {
+    this.#planner = planner;
+    this.#disp = disp;
+  }
+
+  /**
+   * Compile returns an Interpretable for the expression, generating a
+   * function for it if it is a call the generator handles.
+   */
+  compile(expr: Expr): Interpretable | Error {
+    if (expr.exprKind.case !== 'callExpr') {
+      return this.#planner.plan(expr);
+    }
+    const call = resolveCall(this.#planner, this.#disp, expr);
+    if (call.kind === CallKind.Attribute) {
+      return this.#planner.memoize(
+        expr,
+        planAttributeCall(this.#planner, expr, call, (arg) => this.compile(arg))
+      );
+    }
+    const fn = new FunctionBuilder(this);
+    const result = fn.expr(expr);
+    if (result instanceof Error) {
+      return result;
+    }
+    return this.#planner.memoize(
+      expr,
+      new EvalCompiled(expr.id, fn.build(result))
+    );
+  }
+
+  resolve(expr: Expr) {
+    return resolveCall(this.#planner, this.#disp, expr);
+  }
+
+  isMemoized(expr: Expr) {
+    return this.#planner.isMemoized(expr);
+  }
+}
+
+/**
+ * FunctionBuilder emits the body of one generated function. Every
+ * expression is evaluated into a local variable; short-circuits and early
+ * returns break out of a labeled block around the code of the call.
+ */
+class FunctionBuilder {
+  #gen: CodeGenerator;
+  #captures: unknown[] = [];
+  #lines: string[] = [];
+  #indent = '  ';
+  #nextVar = 0;
+
+  constructor(gen: CodeGenerator) {
+    this.#gen = gen;
+  }
+
+  build(result: string): (ctx: any) => any {
+    const hoisted = this.#captures.map((_, i) => `const c${i} = $[${i}];`);
+    const source = [
+      `'use strict';`,
+      prelude,
+      ...hoisted,
+      'return function compiled(ctx) {',
+      ...this.#lines,
+      `  return ${result};`,
+      '};',
+    ].join('\n');
+    // eslint-disable-next-line @typescript-eslint/no-implied-eval
+    return new Function('$', 'rt', source)(this.#captures, runtime);
+  }
+
+  /**
+   * Expr emits the code for an expression and returns the name of the
+   * variable or constant holding its value.
+   */
+  expr(expr: Expr): string | Error {
+    if (expr.exprKind.case === 'callExpr' && !this.#gen.isMemoized(expr)) {
+      const call = this.#gen.resolve(expr);
+      if (call.kind !== CallKind.Attribute) {
+        return this.call(expr.id, call);
+      }
+    }
+    const i = this.#gen.compile(expr);
+    if (i instanceof Error) {
+      return i;
+    }
+    if (isInterpretableConst(i)) {
+      return this.capture(i.value());
+    }
+    const v = this.local();
+    this.emit(`const ${v} = ${this.capture(i)}.eval(ctx);`);
+    return v;
+  }
+
+  call(id: bigint, call: CompiledCall) {
+    const args: string[] = [];
+    const v = this.local();
+    this.emit(`let ${v};`);
+    this.emit(`${v}: {`);
+    this.#indent += '  ';
+    const logical =
+      call.kind === CallKind.LogicalAnd || call.kind === CallKind.LogicalOr;
+    if (logical) {
+      this.emit(`let ${v}Err = null;`);
+      this.emit(`let ${v}Unk = null;`);
+    }
+    const strict = !call.nonStrict;
+    for (const arg of call.args) {
+      const a = this.expr(arg);
+      if (a instanceof Error) {
+        return a;
+      }
+      args.push(a);
+      switch (call.kind) {
+        case CallKind.LogicalAnd:
+        case CallKind.LogicalOr:
+          this.logicalTerm(v, id, a, call.kind === CallKind.LogicalAnd);
+          break;
+        case CallKind.VarArgs:
+          // Variadic calls return before evaluating the remaining arguments.
+          if (strict) {
+            this.returnUnknownOrError(v, a);
+          }
+          break;
+        default:
+          break;
+      }
+    }
+    if (call.err !== null) {
+      return call.err;
+    }
+    const label = this.capture(id);
+    switch (call.kind) {
+      case CallKind.LogicalAnd:
+      case CallKind.LogicalOr:
+        this.emit(
+          `${v} = ${v}Unk !== null ? ${v}Unk : ` +
+            `${v}Err !== null ? ${v}Err : BoolRefVal.${
+              call.kind === CallKind.LogicalAnd ? 'True' : 'False'
+            };`
+        );
+        break;
+      case CallKind.Equal:
+      case CallKind.NotEqual: {
+        const [l, r] = args;
+        const eq =
+          call.kind === CallKind.Equal
+            ? `${l}.equal(${r})`
+            : `new BoolRefVal(${l}.equal(${r}).value() !== true)`;
+        this.returnUnknownOrError(v, l);
+        this.returnUnknownOrError(v, r);
+        this.emit(`${v} = ${eq};`);
+        break;
+      }
+      case CallKind.ZeroArity:
+        this.emit(
+          `${v} = labelErrorNode(${label}, ${this.capture(call.impl)}());`
+        );
+        break;
+      default:
+        this.dispatch(v, label, call, args);
+        break;
+    }
+    this.#indent = this.#indent.slice(2);
+    this.emit('}');
+    return v;
+  }
+
+  /**
+   * LogicalTerm emits the handling of one term of && or ||, following
+   * EvalAnd and EvalOr.
+   */
+  logicalTerm(v: string, id: bigint, term: string, and: boolean) {
+    this.emit(`if (${term}.type() === BoolType) {`);
+    this.emit(
+      `  if (${term}.value() === ${!and}) { ${v} = BoolRefVal.${
+        and ? 'False' : 'True'
+      }; break ${v}; }`
+    );
+    this.emit(`} else if (isUnknownRefVal(${term})) {`);
+    this.emit(`  ${v}Unk = mergeUnknowns(${term}, ${v}Unk);`);
+    this.emit(`} else if (${v}Err === null) {`);
+    this.emit(
+      `  ${v}Err = labelErrorNode(${this.capture(
+        id
+      )}, isErrorRefVal(${term}) ? ${term} : ErrorRefVal.maybeNoSuchOverload(${term}));`
+    );
+    this.emit('}');
+  }
+
+  /**
+   * Dispatch emits the call of a function implementation, following
+   * EvalUnary, EvalBinary and EvalVarArgs.
+   */
+  dispatch(v: string, label: string, call: CompiledCall, args: string[]) {
+    const strict = !call.nonStrict;
+    const [arg0, arg1] = args;
+    if (strict && call.kind !== CallKind.VarArgs) {
+      for (const a of args) {
+        this.returnUnknownOrError(v, a);
+      }
+    }
+    if (call.impl !== null) {
+      const invoke = `${v} = labelErrorNode(${label}, ${this.capture(
+        call.impl
+      )}(${args.join(', ')}));`;
+      if (call.traits.length === 0) {
+        this.emit(invoke);
+        return;
+      }
+      const traits = this.capture(call.traits);
+      const conds: string[] = [];
+      if (!strict) {
+        conds.push(`isUnknownOrError(${arg0})`);
+      }
+      conds.push(`${arg0}.type().hasTraits(${traits})`);
+      if (call.kind === CallKind.Binary && call.function === IN_OPERATOR) {
+        conds.push(`${arg1}.type().hasTraits(${traits})`);
+      }
+      this.emit(`if (${conds.join(' || ')}) { ${invoke} break ${v}; }`);
+    }
+    const fn = this.capture(call.function);
+    this.emit(`if (${arg0}.type().hasTrait(RECEIVER_TYPE)) {`);
+    this.emit(
+      `  ${v} = labelErrorNode(${label}, ${arg0}.receive(${fn}, ${this.capture(
+        call.overload
+      )}, [${args.slice(1).join(', ')}]));`
+    );
+    this.emit(`} else {`);
+    this.emit(
+      `  ${v} = new ErrorRefVal('no such overload: ' + ${fn}, ${label});`
+    );
+    this.emit('}');
+  }
+
+  returnUnknownOrError(v: string, a: string) {
+    this.emit(`if (isUnknownOrError(${a})) { ${v} = ${a}; break ${v}; }`);
+  }
+
+  capture(value: unknown) {
+    let i = this.#captures.indexOf(value);
+    if (i < 0) {
+      i = this.#captures.push(value) - 1;
+    }
+    return `c${i}`;
+  }
+
+  local() {
+    return `v${this.#nextVar++}`;
+  }
+
+  emit(line: string) {
+    this.#lines.push(this.#indent + line);
+  }
+}
@@ -0,0 +1,32 @@
+import { ruleEnv, ruleInput, ruleWorkloads } from '../bench/workloads';
+import { EvalOption, evalOptions, ProgramOption } from '../cel/options';
+import { Program } from '../cel/program';
+
+/**
+ * Compares the evaluation tiers on the rule workloads: the planned
+ * Interpretable tree, closures and generated code. Creating a program is
+ * measured as well, since that is where the tiers pay for their speed.
+ */
+
+const tiers: Record<string, ProgramOption[]> = {
+  interpreted: [],
+  closures: [evalOptions(EvalOption.CompileClosures)],
+  generated: [evalOptions(EvalOption.Compile)],
+};
+
+for (const { name, ast } of ruleWorkloads()) {
+  describe(name, () => {
+    for (const [tier, opts] of Object.entries(tiers)) {
+      const prg = ruleEnv.program(ast, ...opts) as Program;
+      bench(`eval ${tier}`, () => {
+        prg.eval(ruleInput);
+      });
+    }
+
+    for (const [tier, opts] of Object.entries(tiers)) {
+      bench(`program ${tier}`, () => {
+        ruleEnv.program(ast, ...opts);
+      });
+    }
+  });
+}
@@ -0,0 +1,88 @@
+/* eslint-disable @typescript-eslint/no-explicit-any */
+import { IntType, listType, StringType, variable } from '../cel/decls';
+import { Ast, Env } from '../cel/env';
+import { EvalOption, evalOptions } from '../cel/options';
+import { prog } from '../cel/program';
+import { conformanceExpressions } from '../conformance/corpus';
+import { programOutcome } from '../conformance/outcome';
+import { EvalCompiled } from './compiler';
+
+describe.each([
+  { name: 'generateInterpretable', option: EvalOption.Compile },
+  { name: 'closureInterpretable', option: EvalOption.CompileClosures },
+])('$name', ({ option }) => {
+  const env = new Env(
+    variable('a', IntType),
+    variable('b', IntType),
+    variable('s', StringType),
+    variable('l', listType(IntType)),
+    variable('m', IntType)
+  );
+  const input = { a: BigInt(3), b: BigInt(0), s: 'abc', l: [BigInt(1)] };
+  const compile = evalOptions(option);
+
+  const tests = [
+    'a > 2 && b == 0',
+    'a > 2 && a / b == 1',
+    'a / b == 1 && a > 4',
+    'a / b == 1 || a > 2',
+    'a / b == 1 || a > 4',
+    'a / b == 1 || m > 4',
+    'm > 4 || a / b == 1',
+    'a != 3 || s != "abc"',
+    '-a + a * 2 - (a % 2) == 4',
+    'size(s) == 3 && s.size() == 3 && s.startsWith("a")',
+    'a in l || 1 in l',
+    'a < 0 ? s : s + "d"',
+    'a > 0 ? l : [a / b]',
+    '(a > 0 ? l : [2])[0] + a',
+    'l[a]',
+    'int(s)',
+    'string(a) + s',
+    'l.all(x, x > 0) && l.exists(x, x == a)',
+    'timestamp(s)',
+    'duration("1s") + duration("2s") > duration("2s")',
+  ];
+
+  for (const expr of tests) {
+    it(`should evaluate ${expr} like the interpreter`, () => {
+      const ast = env.compile(expr) as Ast;
+      expect(ast).toBeInstanceOf(Ast);
+      expect(programOutcome(env, ast, input, compile)).toEqual(
+        programOutcome(env, ast, input)
+      );
+    });
+  }
+
+  it('should compile calls', () => {
+    const prg = env.program(env.compile('a + b > 1') as Ast, compile) as prog;
+    expect(prg.interpretable).toBeInstanceOf(EvalCompiled);
+  });
+
+  it('should not compile programs that track cost', () => {
+    const prg = env.program(
+      env.compile('a + b > 1') as Ast,
+      compile,
+      evalOptions(EvalOption.TrackCost)
+    ) as any;
+    expect(prg.prog.interpretable).not.toBeInstanceOf(EvalCompiled);
+  });
+
+  it('should give the same results on the conformance suite', () => {
+    const env = new Env();
+    for (const exprs of conformanceExpressions().values()) {
+      for (const expr of exprs) {
+        let ast = env.compile(expr);
+        if (!(ast instanceof Ast)) {
+          ast = env.parse(expr);
+        }
+        if (!(ast instanceof Ast)) {
+          continue;
+        }
+        expect(programOutcome(env, ast, {}, compile), expr).toEqual(
+          programOutcome(env, ast, {})
+        );
+      }
+    }
+  });
+});
@@ -0,0 +1,222 @@
+import { isNil } from '@bearclaw/is';
+import { BinaryOp, FunctionOp, Overload, UnaryOp } from '../common/functions';
+import {
+  CONDITIONAL_OPERATOR,
+  EQUALS_OPERATOR,
+  INDEX_OPERATOR,
+  LOGICAL_AND_OPERATOR,
+  LOGICAL_OR_OPERATOR,
+  NOT_EQUALS_OPERATOR,
+  OPT_INDEX_OPERATOR,
+  OPT_SELECT_OPERATOR,
+} from '../common/operators';
+import { RefVal } from '../common/ref/reference';
+import { Trait } from '../common/types/traits/trait';
+import { Expr } from '../protogen/cel/expr/syntax_pb.js';
+import { Activation } from './activation';
+import { Dispatcher } from './dispatcher';
+import { Interpretable } from './interpretable';
+import { Planner } from './planner';
+
+/**
+ * ExprCompiler turns an expression into an Interpretable which evaluates
+ * without dispatching through a tree of Interpretable nodes. The planner is
+ * used for the parts of the expression the compiler leaves to the
+ * interpreter, so a compiler must produce the same values and errors as the
+ * planned tree.
+ *
+ * Compilers are only used for programs without InterpretableDecorators, since
+ * decorators need a node for every step of the evaluation.
+ */
+export type ExprCompiler = (
+  planner: Planner,
+  disp: Dispatcher,
+  expr: Expr
+) => Interpretable | Error;
+
+/**
+ * EvalCompiled is the Interpretable for a compiled expression.
+ */
+export class EvalCompiled implements Interpretable {
+  #id: bigint;
+  #fn: (ctx: Activation) => RefVal;
+
+  constructor(id: bigint, fn: (ctx: Activation) => RefVal) {
+    this.#id = id;
+    this.#fn = fn;
+  }
+
+  id() {
+    return this.#id;
+  }
+
+  eval(ctx: Activation): RefVal {
+    return this.#fn(ctx);
+  }
+}
+
+/**
+ * CallKind is the Interpretable the planner would create for a call.
+ */
+export enum CallKind {
+  LogicalAnd,
+  LogicalOr,
+  Equal,
+  NotEqual,
+  /**
+   * Conditionals and index operations, which the planner turns into
+   * attributes. Compilers hand these to the planner with compiled arguments.
+   */
+  Attribute,
+  ZeroArity,
+  Unary,
+  Binary,
+  VarArgs,
+}
+
+/**
+ * CompiledCall describes a call expression as planCall would plan it.
+ */
+export interface CompiledCall {
+  kind: CallKind;
+  function: string;
+  overload: string;
+  /**
+   * The arguments of the call, starting with the receiver if there is one.
+   */
+  args: Expr[];
+  impl: UnaryOp | BinaryOp | FunctionOp | null;
+  traits: Trait[];
+  nonStrict: boolean;
+  /**
+   * The error planCall would return once the arguments were planned without
+   * errors.
+   */
+  err: Error | null;
+}
+
+/**
+ * resolveCall resolves the function and overload of a call expression the
+ * same way the planner does.
+ */
+export function resolveCall(
+  planner: Planner,
+  disp: Dispatcher,
+  expr: Expr
+): CompiledCall {
+  const [target, fnName, oName] = planner.resolveFunction(expr);
+  const args: Expr[] = [];
+  if (!isNil(target)) {
+    args.push(target);
+  }
+  if (expr.exprKind.case === 'callExpr') {
+    args.push(...expr.exprKind.value.args);
+  }
+  const call: CompiledCall = {
+    kind: CallKind.VarArgs,
+    function: fnName,
+    overload: oName,
+    args,
+    impl: null,
+    traits: [],
+    nonStrict: false,
+    err: null,
+  };
+  switch (fnName) {
+    case LOGICAL_AND_OPERATOR:
+      call.kind = CallKind.LogicalAnd;
+      return call;
+    case LOGICAL_OR_OPERATOR:
+      call.kind = CallKind.LogicalOr;
+      return call;
+    case EQUALS_OPERATOR:
+      call.kind = CallKind.Equal;
+      return call;
+    case NOT_EQUALS_OPERATOR:
+      call.kind = CallKind.NotEqual;
+      return call;
+    case CONDITIONAL_OPERATOR:
+    case INDEX_OPERATOR:
+    case OPT_SELECT_OPERATOR:
+    case OPT_INDEX_OPERATOR:
+      call.kind = CallKind.Attribute;
+      return call;
+    default:
+      break;
+  }
+
+  let fnDef: Overload | null = null;
+  if (oName !== '') {
+    fnDef = disp.findOverload(oName);
+  }
+  if (isNil(fnDef)) {
+    fnDef = disp.findOverload(fnName);
+  }
+  let impl: UnaryOp | BinaryOp | FunctionOp | null | undefined = null;
+  let signature = '(...)';
+  switch (args.length) {
+    case 0:
+      call.kind = CallKind.ZeroArity;
+      if (isNil(fnDef) || isNil(fnDef.function)) {
+        call.err = new Error(`no such overload: ${fnName}()`);
+        return call;
+      }
+      call.impl = fnDef.function;
+      return call;
+    case 1:
+      if (!isNil(fnDef) && isNil(fnDef.unary) && !isNil(fnDef.function)) {
+        impl = fnDef.function;
+      } else {
+        call.kind = CallKind.Unary;
+        impl = fnDef?.unary;
+        signature = '(arg)';
+      }
+      break;
+    case 2:
+      if (!isNil(fnDef) && isNil(fnDef.binary) && !isNil(fnDef.function)) {
+        impl = fnDef.function;
+      } else {
+        call.kind = CallKind.Binary;
+        impl = fnDef?.binary;
+        signature = '(lhs, rhs)';
+      }
+      break;
+    default:
+      impl = fnDef?.function;
+      break;
+  }
+  if (!isNil(fnDef)) {
+    if (isNil(impl)) {
+      call.err = new Error(`no such overload: ${fnName}${signature}`);
+      return call;
+    }
+    call.impl = impl;
+    call.traits = fnDef.operandTraits;
+    call.nonStrict = fnDef.nonStrict ?? false;
+  }
+  return call;
+}
+
+/**
+ * planAttributeCall plans a conditional or index operation over the compiled
+ * arguments of the call, as planCall does for the planned ones.
+ */
+export function planAttributeCall(
+  planner: Planner,
+  expr: Expr,
+  call: CompiledCall,
+  compile: (arg: Expr) => Interpretable | Error
+): Interpretable | Error {
+  const args: Interpretable[] = [];
+  for (const arg of call.args) {
+    const compiled = compile(arg);
+    if (compiled instanceof Error) {
+      return compiled;
+    }
+    args.push(compiled);
+  }
+  if (call.function === CONDITIONAL_OPERATOR) {
+    return planner.planCallConditional(expr, args);
+  }
+  return planner.planCallIndex(expr, args, call.function !== INDEX_OPERATOR);
+}
@@ -1,4 +1,7 @@
 import {
+  EvalAdaptiveLogical,
+  EvalAnd,
+  EvalOr,
   EvalWatch,
   EvalWatchAttr,
   EvalWatchConst,
@@ -42,3 +45,27 @@ export function decObserveEval(observer: EvalObserver): InterpretableDecorator {
     }
   };
 }
+
+/**
+ * decAdaptiveLogical replaces the && and || nodes with EvalAdaptiveLogical
+ * nodes, which reorder their terms from the short-circuit rates observed at
+ * runtime. The static cost estimates of the terms are looked up in `costs`
+ * by expression id.
+ *
+ * It must come before decorators which wrap the nodes it replaces.
+ */
+export function decAdaptiveLogical(
+  costs: Map<bigint, number>
+): InterpretableDecorator {
+  return (int: Interpretable) => {
+    if (int instanceof EvalAnd || int instanceof EvalOr) {
+      return new EvalAdaptiveLogical(
+        int.id(),
+        int.terms,
+        int.terms.map((term) => costs.get(term.id()) ?? 1),
+        int instanceof EvalOr
+      );
+    }
+    return int;
+  };
+}
@@ -0,0 +1,40 @@
+import { ruleEnv, ruleInput, ruleWorkloads } from '../bench/workloads';
+import { EvalOption, evalOptions } from '../cel/options';
+import { Program } from '../cel/program';
+
+/**
+ * Compares evaluating the rule workloads as written with evaluating them
+ * after constant folding. The nodes eliminated from each rule are printed
+ * before the benchmarks run.
+ */
+
+const workloads = ruleWorkloads();
+
+const eliminated: Record<string, number> = {};
+for (const { name, ast } of workloads) {
+  const result = ruleEnv.foldConstants(ast);
+  if (result instanceof Error) {
+    throw result;
+  }
+  eliminated[name] = result[1];
+}
+console.log('Nodes eliminated by constant folding');
+console.table(eliminated);
+
+for (const { name, ast } of workloads) {
+  describe(name, () => {
+    const plain = ruleEnv.program(ast) as Program;
+    const folded = ruleEnv.program(
+      ast,
+      evalOptions(EvalOption.Optimize)
+    ) as Program;
+
+    bench('eval', () => {
+      plain.eval(ruleInput);
+    });
+
+    bench('eval folded', () => {
+      folded.eval(ruleInput);
+    });
+  });
+}
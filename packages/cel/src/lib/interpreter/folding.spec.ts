@@ -0,0 +1,153 @@
+/* eslint-disable @typescript-eslint/no-explicit-any */
+import {
+  BoolType,
+  func,
+  IntType,
+  overload,
+  StringType,
+  variable,
+} from '../cel/decls';
+import { Ast, Env } from '../cel/env';
+import { EvalOption, evalOptions } from '../cel/options';
+import { Program } from '../cel/program';
+import { overloadIsPure, unaryBinding } from '../common/decls';
+import { RefVal } from '../common/ref/reference';
+import { IntRefVal } from '../common/types/int';
+import { conformanceExpressions } from '../conformance/corpus';
+import { programOutcome } from '../conformance/outcome';
+import { unparse } from '../parser/unparser';
+
+describe('foldConstants', () => {
+  const env = new Env(
+    variable('a', IntType),
+    variable('b', BoolType),
+    variable('s', StringType)
+  );
+
+  const tests = [
+    { in: '1 + 2 * 3 == 7', out: 'true', eliminated: 6 },
+    { in: '"a" + "b" + s', out: '"ab" + s', eliminated: 2 },
+    { in: '2 in [1, 2, 3] && b', out: 'b', eliminated: 7 },
+    { in: 'a in [1, 2, 3] && b', out: 'a in [1, 2, 3] && b', eliminated: 0 },
+    { in: 'false && b', out: 'false', eliminated: 2 },
+    { in: 'b || a / 0 == 1 || true', out: 'true', eliminated: 8 },
+    { in: 'b && true && s == ""', out: 'b && s == ""', eliminated: 2 },
+    { in: '!!b', out: 'b', eliminated: 2 },
+    { in: '!!!b', out: '!b', eliminated: 2 },
+    { in: '!!(a > 1)', out: 'a > 1', eliminated: 2 },
+    { in: 'true ? a : 1 / 0', out: 'a', eliminated: 5 },
+    { in: 'size("abc") > a', out: '3 > a', eliminated: 1 },
+    { in: '"abc".startsWith("a")', out: 'true', eliminated: 2 },
+    { in: 'int("12") + a > 1', out: '12 + a > 1', eliminated: 1 },
+    {
+      in: '9223372036854775807 + 1 > a',
+      out: '9223372036854775807 + 1 > a',
+      eliminated: 0,
+    },
+    { in: '1 / 0 == a', out: '1 / 0 == a', eliminated: 0 },
+    { in: '[1, 2][a]', out: '[1, 2][a]', eliminated: 0 },
+    { in: '{"k": 1 + 1}["k"]', out: '2', eliminated: 6 },
+  ];
+
+  for (const tc of tests) {
+    it(`should fold ${tc.in}`, () => {
+      const ast = env.compile(tc.in) as Ast;
+      const result = env.foldConstants(ast);
+      if (result instanceof Error) {
+        throw result;
+      }
+      const [folded, eliminated] = result;
+      expect(unparse(folded.nativeRep())).toEqual(tc.out);
+      expect(eliminated).toEqual(tc.eliminated);
+    });
+  }
+
+  it('should only drop constant terms of parsed expressions', () => {
+    const ast = env.parse('true && x') as Ast;
+    const [folded, eliminated] = env.foldConstants(ast) as [Ast, number];
+    expect(unparse(folded.nativeRep())).toEqual('true && x');
+    expect(eliminated).toEqual(0);
+    const [pruned] = env.foldConstants(env.parse('x || true') as Ast) as [
+      Ast,
+      number
+    ];
+    expect(unparse(pruned.nativeRep())).toEqual('true');
+  });
+
+  it('should not modify the input', () => {
+    const ast = env.compile('1 + 1 == a') as Ast;
+    env.foldConstants(ast);
+    expect(unparse(ast.nativeRep())).toEqual('1 + 1 == a');
+  });
+
+  it('should drop the type and reference entries of eliminated nodes', () => {
+    const ast = env.compile('1 + 1 == a') as Ast;
+    const [folded] = env.foldConstants(ast) as [Ast, number];
+    const native = folded.nativeRep();
+    expect(native.typeMap().size).toEqual(3);
+    expect(native.referenceMap().size).toEqual(2);
+    expect(folded.outputType()).toEqual(BoolType);
+  });
+
+  it('should keep overflow errors', () => {
+    const ast = env.compile('9223372036854775807 + 1 > a') as Ast;
+    const [, , err] = (
+      env.program(ast, evalOptions(EvalOption.Optimize)) as any
+    ).eval({ a: BigInt(1) });
+    expect(err?.message).toContain('overflow');
+  });
+
+  it('should only evaluate pure functions ahead of time', () => {
+    let calls = 0;
+    const tick = unaryBinding((v: RefVal) => {
+      calls++;
+      return (v as IntRefVal).add(IntRefVal.IntOne);
+    });
+    const env = new Env(
+      variable('a', IntType),
+      func('next', overload('next_int', [IntType], IntType, tick)),
+      func(
+        'succ',
+        overload('succ_int', [IntType], IntType, overloadIsPure(), tick)
+      )
+    );
+    const fold = (expr: string) => {
+      const [folded] = env.foldConstants(env.compile(expr) as Ast) as [
+        Ast,
+        number
+      ];
+      return unparse(folded.nativeRep());
+    };
+    expect(fold('next(1) + a')).toEqual('next(1) + a');
+    expect(fold('succ(1) + a')).toEqual('2 + a');
+    expect(fold('next(1 + 1) + succ(2)')).toEqual('next(2) + 3');
+
+    const prg = env.program(
+      env.compile('next(1) + a') as Ast,
+      evalOptions(EvalOption.Optimize)
+    ) as Program;
+    calls = 0;
+    prg.eval({ a: BigInt(0) });
+    prg.eval({ a: BigInt(0) });
+    expect(calls).toEqual(2);
+  });
+
+  it('should give the same results on the conformance suite', () => {
+    const env = new Env();
+    const optimize = evalOptions(EvalOption.Optimize);
+    for (const exprs of conformanceExpressions().values()) {
+      for (const expr of exprs) {
+        let ast = env.compile(expr);
+        if (!(ast instanceof Ast)) {
+          ast = env.parse(expr);
+        }
+        if (!(ast instanceof Ast)) {
+          continue;
+        }
+        expect(programOutcome(env, ast, {}, optimize), expr).toEqual(
+          programOutcome(env, ast, {})
+        );
+      }
+    }
+  });
+});
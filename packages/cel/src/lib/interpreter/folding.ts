@@ -0,0 +1,442 @@
+import { isNil } from '@bearclaw/is';
+import { clone } from '@bufbuild/protobuf';
+import { AST, CheckedAST, ReferenceInfo } from '../common/ast';
+import { FunctionDecl, OverloadDecl } from '../common/decls';
+import {
+  CONDITIONAL_OPERATOR,
+  LOGICAL_AND_OPERATOR,
+  LOGICAL_NOT_OPERATOR,
+  LOGICAL_OR_OPERATOR,
+} from '../common/operators';
+import { refValToProtoConstant } from '../common/pb/constants';
+import {
+  newBoolProtoExpr,
+  newConstantProtoExpr,
+} from '../common/pb/expressions';
+import { RefVal } from '../common/ref/reference';
+import { stdFunctions } from '../common/stdlib';
+import {
+  BoolType,
+  BytesType,
+  DoubleType,
+  IntType,
+  Kind,
+  NullType,
+  StringType,
+  Type,
+  UintType,
+} from '../common/types/types';
+import { Expr, Expr_Call, ExprSchema } from '../protogen/cel/expr/syntax_pb.js';
+import { EmptyActivation } from './activation';
+import { Interpreter } from './interpreter';
+
+/**
+ * FoldConstants returns a copy of the AST in which constant subexpressions
+ * are replaced by literals, along with the number of expression nodes that
+ * were eliminated.
+ *
+ * A call whose arguments are all literals, or lists and maps of literals, is
+ * evaluated with the interpreter and replaced by its result when that is a
+ * bool, bytes, double, int, null, string or uint value. Only calls which
+ * resolve to standard library overloads, or to overloads of `functions`
+ * marked pure, are evaluated; other functions may have side effects or
+ * return a different result on each evaluation. Calls which evaluate to an
+ * error, such as an overflow, are kept so that the error is still reported
+ * when the program runs. Functions without arguments are never evaluated,
+ * since they may depend on the time or other state.
+ *
+ * Logical operators and conditionals with constant operands are pruned:
+ * `false && e` becomes `false`, `true ? a : b` becomes `a` and, where the
+ * checker proved `e` to be a bool, `true && e` and `!!e` become `e`.
+ */
+export function foldConstants(
+  interp: Interpreter,
+  a: AST,
+  functions: Map<string, FunctionDecl>
+): [AST, number] {
+  const folder = new ConstantFolder(interp, a, functions);
+  const before = countNodes(a.expr());
+  const expr = folder.fold(clone(ExprSchema, a.expr()));
+  return [folder.ast(expr), before - countNodes(expr)];
+}
+
+class ConstantFolder {
+  #interp: Interpreter;
+  #source: AST;
+  #vars = new EmptyActivation();
+  #literals = new Set<bigint>();
+  #pure: PureOverloads;
+
+  constructor(
+    interp: Interpreter,
+    source: AST,
+    functions: Map<string, FunctionDecl>
+  ) {
+    this.#interp = interp;
+    this.#source = source;
+    this.#pure = new PureOverloads(functions);
+  }
+
+  /**
+   * Fold folds the children of the expression and then the expression
+   * itself, returning the expression which replaces it.
+   */
+  fold(e: Expr): Expr {
+    switch (e.exprKind.case) {
+      case 'callExpr': {
+        const call = e.exprKind.value;
+        if (!isNil(call.target)) {
+          call.target = this.fold(call.target);
+        }
+        call.args = call.args.map((arg) => this.fold(arg));
+        return this.foldCall(e, call);
+      }
+      case 'selectExpr': {
+        const sel = e.exprKind.value;
+        if (!isNil(sel.operand)) {
+          sel.operand = this.fold(sel.operand);
+        }
+        return e;
+      }
+      case 'listExpr': {
+        const list = e.exprKind.value;
+        list.elements = list.elements.map((elem) => this.fold(elem));
+        return e;
+      }
+      case 'structExpr':
+        for (const entry of e.exprKind.value.entries) {
+          if (entry.keyKind.case === 'mapKey') {
+            entry.keyKind.value = this.fold(entry.keyKind.value);
+          }
+          if (!isNil(entry.value)) {
+            entry.value = this.fold(entry.value);
+          }
+        }
+        return e;
+      case 'comprehensionExpr': {
+        const comp = e.exprKind.value;
+        comp.iterRange = comp.iterRange && this.fold(comp.iterRange);
+        comp.accuInit = comp.accuInit && this.fold(comp.accuInit);
+        comp.loopCondition =
+          comp.loopCondition && this.fold(comp.loopCondition);
+        comp.loopStep = comp.loopStep && this.fold(comp.loopStep);
+        comp.result = comp.result && this.fold(comp.result);
+        return e;
+      }
+      default:
+        return e;
+    }
+  }
+
+  foldCall(e: Expr, call: Expr_Call): Expr {
+    const args = call.args;
+    switch (call.function) {
+      case LOGICAL_AND_OPERATOR:
+        return this.foldLogical(e, call, false);
+      case LOGICAL_OR_OPERATOR:
+        return this.foldLogical(e, call, true);
+      case CONDITIONAL_OPERATOR: {
+        const cond = constantValue(args[0]);
+        if (cond === true) {
+          return args[1];
+        }
+        if (cond === false) {
+          return args[2];
+        }
+        return e;
+      }
+      case LOGICAL_NOT_OPERATOR: {
+        const inner = args[0];
+        if (
+          inner.exprKind.case === 'callExpr' &&
+          inner.exprKind.value.function === LOGICAL_NOT_OPERATOR &&
+          this.isBool(inner.exprKind.value.args[0])
+        ) {
+          return inner.exprKind.value.args[0];
+        }
+        break;
+      }
+      default:
+        break;
+    }
+    if (args.length === 0 && isNil(call.target)) {
+      return e;
+    }
+    if (
+      !args.every(isConstant) ||
+      (!isNil(call.target) && !isConstant(call.target)) ||
+      !this.#pure.isPure(this.#source, e, call)
+    ) {
+      return e;
+    }
+    return this.evaluate(e);
+  }
+
+  /**
+   * FoldLogical prunes the constant terms of && (`shortCircuit` false) and
+   * || (`shortCircuit` true). A term equal to `shortCircuit` decides the
+   * result whatever the other terms evaluate to, including errors.
+   */
+  foldLogical(e: Expr, call: Expr_Call, shortCircuit: boolean): Expr {
+    if (call.args.some((arg) => constantValue(arg) === shortCircuit)) {
+      return this.literal(newBoolProtoExpr(e.id, shortCircuit));
+    }
+    const rest = call.args.filter(
+      (arg) => constantValue(arg) !== !shortCircuit
+    );
+    if (rest.length === 0) {
+      return this.literal(newBoolProtoExpr(e.id, !shortCircuit));
+    }
+    // Dropping a term is only safe when the remaining terms are bools, as
+    // the operator reports other values as errors.
+    if (
+      rest.length === call.args.length ||
+      !rest.every((term) => this.isBool(term))
+    ) {
+      return e;
+    }
+    if (rest.length === 1) {
+      return rest[0];
+    }
+    call.args = rest;
+    return e;
+  }
+
+  /**
+   * Evaluate replaces a call over constants by a literal of its value.
+   */
+  evaluate(e: Expr): Expr {
+    let val: RefVal;
+    try {
+      const i = this.#interp.newInterpretable(this.ast(e, false));
+      if (i instanceof Error) {
+        return e;
+      }
+      val = i.eval(this.#vars);
+    } catch {
+      return e;
+    }
+    if (!literalTypes.includes(val.type() as Type)) {
+      return e;
+    }
+    return this.literal(newConstantProtoExpr(e.id, refValToProtoConstant(val)));
+  }
+
+  /**
+   * Literal records that a call was replaced by the literal, so that the
+   * reference to its function is dropped.
+   */
+  literal(e: Expr) {
+    this.#literals.add(e.id);
+    return e;
+  }
+
+  isBool(e: Expr) {
+    return (
+      typeof constantValue(e) === 'boolean' ||
+      this.#source.typeMap().get(e.id)?.kind() === Kind.BOOL
+    );
+  }
+
+  /**
+   * Ast wraps an expression with the source information and, for checked
+   * ASTs, the type and reference maps of the source AST. When `prune` is set
+   * only the entries of the expression's nodes are kept.
+   */
+  ast(e: Expr, prune = true): AST {
+    const parsed = new AST(e, this.#source.sourceInfo());
+    if (!this.#source.isChecked()) {
+      return parsed;
+    }
+    if (!prune) {
+      return new CheckedAST(
+        parsed,
+        this.#source.typeMap(),
+        this.#source.referenceMap()
+      );
+    }
+    const ids = new Set<bigint>();
+    collectIds(e, ids);
+    const typeMap = new Map<bigint, Type>();
+    for (const [id, t] of this.#source.typeMap()) {
+      if (ids.has(id)) {
+        typeMap.set(id, t);
+      }
+    }
+    const refMap = new Map<bigint, ReferenceInfo>();
+    for (const [id, ref] of this.#source.referenceMap()) {
+      if (ids.has(id) && !this.#literals.has(id)) {
+        refMap.set(id, ref);
+      }
+    }
+    return new CheckedAST(parsed, typeMap, refMap);
+  }
+}
+
+/**
+ * The ids of the standard library overloads, which are all pure.
+ */
+const stdOverloadIds = new Set(
+  stdFunctions.flatMap((fn) => fn.overloadDecls().map((o) => o.id()))
+);
+
+/**
+ * PureOverloads tells which calls may be evaluated ahead of time or only
+ * once: those to the standard library and to overloads of the given
+ * functions which are marked pure.
+ */
+export class PureOverloads {
+  #functions: Map<string, FunctionDecl>;
+  #overloads = new Map<string, OverloadDecl>();
+
+  constructor(functions: Map<string, FunctionDecl>) {
+    this.#functions = functions;
+    for (const fn of functions.values()) {
+      for (const o of fn.overloadDecls()) {
+        this.#overloads.set(o.id(), o);
+      }
+    }
+  }
+
+  /**
+   * IsPure reports whether every overload the call may resolve to belongs to
+   * the standard library or is marked pure. Checked calls resolve to the
+   * overloads of their reference, and parsed calls to any overload of the
+   * function.
+   */
+  isPure(a: AST, e: Expr, call: Expr_Call) {
+    let ids = a.referenceMap().get(e.id)?.overloadIds ?? [];
+    if (ids.length === 0) {
+      const fn = this.#functions.get(call.function);
+      ids = fn?.overloadDecls().map((o) => o.id()) ?? [];
+    }
+    return (
+      ids.length > 0 &&
+      ids.every(
+        (id) => stdOverloadIds.has(id) || this.#overloads.get(id)?.pure
+      )
+    );
+  }
+}
+
+const literalTypes: Type[] = [
+  BoolType,
+  BytesType,
+  DoubleType,
+  IntType,
+  NullType,
+  StringType,
+  UintType,
+];
+
+/**
+ * ConstantValue returns the value of a literal, or undefined if the
+ * expression is not a literal.
+ */
+function constantValue(e: Expr) {
+  if (e.exprKind.case !== 'constExpr') {
+    return undefined;
+  }
+  return e.exprKind.value.constantKind.value;
+}
+
+/**
+ * IsConstant reports whether the expression is a literal, or a list or map
+ * of literals without optional elements.
+ */
+function isConstant(e: Expr): boolean {
+  switch (e.exprKind.case) {
+    case 'constExpr':
+      return true;
+    case 'listExpr':
+      return (
+        e.exprKind.value.optionalIndices.length === 0 &&
+        e.exprKind.value.elements.every(isConstant)
+      );
+    case 'structExpr':
+      return (
+        e.exprKind.value.messageName === '' &&
+        e.exprKind.value.entries.every(
+          (entry) =>
+            !entry.optionalEntry &&
+            entry.keyKind.case === 'mapKey' &&
+            isConstant(entry.keyKind.value) &&
+            !isNil(entry.value) &&
+            isConstant(entry.value)
+        )
+      );
+    default:
+      return false;
+  }
+}
+
+/**
+ * CollectIds adds the ids of the expression and all its descendants,
+ * including map and struct entries, to `ids`.
+ */
+function collectIds(e: Expr, ids: Set<bigint>) {
+  ids.add(e.id);
+  forEachChild(e, (child) => collectIds(child, ids));
+  if (e.exprKind.case === 'structExpr') {
+    for (const entry of e.exprKind.value.entries) {
+      ids.add(entry.id);
+    }
+  }
+}
+
+function countNodes(e: Expr): number {
+  let count = 1;
+  forEachChild(e, (child) => {
+    count += countNodes(child);
+  });
+  return count;
+}
+
+/**
+ * ForEachChild calls `fn` for each direct subexpression of the expression.
+ */
+export function forEachChild(e: Expr, fn: (child: Expr) => void) {
+  switch (e.exprKind.case) {
+    case 'callExpr':
+      if (!isNil(e.exprKind.value.target)) {
+        fn(e.exprKind.value.target);
+      }
+      e.exprKind.value.args.forEach(fn);
+      break;
+    case 'selectExpr':
+      if (!isNil(e.exprKind.value.operand)) {
+        fn(e.exprKind.value.operand);
+      }
+      break;
+    case 'listExpr':
+      e.exprKind.value.elements.forEach(fn);
+      break;
+    case 'structExpr':
+      for (const entry of e.exprKind.value.entries) {
+        if (entry.keyKind.case === 'mapKey') {
+          fn(entry.keyKind.value);
+        }
+        if (!isNil(entry.value)) {
+          fn(entry.value);
+        }
+      }
+      break;
+    case 'comprehensionExpr': {
+      const comp = e.exprKind.value;
+      for (const child of [
+        comp.iterRange,
+        comp.accuInit,
+        comp.loopCondition,
+        comp.loopStep,
+        comp.result,
+      ]) {
+        if (!isNil(child)) {
+          fn(child);
+        }
+      }
+      break;
+    }
+    default:
+      break;
+  }
+}
@@ -376,7 +376,7 @@ export class EvalOr implements Interpretable {
           return BoolRefVal.True;
         }
       } else {
-        if (unk && isUnknownRefVal(unk)) {
+        if (isUnknownRefVal(val)) {
           unk = maybeMergeUnknowns(val, unk) as UnknownRefVal;
         } else if (isNil(err)) {
           if (isErrorRefVal(val)) {
@@ -422,7 +422,7 @@ export class EvalAnd implements Interpretable {
           return BoolRefVal.False;
         }
       } else {
-        if (unk && isUnknownRefVal(unk)) {
+        if (isUnknownRefVal(val)) {
           unk = maybeMergeUnknowns(val, unk) as UnknownRefVal;
         } else if (isNil(err)) {
           if (isErrorRefVal(val)) {
@@ -444,6 +444,114 @@ export class EvalAnd implements Interpretable {
   }
 }
 
+/**
+ * The number of evaluations between two reorderings of the terms of an
+ * EvalAdaptiveLogical.
+ */
+const ADAPTIVE_INTERVAL = 64;
+
+interface AdaptiveTerm {
+  interpretable: Interpretable;
+  cost: number;
+  evals: number;
+  decided: number;
+}
+
+/**
+ * EvalAdaptiveLogical evaluates the terms of && (`shortCircuit` false) or
+ * || (`shortCircuit` true) like EvalAnd and EvalOr, and periodically
+ * reorders them by the ratio of their estimated cost to the rate at which
+ * they decided the result. Terms which are cheap and often short-circuit the
+ * operator move to the front.
+ *
+ * The counts decay at each reordering, so the order follows changes in the
+ * input.
+ */
+export class EvalAdaptiveLogical implements Interpretable {
+  #id: bigint;
+  #shortCircuit: boolean;
+  #terms: AdaptiveTerm[];
+  #evals = 0;
+
+  constructor(
+    id: bigint,
+    terms: Interpretable[],
+    costs: number[],
+    shortCircuit: boolean
+  ) {
+    this.#id = id;
+    this.#shortCircuit = shortCircuit;
+    this.#terms = terms.map((interpretable, i) => ({
+      interpretable,
+      cost: Math.max(costs[i] ?? 1, 1),
+      evals: 0,
+      decided: 0,
+    }));
+  }
+
+  id() {
+    return this.#id;
+  }
+
+  /**
+   * Terms returns the terms in their current order.
+   */
+  terms() {
+    return this.#terms.map((term) => term.interpretable);
+  }
+
+  eval(ctx: Activation): RefVal {
+    if (++this.#evals % ADAPTIVE_INTERVAL === 0) {
+      this.reorder();
+    }
+    let err: RefVal | null = null;
+    let unk: UnknownRefVal | null = null;
+    for (const term of this.#terms) {
+      term.evals++;
+      const val = term.interpretable.eval(ctx);
+      if (val.type() === BoolType) {
+        if (val.value() === this.#shortCircuit) {
+          term.decided++;
+          return this.#shortCircuit ? BoolRefVal.True : BoolRefVal.False;
+        }
+      } else {
+        if (isUnknownRefVal(val)) {
+          unk = maybeMergeUnknowns(val, unk) as UnknownRefVal;
+        } else if (isNil(err)) {
+          if (isErrorRefVal(val)) {
+            err = val;
+          } else {
+            err = ErrorRefVal.maybeNoSuchOverload(val);
+          }
+          err = labelErrorNode(this.#id, err);
+        }
+      }
+    }
+    if (!isNil(unk)) {
+      return unk;
+    }
+    if (!isNil(err)) {
+      return err;
+    }
+    return this.#shortCircuit ? BoolRefVal.False : BoolRefVal.True;
+  }
+
+  /**
+   * Reorder sorts the terms by their expected cost per decided evaluation.
+   * Rates are smoothed so that terms which have not been evaluated yet keep
+   * a rate of one half.
+   */
+  reorder() {
+    const rank = (term: AdaptiveTerm) =>
+      (term.cost * (term.evals + 2)) / (term.decided + 1);
+    this.#terms.sort((a, b) => rank(a) - rank(b));
+    for (const term of this.#terms) {
+      term.evals /= 2;
+      term.decided /= 2;
+    }
+  }
+}
+
 export class EvalEq implements InterpretableCall {
   #id: bigint;
   #lhs: Interpretable;
@@ -460,8 +568,13 @@ export class EvalEq implements InterpretableCall {
   }
 
   eval(ctx: Activation) {
-    const lval = this.#lhs.eval(ctx);
-    const rval = this.#rhs.eval(ctx);
+    return this.apply(this.#lhs.eval(ctx), this.#rhs.eval(ctx));
+  }
+
+  /**
+   * Apply computes the result from the values of the operands.
+   */
+  apply(lval: RefVal, rval: RefVal) {
     if (isUnknownOrError(lval)) {
       return lval;
     }
@@ -500,8 +613,13 @@ export class EvalNe implements InterpretableCall {
   }
 
   eval(ctx: Activation) {
-    const lval = this.#lhs.eval(ctx);
-    const rval = this.#rhs.eval(ctx);
+    return this.apply(this.#lhs.eval(ctx), this.#rhs.eval(ctx));
+  }
+
+  /**
+   * Apply computes the result from the values of the operands.
+   */
+  apply(lval: RefVal, rval: RefVal) {
     if (isUnknownOrError(lval)) {
       return lval;
     }
@@ -590,7 +708,13 @@ export class EvalUnary implements InterpretableCall {
   }
 
   eval(ctx: Activation) {
-    const argVal = this.#arg.eval(ctx);
+    return this.apply(this.#arg.eval(ctx));
+  }
+
+  /**
+   * Apply computes the result from the value of the argument.
+   */
+  apply(argVal: RefVal) {
     // Early return if the argument to the function is unknown or error.
     const strict = !this.#nonStrict;
     if (strict && isUnknownOrError(argVal)) {
@@ -669,8 +793,13 @@ export class EvalBinary implements InterpretableCall {
   }
 
   eval(ctx: Activation) {
-    const lVal = this.#lhs.eval(ctx);
-    const rVal = this.#rhs.eval(ctx);
+    return this.apply(this.#lhs.eval(ctx), this.#rhs.eval(ctx));
+  }
+
+  /**
+   * Apply computes the result from the values of the operands.
+   */
+  apply(lVal: RefVal, rVal: RefVal) {
     // Early return if any argument to the function is unknown or error.
     const strict = !this.#nonStrict;
     if (strict) {
@@ -1,12 +1,17 @@
 /* eslint-disable @typescript-eslint/no-explicit-any */
+import { isNil } from '@bearclaw/is';
 import { AST } from '../common/ast';
 import { Container } from '../common/container';
+import { FunctionDecl } from '../common/decls';
 import { Adapter, Provider } from '../common/ref/provider';
 import { RefVal } from '../common/ref/reference';
+import { VariableSlots } from './activation';
 import { AttributeFactory } from './attributes';
+import { ExprCompiler } from './compiler';
 import { decObserveEval, InterpretableDecorator } from './decorators';
 import { Dispatcher } from './dispatcher';
 import { Interpretable } from './interpretable';
+import { commonSubexpressions, EvalMemoFrame } from './memo';
 import { Planner } from './planner';
 
 /**
@@ -64,19 +69,39 @@ export class ExprInterpreter implements Interpreter {
   #provider: Provider;
   #adapter: Adapter;
   #attrFactory: AttributeFactory;
+  #compiler: ExprCompiler | null;
+  #memoize: boolean;
+  #variables: VariableSlots | null;
+  #functions: Map<string, FunctionDecl>;
 
+  /**
+   * When a compiler is given it is used for expressions planned without
+   * decorators. When `memoize` is set, subexpressions which occur more than
+   * once in a checked expression are evaluated once per evaluation, provided
+   * their calls resolve to the standard library or to pure overloads of
+   * `functions`. When `variables` is given, references to the variables it
+   * declares load them from their slots.
+   */
   constructor(
     dispatcher: Dispatcher,
     container: Container,
     provider: Provider,
     adapter: Adapter,
-    attrFactory: AttributeFactory
+    attrFactory: AttributeFactory,
+    compiler: ExprCompiler | null = null,
+    memoize = false,
+    variables: VariableSlots | null = null,
+    functions = new Map<string, FunctionDecl>()
   ) {
     this.#dispatcher = dispatcher;
     this.#container = container;
     this.#provider = provider;
     this.#adapter = adapter;
     this.#attrFactory = attrFactory;
+    this.#compiler = compiler;
+    this.#memoize = memoize;
+    this.#variables = variables;
+    this.#functions = functions;
   }
 
   newInterpretable(
@@ -90,8 +115,21 @@ export class ExprInterpreter implements Interpreter {
       this.#attrFactory,
       this.#container,
       checked,
-      decorators
+      decorators,
+      this.#memoize
+        ? commonSubexpressions(checked, this.#functions)
+        : undefined,
+      this.#variables
     );
-    return p.plan(checked.expr());
+    let i: Interpretable | Error;
+    if (!isNil(this.#compiler) && decorators.length === 0) {
+      i = this.#compiler(p, this.#dispatcher, checked.expr());
+    } else {
+      i = p.plan(checked.expr());
+    }
+    if (i instanceof Error || p.slots() === 0) {
+      return i;
+    }
+    return new EvalMemoFrame(p.slots(), i);
   }
 }
@@ -0,0 +1,29 @@
+import { ruleEnv, ruleInput, ruleWorkloads } from '../bench/workloads';
+import { newInterpreter } from '../cel/program';
+import { MapActivation } from './activation';
+import { Interpretable } from './interpretable';
+import { Interpreter } from './interpreter';
+
+/**
+ * Compares evaluating the rule workloads with and without memo slots for
+ * their repeated subexpressions. Constant folding is left out so that only
+ * the memoization is measured.
+ */
+
+const plain = newInterpreter(ruleEnv) as Interpreter;
+const memoized = newInterpreter(ruleEnv, undefined, null, true) as Interpreter;
+
+for (const { name, ast } of ruleWorkloads()) {
+  describe(name, () => {
+    const planned = plain.newInterpretable(ast.nativeRep()) as Interpretable;
+    const memo = memoized.newInterpretable(ast.nativeRep()) as Interpretable;
+
+    bench('eval', () => {
+      planned.eval(new MapActivation(ruleInput));
+    });
+
+    bench('eval memoized', () => {
+      memo.eval(new MapActivation(ruleInput));
+    });
+  });
+}
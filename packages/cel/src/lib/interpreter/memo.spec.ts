@@ -0,0 +1,150 @@
+/* eslint-disable @typescript-eslint/no-explicit-any */
+import {
+  DynType,
+  func,
+  IntType,
+  mapType,
+  overload,
+  StringType,
+  variable,
+} from '../cel/decls';
+import { Ast, Env } from '../cel/env';
+import { EvalOption, evalOptions } from '../cel/options';
+import { Program } from '../cel/program';
+import { overloadIsPure, unaryBinding } from '../common/decls';
+import { RefVal } from '../common/ref/reference';
+import { commonSubexpressions } from './memo';
+
+describe('commonSubexpressions', () => {
+  let calls = 0;
+  const tick = unaryBinding((v: RefVal) => {
+    calls++;
+    return v;
+  });
+  const env = new Env(
+    variable('request', mapType(StringType, DynType)),
+    variable('x', IntType),
+    func(
+      'tally',
+      overload('tally_int', [IntType], IntType, overloadIsPure(), tick)
+    ),
+    func('next', overload('next_int', [IntType], IntType, tick))
+  );
+  const request = { auth: { claims: { groups: ['admin', 'dev'] } } };
+
+  function evaluate(expr: string, input: Record<string, any>, memo = true) {
+    const ast = env.compile(expr) as Ast;
+    const prg = env.program(
+      ast,
+      ...(memo ? [evalOptions(EvalOption.Optimize)] : [])
+    ) as Program;
+    calls = 0;
+    const [val, , err] = prg.eval(input);
+    return { value: val?.value(), error: err?.message, calls };
+  }
+
+  it('should give repeated subexpressions the same slot', () => {
+    const ast = env.compile(
+      `request.auth.claims.groups.size() > 1 &&
+        'admin' in request.auth.claims.groups`
+    ) as Ast;
+    const slots = commonSubexpressions(ast.nativeRep(), env.functions);
+    expect(slots.size).toEqual(2);
+    expect(new Set(slots.values())).toEqual(new Set([0]));
+  });
+
+  it('should not give slots to parsed expressions', () => {
+    const ast = env.parse('tally(x) + tally(x)') as Ast;
+    expect(
+      commonSubexpressions(ast.nativeRep(), env.functions).size
+    ).toEqual(0);
+  });
+
+  it('should not give slots to calls of impure functions', () => {
+    const ast = env.compile('next(x + 1) + next(x + 1)') as Ast;
+    const slots = commonSubexpressions(ast.nativeRep(), env.functions);
+    expect(slots.size).toEqual(2);
+    expect(
+      evaluate('next(x + 1) + next(x + 1) == 2 * next(x + 1)', {
+        x: BigInt(1),
+      })
+    ).toEqual({ value: true, error: undefined, calls: 3 });
+  });
+
+  it('should evaluate repeated subexpressions once', () => {
+    const expr = 'tally(x + 1) + tally(x + 1) == 2 * tally(x + 1)';
+    expect(evaluate(expr, { x: BigInt(1) }, false)).toEqual({
+      value: true,
+      error: undefined,
+      calls: 3,
+    });
+    expect(evaluate(expr, { x: BigInt(1) })).toEqual({
+      value: true,
+      error: undefined,
+      calls: 1,
+    });
+  });
+
+  it('should not evaluate subexpressions which are short-circuited', () => {
+    expect(
+      evaluate('x > 10 && tally(x + 1) == tally(x + 1)', { x: BigInt(1) })
+    ).toEqual({ value: false, error: undefined, calls: 0 });
+    expect(
+      evaluate('x > 10 ? tally(x + 1) + tally(x + 1) : 0', { x: BigInt(1) })
+    ).toEqual({ value: BigInt(0), error: undefined, calls: 0 });
+  });
+
+  it('should evaluate subexpressions once across iterations', () => {
+    expect(
+      evaluate('[1, 2, 3].all(i, tally(x + 1) > i) && tally(x + 1) > 0', {
+        x: BigInt(3),
+      })
+    ).toEqual({ value: true, error: undefined, calls: 1 });
+  });
+
+  it('should not share subexpressions of comprehension variables', () => {
+    expect(
+      evaluate('[1, 2].map(x, tally(x + 1)).size() + tally(x + 1)', {
+        x: BigInt(5),
+      })
+    ).toEqual({ value: BigInt(8), error: undefined, calls: 3 });
+  });
+
+  it('should evaluate repeated member chains once per evaluation', () => {
+    const expr = `request.auth.claims.groups.exists(g, g == 'dev') &&
+      request.auth.claims.groups.size() == 2`;
+    const ast = env.compile(expr) as Ast;
+    const prg = env.program(ast, evalOptions(EvalOption.Optimize)) as Program;
+    for (const groups of [['dev', 'ops'], ['ops']]) {
+      const [val] = prg.eval({ request: { auth: { claims: { groups } } } });
+      expect(val?.value()).toEqual(groups.includes('dev'));
+    }
+    expect(evaluate(expr, { request }).value).toEqual(true);
+  });
+
+  it('should track the same cost as unoptimized programs', () => {
+    const expr = 'tally(x + 1) + tally(x + 1) == 2 * tally(x + 1)';
+    const ast = env.compile(expr) as Ast;
+    const costs = [[], [EvalOption.Optimize]].map((opts) => {
+      const prg = env.program(
+        ast,
+        evalOptions(EvalOption.TrackCost, ...opts)
+      ) as Program;
+      calls = 0;
+      const [val, details] = prg.eval({ x: BigInt(1) });
+      expect(val?.value()).toEqual(true);
+      expect(calls).toEqual(3);
+      return details?.actualCost();
+    });
+    expect(costs[1]).toEqual(costs[0]);
+  });
+
+  it('should report the same errors', () => {
+    const expr =
+      'request.auth.roles.size() > 1 || request.auth.roles.size() > 2';
+    expect(evaluate(expr, { request })).toEqual(
+      evaluate(expr, { request }, false)
+    );
+    expect(evaluate(expr, { request }).error).toContain('roles');
+  });
+});
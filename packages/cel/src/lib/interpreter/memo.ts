@@ -0,0 +1,331 @@
+/* eslint-disable @typescript-eslint/no-explicit-any */
+import { isNil } from '@bearclaw/is';
+import { AST } from '../common/ast';
+import { FunctionDecl } from '../common/decls';
+import { RefVal } from '../common/ref/reference';
+import { Expr } from '../protogen/cel/expr/syntax_pb.js';
+import { Activation } from './activation';
+import { PureOverloads } from './folding';
+import { Interpretable } from './interpretable';
+
+/**
+ * The name under which a MemoActivation resolves itself. Like the names the
+ * macros use for their accumulators it cannot be written in an expression.
+ */
+const MEMO_FRAME = '#memo';
+
+/**
+ * Expressions with fewer nodes than this are cheaper to evaluate again than
+ * to look up in a memo slot.
+ */
+const MIN_MEMO_NODES = 3;
+
+/**
+ * CommonSubexpressions finds the subexpressions of a checked AST which occur
+ * more than once and assigns each of them a memo slot, returning the slot of
+ * every occurrence by expression id.
+ *
+ * Only selections and calls with at least three nodes are considered. Inside
+ * a comprehension, subexpressions which refer to its iteration or
+ * accumulator variables are skipped, so every occurrence of a slot has the
+ * same value during an evaluation. As with constant folding, only calls to
+ * the standard library or to overloads of `functions` marked pure are
+ * considered, since others may have side effects or return a different
+ * result on each call. Calls of functions without arguments are skipped as
+ * well, since they may depend on state other than the input.
+ *
+ * Parsed ASTs get no slots: without references the planner may resolve
+ * `a.b.c` as a qualified variable name, which a memo of `a.b` would hide.
+ */
+export function commonSubexpressions(
+  a: AST,
+  functions: Map<string, FunctionDecl>
+): Map<bigint, number> {
+  const slots = new Map<bigint, number>();
+  if (!a.isChecked()) {
+    return slots;
+  }
+  const finder = new SubexpressionFinder(a, new PureOverloads(functions));
+  const counts = new Map<string, number>();
+  finder.walk(a.expr(), new Set(), (key) => {
+    const count = (counts.get(key) ?? 0) + 1;
+    counts.set(key, count);
+    return count === 1;
+  });
+  const keySlots = new Map<string, number>();
+  finder.walk(a.expr(), new Set(), (key, e) => {
+    if (counts.get(key)! < 2) {
+      return true;
+    }
+    let slot = keySlots.get(key);
+    const first = slot === undefined;
+    if (first) {
+      slot = keySlots.size;
+      keySlots.set(key, slot);
+    }
+    slots.set(e.id, slot!);
+    return first;
+  });
+  return slots;
+}
+
+/**
+ * Subexpression is the structural key of an expression along with the
+ * variables it refers to and its number of nodes.
+ */
+interface Subexpression {
+  key: string;
+  vars: Set<string>;
+  nodes: number;
+}
+
+class SubexpressionFinder {
+  #ast: AST;
+  #pure: PureOverloads;
+  #subexprs = new Map<Expr, Subexpression | null>();
+
+  constructor(a: AST, pure: PureOverloads) {
+    this.#ast = a;
+    this.#pure = pure;
+  }
+
+  /**
+   * Walk visits the subexpressions which may be memoized in the order the
+   * planner plans them. The visitor returns whether to descend into the
+   * occurrence; repeated occurrences are evaluated through their slot, so
+   * their operands are not visited.
+   */
+  walk(
+    e: Expr,
+    bound: Set<string>,
+    visit: (key: string, e: Expr) => boolean
+  ): void {
+    const sub = this.subexpression(e);
+    if (
+      !isNil(sub) &&
+      sub.nodes >= MIN_MEMO_NODES &&
+      (e.exprKind.case === 'selectExpr' || e.exprKind.case === 'callExpr') &&
+      ![...sub.vars].some((v) => bound.has(v)) &&
+      !visit(sub.key, e)
+    ) {
+      return;
+    }
+    switch (e.exprKind.case) {
+      case 'selectExpr':
+        // Selections which resolve to a qualified name do not evaluate their
+        // operand.
+        if (
+          !isNil(e.exprKind.value.operand) &&
+          !this.#ast.referenceMap().has(e.id)
+        ) {
+          this.walk(e.exprKind.value.operand, bound, visit);
+        }
+        break;
+      case 'callExpr':
+        if (!isNil(e.exprKind.value.target)) {
+          this.walk(e.exprKind.value.target, bound, visit);
+        }
+        for (const arg of e.exprKind.value.args) {
+          this.walk(arg, bound, visit);
+        }
+        break;
+      case 'listExpr':
+        for (const elem of e.exprKind.value.elements) {
+          this.walk(elem, bound, visit);
+        }
+        break;
+      case 'structExpr':
+        for (const entry of e.exprKind.value.entries) {
+          if (entry.keyKind.case === 'mapKey') {
+            this.walk(entry.keyKind.value, bound, visit);
+          }
+          if (!isNil(entry.value)) {
+            this.walk(entry.value, bound, visit);
+          }
+        }
+        break;
+      case 'comprehensionExpr': {
+        const comp = e.exprKind.value;
+        const loop = new Set(bound);
+        for (const v of [comp.iterVar, comp.iterVar2, comp.accuVar]) {
+          if (v !== '') {
+            loop.add(v);
+          }
+        }
+        const result = new Set(bound).add(comp.accuVar);
+        for (const [child, scope] of [
+          [comp.accuInit, bound],
+          [comp.iterRange, bound],
+          [comp.loopCondition, loop],
+          [comp.loopStep, loop],
+          [comp.result, result],
+        ] as const) {
+          if (!isNil(child)) {
+            this.walk(child, scope, visit);
+          }
+        }
+        break;
+      }
+      default:
+        break;
+    }
+  }
+
+  /**
+   * Subexpression returns the key of the expression, or null if it contains
+   * nodes which are never memoized.
+   */
+  subexpression(e: Expr): Subexpression | null {
+    if (this.#subexprs.has(e)) {
+      return this.#subexprs.get(e)!;
+    }
+    const sub = this.#computeSubexpression(e);
+    this.#subexprs.set(e, sub);
+    return sub;
+  }
+
+  #computeSubexpression(e: Expr): Subexpression | null {
+    switch (e.exprKind.case) {
+      case 'constExpr': {
+        const c = e.exprKind.value.constantKind;
+        return {
+          key: `${c.case}:${
+            c.case === 'stringValue' ? JSON.stringify(c.value) : String(c.value)
+          }`,
+          vars: new Set(),
+          nodes: 1,
+        };
+      }
+      case 'identExpr':
+        return {
+          key: `$${e.exprKind.value.name}`,
+          vars: new Set([e.exprKind.value.name]),
+          nodes: 1,
+        };
+      case 'selectExpr': {
+        const sel = e.exprKind.value;
+        const op = isNil(sel.operand) ? null : this.subexpression(sel.operand);
+        if (isNil(op)) {
+          return null;
+        }
+        return {
+          key: `${op.key}${sel.testOnly ? '.?' : '.'}${sel.field}`,
+          vars: op.vars,
+          nodes: op.nodes + 1,
+        };
+      }
+      case 'callExpr': {
+        const call = e.exprKind.value;
+        if (
+          (call.args.length === 0 && isNil(call.target)) ||
+          !this.#pure.isPure(this.#ast, e, call)
+        ) {
+          return null;
+        }
+        const operands = isNil(call.target)
+          ? call.args
+          : [call.target, ...call.args];
+        const subs: Subexpression[] = [];
+        for (const operand of operands) {
+          const sub = this.subexpression(operand);
+          if (isNil(sub)) {
+            return null;
+          }
+          subs.push(sub);
+        }
+        return {
+          key: `${call.function}${isNil(call.target) ? '' : '@'}(${subs
+            .map((sub) => sub.key)
+            .join(', ')})`,
+          vars: new Set(subs.flatMap((sub) => [...sub.vars])),
+          nodes: subs.reduce((n, sub) => n + sub.nodes, 1),
+        };
+      }
+      default:
+        return null;
+    }
+  }
+}
+
+/**
+ * EvalMemo evaluates an expression at most once per evaluation of the
+ * program, storing its value in a slot of the MemoActivation of the
+ * evaluation. The expression is only evaluated when an occurrence of it is,
+ * so short-circuits and conditionals skip it as they would otherwise.
+ *
+ * Errors and unknowns are stored as well, and keep the id of the occurrence
+ * which was evaluated first.
+ */
+export class EvalMemo implements Interpretable {
+  #slot: number;
+  #interpretable: Interpretable;
+
+  constructor(slot: number, i: Interpretable) {
+    this.#slot = slot;
+    this.#interpretable = i;
+  }
+
+  id() {
+    return this.#interpretable.id();
+  }
+
+  eval(ctx: Activation): RefVal {
+    const frame = ctx.resolveName<MemoActivation>(MEMO_FRAME);
+    if (isNil(frame)) {
+      return this.#interpretable.eval(ctx);
+    }
+    let val = frame.values[this.#slot];
+    if (val === undefined) {
+      val = this.#interpretable.eval(ctx);
+      frame.values[this.#slot] = val;
+    }
+    return val;
+  }
+}
+
+/**
+ * EvalMemoFrame gives each evaluation of an expression with memo slots a
+ * MemoActivation to store their values in.
+ */
+export class EvalMemoFrame implements Interpretable {
+  #slots: number;
+  #interpretable: Interpretable;
+
+  constructor(slots: number, i: Interpretable) {
+    this.#slots = slots;
+    this.#interpretable = i;
+  }
+
+  id() {
+    return this.#interpretable.id();
+  }
+
+  eval(ctx: Activation): RefVal {
+    return this.#interpretable.eval(new MemoActivation(ctx, this.#slots));
+  }
+}
+
+/**
+ * MemoActivation holds the values of the memo slots for one evaluation. It
+ * resolves all other names from the activation it wraps.
+ */
+class MemoActivation implements Activation {
+  #activation: Activation;
+  values: (RefVal | undefined)[];
+
+  constructor(activation: Activation, slots: number) {
+    this.#activation = activation;
+    this.values = new Array(slots);
+  }
+
+  resolveName<T = any>(name: string): T | null {
+    if (name === MEMO_FRAME) {
+      return this as T;
+    }
+    return this.#activation.resolveName(name);
+  }
+
+  parent() {
+    return this.#activation.parent();
+  }
+}
@@ -0,0 +1,53 @@
+import { DoubleType, DynType, IntType, variable } from '../cel/decls';
+import { Ast, Env } from '../cel/env';
+import { Program } from '../cel/program';
+
+/**
+ * Compares numeric rules over statically typed variables, which are planned
+ * with unboxed kernels, with the same rules over dyn variables, whose calls
+ * are mostly planned as generic ones.
+ */
+
+const rules = {
+  int: `(score * 3 + age * 2 - limit) / 2 > 40 && -score < limit % 7`,
+  double: `(ratio * 1.5 - weight / 4.0) * 2.0 >= weight - ratio`,
+};
+const input = {
+  score: BigInt(72),
+  age: BigInt(30),
+  limit: BigInt(75),
+  ratio: 0.75,
+  weight: 12.5,
+};
+
+function program(env: Env, rule: string) {
+  return env.program(env.compile(rule) as Ast) as Program;
+}
+
+const typed = new Env(
+  variable('score', IntType),
+  variable('age', IntType),
+  variable('limit', IntType),
+  variable('ratio', DoubleType),
+  variable('weight', DoubleType)
+);
+const dynamic = new Env(
+  ...['score', 'age', 'limit', 'ratio', 'weight'].map((name) =>
+    variable(name, DynType)
+  )
+);
+
+for (const [name, rule] of Object.entries(rules)) {
+  const specialized = program(typed, rule);
+  const generic = program(dynamic, rule);
+
+  describe(`${name} arithmetic`, () => {
+    bench('typed', () => {
+      specialized.eval(input);
+    });
+
+    bench('dyn', () => {
+      generic.eval(input);
+    });
+  });
+}
@@ -0,0 +1,123 @@
+/* eslint-disable @typescript-eslint/no-explicit-any */
+import {
+  DoubleType,
+  DynType,
+  IntType,
+  UintType,
+  variable,
+} from '../cel/decls';
+import { Ast, Env } from '../cel/env';
+import { newInterpreter, Program } from '../cel/program';
+import { MAX_INT64, MIN_INT64 } from '../common/types/int';
+import { UintRefVal } from '../common/types/uint';
+import { EvalBinary, EvalEq } from './interpretable';
+import { Interpreter } from './interpreter';
+import {
+  EvalNumericBinary,
+  EvalNumericCompare,
+  EvalNumericNegate,
+} from './numeric';
+
+describe('numeric specialization', () => {
+  const env = new Env(
+    variable('i', IntType),
+    variable('j', IntType),
+    variable('u', UintType),
+    variable('d', DoubleType),
+    variable('x', DynType)
+  );
+
+  function plan(expr: string) {
+    const ast = env.compile(expr) as Ast;
+    const interp = newInterpreter(env) as Interpreter;
+    return interp.newInterpretable(ast.nativeRep());
+  }
+
+  function evaluate(expr: string, input: Record<string, any>) {
+    const prg = env.program(env.compile(expr) as Ast) as Program;
+    const [val, , err] = prg.eval(input);
+    return err?.message ?? val?.value();
+  }
+
+  it('should specialize calls over statically typed numbers', () => {
+    expect(plan('i + j * 2')).toBeInstanceOf(EvalNumericBinary);
+    expect(plan('u % 3u')).toBeInstanceOf(EvalNumericBinary);
+    expect(plan('d / 2.0')).toBeInstanceOf(EvalNumericBinary);
+    expect(plan('-i')).toBeInstanceOf(EvalNumericNegate);
+    expect(plan('i < j')).toBeInstanceOf(EvalNumericCompare);
+    expect(plan('d == 1.0')).toBeInstanceOf(EvalNumericCompare);
+    expect(plan('i != j')).toBeInstanceOf(EvalNumericCompare);
+  });
+
+  it('should not specialize calls over other types', () => {
+    expect(plan('x == 1')).toBeInstanceOf(EvalEq);
+    expect(plan("'a' + 'b'")).toBeInstanceOf(EvalBinary);
+    expect(plan("'a' < 'b'")).toBeInstanceOf(EvalBinary);
+    const parsed = env.parse('i + j') as Ast;
+    const interp = newInterpreter(env) as Interpreter;
+    expect(interp.newInterpretable(parsed.nativeRep())).toBeInstanceOf(
+      EvalBinary
+    );
+  });
+
+  const tests: { expr: string; input: Record<string, any>; out: any }[] = [
+    { expr: '(i + 1) * (j - 2) / 3', input: { i: 5, j: 8 }, out: BigInt(12) },
+    { expr: 'i % j', input: { i: -7, j: 3 }, out: BigInt(-1) },
+    {
+      expr: 'i + j',
+      input: { i: MAX_INT64, j: BigInt(1) },
+      out: 'integer overflow',
+    },
+    {
+      expr: 'i * j',
+      input: { i: MIN_INT64, j: BigInt(-1) },
+      out: 'integer overflow',
+    },
+    {
+      expr: 'i / j',
+      input: { i: MIN_INT64, j: BigInt(-1) },
+      out: 'integer overflow',
+    },
+    { expr: '-i', input: { i: MIN_INT64 }, out: 'integer overflow' },
+    { expr: '-(i - j)', input: { i: 2, j: 5 }, out: BigInt(3) },
+    { expr: 'i / j', input: { i: 1, j: 0 }, out: 'division by zero' },
+    { expr: 'i % j', input: { i: 1, j: 0 }, out: 'modulus by zero' },
+    { expr: '(i / j) + 1 > 0', input: { i: 1, j: 0 }, out: 'division by zero' },
+    {
+      expr: 'u - 2u',
+      input: { u: new UintRefVal(BigInt(1)) },
+      out: 'unsigned integer overflow',
+    },
+    {
+      expr: 'u * 2u + 1u',
+      input: { u: new UintRefVal(BigInt(20)) },
+      out: BigInt(41),
+    },
+    { expr: 'd * 2.0 - 1.0', input: { d: 1.25 }, out: 1.5 },
+    { expr: 'd / 0.0', input: { d: 1 }, out: Infinity },
+    { expr: 'd < 1.0', input: { d: NaN }, out: 'NaN values cannot be ordered' },
+    { expr: 'd == d', input: { d: NaN }, out: false },
+    { expr: 'd != d', input: { d: NaN }, out: true },
+    { expr: 'd > 1.0', input: { d: 2 ** 60 }, out: true },
+    { expr: 'i >= j', input: { i: 3, j: 3 }, out: true },
+    { expr: 'i == j + 1', input: { i: 4, j: 3 }, out: true },
+    { expr: 'i + j > 0', input: { i: 1 }, out: 'no such attribute' },
+  ];
+
+  for (const tc of tests) {
+    it(`should evaluate ${tc.expr} like the generic calls`, () => {
+      const input = Object.fromEntries(
+        Object.entries(tc.input).map(([k, v]) => [
+          k,
+          typeof v === 'number' && k !== 'd' ? BigInt(v) : v,
+        ])
+      );
+      const out = evaluate(tc.expr, input);
+      if (typeof tc.out === 'string') {
+        expect(out).toContain(tc.out);
+      } else {
+        expect(out).toEqual(tc.out);
+      }
+    });
+  }
+});
@@ -0,0 +1,477 @@
+/* eslint-disable @typescript-eslint/no-explicit-any */
+import {
+  ADD_OPERATOR,
+  DIVIDE_OPERATOR,
+  EQUALS_OPERATOR,
+  GREATER_EQUALS_OPERATOR,
+  GREATER_OPERATOR,
+  LESS_EQUALS_OPERATOR,
+  LESS_OPERATOR,
+  MODULO_OPERATOR,
+  MULTIPLY_OPERATOR,
+  NOT_EQUALS_OPERATOR,
+  SUBTRACT_OPERATOR,
+} from '../common/operators';
+import {
+  ADD_DOUBLE_OVERLOAD,
+  ADD_INT64_OVERLOAD,
+  ADD_UINT64_OVERLOAD,
+  DIVIDE_DOUBLE_OVERLOAD,
+  DIVIDE_INT64_OVERLOAD,
+  DIVIDE_UINT64_OVERLOAD,
+  GREATER_DOUBLE_OVERLOAD,
+  GREATER_EQUALS_DOUBLE_OVERLOAD,
+  GREATER_EQUALS_INT64_OVERLOAD,
+  GREATER_EQUALS_UINT64_OVERLOAD,
+  GREATER_INT64_OVERLOAD,
+  GREATER_UINT64_OVERLOAD,
+  LESS_DOUBLE_OVERLOAD,
+  LESS_EQUALS_DOUBLE_OVERLOAD,
+  LESS_EQUALS_INT64_OVERLOAD,
+  LESS_EQUALS_UINT64_OVERLOAD,
+  LESS_INT64_OVERLOAD,
+  LESS_UINT64_OVERLOAD,
+  MODULO_INT64_OVERLOAD,
+  MODULO_UINT64_OVERLOAD,
+  MULTIPLY_DOUBLE_OVERLOAD,
+  MULTIPLY_INT64_OVERLOAD,
+  MULTIPLY_UINT64_OVERLOAD,
+  NEGATE_DOUBLE_OVERLOAD,
+  NEGATE_INT64_OVERLOAD,
+  SUBTRACT_DOUBLE_OVERLOAD,
+  SUBTRACT_INT64_OVERLOAD,
+  SUBTRACT_UINT64_OVERLOAD,
+} from '../common/overloads';
+import { RefVal } from '../common/ref/reference';
+import { BoolRefVal } from '../common/types/bool';
+import { DoubleRefVal } from '../common/types/double';
+import { IntRefVal, MAX_INT64, MIN_INT64 } from '../common/types/int';
+import {
+  DoubleType,
+  IntType,
+  Kind,
+  Type,
+  UintType,
+} from '../common/types/types';
+import { UintRefVal } from '../common/types/uint';
+import { Activation } from './activation';
+import {
+  EvalBinary,
+  EvalEq,
+  EvalNe,
+  EvalUnary,
+  Interpretable,
+  InterpretableCall,
+} from './interpretable';
+
+/**
+ * NumericKind is the type of the unboxed values of a numeric expression:
+ * bigint for int and uint, number for double.
+ */
+export enum NumericKind {
+  Int,
+  Uint,
+  Double,
+}
+
+/**
+ * Numeric is an unboxed int, uint or double value.
+ */
+export type Numeric = bigint | number;
+
+/**
+ * NumericKernel computes the result of an operator over unboxed values, or
+ * returns undefined when the result is an error or would be computed
+ * differently by the RefVal implementation, such as on overflow.
+ */
+export type NumericKernel<T> = (lhs: any, rhs: any) => T | undefined;
+
+const zero = BigInt(0);
+const negOne = BigInt(-1);
+
+function inInt64(r: bigint) {
+  return r >= MIN_INT64 && r <= MAX_INT64 ? r : undefined;
+}
+
+// Uint results above MAX_INT64 are left to UintRefVal, whose overflow checks
+// use that bound.
+function inUint64(r: bigint) {
+  return r >= zero && r <= MAX_INT64 ? r : undefined;
+}
+
+/**
+ * Orderable reports whether a double is compared by value. NaN and doubles
+ * beyond the safe integer range are compared differently by DoubleRefVal, so
+ * they are left to it.
+ */
+export function orderable(x: number) {
+  return x >= Number.MIN_SAFE_INTEGER && x <= Number.MAX_SAFE_INTEGER;
+}
+
+/**
+ * The arithmetic kernels of each numeric kind by operator.
+ */
+export const arithmeticKernels: Record<
+  NumericKind,
+  Record<string, NumericKernel<Numeric>>
+> = {
+  [NumericKind.Int]: {
+    [ADD_OPERATOR]: (l, r) => inInt64(l + r),
+    [SUBTRACT_OPERATOR]: (l, r) => inInt64(l - r),
+    [MULTIPLY_OPERATOR]: (l, r) => inInt64(l * r),
+    [DIVIDE_OPERATOR]: (l, r) =>
+      r === zero || (l === MIN_INT64 && r === negOne) ? undefined : l / r,
+    [MODULO_OPERATOR]: (l, r) =>
+      r === zero || (l === MIN_INT64 && r === negOne) ? undefined : l % r,
+  },
+  [NumericKind.Uint]: {
+    [ADD_OPERATOR]: (l, r) => inUint64(l + r),
+    [SUBTRACT_OPERATOR]: (l, r) => inUint64(l - r),
+    [MULTIPLY_OPERATOR]: (l, r) => inUint64(l * r),
+    [DIVIDE_OPERATOR]: (l, r) => (r === zero ? undefined : l / r),
+    [MODULO_OPERATOR]: (l, r) => (r === zero ? undefined : l % r),
+  },
+  [NumericKind.Double]: {
+    [ADD_OPERATOR]: (l, r) => l + r,
+    [SUBTRACT_OPERATOR]: (l, r) => l - r,
+    [MULTIPLY_OPERATOR]: (l, r) => l * r,
+    [DIVIDE_OPERATOR]: (l, r) => l / r,
+  },
+};
+
+const comparisons: Record<string, (l: any, r: any) => boolean> = {
+  [LESS_OPERATOR]: (l, r) => l < r,
+  [LESS_EQUALS_OPERATOR]: (l, r) => l <= r,
+  [GREATER_OPERATOR]: (l, r) => l > r,
+  [GREATER_EQUALS_OPERATOR]: (l, r) => l >= r,
+  [EQUALS_OPERATOR]: (l, r) => l === r,
+  [NOT_EQUALS_OPERATOR]: (l, r) => l !== r,
+};
+
+/**
+ * ComparisonKernel returns the kernel of a relational or equality operator
+ * over values of the kind, or null if the operator is not one of them.
+ */
+export function comparisonKernel(
+  fn: string,
+  kind: NumericKind
+): NumericKernel<boolean> | null {
+  const cmp = comparisons[fn];
+  if (cmp === undefined) {
+    return null;
+  }
+  if (kind === NumericKind.Double) {
+    return (l, r) => (orderable(l) && orderable(r) ? cmp(l, r) : undefined);
+  }
+  return cmp;
+}
+
+/**
+ * NegateKernel returns the kernel of the negation of values of the kind, or
+ * null if they cannot be negated.
+ */
+export function negateKernel(
+  kind: NumericKind
+): ((v: any) => Numeric | undefined) | null {
+  switch (kind) {
+    case NumericKind.Int:
+      return (v) => (v === MIN_INT64 ? undefined : -v);
+    case NumericKind.Double:
+      return (v) => -v;
+    default:
+      return null;
+  }
+}
+
+/**
+ * The kind of the operands of the standard overloads with specialized
+ * kernels.
+ */
+const overloadKinds: Record<string, NumericKind> = {
+  [ADD_INT64_OVERLOAD]: NumericKind.Int,
+  [SUBTRACT_INT64_OVERLOAD]: NumericKind.Int,
+  [MULTIPLY_INT64_OVERLOAD]: NumericKind.Int,
+  [DIVIDE_INT64_OVERLOAD]: NumericKind.Int,
+  [MODULO_INT64_OVERLOAD]: NumericKind.Int,
+  [NEGATE_INT64_OVERLOAD]: NumericKind.Int,
+  [LESS_INT64_OVERLOAD]: NumericKind.Int,
+  [LESS_EQUALS_INT64_OVERLOAD]: NumericKind.Int,
+  [GREATER_INT64_OVERLOAD]: NumericKind.Int,
+  [GREATER_EQUALS_INT64_OVERLOAD]: NumericKind.Int,
+  [ADD_UINT64_OVERLOAD]: NumericKind.Uint,
+  [SUBTRACT_UINT64_OVERLOAD]: NumericKind.Uint,
+  [MULTIPLY_UINT64_OVERLOAD]: NumericKind.Uint,
+  [DIVIDE_UINT64_OVERLOAD]: NumericKind.Uint,
+  [MODULO_UINT64_OVERLOAD]: NumericKind.Uint,
+  [LESS_UINT64_OVERLOAD]: NumericKind.Uint,
+  [LESS_EQUALS_UINT64_OVERLOAD]: NumericKind.Uint,
+  [GREATER_UINT64_OVERLOAD]: NumericKind.Uint,
+  [GREATER_EQUALS_UINT64_OVERLOAD]: NumericKind.Uint,
+  [ADD_DOUBLE_OVERLOAD]: NumericKind.Double,
+  [SUBTRACT_DOUBLE_OVERLOAD]: NumericKind.Double,
+  [MULTIPLY_DOUBLE_OVERLOAD]: NumericKind.Double,
+  [DIVIDE_DOUBLE_OVERLOAD]: NumericKind.Double,
+  [NEGATE_DOUBLE_OVERLOAD]: NumericKind.Double,
+  [LESS_DOUBLE_OVERLOAD]: NumericKind.Double,
+  [LESS_EQUALS_DOUBLE_OVERLOAD]: NumericKind.Double,
+  [GREATER_DOUBLE_OVERLOAD]: NumericKind.Double,
+  [GREATER_EQUALS_DOUBLE_OVERLOAD]: NumericKind.Double,
+};
+
+/**
+ * OverloadKind returns the kind of the operands of an overload, or null if
+ * it has no specialized kernel.
+ */
+export function overloadKind(overload: string): NumericKind | null {
+  return overloadKinds[overload] ?? null;
+}
+
+/**
+ * NumericKindOf returns the kind of values of a checked type, or null if it
+ * is not int, uint or double.
+ */
+export function numericKindOf(t: Type | undefined): NumericKind | null {
+  switch (t?.kind()) {
+    case Kind.INT:
+      return NumericKind.Int;
+    case Kind.UINT:
+      return NumericKind.Uint;
+    case Kind.DOUBLE:
+      return NumericKind.Double;
+    default:
+      return null;
+  }
+}
+
+const kindTypes: Record<NumericKind, Type> = {
+  [NumericKind.Int]: IntType,
+  [NumericKind.Uint]: UintType,
+  [NumericKind.Double]: DoubleType,
+};
+
+/**
+ * Unbox returns the value of a RefVal of the kind, or the RefVal itself if
+ * it has another type, or is an error or unknown.
+ */
+export function unbox(kind: NumericKind, val: RefVal): Numeric | RefVal {
+  return val.type() === kindTypes[kind] ? val.value() : val;
+}
+
+/**
+ * Box returns the RefVal of an unboxed value of the kind.
+ */
+export function box(kind: NumericKind, val: Numeric | RefVal): RefVal {
+  switch (typeof val) {
+    case 'bigint':
+      return kind === NumericKind.Uint
+        ? new UintRefVal(val)
+        : new IntRefVal(val);
+    case 'number':
+      return new DoubleRefVal(val);
+    default:
+      return val;
+  }
+}
+
+/**
+ * NumericInterpretable is an Interpretable whose values can be evaluated
+ * without boxing them, so that nested arithmetic stays unboxed.
+ */
+interface NumericInterpretable extends Interpretable {
+  kind(): NumericKind;
+
+  /**
+   * EvalNumeric returns the unboxed value of the expression, or a RefVal if
+   * it is not of the kind.
+   */
+  evalNumeric(ctx: Activation): Numeric | RefVal;
+}
+
+function evalOperand(
+  i: Interpretable,
+  kind: NumericKind,
+  ctx: Activation
+): Numeric | RefVal {
+  if (
+    (i instanceof EvalNumericBinary || i instanceof EvalNumericNegate) &&
+    i.kind() === kind
+  ) {
+    return i.evalNumeric(ctx);
+  }
+  return unbox(kind, i.eval(ctx));
+}
+
+/**
+ * EvalNumericBinary evaluates an arithmetic operator over two operands the
+ * checker proved to be of the same numeric kind. When both operands have
+ * their expected types at runtime and the kernel yields a result, no values
+ * are boxed; otherwise the generic call computes the result, including its
+ * errors.
+ */
+export class EvalNumericBinary
+  implements InterpretableCall, NumericInterpretable
+{
+  #generic: EvalBinary;
+  #kind: NumericKind;
+  #kernel: NumericKernel<Numeric>;
+  #lhs: Interpretable;
+  #rhs: Interpretable;
+
+  constructor(
+    generic: EvalBinary,
+    kind: NumericKind,
+    kernel: NumericKernel<Numeric>
+  ) {
+    this.#generic = generic;
+    this.#kind = kind;
+    this.#kernel = kernel;
+    [this.#lhs, this.#rhs] = generic.args();
+  }
+
+  id() {
+    return this.#generic.id();
+  }
+
+  kind() {
+    return this.#kind;
+  }
+
+  eval(ctx: Activation): RefVal {
+    return box(this.#kind, this.evalNumeric(ctx));
+  }
+
+  evalNumeric(ctx: Activation): Numeric | RefVal {
+    const l = evalOperand(this.#lhs, this.#kind, ctx);
+    const r = evalOperand(this.#rhs, this.#kind, ctx);
+    if (typeof l === typeof r && typeof l !== 'object') {
+      const result = this.#kernel(l, r);
+      if (result !== undefined) {
+        return result;
+      }
+    }
+    return this.#generic.apply(box(this.#kind, l), box(this.#kind, r));
+  }
+
+  function() {
+    return this.#generic.function();
+  }
+
+  overloadID() {
+    return this.#generic.overloadID();
+  }
+
+  args() {
+    return this.#generic.args();
+  }
+}
+
+/**
+ * EvalNumericCompare evaluates a relational or equality operator over two
+ * operands the checker proved to be of the same numeric kind, without
+ * boxing them when both have their expected types at runtime.
+ */
+export class EvalNumericCompare implements InterpretableCall {
+  #generic: EvalBinary | EvalEq | EvalNe;
+  #kind: NumericKind;
+  #kernel: NumericKernel<boolean>;
+  #lhs: Interpretable;
+  #rhs: Interpretable;
+
+  constructor(
+    generic: EvalBinary | EvalEq | EvalNe,
+    kind: NumericKind,
+    kernel: NumericKernel<boolean>
+  ) {
+    this.#generic = generic;
+    this.#kind = kind;
+    this.#kernel = kernel;
+    [this.#lhs, this.#rhs] = generic.args();
+  }
+
+  id() {
+    return this.#generic.id();
+  }
+
+  eval(ctx: Activation): RefVal {
+    const l = evalOperand(this.#lhs, this.#kind, ctx);
+    const r = evalOperand(this.#rhs, this.#kind, ctx);
+    if (typeof l === typeof r && typeof l !== 'object') {
+      const result = this.#kernel(l, r);
+      if (result !== undefined) {
+        return result ? BoolRefVal.True : BoolRefVal.False;
+      }
+    }
+    return this.#generic.apply(box(this.#kind, l), box(this.#kind, r));
+  }
+
+  function() {
+    return this.#generic.function();
+  }
+
+  overloadID() {
+    return this.#generic.overloadID();
+  }
+
+  args() {
+    return this.#generic.args();
+  }
+}
+
+/**
+ * EvalNumericNegate evaluates the negation of an operand the checker proved
+ * to be an int or a double without boxing it.
+ */
+export class EvalNumericNegate
+  implements InterpretableCall, NumericInterpretable
+{
+  #generic: EvalUnary;
+  #kind: NumericKind;
+  #kernel: (v: any) => Numeric | undefined;
+  #arg: Interpretable;
+
+  constructor(
+    generic: EvalUnary,
+    kind: NumericKind,
+    kernel: (v: any) => Numeric | undefined
+  ) {
+    this.#generic = generic;
+    this.#kind = kind;
+    this.#kernel = kernel;
+    [this.#arg] = generic.args();
+  }
+
+  id() {
+    return this.#generic.id();
+  }
+
+  kind() {
+    return this.#kind;
+  }
+
+  eval(ctx: Activation): RefVal {
+    return box(this.#kind, this.evalNumeric(ctx));
+  }
+
+  evalNumeric(ctx: Activation): Numeric | RefVal {
+    const v = evalOperand(this.#arg, this.#kind, ctx);
+    if (typeof v !== 'object') {
+      const result = this.#kernel(v);
+      if (result !== undefined) {
+        return result;
+      }
+    }
+    return this.#generic.apply(box(this.#kind, v));
+  }
+
+  function() {
+    return this.#generic.function();
+  }
+
+  overloadID() {
+    return this.#generic.overloadID();
+  }
+
+  args() {
+    return this.#generic.args();
+  }
+}
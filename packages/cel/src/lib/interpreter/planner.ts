@@ -10,6 +10,7 @@ import {
   INDEX_OPERATOR,
   LOGICAL_AND_OPERATOR,
   LOGICAL_OR_OPERATOR,
+  NEGATE_OPERATOR,
   NOT_EQUALS_OPERATOR,
   OPT_INDEX_OPERATOR,
   OPT_SELECT_OPERATOR,
@@ -36,6 +37,7 @@ import { Adapter, Provider } from '../common/ref/provider';
 import { Trait } from '../common/types/traits/trait';
 import { Kind, Type } from '../common/types/types';
 import { Expr } from '../protogen/cel/expr/syntax_pb.js';
+import { VariableSlots } from './activation';
 import { Attribute, AttributeFactory, Qualifier } from './attributes';
 import { InterpretableDecorator } from './decorators';
 import { Dispatcher } from './dispatcher';
@@ -60,6 +62,18 @@ import {
   isInterpretableAttribute,
   isInterpretableConst,
 } from './interpretable';
+import { EvalMemo } from './memo';
+import {
+  arithmeticKernels,
+  comparisonKernel,
+  EvalNumericBinary,
+  EvalNumericCompare,
+  EvalNumericNegate,
+  negateKernel,
+  NumericKind,
+  numericKindOf,
+  overloadKind,
+} from './numeric';
 
 /**
  * interpretablePlanner creates an Interpretable evaluation plan from a proto Expr value.
@@ -83,7 +97,15 @@ export class Planner implements InterpretablePlanner {
   #refMap: Map<bigint, ReferenceInfo>;
   #typeMap: Map<bigint, Type>;
   #decorators: InterpretableDecorator[];
+  #slots: Map<bigint, number>;
+  #variables: VariableSlots | null;
+  #bound = new Map<string, number>();
 
+  /**
+   * Expressions with an entry in `slots` are evaluated through the memo slot
+   * it names, see commonSubexpressions. References to the declared variables
+   * in `variables` are resolved through their slots.
+   */
   constructor(
     disp: Dispatcher,
     provider: Provider,
@@ -91,7 +113,9 @@ export class Planner implements InterpretablePlanner {
     attrFactory: AttributeFactory,
     cont: Container,
     exprAst: AST,
-    decorators: InterpretableDecorator[]
+    decorators: InterpretableDecorator[],
+    slots: Map<bigint, number> = new Map(),
+    variables: VariableSlots | null = null
   ) {
     this.#disp = disp;
     this.#provider = provider;
@@ -101,6 +125,8 @@ export class Planner implements InterpretablePlanner {
     this.#refMap = exprAst.referenceMap();
     this.#typeMap = exprAst.typeMap();
     this.#decorators = decorators;
+    this.#slots = slots;
+    this.#variables = variables;
   }
 
   plan(expr: Expr): Interpretable | Error {
@@ -108,9 +134,9 @@ export class Planner implements InterpretablePlanner {
       case 'identExpr':
         return this.decorate(this.planIdent(expr));
       case 'selectExpr':
-        return this.decorate(this.planSelect(expr));
+        return this.memoize(expr, this.decorate(this.planSelect(expr)));
       case 'callExpr':
-        return this.decorate(this.planCall(expr));
+        return this.memoize(expr, this.decorate(this.planCall(expr)));
       case 'listExpr':
         return this.decorate(this.planCreateList(expr));
       case 'structExpr':
@@ -127,6 +153,32 @@ export class Planner implements InterpretablePlanner {
     }
   }
 
+  /**
+   * memoize wraps the Interpretable of an expression which has a memo slot,
+   * so that it is evaluated at most once per evaluation.
+   */
+  memoize(expr: Expr, i: Interpretable | Error): Interpretable | Error {
+    const slot = this.#slots.get(expr.id);
+    if (slot === undefined || i instanceof Error || isInterpretableConst(i)) {
+      return i;
+    }
+    return new EvalMemo(slot, i);
+  }
+
+  /**
+   * isMemoized reports whether the expression has a memo slot.
+   */
+  isMemoized(expr: Expr) {
+    return this.#slots.has(expr.id);
+  }
+
+  /**
+   * slots returns the number of memo slots of the expression.
+   */
+  slots() {
+    return new Set(this.#slots.values()).size;
+  }
+
   /**
    * decorate applies the InterpretableDecorator functions to the given
    * Interpretable. Both the Interpretable and error generated by a Plan step
@@ -181,6 +233,21 @@ export class Planner implements InterpretablePlanner {
       return new EvalConst(id, cVal);
     }
 
+    // Declared variables which are not shadowed by a comprehension variable
+    // are loaded from their slots.
+    const slot = this.#variables?.index(identRef.name!);
+    if (slot !== undefined && !this.#bound.has(identRef.name!)) {
+      return new EvalAttr(
+        this.#adapter,
+        this.#attrFactory.slotAttribute(
+          id,
+          identRef.name!,
+          this.#variables!,
+          slot
+        )
+      );
+    }
+
     // Otherwise, return the attribute for the resolved identifier name.
     return new EvalAttr(
       this.#adapter,
@@ -376,14 +443,17 @@ export class Planner implements InterpretablePlanner {
       traits = impl.operandTraits;
       nonStrict = impl.nonStrict ?? nonStrict;
     }
-    return new EvalUnary(
-      expr.id,
-      _function,
-      overload,
-      args[0],
-      traits,
-      fn,
-      nonStrict
+    return this.specializeNumeric(
+      expr,
+      new EvalUnary(
+        expr.id,
+        _function,
+        overload,
+        args[0],
+        traits,
+        fn,
+        nonStrict
+      )
     );
   }
 
@@ -408,15 +478,18 @@ export class Planner implements InterpretablePlanner {
       traits = impl.operandTraits;
       nonStrict = impl.nonStrict ?? nonStrict;
     }
-    return new EvalBinary(
-      expr.id,
-      _function,
-      overload,
-      args[0],
-      args[1],
-      traits,
-      fn,
-      nonStrict
+    return this.specializeNumeric(
+      expr,
+      new EvalBinary(
+        expr.id,
+        _function,
+        overload,
+        args[0],
+        args[1],
+        traits,
+        fn,
+        nonStrict
+      )
     );
   }
 
@@ -456,14 +529,55 @@ export class Planner implements InterpretablePlanner {
    * planCallEqual generates an equals (==) Interpretable.
    */
   planCallEqual(expr: Expr, args: Interpretable[]): Interpretable | Error {
-    return new EvalEq(expr.id, args[0], args[1]);
+    return this.specializeNumeric(expr, new EvalEq(expr.id, args[0], args[1]));
   }
 
   /**
    * planCallNotEqual generates a not equals (!=) Interpretable.
    */
   planCallNotEqual(expr: Expr, args: Interpretable[]): Interpretable | Error {
-    return new EvalNe(expr.id, args[0], args[1]);
+    return this.specializeNumeric(expr, new EvalNe(expr.id, args[0], args[1]));
+  }
+
+  /**
+   * specializeNumeric replaces an arithmetic, relational or equality call
+   * whose operands the checker proved to be ints, uints or doubles with an
+   * Interpretable which evaluates it over unboxed values. Other calls are
+   * returned as is.
+   */
+  specializeNumeric(
+    expr: Expr,
+    call: EvalUnary | EvalBinary | EvalEq | EvalNe
+  ): Interpretable {
+    let kind: NumericKind | null;
+    if (call instanceof EvalEq || call instanceof EvalNe) {
+      const [lhs, rhs] = unwrapCallProtoExpr(expr)!.args;
+      kind = numericKindOf(this.#typeMap.get(lhs.id));
+      if (kind !== numericKindOf(this.#typeMap.get(rhs.id))) {
+        return call;
+      }
+    } else {
+      kind = overloadKind(call.overloadID());
+    }
+    if (isNil(kind)) {
+      return call;
+    }
+    if (call instanceof EvalUnary) {
+      const negate = negateKernel(kind);
+      if (call.function() !== NEGATE_OPERATOR || isNil(negate)) {
+        return call;
+      }
+      return new EvalNumericNegate(call, kind, negate);
+    }
+    const cmp = comparisonKernel(call.function(), kind);
+    if (!isNil(cmp)) {
+      return new EvalNumericCompare(call, kind, cmp);
+    }
+    const kernel = arithmeticKernels[kind][call.function()];
+    if (isNil(kernel) || !(call instanceof EvalBinary)) {
+      return call;
+    }
+    return new EvalNumericBinary(call, kind, kernel);
   }
 
   /**
@@ -687,32 +801,55 @@ export class Planner implements InterpretablePlanner {
     if (iterRange instanceof Error) {
       return iterRange;
     }
-    const cond = this.plan(fold.loopCondition!);
-    if (cond instanceof Error) {
-      return cond;
-    }
-    const step = this.plan(fold.loopStep!);
-    if (step instanceof Error) {
-      return step;
+    const vars = [fold.accuVar, fold.iterVar, fold.iterVar2].filter(
+      (v) => v !== ''
+    );
+    this.bind(vars, 1);
+    try {
+      const cond = this.plan(fold.loopCondition!);
+      if (cond instanceof Error) {
+        return cond;
+      }
+      const step = this.plan(fold.loopStep!);
+      if (step instanceof Error) {
+        return step;
+      }
+      const result = this.plan(fold.result!);
+      if (result instanceof Error) {
+        return result;
+      }
+      return new EvalFold(
+        expr.id,
+        fold.accuVar,
+        fold.iterVar,
+        fold.iterVar2,
+        iterRange,
+        accu,
+        cond,
+        step,
+        result,
+        this.#adapter,
+        false,
+        false
+      );
+    } finally {
+      this.bind(vars, -1);
     }
-    const result = this.plan(fold.result!);
-    if (result instanceof Error) {
-      return result;
+  }
+
+  /**
+   * bind adds `delta` to the number of comprehensions being planned which
+   * bind each of the variable names.
+   */
+  bind(names: string[], delta: number) {
+    for (const name of names) {
+      const count = (this.#bound.get(name) ?? 0) + delta;
+      if (count === 0) {
+        this.#bound.delete(name);
+      } else {
+        this.#bound.set(name, count);
+      }
     }
-    return new EvalFold(
-      expr.id,
-      fold.accuVar,
-      fold.iterVar,
-      fold.iterVar2,
-      iterRange,
-      accu,
-      cond,
-      step,
-      result,
-      this.#adapter,
-      false,
-      false
-    );
   }
 
   /**
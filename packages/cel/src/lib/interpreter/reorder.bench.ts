@@ -0,0 +1,34 @@
+import { ruleEnv, ruleInput } from '../bench/workloads';
+import { Ast } from '../cel/env';
+import { EvalOption, evalOptions } from '../cel/options';
+import { Program } from '../cel/program';
+
+/**
+ * Compares the operand orders of a rule whose costly operands come first in
+ * the source, while a cheap one decides the result for the rule input.
+ */
+
+const rule = `roles.exists(r, r.startsWith('adm')) &&
+  user.matches('^[a-z]+$') &&
+  age < 18`;
+
+const ast = ruleEnv.compile(rule) as Ast;
+const tiers = {
+  'source order': ruleEnv.program(ast) as Program,
+  'cost order': ruleEnv.program(
+    ast,
+    evalOptions(EvalOption.OrderLogicalByCost)
+  ) as Program,
+  adaptive: ruleEnv.program(
+    ast,
+    evalOptions(EvalOption.AdaptiveLogical)
+  ) as Program,
+};
+
+describe('logical operand order', () => {
+  for (const [name, prg] of Object.entries(tiers)) {
+    bench(name, () => {
+      prg.eval(ruleInput);
+    });
+  }
+});
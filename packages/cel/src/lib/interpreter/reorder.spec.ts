@@ -0,0 +1,230 @@
+/* eslint-disable @typescript-eslint/no-explicit-any */
+import { BoolType, IntType, variable } from '../cel/decls';
+import { Ast, Env } from '../cel/env';
+import { EvalOption, evalOptions } from '../cel/options';
+import { Program } from '../cel/program';
+import { RefVal } from '../common/ref/reference';
+import { BoolRefVal } from '../common/types/bool';
+import { isUnknownRefVal, UnknownRefVal } from '../common/types/unknown';
+import { conformanceExpressions } from '../conformance/corpus';
+import { unparse } from '../parser/unparser';
+import { Expr } from '../protogen/cel/expr/syntax_pb.js';
+import { Activation, EmptyActivation } from './activation';
+import { EvalAdaptiveLogical, Interpretable } from './interpretable';
+import { exprCosts, reorderLogical } from './reorder';
+
+function terms(e: Expr) {
+  if (e.exprKind.case !== 'callExpr') {
+    throw new Error('expected a call');
+  }
+  return e.exprKind.value.args;
+}
+
+describe('reorderLogical', () => {
+  const env = new Env(variable('a', IntType), variable('b', BoolType));
+
+  function reorder(expr: string) {
+    const ast = (env.compile(expr) as Ast).nativeRep();
+    return reorderLogical(ast, exprCosts(ast)).expr();
+  }
+
+  it('should evaluate the cheapest operands first', () => {
+    const args = terms(
+      reorder('[1, 2, 3].exists(i, i == a) && (b || a * a > 100) && a > 1')
+    );
+    expect(args.length).toEqual(3);
+    expect(unparse(args[0])).toEqual('a > 1');
+    expect(unparse(args[1])).toEqual('b || a * a > 100');
+    expect(args[2].exprKind.case).toEqual('comprehensionExpr');
+  });
+
+  it('should flatten nested operators', () => {
+    const args = terms(reorder('a > 1 && (b && a < 10) && a != 5 || b'));
+    expect(args.length).toEqual(2);
+    expect(terms(args[1]).length).toEqual(4);
+  });
+
+  it('should keep the order of operands with the same cost', () => {
+    const args = terms(reorder('a < 10 || a > 20 || a == 15'));
+    expect(args.map((arg) => unparse(arg))).toEqual([
+      'a < 10',
+      'a > 20',
+      'a == 15',
+    ]);
+  });
+
+  it('should not reorder parsed expressions', () => {
+    const ast = (env.parse('x.exists(i, i) && y') as Ast).nativeRep();
+    expect(reorderLogical(ast, exprCosts(ast))).toBe(ast);
+  });
+
+  it('should give the same results on the conformance suite', () => {
+    const env = new Env();
+    const evaluate = (prg: Program) => {
+      try {
+        const [val, , err] = prg.eval({});
+        return { value: val?.value(), failed: !!err };
+      } catch (e) {
+        return { thrown: (e as Error).message };
+      }
+    };
+    for (const exprs of conformanceExpressions().values()) {
+      for (const expr of exprs) {
+        const ast = env.compile(expr);
+        if (!(ast instanceof Ast)) {
+          continue;
+        }
+        const plain = env.program(ast);
+        if (plain instanceof Error) {
+          continue;
+        }
+        for (const option of [
+          EvalOption.OrderLogicalByCost,
+          EvalOption.AdaptiveLogical,
+        ]) {
+          const ordered = env.program(ast, evalOptions(option)) as Program;
+          expect(evaluate(ordered), expr).toEqual(evaluate(plain));
+        }
+      }
+    }
+  });
+
+  it('should track the same cost as the static order', () => {
+    const track = (expr: string, option: EvalOption) => {
+      const prg = env.program(
+        env.compile(expr) as Ast,
+        evalOptions(option, EvalOption.TrackCost)
+      ) as Program;
+      const [val, details] = prg.eval({ a: BigInt(7), b: false });
+      return { value: val?.value(), cost: details?.actualCost() };
+    };
+    for (const expr of [
+      '(a > 1 && b) == b',
+      '[a > 1 || b, b].size() + a > 2',
+      'a > 1 && (b || a * a > 100) && [1, 2].exists(i, i == a)',
+    ]) {
+      expect(track(expr, EvalOption.AdaptiveLogical), expr).toEqual(
+        track(expr, EvalOption.OrderLogicalByCost)
+      );
+    }
+  });
+});
+
+describe('EvalAdaptiveLogical', () => {
+  function term(id: number, value: RefVal) {
+    const t = {
+      evals: 0,
+      id: () => BigInt(id),
+      eval: (_: Activation) => {
+        t.evals++;
+        return value;
+      },
+    };
+    return t;
+  }
+
+  it('should move operands which decide the result to the front', () => {
+    const never = term(1, BoolRefVal.True);
+    const always = term(2, BoolRefVal.False);
+    const and = new EvalAdaptiveLogical(
+      BigInt(3),
+      [never, always] as Interpretable[],
+      [1, 1],
+      false
+    );
+    const vars = new EmptyActivation();
+    for (let i = 0; i < 200; i++) {
+      expect(and.eval(vars)).toEqual(BoolRefVal.False);
+    }
+    expect(never.evals).toEqual(63);
+    expect(always.evals).toEqual(200);
+    expect(and.terms()[0]).toBe(always);
+  });
+
+  it('should weigh the rates by cost', () => {
+    const cheap = term(1, BoolRefVal.True);
+    const costly = term(2, BoolRefVal.True);
+    const or = new EvalAdaptiveLogical(
+      BigInt(3),
+      [costly, cheap] as Interpretable[],
+      [100, 1],
+      true
+    );
+    const vars = new EmptyActivation();
+    for (let i = 0; i < 64; i++) {
+      expect(or.eval(vars)).toEqual(BoolRefVal.True);
+    }
+    expect(or.terms()[0]).toBe(cheap);
+  });
+
+  it('should merge the unknowns of every operand', () => {
+    const and = new EvalAdaptiveLogical(
+      BigInt(3),
+      [
+        term(1, new UnknownRefVal(BigInt(1))),
+        term(2, BoolRefVal.True),
+        term(4, new UnknownRefVal(BigInt(4))),
+      ] as Interpretable[],
+      [1, 1, 1],
+      false
+    );
+    const val = and.eval(new EmptyActivation()) as UnknownRefVal;
+    expect(new Set(val.ids())).toEqual(new Set([BigInt(1), BigInt(4)]));
+  });
+});
+
+describe('logical operators over unknowns', () => {
+  const env = new Env(
+    variable('x', IntType),
+    variable('b', BoolType),
+    variable('u', BoolType),
+    variable('v', BoolType)
+  );
+  const input = {
+    x: BigInt(0),
+    b: true,
+    u: new UnknownRefVal(BigInt(1)),
+    v: new UnknownRefVal(BigInt(2)),
+  };
+
+  function outcome(expr: string, ...opts: EvalOption[]) {
+    const prg = env.program(
+      env.compile(expr) as Ast,
+      evalOptions(...opts)
+    ) as Program;
+    const [val, , err] = prg.eval(input);
+    if (isUnknownRefVal(val)) {
+      return { unknown: val.ids().map(String).sort() };
+    }
+    return { value: val?.value(), error: err?.message };
+  }
+
+  const exprs = [
+    '1 / x == 1 && u',
+    'u && 1 / x == 1',
+    'u || 1 / x == 1 || v',
+    'b && u && v',
+    'u || v',
+    '!b || 1 / x == 1',
+  ];
+
+  for (const expr of exprs) {
+    it(`should evaluate ${expr} the same with every option`, () => {
+      const expected = outcome(expr);
+      for (const option of [
+        EvalOption.OrderLogicalByCost,
+        EvalOption.AdaptiveLogical,
+        EvalOption.Compile,
+        EvalOption.CompileClosures,
+      ]) {
+        expect(outcome(expr, option), `${expr} ${option}`).toEqual(expected);
+      }
+    });
+  }
+
+  it('should return the unknowns of every operand ahead of errors', () => {
+    expect(outcome('1 / x == 1 && u')).toEqual({ unknown: ['1'] });
+    expect(outcome('u || 1 / x == 1 || v')).toEqual({ unknown: ['1', '2'] });
+    expect(outcome('!b || 1 / x == 1').error).toContain('division by zero');
+  });
+});
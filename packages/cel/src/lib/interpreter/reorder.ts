@@ -0,0 +1,90 @@
+import { isNil } from '@bearclaw/is';
+import { clone } from '@bufbuild/protobuf';
+import { Coster, CostEstimator, CostOption } from '../checker/cost';
+import { AST, CheckedAST } from '../common/ast';
+import {
+  LOGICAL_AND_OPERATOR,
+  LOGICAL_OR_OPERATOR,
+} from '../common/operators';
+import { Expr, ExprSchema } from '../protogen/cel/expr/syntax_pb.js';
+import { forEachChild } from './folding';
+
+/**
+ * noEstimates leaves the sizes of inputs and the costs of extension
+ * functions to the defaults of the cost model.
+ */
+const noEstimates: CostEstimator = {
+  estimateSize: () => null,
+  estimateCallCost: () => null,
+};
+
+/**
+ * ExprCosts returns the maximum cost the static cost model estimates for
+ * each subexpression of a checked AST, by expression id. Parsed ASTs have no
+ * estimates.
+ */
+export function exprCosts(a: AST, ...opts: CostOption[]): Map<bigint, number> {
+  const costs = new Map<bigint, number>();
+  if (!a.isChecked()) {
+    return costs;
+  }
+  const coster = new Coster(a, noEstimates, ...opts);
+  for (const [id, cost] of coster.exprCosts()) {
+    costs.set(id, Number(cost.max));
+  }
+  return costs;
+}
+
+/**
+ * ReorderLogical returns a copy of the AST in which nested && and ||
+ * operators are flattened into a single call, whose operands are sorted by
+ * their estimated cost so that the cheapest are evaluated first. Operands
+ * with the same cost keep their order.
+ *
+ * The result of && and || does not depend on the order of the operands,
+ * although which error is reported when several of them fail may. The
+ * flattened calls may have more than two arguments, which the planner and
+ * compilers support but the unparser does not.
+ */
+export function reorderLogical(a: AST, costs: Map<bigint, number>): AST {
+  if (!a.isChecked()) {
+    return a;
+  }
+  const expr = clone(ExprSchema, a.expr());
+  reorder(expr, costs);
+  return new CheckedAST(
+    new AST(expr, a.sourceInfo()),
+    a.typeMap(),
+    a.referenceMap()
+  );
+}
+
+function reorder(e: Expr, costs: Map<bigint, number>) {
+  forEachChild(e, (child) => reorder(child, costs));
+  if (e.exprKind.case !== 'callExpr' || !isNil(e.exprKind.value.target)) {
+    return;
+  }
+  const call = e.exprKind.value;
+  if (
+    call.function !== LOGICAL_AND_OPERATOR &&
+    call.function !== LOGICAL_OR_OPERATOR
+  ) {
+    return;
+  }
+  const terms: Expr[] = [];
+  for (const arg of call.args) {
+    if (
+      arg.exprKind.case === 'callExpr' &&
+      arg.exprKind.value.function === call.function &&
+      isNil(arg.exprKind.value.target)
+    ) {
+      terms.push(...arg.exprKind.value.args);
+    } else {
+      terms.push(arg);
+    }
+  }
+  const cost = (term: Expr) => costs.get(term.id) ?? Number.MAX_VALUE;
+  // Array.prototype.sort is stable, so operands of equal cost keep their
+  // order.
+  call.args = terms.sort((x, y) => cost(x) - cost(y));
+}
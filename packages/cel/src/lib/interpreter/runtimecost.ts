@@ -43,6 +43,7 @@ import {
   isQualifier,
 } from './attributes';
 import {
+  EvalAdaptiveLogical,
   EvalAnd,
   EvalFold,
   EvalOr,
@@ -110,6 +111,10 @@ export function costObserver(tracker: CostTracker): EvalObserver {
       for (const term of programStep.terms) {
         tracker.stack.drop(term.id());
       }
+    } else if (programStep instanceof EvalAdaptiveLogical) {
+      for (const term of programStep.terms()) {
+        tracker.stack.drop(term.id());
+      }
       // TODO: Implement exhaustive evaluation
       // } else if (programStep instanceof EvalExhaustiveAnd) {
       //   for (const term of programStep.terms) {
@@ -146,12 +151,45 @@ export function costObserver(tracker: CostTracker): EvalObserver {
     tracker.stack.push(value, id);
 
     if (!isNil(tracker.limit) && tracker.cost > tracker.limit) {
-      throw new Error('operation cancelled: actual cost limit exceeded');
-      // TODO: panic(EvalCancelledError{Cause: CostLimitExceeded, Message: "operation cancelled: actual cost limit exceeded"})
+      throw new EvalCancelledError(
+        'operation cancelled: actual cost limit exceeded',
+        CancellationCause.CostLimitExceeded
+      );
     }
   };
 }
 
+/**
+ * CancellationCause enumerates the ways a program evaluation operation can be
+ * cancelled.
+ */
+export enum CancellationCause {
+  /**
+   * ContextCancelled indicates that the operation was cancelled in response
+   * to an interrupt.
+   */
+  ContextCancelled,
+  /**
+   * CostLimitExceeded indicates that the operation was cancelled in response
+   * to the actual cost limit being exceeded.
+   */
+  CostLimitExceeded,
+}
+
+/**
+ * EvalCancelledError is thrown by an observer to cancel an evaluation. It is
+ * returned as the error of Program.eval rather than thrown to the caller.
+ */
+export class EvalCancelledError extends Error {
+  readonly cause: CancellationCause;
+
+  constructor(message: string, cause: CancellationCause) {
+    super(message);
+    this.name = 'EvalCancelledError';
+    this.cause = cause;
+  }
+}
+
 /**
  * CostTrackerOption configures the behavior of CostTracker objects.
  */
@@ -0,0 +1,52 @@
+import { IntType, StringType, variable } from '../cel/decls';
+import { Ast, Env } from '../cel/env';
+import { EvalOption, evalOptions } from '../cel/options';
+import { Program } from '../cel/program';
+import { MapActivation } from './activation';
+
+/**
+ * Compares resolving declared variables by name from a map activation with
+ * loading them by slot from a frame which is refilled for every evaluation.
+ */
+
+const env = new Env(
+  variable('user', StringType),
+  variable('age', IntType),
+  variable('score', IntType),
+  variable('limit', IntType)
+);
+const rule = `age >= 18 && score * 2 > limit || user == 'root'`;
+const ast = env.compile(rule) as Ast;
+const byName = env.program(ast) as Program;
+const bySlot = env.program(
+  ast,
+  evalOptions(EvalOption.SlotVariables)
+) as Program;
+
+const slots = env.variableSlots();
+const values = new Array(slots.size());
+const frame = slots.frame(values);
+const [user, age, score, limit] = ['user', 'age', 'score', 'limit'].map(
+  (name) => slots.index(name) as number
+);
+
+describe('variable resolution', () => {
+  bench('map activation', () => {
+    byName.eval(
+      new MapActivation({
+        user: 'alice',
+        age: BigInt(30),
+        score: BigInt(72),
+        limit: BigInt(75),
+      })
+    );
+  });
+
+  bench('slot frame', () => {
+    values[user] = 'alice';
+    values[age] = BigInt(30);
+    values[score] = BigInt(72);
+    values[limit] = BigInt(75);
+    bySlot.eval(frame);
+  });
+});
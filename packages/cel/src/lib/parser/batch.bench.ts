@@ -0,0 +1,31 @@
+import { TextSource } from '../common/source';
+import { conformanceExpressions } from '../conformance/corpus';
+import { AllMacros } from './macro';
+import {
+  enableIdentEscapeSyntax,
+  enableOptionalSyntax,
+  macros,
+  Parser,
+} from './parser';
+
+const sources = [...conformanceExpressions().values()]
+  .flat()
+  .map((expr) => new TextSource(expr));
+
+describe(`${sources.length} conformance expressions`, () => {
+  const parser = new Parser(
+    macros(...AllMacros),
+    enableOptionalSyntax(true),
+    enableIdentEscapeSyntax(true)
+  );
+
+  bench('parse one at a time', () => {
+    for (const source of sources) {
+      parser.parse(source);
+    }
+  });
+
+  bench('parseAll', () => {
+    parser.parseAll(sources);
+  });
+});
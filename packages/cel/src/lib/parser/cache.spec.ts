@@ -0,0 +1,129 @@
+import { setExprKindCase } from '../common/ast';
+import { newIdentProtoExpr } from '../common/pb/expressions';
+import { StringSource, TextSource } from '../common/source';
+import { ParseCache } from './cache';
+import { AllMacros, MapMacro, ReceiverMacro } from './macro';
+import {
+  enableOptionalSyntax,
+  macros,
+  parseCache,
+  Parser,
+  populateMacroCalls,
+} from './parser';
+
+describe('ParseCache', () => {
+  it('should serve repeated parses from the cache', () => {
+    const cache = new ParseCache();
+    const uncached = new Parser(macros(...AllMacros), populateMacroCalls(true));
+    const parser = new Parser(
+      macros(...AllMacros),
+      populateMacroCalls(true),
+      parseCache(cache)
+    );
+    const expr = 'a.exists(x, x > 1) && b[0] == "c"';
+    const expected = uncached.parse(new TextSource(expr));
+    const first = parser.parse(new TextSource(expr));
+    const second = parser.parse(new TextSource(expr));
+    expect(cache.misses).toEqual(1);
+    expect(cache.hits).toEqual(1);
+    expect(first.expr()).toEqual(expected.expr());
+    expect(second.expr()).toEqual(expected.expr());
+    expect(second.sourceInfo().macroCalls()).toEqual(
+      expected.sourceInfo().macroCalls()
+    );
+    expect(second.sourceInfo().offsetRanges()).toEqual(
+      expected.sourceInfo().offsetRanges()
+    );
+    expect(parser.errors.length()).toEqual(0);
+  });
+
+  it('should not share ASTs between callers', () => {
+    const cache = new ParseCache();
+    const parser = new Parser(parseCache(cache));
+    const first = parser.parse(new TextSource('a.b'));
+    setExprKindCase(first.expr(), newIdentProtoExpr(first.expr().id, 'a.b'));
+    const second = parser.parse(new TextSource('a.b'));
+    expect(second.expr().exprKind.case).toEqual('selectExpr');
+    expect(cache.hits).toEqual(1);
+  });
+
+  it('should associate hits with the caller source', () => {
+    const parser = new Parser(parseCache(new ParseCache()));
+    parser.parse(new StringSource('a + b', 'first'));
+    const ast = parser.parse(new StringSource('a + b', 'second'));
+    expect(ast.sourceInfo().description()).toEqual('second');
+  });
+
+  it('should key entries by the parser options', () => {
+    const cache = new ParseCache();
+    const plain = new Parser(parseCache(cache));
+    const withMacros = new Parser(macros(...AllMacros), parseCache(cache));
+    const withOptionals = new Parser(
+      enableOptionalSyntax(true),
+      parseCache(cache)
+    );
+    const expr = 'has(a.b)';
+    expect(plain.parse(new TextSource(expr)).expr().exprKind.case).toEqual(
+      'callExpr'
+    );
+    expect(
+      withMacros.parse(new TextSource(expr)).expr().exprKind.case
+    ).toEqual('selectExpr');
+    withOptionals.parse(new TextSource(expr));
+    expect(cache.misses).toEqual(3);
+    expect(cache.size()).toEqual(3);
+  });
+
+  it('should key entries by the macro expanders', () => {
+    const cache = new ParseCache();
+    const standard = new Parser(macros(MapMacro), parseCache(cache));
+    // Expands a.map(x, y) to a.
+    const custom = new Parser(
+      // eslint-disable-next-line @typescript-eslint/no-non-null-assertion
+      macros(new ReceiverMacro('map', 2, (_, target) => target!)),
+      parseCache(cache)
+    );
+    const expr = 'a.map(x, x + 1)';
+    expect(standard.parse(new TextSource(expr)).expr().exprKind.case).toEqual(
+      'comprehensionExpr'
+    );
+    expect(custom.parse(new TextSource(expr)).expr().exprKind.case).toEqual(
+      'identExpr'
+    );
+    expect(cache.misses).toEqual(2);
+    standard.parse(new TextSource(expr));
+    expect(cache.hits).toEqual(1);
+  });
+
+  it('should not cache expressions with errors', () => {
+    const cache = new ParseCache();
+    const parser = new Parser(parseCache(cache));
+    parser.parse(new TextSource('a +'));
+    const errors = parser.errors.toDisplayString();
+    parser.parse(new TextSource('a +'));
+    expect(parser.errors.toDisplayString()).toEqual(errors);
+    expect(errors).not.toEqual('');
+    expect(cache.size()).toEqual(0);
+    expect(cache.misses).toEqual(2);
+  });
+
+  it('should evict the least recently used entry', () => {
+    const cache = new ParseCache(2);
+    const parser = new Parser(parseCache(cache));
+    parser.parse(new TextSource('a'));
+    parser.parse(new TextSource('b'));
+    parser.parse(new TextSource('a'));
+    parser.parse(new TextSource('c'));
+    expect(cache.evictions).toEqual(1);
+    expect(cache.size()).toEqual(2);
+    parser.parse(new TextSource('a'));
+    expect(cache.hits).toEqual(2);
+    parser.parse(new TextSource('b'));
+    expect(cache.misses).toEqual(4);
+    expect(cache.hitRate()).toEqual(2 / 6);
+  });
+
+  it('should reject an empty bound', () => {
+    expect(() => new ParseCache(0)).toThrow();
+  });
+});
@@ -0,0 +1,114 @@
+import { AST } from '../common/ast';
+import { CompactAST } from '../common/compact';
+import { Source } from '../common/source';
+import { MacroExpander } from './macro';
+
+/**
+ * ParseCache is a bounded, least-recently-used cache of parse results keyed by
+ * the expression text and the parser options which affect the AST. Only
+ * expressions which parsed without errors are cached.
+ *
+ * Entries are stored as CompactAST values, which cannot be modified. Each hit
+ * expands the entry into a new AST associated with the caller's source,
+ * because later stages (e.g. the checker) rewrite expressions in place and
+ * must not be able to change what other callers receive. A hit still skips
+ * lexing, prediction and macro expansion.
+ *
+ * A cache may be shared by any number of parsers, including parsers with
+ * different options. Macros are told apart by their expanders, so parsers
+ * which replace a macro with a different expander under the same name do not
+ * receive each other's expansions.
+ */
+export class ParseCache {
+  /**
+   * The number of parses served from the cache.
+   */
+  hits = 0;
+  /**
+   * The number of parses which were not in the cache.
+   */
+  misses = 0;
+  /**
+   * The number of entries removed to make room for new ones.
+   */
+  evictions = 0;
+
+  #entries = new Map<string, CompactAST>();
+  #expanders = new WeakMap<MacroExpander, number>();
+  #nextExpanderId = 0;
+
+  constructor(readonly maxEntries = 4096) {
+    if (maxEntries < 1) {
+      throw new Error(`max entries must be greater than 0: ${maxEntries}`);
+    }
+  }
+
+  /**
+   * Get returns a new AST for the cached parse result, or undefined when the
+   * key is not cached.
+   */
+  get(key: string, source: Source): AST | undefined {
+    const entry = this.#entries.get(key);
+    if (entry === undefined) {
+      this.misses++;
+      return undefined;
+    }
+    this.hits++;
+    // Re-inserting the entry moves it to the most recently used position.
+    this.#entries.delete(key);
+    this.#entries.set(key, entry);
+    return entry.toAST(source);
+  }
+
+  /**
+   * Set caches the parse result for the key, evicting the least recently used
+   * entry if the cache is full.
+   */
+  set(key: string, ast: AST) {
+    this.#entries.delete(key);
+    if (this.#entries.size >= this.maxEntries) {
+      const oldest = this.#entries.keys().next().value as string;
+      this.#entries.delete(oldest);
+      this.evictions++;
+    }
+    this.#entries.set(key, CompactAST.fromAST(ast));
+  }
+
+  size() {
+    return this.#entries.size;
+  }
+
+  /**
+   * ExpanderId returns the number which identifies a macro expander in the
+   * keys of this cache.
+   */
+  expanderId(expander: MacroExpander) {
+    let id = this.#expanders.get(expander);
+    if (id === undefined) {
+      id = this.#nextExpanderId++;
+      this.#expanders.set(expander, id);
+    }
+    return id;
+  }
+
+  /**
+   * HitRate returns the fraction of lookups which were served from the cache.
+   */
+  hitRate() {
+    const total = this.hits + this.misses;
+    return total === 0 ? 0 : this.hits / total;
+  }
+
+  /**
+   * Clear removes every entry. The counters are left untouched.
+   */
+  clear() {
+    this.#entries.clear();
+  }
+
+  resetStats() {
+    this.hits = 0;
+    this.misses = 0;
+    this.evictions = 0;
+  }
+}
@@ -0,0 +1,29 @@
+import { TextSource } from '../common/source';
+import { AllMacros } from './macro';
+import { enableDirectParsing, macros, Parser } from './parser';
+
+const expressions = {
+  arithmetic: Array.from({ length: 100 }, (_, i) => `a${i} * ${i}`).join(
+    ' + '
+  ),
+  members: 'a.b.c[0].d(e, f.g).h["i"].j + x.y.z(1, 2, 3).size()',
+  literals: '[1, 2u, 3.0, "four", b"five", true, null, {"k": [-1, -2.5]}]',
+  macros: 'items.filter(i, i.price > 10).map(i, i.name).exists(n, n == "x")',
+  messages: 'google.expr.Message{name: "a", values: [1, 2], nested: M{x: 1}}',
+};
+
+for (const [name, expression] of Object.entries(expressions)) {
+  describe(name, () => {
+    const source = new TextSource(expression);
+    const visitor = new Parser(macros(...AllMacros));
+    const direct = new Parser(macros(...AllMacros), enableDirectParsing(true));
+
+    bench('parse tree and visitor', () => {
+      visitor.parse(source);
+    });
+
+    bench('direct to AST', () => {
+      direct.parse(source);
+    });
+  });
+}
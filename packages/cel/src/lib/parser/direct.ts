@@ -0,0 +1,822 @@
+/* eslint-disable @typescript-eslint/no-unused-vars */
+import {
+  ErrorListener,
+  RecognitionException,
+  Recognizer,
+  Token,
+} from 'antlr4';
+import { OffsetRange, SourceInfo } from '../common/ast';
+import {
+  CONDITIONAL_OPERATOR,
+  INDEX_OPERATOR,
+  LOGICAL_AND_OPERATOR,
+  LOGICAL_NOT_OPERATOR,
+  LOGICAL_OR_OPERATOR,
+  NEGATE_OPERATOR,
+  OPT_INDEX_OPERATOR,
+  OPT_SELECT_OPERATOR,
+  getOperatorFromText,
+} from '../common/operators';
+import { Source } from '../common/source';
+import { SymbolTable } from '../common/symbols';
+import { NullRefVal } from '../common/types/null';
+import { safeParseFloat, safeParseInt } from '../common/utils';
+import CELParser from '../gen/CELParser';
+import {
+  Expr,
+  Expr_CreateStruct_Entry,
+} from '../protogen/cel/expr/syntax_pb.js';
+import {
+  LogicManager,
+  ParserHelper,
+  reservedIds,
+  unescapeIdent,
+} from './helper';
+import { LiteralTable } from './literals';
+import {
+  isAdditiveOperator,
+  isMultiplicativeOperator,
+  isRelationOperator,
+} from './precedence';
+import { Scanner } from './scanner';
+
+/**
+ * DirectParserHost supplies the parser options and the macro-aware call
+ * construction of the visitor-based Parser to a DirectParser.
+ */
+export interface DirectParserHost {
+  readonly maxRecursionDepth: number;
+  readonly enableOptionalSyntax: boolean;
+  readonly enableIdentEscapeSyntax: boolean;
+  readonly literals: LiteralTable;
+  readonly symbols?: SymbolTable;
+  globalCallOrMacro(exprId: bigint, fn: string, args: Expr[]): Expr;
+  receiverCallOrMacro(
+    exprId: bigint,
+    fn: string,
+    target: Expr,
+    args: Expr[]
+  ): Expr;
+}
+
+/**
+ * Thrown to abandon a direct parse. It is never seen outside of `parse`.
+ */
+const abandon = new Error('direct parse abandoned');
+
+/**
+ * NumberOrAbandon returns the value of a numeric literal, abandoning the
+ * parse if it is out of range so that the generated parser reports it.
+ */
+function numberOrAbandon<T>(parse: () => T): T {
+  try {
+    return parse();
+  } catch {
+    throw abandon;
+  }
+}
+
+/**
+ * DirectParser is a recursive descent parser for CEL.g4 which builds the
+ * expression AST as each rule completes, without creating a parse tree.
+ *
+ * Node IDs are allocated through the same ParserHelper calls and in the same
+ * order as the Parser visitor, and source offsets are computed from the same
+ * token positions, so the AST and source info are identical to those built
+ * from the generated parser's tree. The grammar ambiguities which ANTLR
+ * resolves in favor of the lowest alternative (e.g. `-1` is a negative
+ * literal, while `--1` negates twice) are resolved the same way.
+ *
+ * The direct parser only accepts well-formed expressions. It returns
+ * undefined whenever the generated parser or the visitor would report an
+ * error, including lexical errors, syntax errors, invalid literals,
+ * unsupported syntax and exceeding the recursion limit, so that the caller
+ * can fall back to the generated parser to report them.
+ */
+export class DirectParser {
+  readonly #input: string;
+  readonly #helper: ParserHelper;
+  readonly #sourceInfo: SourceInfo;
+  readonly #host: DirectParserHost;
+  readonly #ruleDepth = new Int32Array(CELParser.ruleNames.length);
+  #types: number[] = [];
+  #starts: number[] = [];
+  #stops: number[] = [];
+  #lines: number[] = [];
+  #columns: number[] = [];
+  #symbols: number[] = [];
+  #pos = 0;
+  /**
+   * The number of nested operators, selections, calls and indexes in the
+   * expression most recently returned by a rule. This is the depth the
+   * visitor would reach when visiting the equivalent parse tree.
+   */
+  #nesting = 0;
+
+  constructor(source: Source, helper: ParserHelper, host: DirectParserHost) {
+    this.#input = source.content();
+    this.#helper = helper;
+    this.#sourceInfo = helper.getSourceInfo();
+    this.#host = host;
+  }
+
+  /**
+   * Parse returns the expression AST, or undefined if the expression is not
+   * well-formed.
+   */
+  parse(): Expr | undefined {
+    if (!this._tokenize()) {
+      return undefined;
+    }
+    try {
+      this._enter(CELParser.RULE_start);
+      const expr = this._expr();
+      this._expect(Token.EOF);
+      if (this.#nesting > this.#host.maxRecursionDepth) {
+        return undefined;
+      }
+      return expr;
+    } catch (e) {
+      if (e === abandon) {
+        return undefined;
+      }
+      throw e;
+    }
+  }
+
+  // expr : e=conditionalOr (op='?' e1=conditionalOr ':' e2=expr)? ;
+  private _expr(): Expr {
+    this._enter(CELParser.RULE_expr);
+    const result = this._conditionalOr();
+    if (this._la(0) !== CELParser.QUESTIONMARK) {
+      this._exit(CELParser.RULE_expr);
+      return result;
+    }
+    let nesting = this.#nesting;
+    const opId = this.#helper.id(this._range(this.#pos++));
+    const ifTrue = this._conditionalOr();
+    nesting = Math.max(nesting, this.#nesting);
+    this._expect(CELParser.COLON);
+    const ifFalse = this._expr();
+    this.#nesting = Math.max(nesting, this.#nesting) + 1;
+    this._exit(CELParser.RULE_expr);
+    return this.#host.globalCallOrMacro(opId, CONDITIONAL_OPERATOR, [
+      result,
+      ifTrue,
+      ifFalse,
+    ]);
+  }
+
+  // conditionalOr : e=conditionalAnd (ops+='||' e1+=conditionalAnd)* ;
+  private _conditionalOr(): Expr {
+    this._enter(CELParser.RULE_conditionalOr);
+    const result = this._conditionalAnd();
+    if (this._la(0) !== CELParser.LOGICAL_OR) {
+      this._exit(CELParser.RULE_conditionalOr);
+      return result;
+    }
+    let nesting = this.#nesting;
+    const logicManager = LogicManager.newBalancingLogicManager(
+      LOGICAL_OR_OPERATOR,
+      result
+    );
+    while (this._la(0) === CELParser.LOGICAL_OR) {
+      const op = this.#pos++;
+      const term = this._conditionalAnd();
+      nesting = Math.max(nesting, this.#nesting);
+      logicManager.addTerm(this.#helper.id(this._range(op)), term);
+    }
+    this.#nesting = nesting;
+    this._exit(CELParser.RULE_conditionalOr);
+    return logicManager.toExpr();
+  }
+
+  // conditionalAnd : e=relation (ops+='&&' e1+=relation)* ;
+  private _conditionalAnd(): Expr {
+    this._enter(CELParser.RULE_conditionalAnd);
+    const result = this._relation(0);
+    if (this._la(0) !== CELParser.LOGICAL_AND) {
+      this._exit(CELParser.RULE_conditionalAnd);
+      return result;
+    }
+    let nesting = this.#nesting;
+    const logicManager = LogicManager.newBalancingLogicManager(
+      LOGICAL_AND_OPERATOR,
+      result
+    );
+    while (this._la(0) === CELParser.LOGICAL_AND) {
+      const op = this.#pos++;
+      const term = this._relation(0);
+      nesting = Math.max(nesting, this.#nesting);
+      logicManager.addTerm(this.#helper.id(this._range(op)), term);
+    }
+    this.#nesting = nesting;
+    this._exit(CELParser.RULE_conditionalAnd);
+    return logicManager.toExpr();
+  }
+
+  // relation : calc | relation op=('<'|'<='|'>='|'>'|'=='|'!='|'in') relation ;
+  private _relation(precedence: number): Expr {
+    this._enter(CELParser.RULE_relation);
+    let result = this._calc(0);
+    let nesting = this.#nesting;
+    while (precedence <= 1 && isRelationOperator(this._la(0))) {
+      const op = this.#pos++;
+      const opId = this.#helper.id(this._range(op));
+      const right = this._relation(2);
+      nesting = Math.max(nesting, this.#nesting) + 1;
+      result = this.#host.globalCallOrMacro(
+        opId,
+        getOperatorFromText(this._text(op)) as string,
+        [result, right]
+      );
+    }
+    this.#nesting = nesting;
+    this._exit(CELParser.RULE_relation);
+    return result;
+  }
+
+  // calc : unary | calc op=('*'|'/'|'%') calc | calc op=('+'|'-') calc ;
+  private _calc(precedence: number): Expr {
+    this._enter(CELParser.RULE_calc);
+    let result = this._unary();
+    let nesting = this.#nesting;
+    for (;;) {
+      const la = this._la(0);
+      let next: number;
+      if (precedence <= 2 && isMultiplicativeOperator(la)) {
+        next = 3;
+      } else if (precedence <= 1 && isAdditiveOperator(la)) {
+        next = 2;
+      } else {
+        break;
+      }
+      const op = this.#pos++;
+      const opId = this.#helper.id(this._range(op));
+      const right = this._calc(next);
+      nesting = Math.max(nesting, this.#nesting) + 1;
+      result = this.#host.globalCallOrMacro(
+        opId,
+        getOperatorFromText(this._text(op)) as string,
+        [result, right]
+      );
+    }
+    this.#nesting = nesting;
+    this._exit(CELParser.RULE_calc);
+    return result;
+  }
+
+  // unary : member | ('!')+ member | ('-')+ member ;
+  private _unary(): Expr {
+    this._enter(CELParser.RULE_unary);
+    const la = this._la(0);
+    let count = 0;
+    if (la === CELParser.EXCLAM || la === CELParser.MINUS) {
+      while (this._la(count) === la) {
+        count++;
+      }
+      // A single '-' directly before a number is the sign of a literal, which
+      // is the first alternative of the rule and therefore the one ANTLR
+      // prefers. With more than one, every '-' is a negation.
+      if (la === CELParser.MINUS && count === 1 && isNumber(this._la(1))) {
+        count = 0;
+      }
+    }
+    if (count === 0) {
+      const member = this._member();
+      this._exit(CELParser.RULE_unary);
+      return member;
+    }
+    const first = this.#pos;
+    this.#pos += count;
+    if (count % 2 === 0) {
+      const member = this._member();
+      this._exit(CELParser.RULE_unary);
+      return member;
+    }
+    const opId = this.#helper.id(this._range(first));
+    const target = this._member();
+    this._exit(CELParser.RULE_unary);
+    return this.#host.globalCallOrMacro(
+      opId,
+      la === CELParser.EXCLAM ? LOGICAL_NOT_OPERATOR : NEGATE_OPERATOR,
+      [target]
+    );
+  }
+
+  // member : primary
+  //        | member op='.' (opt='?')? id=escapeIdent
+  //        | member op='.' id=IDENTIFIER open='(' args=exprList? ')'
+  //        | member op='[' (opt='?')? index=expr ']'
+  //        ;
+  private _member(): Expr {
+    this._enter(CELParser.RULE_member);
+    let result = this._primary();
+    let nesting = this.#nesting;
+    for (;;) {
+      const la = this._la(0);
+      if (la === CELParser.DOT) {
+        if (
+          this._la(1) === CELParser.IDENTIFIER &&
+          this._la(2) === CELParser.LPAREN
+        ) {
+          const id = this.#pos + 1;
+          const open = this.#pos + 2;
+          this.#pos += 3;
+          const opId = this.#helper.id(this._range(open));
+          const args = this._args();
+          nesting = Math.max(nesting, this.#nesting) + 1;
+          result = this.#host.receiverCallOrMacro(
+            opId,
+            this._name(id),
+            result,
+            args
+          );
+          continue;
+        }
+        const op = this.#pos++;
+        const opt = this._optional();
+        const id = this._escapeIdent();
+        const field = this._normalizeIdent(id);
+        if (opt) {
+          if (!this.#host.enableOptionalSyntax) {
+            throw abandon;
+          }
+          result = this.#helper.newGlobalCall(
+            this._range(op),
+            OPT_SELECT_OPERATOR,
+            result,
+            this.#helper.newLiteralString(this._range(id), field)
+          );
+        } else {
+          result = this.#helper.newSelect(this._range(op), result, field);
+        }
+        nesting++;
+      } else if (la === CELParser.LBRACKET) {
+        const op = this.#pos++;
+        const opt = this._optional();
+        const opId = this.#helper.id(this._range(op));
+        const index = this._expr();
+        nesting = Math.max(nesting, this.#nesting) + 1;
+        this._expect(CELParser.RPRACKET);
+        if (opt && !this.#host.enableOptionalSyntax) {
+          throw abandon;
+        }
+        result = this.#host.globalCallOrMacro(
+          opId,
+          opt ? OPT_INDEX_OPERATOR : INDEX_OPERATOR,
+          [result, index]
+        );
+      } else {
+        break;
+      }
+    }
+    this.#nesting = nesting;
+    this._exit(CELParser.RULE_member);
+    return result;
+  }
+
+  // primary : '.'? IDENTIFIER                                # Ident
+  //         | '.'? IDENTIFIER '(' exprList? ')'                # GlobalCall
+  //         | '(' expr ')'                                     # Nested
+  //         | '[' listInit? ','? ']'                           # CreateList
+  //         | '{' mapInitializerList? ','? '}'                 # CreateStruct
+  //         | '.'? IDENTIFIER ('.' IDENTIFIER)*
+  //           '{' fieldInitializerList? ','? '}'               # CreateMessage
+  //         | literal                                          # ConstantLiteral
+  //         ;
+  private _primary(): Expr {
+    this._enter(CELParser.RULE_primary);
+    let result: Expr;
+    switch (this._la(0)) {
+      case CELParser.DOT:
+      case CELParser.IDENTIFIER:
+        result = this._identOrCall();
+        break;
+      case CELParser.LPAREN:
+        this.#pos++;
+        result = this._expr();
+        this._expect(CELParser.RPAREN);
+        break;
+      case CELParser.LBRACKET:
+        result = this._createList();
+        break;
+      case CELParser.LBRACE:
+        result = this._createStruct();
+        break;
+      default:
+        result = this._literal();
+        break;
+    }
+    this._exit(CELParser.RULE_primary);
+    return result;
+  }
+
+  private _identOrCall(): Expr {
+    const leadingDot = this._la(0) === CELParser.DOT;
+    const id = leadingDot ? this.#pos + 1 : this.#pos;
+    if (this._type(id) !== CELParser.IDENTIFIER) {
+      throw abandon;
+    }
+    // A qualified name followed by '{' is a message construction.
+    let end = id + 1;
+    while (
+      this._type(end) === CELParser.DOT &&
+      this._type(end + 1) === CELParser.IDENTIFIER
+    ) {
+      end += 2;
+    }
+    if (this._type(end) === CELParser.LBRACE) {
+      return this._createMessage(leadingDot, id, end);
+    }
+    const name = this._name(id);
+    if (reservedIds.has(name)) {
+      throw abandon;
+    }
+    const identName = leadingDot ? this._intern('.' + name) : name;
+    if (this._type(id + 1) !== CELParser.LPAREN) {
+      this.#pos = id + 1;
+      this.#nesting = 0;
+      return this.#helper.newIdent(this._range(id), identName);
+    }
+    this.#pos = id + 2;
+    const opId = this.#helper.id(this._range(id + 1));
+    const args = this._args();
+    return this.#host.globalCallOrMacro(opId, identName, args);
+  }
+
+  private _createList(): Expr {
+    const listId = this.#helper.id(this._range(this.#pos++));
+    const elements: Expr[] = [];
+    const optionals: number[] = [];
+    let nesting = 0;
+    if (!this._atClose(CELParser.RPRACKET)) {
+      // listInit : elems+=optExpr (',' elems+=optExpr)* ;
+      this._enter(CELParser.RULE_listInit);
+      do {
+        this._enter(CELParser.RULE_optExpr);
+        const opt = this._optional();
+        elements.push(this._expr());
+        nesting = Math.max(nesting, this.#nesting);
+        this._exit(CELParser.RULE_optExpr);
+        if (opt) {
+          if (!this.#host.enableOptionalSyntax) {
+            throw abandon;
+          }
+          optionals.push(elements.length - 1);
+        }
+      } while (this._continueList(CELParser.RPRACKET));
+      this._exit(CELParser.RULE_listInit);
+    }
+    this._closeList(CELParser.RPRACKET);
+    this.#nesting = nesting;
+    return this.#helper.newList(listId, elements, optionals);
+  }
+
+  private _createStruct(): Expr {
+    const structId = this.#helper.id(this._range(this.#pos++));
+    const entries: Expr_CreateStruct_Entry[] = [];
+    let nesting = 0;
+    if (!this._atClose(CELParser.RBRACE)) {
+      // mapInitializerList :
+      //   keys+=optExpr cols+=':' values+=expr
+      //   (',' keys+=optExpr cols+=':' values+=expr)* ;
+      this._enter(CELParser.RULE_mapInitializerList);
+      do {
+        // The visitor allocates the ID of the ':' before visiting the key, so
+        // it is reserved here and its offsets are filled in once the colon
+        // has been reached.
+        const colId = this.#helper.id(new OffsetRange(-1, -1));
+        this._enter(CELParser.RULE_optExpr);
+        const opt = this._optional();
+        const key = this._expr();
+        nesting = Math.max(nesting, this.#nesting);
+        this._exit(CELParser.RULE_optExpr);
+        const col = this._expect(CELParser.COLON);
+        this.#sourceInfo.setOffsetRange(colId, this._range(col));
+        if (opt && !this.#host.enableOptionalSyntax) {
+          throw abandon;
+        }
+        const value = this._expr();
+        nesting = Math.max(nesting, this.#nesting);
+        entries.push(this.#helper.newMapEntry(colId, key, value, opt));
+      } while (this._continueList(CELParser.RBRACE));
+      this._exit(CELParser.RULE_mapInitializerList);
+    }
+    this._closeList(CELParser.RBRACE);
+    this.#nesting = nesting;
+    return this.#helper.newMap(structId, entries);
+  }
+
+  private _createMessage(leadingDot: boolean, first: number, brace: number) {
+    let messageName = leadingDot ? '.' : '';
+    for (let i = first; i < brace; i += 2) {
+      if (i !== first) {
+        messageName += '.';
+      }
+      messageName += this._text(i);
+    }
+    messageName = this._intern(messageName);
+    this.#pos = brace + 1;
+    const objId = this.#helper.id(this._range(brace));
+    const entries: Expr_CreateStruct_Entry[] = [];
+    let nesting = 0;
+    if (this._atClose(CELParser.RBRACE)) {
+      // The visitor creates an expression for the missing initializer list.
+      this.#helper.newExpr(undefined);
+    } else {
+      // fieldInitializerList :
+      //   fields+=optField cols+=':' values+=expr
+      //   (',' fields+=optField cols+=':' values+=expr)* ;
+      this._enter(CELParser.RULE_fieldInitializerList);
+      do {
+        this._enter(CELParser.RULE_optField);
+        const opt = this._optional();
+        const id = this._escapeIdent();
+        this._exit(CELParser.RULE_optField);
+        const initId = this.#helper.id(
+          this._range(this._expect(CELParser.COLON))
+        );
+        if (opt && !this.#host.enableOptionalSyntax) {
+          throw abandon;
+        }
+        const fieldName = this._normalizeIdent(id);
+        const value = this._expr();
+        nesting = Math.max(nesting, this.#nesting);
+        entries.push(
+          this.#helper.newObjectField(initId, fieldName, value, opt)
+        );
+      } while (this._continueList(CELParser.RBRACE));
+      this._exit(CELParser.RULE_fieldInitializerList);
+    }
+    this._closeList(CELParser.RBRACE);
+    this.#nesting = nesting;
+    return this.#helper.newObject(objId, messageName, entries);
+  }
+
+  // literal : sign=MINUS? tok=NUM_INT   # Int
+  //         | tok=NUM_UINT              # Uint
+  //         | sign=MINUS? tok=NUM_FLOAT # Double
+  //         | tok=STRING                # String
+  //         | tok=BYTES                 # Bytes
+  //         | tok=CEL_TRUE              # BoolTrue
+  //         | tok=CEL_FALSE             # BoolFalse
+  //         | tok=NUL                   # Null
+  //         ;
+  private _literal(): Expr {
+    this._enter(CELParser.RULE_literal);
+    const first = this.#pos;
+    const signed = this._la(0) === CELParser.MINUS;
+    const tok = signed ? first + 1 : first;
+    const type = this._type(tok);
+    if (signed && !isNumber(type)) {
+      throw abandon;
+    }
+    this.#pos = tok + 1;
+    // The offsets of a literal span the text of its tokens, without any
+    // hidden tokens between the sign and the number.
+    const start = this._offset(first);
+    const text = signed ? '-' + this._text(tok) : this._text(tok);
+    const range = new OffsetRange(start, start + text.length);
+    let result: Expr;
+    switch (type) {
+      case CELParser.NUM_INT:
+        result = this.#helper.newLiteralInt(
+          range,
+          numberOrAbandon(() => BigInt(safeParseInt(text, 64, true)))
+        );
+        break;
+      case CELParser.NUM_UINT:
+        result = this.#helper.newLiteralUint(
+          range,
+          numberOrAbandon(() =>
+            BigInt(safeParseInt(text.substring(0, text.length - 1), 64, false))
+          )
+        );
+        break;
+      case CELParser.NUM_FLOAT:
+        result = this.#helper.newLiteralDouble(
+          range,
+          numberOrAbandon(() => safeParseFloat(text, 64, true))
+        );
+        break;
+      case CELParser.STRING:
+        result = this.#helper.newLiteralString(
+          range,
+          this.#host.literals.string(text)
+        );
+        break;
+      case CELParser.BYTES:
+        result = this.#helper.newLiteralBytes(
+          range,
+          this.#host.literals.bytes(text)
+        );
+        break;
+      case CELParser.CEL_TRUE:
+        result = this.#helper.newLiteralBool(range, true);
+        break;
+      case CELParser.CEL_FALSE:
+        result = this.#helper.newLiteralBool(range, false);
+        break;
+      case CELParser.NUL:
+        result = this.#helper.newLiteral(range, new NullRefVal());
+        break;
+      default:
+        throw abandon;
+    }
+    this.#nesting = 0;
+    this._exit(CELParser.RULE_literal);
+    return result;
+  }
+
+  /**
+   * Parses the optional argument list of a call up to and including the
+   * closing parenthesis.
+   */
+  private _args(): Expr[] {
+    const args: Expr[] = [];
+    let nesting = 0;
+    if (this._la(0) !== CELParser.RPAREN) {
+      // exprList : e+=expr (',' e+=expr)* ;
+      this._enter(CELParser.RULE_exprList);
+      args.push(this._expr());
+      nesting = this.#nesting;
+      while (this._la(0) === CELParser.COMMA) {
+        this.#pos++;
+        args.push(this._expr());
+        nesting = Math.max(nesting, this.#nesting);
+      }
+      this._exit(CELParser.RULE_exprList);
+    }
+    this._expect(CELParser.RPAREN);
+    this.#nesting = nesting;
+    return args;
+  }
+
+  // escapeIdent : id=IDENTIFIER | id=ESC_IDENTIFIER ;
+  private _escapeIdent() {
+    this._enter(CELParser.RULE_escapeIdent);
+    const type = this._la(0);
+    if (type !== CELParser.IDENTIFIER && type !== CELParser.ESC_IDENTIFIER) {
+      throw abandon;
+    }
+    this._exit(CELParser.RULE_escapeIdent);
+    return this.#pos++;
+  }
+
+  private _normalizeIdent(id: number) {
+    if (this._type(id) === CELParser.IDENTIFIER) {
+      return this._name(id);
+    }
+    if (!this.#host.enableIdentEscapeSyntax) {
+      throw abandon;
+    }
+    const ident = unescapeIdent(this._text(id));
+    if (ident instanceof Error) {
+      throw abandon;
+    }
+    return this.#symbols[id] >= 0 ? this._name(id) : ident;
+  }
+
+  /**
+   * Consumes the '?' which marks an optional element, field or selection.
+   */
+  private _optional() {
+    if (this._la(0) === CELParser.QUESTIONMARK) {
+      this.#pos++;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Reports whether an initializer list is empty, i.e. the next tokens are
+   * the closing token, optionally preceded by a comma.
+   */
+  private _atClose(close: number) {
+    const la = this._la(0);
+    return la === close || (la === CELParser.COMMA && this._la(1) === close);
+  }
+
+  /**
+   * Consumes the ',' between two initializers. A trailing comma belongs to
+   * the enclosing rule and is left for `_closeList`.
+   */
+  private _continueList(close: number) {
+    if (this._la(0) === CELParser.COMMA && this._la(1) !== close) {
+      this.#pos++;
+      return true;
+    }
+    return false;
+  }
+
+  private _closeList(close: number) {
+    if (this._la(0) === CELParser.COMMA) {
+      this.#pos++;
+    }
+    this._expect(close);
+  }
+
+  private _enter(rule: number) {
+    // Mirrors the per-rule depth limit which the generated parser enforces
+    // with a parse listener.
+    if (++this.#ruleDepth[rule] > this.#host.maxRecursionDepth) {
+      throw abandon;
+    }
+  }
+
+  private _exit(rule: number) {
+    this.#ruleDepth[rule]--;
+  }
+
+  private _la(k: number) {
+    return this._type(this.#pos + k);
+  }
+
+  private _type(i: number) {
+    return i < this.#types.length ? this.#types[i] : Token.EOF;
+  }
+
+  private _expect(type: number) {
+    if (this._la(0) !== type) {
+      throw abandon;
+    }
+    return this.#pos++;
+  }
+
+  private _text(i: number) {
+    return this.#input.substring(this.#starts[i], this.#stops[i] + 1);
+  }
+
+  /**
+   * Returns the name of an identifier token. When the host has a symbol
+   * table it is the canonical name the scanner interned for the token.
+   */
+  private _name(i: number) {
+    const symbols = this.#host.symbols;
+    const symbol = this.#symbols[i];
+    return symbols !== undefined && symbol >= 0
+      ? symbols.name(symbol)
+      : this._text(i);
+  }
+
+  private _intern(name: string) {
+    const symbols = this.#host.symbols;
+    return symbols === undefined ? name : symbols.name(symbols.intern(name));
+  }
+
+  private _offset(i: number) {
+    return this.#sourceInfo.computeOffset(this.#lines[i], this.#columns[i]);
+  }
+
+  private _range(i: number) {
+    const start = this._offset(i);
+    return new OffsetRange(start, start + this.#stops[i] - this.#starts[i] + 1);
+  }
+
+  /**
+   * Scans the whole input into the token arrays, dropping hidden tokens.
+   * Returns false if the input contains a lexical error.
+   */
+  private _tokenize() {
+    const scanner = new Scanner(this.#input);
+    scanner.symbols = this.#host.symbols;
+    const errors = new LexicalErrorListener();
+    scanner.addErrorListener(errors);
+    for (;;) {
+      const type = scanner.advance();
+      if (type === Token.EOF) {
+        break;
+      }
+      if (scanner.tokenChannel !== Token.DEFAULT_CHANNEL) {
+        continue;
+      }
+      this.#types.push(type);
+      this.#starts.push(scanner.tokenStart);
+      this.#stops.push(scanner.tokenStop);
+      this.#lines.push(scanner.tokenLine);
+      this.#columns.push(scanner.tokenColumn);
+      this.#symbols.push(scanner.tokenSymbol);
+    }
+    return !errors.failed;
+  }
+}
+
+class LexicalErrorListener extends ErrorListener<number> {
+  failed = false;
+
+  override syntaxError(
+    recognizer: Recognizer<number>,
+    offendingSymbol: number,
+    line: number,
+    column: number,
+    msg: string,
+    e: RecognitionException | undefined
+  ): void {
+    this.failed = true;
+  }
+}
+
+function isNumber(la: number) {
+  return la === CELParser.NUM_INT || la === CELParser.NUM_FLOAT;
+}
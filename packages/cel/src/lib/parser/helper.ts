@@ -39,6 +39,37 @@ import {
 } from '../protogen/cel/expr/syntax_pb.js';
 import { OffsetRange } from './../common/ast';
 
+export const reservedIds = new Set([
+  'as',
+  'break',
+  'const',
+  'continue',
+  'else',
+  'false',
+  'for',
+  'function',
+  'if',
+  'import',
+  'in',
+  'let',
+  'loop',
+  'package',
+  'namespace',
+  'null',
+  'return',
+  'true',
+  'var',
+  'void',
+  'while',
+]);
+
+export function unescapeIdent(ident: string): string | Error {
+  if (ident.length < 2) {
+    return new Error('invalid escaped identifier: underflow');
+  }
+  return ident.substring(1, ident.length - 1);
+}
+
 export class ParserHelper {
   private _source: Source;
   private _sourceInfo: SourceInfo;
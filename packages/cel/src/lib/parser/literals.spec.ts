@@ -0,0 +1,44 @@
+import { TextSource } from '../common/source';
+import { ParseException } from '../exceptions';
+import { Constant, ListExpr } from '../protogen/cel/expr/syntax_pb.js';
+import { LiteralTable } from './literals';
+import { Parser } from './parser';
+
+describe('LiteralTable', () => {
+  it('interns decoded values by token text', () => {
+    const table = new LiteralTable();
+    const a = table.string('"caf\\u00e9"');
+    expect(a).toEqual('café');
+    expect(table.string('"caf\\u00e9"')).toBe(a);
+    const bytes = table.bytes('b"\\x01\\x02"');
+    expect(bytes).toEqual(new Uint8Array([1, 2]));
+    expect(table.bytes('b"\\x01\\x02"')).toBe(bytes);
+    expect(table.size()).toEqual(2);
+  });
+
+  it('does not intern invalid literals', () => {
+    const table = new LiteralTable();
+    expect(() => table.string('"\\z"')).toThrow(ParseException);
+    expect(table.size()).toEqual(0);
+  });
+
+  it('clears itself when full', () => {
+    const table = new LiteralTable(2);
+    table.string('"a"');
+    table.string('"b"');
+    table.string('"c"');
+    expect(table.size()).toEqual(1);
+    expect(table.string('"c"')).toEqual('c');
+  });
+
+  it('shares literals between the constants of an expression', () => {
+    const parser = new Parser();
+    const ast = parser.parse(new TextSource('["x\\ty", "x\\ty"]'));
+    expect(parser.errors.length()).toEqual(0);
+    const elements = (ast.expr().exprKind.value as ListExpr).elements;
+    expect(
+      elements.map((e) => (e.exprKind.value as Constant).constantKind.value)
+    ).toEqual(['x\ty', 'x\ty']);
+    expect(parser.literals.size()).toEqual(1);
+  });
+});
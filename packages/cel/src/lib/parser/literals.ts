@@ -0,0 +1,69 @@
+import { parseBytes, parseString } from '../common/constants';
+
+/**
+ * LiteralTable decodes string and bytes literals, interning the decoded
+ * values by the text of their tokens. Expressions which repeat a literal
+ * (e.g. large lists of string constants) decode it once and share the
+ * resulting value, and a parser reusing the table across expressions keeps
+ * sharing them.
+ *
+ * Interned bytes values are shared between every expression which contains
+ * the literal, so they must not be modified.
+ *
+ * The table is cleared when it reaches `maxEntries` literals, which bounds
+ * its memory without the bookkeeping of an LRU on every lookup.
+ */
+export class LiteralTable {
+  #strings = new Map<string, string>();
+  #bytes = new Map<string, Uint8Array>();
+
+  constructor(readonly maxEntries = 4096) {}
+
+  /**
+   * String returns the value of the string literal with the given token
+   * text.
+   */
+  string(text: string) {
+    let value = this.#strings.get(text);
+    if (value === undefined) {
+      value = parseString(text);
+      this._makeRoom();
+      this.#strings.set(text, value);
+    }
+    return value;
+  }
+
+  /**
+   * Bytes returns the value of the bytes literal with the given token text.
+   */
+  bytes(text: string) {
+    let value = this.#bytes.get(text);
+    if (value === undefined) {
+      value = parseBytes(text);
+      this._makeRoom();
+      this.#bytes.set(text, value);
+    }
+    return value;
+  }
+
+  /**
+   * Size returns the number of interned literals.
+   */
+  size() {
+    return this.#strings.size + this.#bytes.size;
+  }
+
+  /**
+   * Clear discards every interned literal.
+   */
+  clear() {
+    this.#strings.clear();
+    this.#bytes.clear();
+  }
+
+  private _makeRoom() {
+    if (this.size() >= this.maxEntries) {
+      this.clear();
+    }
+  }
+}
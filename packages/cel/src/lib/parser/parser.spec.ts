@@ -48,10 +48,16 @@ import { Expr } from '../protogen/cel/expr/syntax_pb.js';
 import { TextSource } from './../common/source';
 import { AccumulatorName, AllMacros } from './macro';
 import {
+  enableDirectParsing,
+  enableHandWrittenLexer,
   enableIdentEscapeSyntax,
   enableOptionalSyntax,
+  enablePackedTokenStream,
+  enablePrecedenceClimbing,
+  enableTwoStageParsing,
   errorRecoveryLimit,
   errorRecoveryLookaheadTokenLimit,
+  expressionSizeCodePointLimit,
   macros,
   maxRecursionDepth,
   Parser,
@@ -1814,18 +1820,18 @@ const testCases: TestInfo[] = [
   // 	| ?
   // 	| .^`,
   // },
-  // {
-  //   I: `a ? b ((?))`,
-  //   E: `ERROR: <input>:1:9: Syntax error: mismatched input '?' expecting {'[', '{', '(', '.', '-', '!', 'true', 'false', 'null', NUM_FLOAT, NUM_INT, NUM_UINT, STRING, BYTES, IDENTIFIER}
-  // 	| a ? b ((?))
-  // 	| ........^
-  //     ERROR: <input>:1:10: Syntax error: mismatched input ')' expecting {'[', '{', '(', '.', '-', '!', 'true', 'false', 'null', NUM_FLOAT, NUM_INT, NUM_UINT, STRING, BYTES, IDENTIFIER}
-  // 	| a ? b ((?))
-  // 	| .........^
-  //     ERROR: <input>:1:12: Syntax error: error recovery attempt limit exceeded: 4
-  // 	| a ? b ((?))
-  // 	| ...........^`,
-  // },
+  {
+    I: `a ? b ((?))`,
+    E: `ERROR: <input>:1:9: Syntax error: mismatched input '?' expecting {'[', '{', '(', '.', '-', '!', 'true', 'false', 'null', NUM_FLOAT, NUM_INT, NUM_UINT, STRING, BYTES, IDENTIFIER}
+		| a ? b ((?))
+		| ........^
+	    ERROR: <input>:1:10: Syntax error: mismatched input ')' expecting {'[', '{', '(', '.', '-', '!', 'true', 'false', 'null', NUM_FLOAT, NUM_INT, NUM_UINT, STRING, BYTES, IDENTIFIER}
+		| a ? b ((?))
+		| .........^
+	    ERROR: <input>:1:12: Syntax error: error recovery attempt limit exceeded: 4
+		| a ? b ((?))
+		| ...........^`,
+  },
   {
     I: `[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[
   		[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[['too many']]]]]]]]]]]]]]]]]]]]]]]]]]]]
@@ -2694,10 +2700,251 @@ const testCases: TestInfo[] = [
 ];
 
 describe('Parser', () => {
+  runTestCases();
+});
+
+describe('Parser with two-stage prediction', () => {
+  runTestCases(enableTwoStageParsing(true));
+
+  it('should complete valid expressions in the SLL stage', () => {
+    const parser = newTestParser(enableTwoStageParsing(true));
+    parser.parse(new TextSource('a.b[1] + c.all(x, x > 2) ? "y" : "n"'));
+    parser.parse(new TextSource('[1, 2, 3].map(x, x * 2) == [2, 4, 6]'));
+    expect(parser.errors.length()).toEqual(0);
+    expect(parser.predictionStats.sll).toEqual(2);
+    expect(parser.predictionStats.fallbacks).toEqual(0);
+    expect(parser.predictionStats.fallbackRate()).toEqual(0);
+  });
+
+  it('should fall back to LL prediction for invalid expressions', () => {
+    const parser = newTestParser(enableTwoStageParsing(true));
+    const expected = newTestParser();
+    parser.parse(new TextSource('a +'));
+    expected.parse(new TextSource('a +'));
+    expect(parser.errors.toDisplayString()).toEqual(
+      expected.errors.toDisplayString()
+    );
+    expect(parser.predictionStats.sll).toEqual(0);
+    expect(parser.predictionStats.fallbacks).toEqual(1);
+    expect(parser.predictionStats.fallbackRate()).toEqual(1);
+    parser.predictionStats.reset();
+    expect(parser.predictionStats.fallbacks).toEqual(0);
+  });
+});
+
+describe('Parser with precedence climbing', () => {
+  runTestCases(enablePrecedenceClimbing(true));
+
+  const chains = [
+    Array.from({ length: 200 }, (_, i) => `a${i}`).join(' + '),
+    Array.from({ length: 200 }, (_, i) => `${i}`).join(' * '),
+    Array.from({ length: 100 }, (_, i) => `a${i} < b${i}`).join(' && '),
+    Array.from({ length: 100 }, (_, i) => `a${i} == b${i}`).join(' || '),
+    '1 + 2 * 3 - 4 / 5 % 6 < 7 == 8 in 9 != -10 || !a && b > c ? d : e',
+    'a - -b * --c + x[1] * y.z(2) - [3, 4][0] % {5: 6}[5]',
+  ];
+  for (const chain of chains) {
+    it(`should parse ${chain.slice(0, 40)} like the generated parser`, () => {
+      const parser = newTestParser(
+        maxRecursionDepth(250),
+        enablePrecedenceClimbing(true)
+      );
+      const expected = newTestParser(maxRecursionDepth(250));
+      const actual = parser.parse(new TextSource(chain));
+      expect(actual.expr()).toEqual(
+        expected.parse(new TextSource(chain)).expr()
+      );
+      expect(parser.errors.length()).toEqual(0);
+      expect(expected.errors.length()).toEqual(0);
+    });
+  }
+});
+
+describe('Parser with a packed token stream', () => {
+  runTestCases(enablePackedTokenStream(true));
+});
+
+describe('Parser with direct parsing', () => {
+  runTestCases(enableDirectParsing(true));
+
+  const opts = [enableOptionalSyntax(true), enableIdentEscapeSyntax(true)];
+  const valid = [
+    '-1',
+    '--1',
+    '---1',
+    '- 1',
+    '-1.5e3',
+    '-1u',
+    '!-1',
+    '-x',
+    '!!x',
+    '-(1).size()',
+    'a.b.c(1, 2)[3].?d[?e]',
+    '.a.b',
+    '.f(x, y)',
+    'a.b.Msg{f: 1, ?g: 2,}',
+    '.Msg{`f-g`: a}',
+    'Msg{}',
+    'Msg{,}',
+    '[]',
+    '[,]',
+    '[1, ?2,]',
+    '{}',
+    '{,}',
+    '{?a: b ? c : d, "k": [1], 1: {2: 3},}',
+    'a ? b : c ? d : e',
+    'has(a.b) && [1, 2].all(x, x > 0) || m.exists_one(k, v, k < v)',
+    'x.`y-z`',
+    `b'\\x00' + r'\\d' + '''two\nlines'''`,
+    '1 + 2 * 3 - 4 / 5 % 6 < 7 == true in [false] != null',
+    'a // trailing comment\n+ b',
+  ];
+  for (const expression of valid) {
+    it(`should build the same AST as the visitor for ${expression}`, () => {
+      const parser = newTestParser(...opts, enableDirectParsing(true));
+      const expected = newTestParser(...opts);
+      const actual = parser.parse(new TextSource(expression));
+      const want = expected.parse(new TextSource(expression));
+      expect(actual.expr()).toEqual(want.expr());
+      expect(actual.sourceInfo()).toEqual(want.sourceInfo());
+      expect(parser.errors.toDisplayString()).toEqual(
+        expected.errors.toDisplayString()
+      );
+    });
+  }
+
+  const invalid = [
+    ['a +', opts],
+    ['{a: }', opts],
+    ['[1, ?2]', []],
+    ['a.?b', []],
+    ['x.`y`', []],
+    ['Msg{?f: 1}', []],
+    ['if', opts],
+    ['1 + 2 +', opts],
+    ['"\\q"', opts],
+    ['a.all(1, 2)', opts],
+    ['99999999999999999999', opts],
+    ['((((a))))', [...opts, maxRecursionDepth(3)]],
+    ['a.b.c.d', [...opts, maxRecursionDepth(2)]],
+  ] as const;
+  for (const [expression, extra] of invalid) {
+    it(`should report the same errors as the visitor for ${expression}`, () => {
+      const parser = newTestParser(...extra, enableDirectParsing(true));
+      const expected = newTestParser(...extra);
+      const actual = parser.parse(new TextSource(expression));
+      const want = expected.parse(new TextSource(expression));
+      expect(parser.errors.length()).toBeGreaterThan(0);
+      expect(parser.errors.toDisplayString()).toEqual(
+        expected.errors.toDisplayString()
+      );
+      expect(actual.expr()).toEqual(want.expr());
+    });
+  }
+});
+
+describe('Parser limits', () => {
+  it('should reject expressions over the code point limit', () => {
+    const parser = newTestParser(expressionSizeCodePointLimit(3));
+    parser.parse(new TextSource('a+bc'));
+    expect(parser.errors.toDisplayString()).toContain(
+      'expression code point size exceeds limit: size: 4, limit 3'
+    );
+    expect(parser.errors.length()).toEqual(1);
+  });
+
+  it('should count surrogate pairs as one code point', () => {
+    const parser = newTestParser(expressionSizeCodePointLimit(3));
+    parser.parse(new TextSource('"😁"'));
+    expect(parser.errors.length()).toEqual(0);
+  });
+
+  it('should stop at the recursion limit without exhausting the stack', () => {
+    const parser = newTestParser();
+    const depth = 20_000;
+    parser.parse(new TextSource('('.repeat(depth) + 'a' + ')'.repeat(depth)));
+    expect(parser.errors.toDisplayString()).toEqual(
+      'ERROR: <input>:-1:0: expression recursion limit exceeded: 32'
+    );
+  });
+
+  it('should stop at the error recovery limit', () => {
+    const parser = newTestParser(
+      errorRecoveryLimit(1),
+      errorRecoveryLookaheadTokenLimit(256)
+    );
+    parser.parse(new TextSource('a b c d e f'));
+    expect(parser.errors.toDisplayString()).toContain(
+      'Syntax error: error recovery attempt limit exceeded: 1'
+    );
+  });
+
+  it('should stop at the error recovery lookahead limit', () => {
+    const parser = newTestParser();
+    parser.parse(new TextSource('a ) ) ) ) ) ) ) )'));
+    expect(parser.errors.toDisplayString()).toContain(
+      'ERROR: <input>:-1:0: error recovery token lookahead limit exceeded: 4'
+    );
+  });
+
+  it('should apply the limits with two-stage prediction', () => {
+    const parser = newTestParser(enableTwoStageParsing(true));
+    parser.parse(new TextSource('['.repeat(100) + ']'.repeat(100)));
+    expect(parser.errors.toDisplayString()).toEqual(
+      'ERROR: <input>:-1:0: expression recursion limit exceeded: 32'
+    );
+  });
+});
+
+describe('Parser batch API', () => {
+  const inputs = testCases
+    .filter((testCase) => testCase.Opts === undefined)
+    .map((testCase) => testCase.I);
+  const modes: [string, ParserOption[]][] = [
+    ['generated parser', []],
+    ['hand-written lexer', [enableHandWrittenLexer(true)]],
+    ['two-stage prediction', [enableTwoStageParsing(true)]],
+    ['precedence climbing', [enablePrecedenceClimbing(true)]],
+    ['packed token stream', [enablePackedTokenStream(true)]],
+  ];
+  for (const [name, opts] of modes) {
+    it(`should parse a batch like single parses with the ${name}`, () => {
+      const results = newTestParser(...opts).parseAll(
+        inputs.map((input) => new TextSource(input))
+      );
+      expect(results.length).toEqual(inputs.length);
+      results.forEach((result, i) => {
+        const expected = newTestParser(...opts);
+        const ast = expected.parse(result.source);
+        expect(result.ast.expr(), inputs[i]).toEqual(ast.expr());
+        expect(result.errors.toDisplayString(), inputs[i]).toEqual(
+          expected.errors.toDisplayString()
+        );
+      });
+    });
+  }
+
+  it('should stream results with per-item errors', () => {
+    function* sources() {
+      yield new TextSource('a + b');
+      yield new TextSource('a +');
+      yield new TextSource('c');
+    }
+    const parser = newTestParser();
+    const counts = [...parser.parseEach(sources())].map((result) =>
+      result.errors.length()
+    );
+    expect(counts[0]).toEqual(0);
+    expect(counts[1]).toBeGreaterThan(0);
+    expect(counts[2]).toEqual(0);
+  });
+});
+
+function runTestCases(...extraOpts: ParserOption[]) {
   for (const testCase of testCases) {
     it(`should parse ${testCase.I}`, () => {
       // Arrange
-      const parser = newTestParser(...(testCase.Opts || []));
+      const parser = newTestParser(...(testCase.Opts || []), ...extraOpts);
 
       // Act
       const expr = parser.parse(new TextSource(testCase.I));
@@ -2737,7 +2984,7 @@ describe('Parser', () => {
       }
     });
   }
-});
+}
 
 function newTestParser(...options: ParserOption[]) {
   const opts = [
@@ -1,15 +1,21 @@
 /* eslint-disable @typescript-eslint/no-unused-vars */
 import { assert, isNil } from '@bearclaw/is';
+import { create } from '@bufbuild/protobuf';
 import {
+  BailErrorStrategy,
   CharStream,
   CommonTokenStream,
+  DefaultErrorStrategy,
+  ErrorListener,
   ParseTree,
   ParseTreeListener,
   ParserRuleContext,
+  PredictionMode,
+  RecognitionException,
+  Recognizer,
   Token,
 } from 'antlr4';
 import { AST, OffsetRange } from '../common/ast';
-import { parseBytes, parseString } from '../common/constants';
 import { CELError } from '../common/error';
 import {
   Errors,
@@ -34,6 +40,7 @@ import {
   newMessageProtoExpr,
 } from '../common/pb/expressions';
 import { Source } from '../common/source';
+import { SymbolTable } from '../common/symbols';
 import { reflectNativeType } from '../common/types/native';
 import { NullRefVal } from '../common/types/null';
 import { safeParseFloat, safeParseInt } from '../common/utils';
@@ -83,33 +90,24 @@ import {
   Expr_CreateList,
   Expr_CreateStruct,
   Expr_CreateStruct_Entry,
+  ExprSchema,
 } from '../protogen/cel/expr/syntax_pb.js';
-import { ExprHelper, LogicManager, ParserHelper } from './helper';
+import { DirectParser, DirectParserHost } from './direct';
+import {
+  ExprHelper,
+  LogicManager,
+  ParserHelper,
+  reservedIds,
+  unescapeIdent,
+} from './helper';
 import { Macro, makeMacroKey, makeVarArgMacroKey } from './macro';
+import { ParseCache } from './cache';
+import { LiteralTable } from './literals';
+import { PrecedenceParser } from './precedence';
+import { Scanner, tokenSymbol } from './scanner';
+import { PackedTokenStream } from './tokens';
 
-export const reservedIds = new Set([
-  'as',
-  'break',
-  'const',
-  'continue',
-  'else',
-  'false',
-  'for',
-  'function',
-  'if',
-  'import',
-  'in',
-  'let',
-  'loop',
-  'package',
-  'namespace',
-  'null',
-  'return',
-  'true',
-  'var',
-  'void',
-  'while',
-]);
+export { reservedIds };
 
 /**
  * ParserOption configures the behavior of the parser.
@@ -251,6 +249,105 @@ export function enableIdentEscapeSyntax(flag: boolean): ParserOption {
   };
 }
 
+/**
+ * EnableHandWrittenLexer replaces the generated ANTLR lexer with the
+ * table-driven Scanner. The tokens it produces are identical, but it scans
+ * the source directly instead of simulating the lexer ATN per character.
+ */
+export function enableHandWrittenLexer(flag: boolean): ParserOption {
+  return (parser) => {
+    parser.enableHandWrittenLexer = flag;
+    return parser;
+  };
+}
+
+/**
+ * EnableTwoStageParsing first parses with SLL prediction and an error
+ * strategy which bails out on the first syntax error. Only when that fails is
+ * the expression re-parsed with full LL prediction and error recovery.
+ *
+ * SLL prediction is considerably cheaper and sufficient for nearly all valid
+ * expressions. The number of parses which needed the LL fallback is recorded
+ * in the parser's `predictionStats`.
+ */
+export function enableTwoStageParsing(flag: boolean): ParserOption {
+  return (parser) => {
+    parser.enableTwoStageParsing = flag;
+    return parser;
+  };
+}
+
+/**
+ * EnableDirectParsing builds the AST with a recursive descent parser which
+ * creates expressions as each grammar rule completes, rather than building a
+ * parse tree with the generated parser and visiting it afterwards. Node IDs
+ * and source offsets are identical to the visitor-based AST. Expressions with
+ * errors of any kind are re-parsed with the generated parser, which reports
+ * them.
+ */
+export function enableDirectParsing(flag: boolean): ParserOption {
+  return (parser) => {
+    parser.enableDirectParsing = flag;
+    return parser;
+  };
+}
+
+/**
+ * EnablePrecedenceClimbing parses the binary operator tiers of the grammar
+ * (`||`, `&&`, relations and arithmetic) by precedence climbing instead of the
+ * generated left recursion rules, which run adaptive prediction for every
+ * operator. The resulting AST is identical. Expressions with syntax errors
+ * are re-parsed with the generated parser so that errors are reported the
+ * same way.
+ */
+export function enablePrecedenceClimbing(flag: boolean): ParserOption {
+  return (parser) => {
+    parser.enablePrecedenceClimbing = flag;
+    return parser;
+  };
+}
+
+/**
+ * EnablePackedTokenStream buffers the tokens of the expression in packed
+ * integer arrays instead of a CommonTokenStream of token objects. Token
+ * objects are only created for the tokens the parser reads, and never for
+ * whitespace or comments. Combined with the hand-written lexer the scanner
+ * does not allocate tokens either.
+ */
+export function enablePackedTokenStream(flag: boolean): ParserOption {
+  return (parser) => {
+    parser.enablePackedTokenStream = flag;
+    return parser;
+  };
+}
+
+/**
+ * ParseCache serves repeated parses of the same expression text from the given
+ * cache. Results are keyed by the text and every parser option which affects
+ * the AST, so a cache may be shared between parsers with different options.
+ * Expressions with errors are never cached.
+ */
+export function parseCache(cache: ParseCache): ParserOption {
+  return (parser) => {
+    parser.parseCache = cache;
+    return parser;
+  };
+}
+
+/**
+ * SymbolTable interns identifier, field and function names into the given
+ * table while parsing, so that every occurrence of a name in the AST is the
+ * table's canonical string. With the hand-written lexer the names are
+ * interned as they are scanned and identifier tokens carry their symbol id.
+ * A table may be shared between parsers.
+ */
+export function symbolTable(table: SymbolTable): ParserOption {
+  return (parser) => {
+    parser.symbols = table;
+    return parser;
+  };
+}
+
 /**
  * EnableVariadicOperatorASTs enables a compact representation of chained
  * like-kind commutative operators. e.g.
@@ -266,6 +363,56 @@ export function enableVariadicOperatorASTs(flag: boolean): ParserOption {
   };
 }
 
+/**
+ * BatchParseResult is the outcome of parsing one source of a batch. The AST
+ * is only meaningful when no errors were reported.
+ */
+export interface BatchParseResult {
+  source: Source;
+  ast: AST;
+  errors: Errors;
+}
+
+/**
+ * ParserPool holds the lexer and parser instances which are reused while a
+ * batch is parsed.
+ */
+interface ParserPool {
+  lexer?: CELLexer;
+  scanner?: Scanner;
+  parsers: Map<unknown, GenCELParser>;
+}
+
+/**
+ * PredictionStats counts how expressions were parsed when two-stage parsing
+ * is enabled. A high fallback rate means that SLL prediction is failing for
+ * the inputs being parsed, either because they are invalid or because the
+ * grammar has decisions which SLL cannot resolve.
+ */
+export class PredictionStats {
+  /**
+   * The number of parses completed by the SLL stage alone.
+   */
+  sll = 0;
+  /**
+   * The number of parses which fell back to full LL prediction.
+   */
+  fallbacks = 0;
+
+  /**
+   * FallbackRate returns the fraction of parses which needed the LL stage.
+   */
+  fallbackRate() {
+    const total = this.sll + this.fallbacks;
+    return total === 0 ? 0 : this.fallbacks / total;
+  }
+
+  reset() {
+    this.sll = 0;
+    this.fallbacks = 0;
+  }
+}
+
 export class Parser extends GeneratedCelVisitor<Expr> {
   #source!: Source;
   #helper!: ParserHelper;
@@ -281,6 +428,20 @@ export class Parser extends GeneratedCelVisitor<Expr> {
   enableOptionalSyntax = false;
   enableVariadicOperatorASTs = false;
   enableIdentEscapeSyntax = false;
+  enableHandWrittenLexer = false;
+  enableTwoStageParsing = false;
+  enablePrecedenceClimbing = false;
+  enableDirectParsing = false;
+  enablePackedTokenStream = false;
+  parseCache?: ParseCache;
+  symbols?: SymbolTable;
+  #pool?: ParserPool;
+  readonly predictionStats = new PredictionStats();
+  /**
+   * Decoded string and bytes literals, shared by every expression this
+   * parser parses.
+   */
+  readonly literals = new LiteralTable();
 
   constructor(...options: ParserOption[]) {
     super();
@@ -298,18 +459,69 @@ export class Parser extends GeneratedCelVisitor<Expr> {
     this.#helper = new ParserHelper(this.#source);
     this.#errors = new Errors(this.#source);
 
-    const chars = new CharStream(this.#source.content());
-    const lexer = new CELLexer(chars);
-    lexer.removeErrorListeners();
-    lexer.addErrorListener(new LexerErrorListener(this.#errors));
+    if (isNil(this.parseCache)) {
+      return this._parse();
+    }
+    const key = this._cacheKey(this.parseCache);
+    const cached = this.parseCache.get(key, this.#source);
+    if (!isNil(cached)) {
+      return cached;
+    }
+    const ast = this._parse();
+    if (this.#errors.length() === 0) {
+      this.parseCache.set(key, ast);
+    }
+    return ast;
+  }
 
-    const tokens = new CommonTokenStream(lexer);
-    const parser = new GenCELParser(tokens);
-    parser.removeErrorListeners();
-    parser.addErrorListener(new ParserErrorListener(this.#errors));
-    parser.addParseListener(new RecursionListener(this.maxRecursionDepth));
+  /**
+   * ParseAll parses every source in order and returns each AST together with
+   * the errors reported for it. The ANTLR lexer and parser instances are
+   * reused across the batch instead of being allocated for every expression.
+   */
+  parseAll(sources: Iterable<Source>): BatchParseResult[] {
+    return [...this.parseEach(sources)];
+  }
+
+  /**
+   * ParseEach is the streaming form of `parseAll`. Results are yielded as
+   * each source is parsed, so the sources may be produced lazily.
+   */
+  *parseEach(sources: Iterable<Source>): Generator<BatchParseResult> {
+    const outer = this.#pool;
+    this.#pool = outer ?? { parsers: new Map() };
+    try {
+      for (const source of sources) {
+        const ast = this.parse(source);
+        yield { source, ast, errors: this.#errors };
+      }
+    } finally {
+      this.#pool = outer;
+    }
+  }
 
-    const expr = this.visit(parser.start());
+  private _parse() {
+    if (this._exceedsSizeLimit()) {
+      return new AST(create(ExprSchema), this.#helper.getSourceInfo());
+    }
+    if (this.enableDirectParsing) {
+      const expr = this._parseDirect();
+      if (!isNil(expr)) {
+        return new AST(expr, this.#helper.getSourceInfo());
+      }
+    }
+    let tree = this.enablePrecedenceClimbing
+      ? this._parsePrecedenceClimbing()
+      : undefined;
+    if (isNil(tree)) {
+      tree = this._parseTree(this._newParser(GenCELParser));
+    }
+    if (isNil(tree)) {
+      // Parsing stopped at one of the limits, which has been reported.
+      return new AST(create(ExprSchema), this.#helper.getSourceInfo());
+    }
+
+    const expr = this.visit(tree);
     return new AST(expr, this.#helper.getSourceInfo());
   }
 
@@ -444,7 +656,7 @@ export class Parser extends GeneratedCelVisitor<Expr> {
     if (isNil(ctx._id)) {
       return this.#helper.newExpr(ctx);
     }
-    const id = ctx._id.text;
+    const id = this._name(ctx._id);
     const opId = this.#helper.id(ctx._open);
     let args: Expr[] = [];
     if (!isNil(ctx._args?.expr_list)) {
@@ -508,11 +720,11 @@ export class Parser extends GeneratedCelVisitor<Expr> {
     if (isNil(ctx._id)) {
       return this.#helper.newExpr(ctx);
     }
-    const id = ctx._id.text;
+    const id = this._name(ctx._id);
     if (reservedIds.has(id)) {
       return this._reportError(ctx._id, `reserved identifier: ${id}`);
     }
-    identName += id;
+    identName = this._qualify(identName, id);
     return this.#helper.newIdent(ctx._id, identName);
   };
 
@@ -526,11 +738,11 @@ export class Parser extends GeneratedCelVisitor<Expr> {
       return this.#helper.newExpr(ctx);
     }
     // Handle reserved identifiers.
-    const id = ctx._id.text;
+    const id = this._name(ctx._id);
     if (reservedIds.has(id)) {
       return this._reportError(ctx._id, `reserved identifier: ${id}`);
     }
-    identName += id;
+    identName = this._qualify(identName, id);
     const opID = this.#helper.id(ctx._op);
     return this._globalCallOrMacro(
       opID,
@@ -584,7 +796,11 @@ export class Parser extends GeneratedCelVisitor<Expr> {
     const objID = this.#helper.id(ctx._op);
     const entriesInitializer = this.visitFieldInitializerList(ctx._entries);
     const entries = entriesInitializer.exprKind.value as Expr_CreateStruct;
-    return this.#helper.newObject(objID, messageName, entries?.entries ?? []);
+    return this.#helper.newObject(
+      objID,
+      this._intern(messageName),
+      entries?.entries ?? []
+    );
   };
 
   // override visitConstantLiteral = (ctx: ConstantLiteralContext): Expr => {
@@ -740,12 +956,12 @@ export class Parser extends GeneratedCelVisitor<Expr> {
   };
 
   override visitString = (ctx: StringContext): Expr => {
-    const str = parseString(ctx.getText());
+    const str = this.literals.string(ctx._tok.text);
     return this.#helper.newLiteralString(ctx, str);
   };
 
   override visitBytes = (ctx: BytesContext): Expr => {
-    const bytes = parseBytes(ctx.getText());
+    const bytes = this.literals.bytes(ctx._tok.text);
     return this.#helper.newLiteralBytes(ctx, bytes);
   };
 
@@ -775,6 +991,216 @@ export class Parser extends GeneratedCelVisitor<Expr> {
     return this.#helper.getLocation(id);
   }
 
+  /**
+   * _parseTree runs the parser, returning undefined if it stopped at the
+   * recursion or error recovery limits.
+   */
+  private _parseTree(parser: GenCELParser) {
+    try {
+      return this.enableTwoStageParsing
+        ? this._parseTwoStage(parser)
+        : this._parseLL(parser);
+    } catch (e) {
+      if (!(e instanceof ParseLimitError)) {
+        throw e;
+      }
+      if (!e.notified) {
+        this.#errors.reportInternalError(e.message);
+      }
+      return undefined;
+    }
+  }
+
+  /**
+   * _exceedsSizeLimit reports an error if the expression has more code points
+   * than the size limit allows. A string never has more code points than code
+   * units, so they are only counted for expressions which may be too large.
+   */
+  private _exceedsSizeLimit() {
+    const limit = this.expressionSizeCodePointLimit;
+    const content = this.#source.content();
+    if (limit < 0 || content.length <= limit) {
+      return false;
+    }
+    let size = 0;
+    for (let i = 0; i < content.length; i++) {
+      const c = content.charCodeAt(i);
+      // A surrogate pair is a single code point.
+      if (c >= 0xd800 && c <= 0xdbff && i + 1 < content.length) {
+        const next = content.charCodeAt(i + 1);
+        if (next >= 0xdc00 && next <= 0xdfff) {
+          i++;
+        }
+      }
+      size++;
+    }
+    if (size <= limit) {
+      return false;
+    }
+    this.#errors.reportError(
+      NoLocation,
+      `expression code point size exceeds limit: size: ${size}, limit ${limit}`
+    );
+    return true;
+  }
+
+  private _parseDirect() {
+    const host: DirectParserHost = {
+      maxRecursionDepth: this.maxRecursionDepth,
+      enableOptionalSyntax: this.enableOptionalSyntax,
+      enableIdentEscapeSyntax: this.enableIdentEscapeSyntax,
+      literals: this.literals,
+      symbols: this.symbols,
+      globalCallOrMacro: (exprId, fn, args) =>
+        this._globalCallOrMacro(exprId, fn, args),
+      receiverCallOrMacro: (exprId, fn, target, args) =>
+        this._receiverCallOrMacro(exprId, fn, target, args),
+    };
+    const expr = new DirectParser(this.#source, this.#helper, host).parse();
+    // Macro expansion reports malformed arguments as errors.
+    if (!isNil(expr) && this.#errors.length() === 0) {
+      return expr;
+    }
+    this.#helper = new ParserHelper(this.#source);
+    this.#errors = new Errors(this.#source);
+    return undefined;
+  }
+
+  private _parsePrecedenceClimbing() {
+    const tree = this._parseTree(this._newParser(PrecedenceParser));
+    if (this.#errors.length() === 0) {
+      return tree;
+    }
+    // Error recovery depends on the ATN state the generated rules leave
+    // behind, so invalid expressions are re-parsed from scratch to report the
+    // same errors as the generated parser.
+    this.#errors = new Errors(this.#source);
+    return undefined;
+  }
+
+  private _parseLL(parser: GenCELParser) {
+    parser.removeErrorListeners();
+    parser.addErrorListener(new ParserErrorListener(this.#errors));
+    parser.removeParseListeners();
+    parser.addParseListener(new RecursionListener(this.maxRecursionDepth));
+    parser._errHandler = new LimitedErrorStrategy(
+      this.errorRecoveryLimit,
+      this.errorRecoveryTokenLookaheadLimit
+    );
+    return parser.start();
+  }
+
+  private _parseTwoStage(parser: GenCELParser) {
+    const interp = parser._interp as unknown as { predictionMode: number };
+    const bail = new BailErrorListener();
+    parser.removeErrorListeners();
+    parser.addErrorListener(bail);
+    parser.removeParseListeners();
+    parser.addParseListener(new RecursionListener(this.maxRecursionDepth));
+    parser._errHandler = new BailErrorStrategy();
+    interp.predictionMode = PredictionMode.SLL;
+    try {
+      const tree = parser.start();
+      if (!bail.failed) {
+        this.predictionStats.sll++;
+        return tree;
+      }
+    } catch (e) {
+      // The recursion limit does not depend on the prediction mode.
+      if (e instanceof ParseLimitError) {
+        throw e;
+      }
+      // The SLL stage bailed out. The expression is either invalid or needs
+      // full context to parse; either way the LL stage will decide.
+    }
+    this.predictionStats.fallbacks++;
+    parser.reset();
+    interp.predictionMode = PredictionMode.LL;
+    return this._parseLL(parser);
+  }
+
+  /**
+   * CacheKey identifies the current source text together with the options
+   * which determine whether it parses and what AST it produces.
+   */
+  private _cacheKey(cache: ParseCache) {
+    return [
+      [...this.macros.entries()]
+        .map(([key, m]) => `${key}=${cache.expanderId(m.expander())}`)
+        .sort()
+        .join(','),
+      this.maxRecursionDepth,
+      this.expressionSizeCodePointLimit,
+      this.populateMacroCalls,
+      this.enableOptionalSyntax,
+      this.enableIdentEscapeSyntax,
+      this.enableVariadicOperatorASTs,
+      this.#source.content(),
+    ].join('\u0000');
+  }
+
+  /**
+   * NewParser returns a parser of the given class reading the current source.
+   * During a batch the lexer and parser are taken from the pool and pointed
+   * at the new input instead of being allocated.
+   */
+  private _newParser<T extends GenCELParser>(
+    ctor: new (input: CommonTokenStream) => T
+  ): T {
+    const lexer = this._newLexer();
+    // The packed stream implements the parts of the TokenStream contract
+    // which the parser and its error strategy rely on.
+    const tokens = this.enablePackedTokenStream
+      ? (new PackedTokenStream(lexer) as unknown as CommonTokenStream)
+      : new CommonTokenStream(lexer);
+    if (isNil(this.#pool)) {
+      return new ctor(tokens);
+    }
+    let parser = this.#pool.parsers.get(ctor) as T | undefined;
+    if (isNil(parser)) {
+      parser = new ctor(tokens);
+      this.#pool.parsers.set(ctor, parser);
+    } else {
+      parser.setTokenStream(tokens);
+    }
+    return parser;
+  }
+
+  private _newLexer(): CELLexer {
+    const content = this.#source.content();
+    if (this.enableHandWrittenLexer) {
+      let scanner = this.#pool?.scanner;
+      if (isNil(scanner)) {
+        scanner = new Scanner(content);
+        if (!isNil(this.#pool)) {
+          this.#pool.scanner = scanner;
+        }
+      } else {
+        scanner.setInput(content);
+      }
+      scanner.symbols = this.symbols;
+      scanner.removeErrorListeners();
+      scanner.addErrorListener(new LexerErrorListener(this.#errors));
+      // The scanner implements the parts of the Lexer contract which the
+      // token stream and parser rely on.
+      return scanner as unknown as CELLexer;
+    }
+    const chars = new CharStream(content);
+    let lexer = this.#pool?.lexer;
+    if (isNil(lexer)) {
+      lexer = new CELLexer(chars);
+      if (!isNil(this.#pool)) {
+        this.#pool.lexer = lexer;
+      }
+    } else {
+      // Setting the input stream resets the lexer.
+      (lexer as unknown as { inputStream: CharStream }).inputStream = chars;
+    }
+    lexer.removeErrorListeners();
+    lexer.addErrorListener(new LexerErrorListener(this.#errors));
+    return lexer;
+  }
+
   private _unnest(tree: ParseTree) {
     while (tree != null) {
       if (tree instanceof ExprContext) {
@@ -931,28 +1357,150 @@ export class Parser extends GeneratedCelVisitor<Expr> {
 
   private _normalizeIdent(ctx: EscapeIdentContext) {
     if (ctx instanceof SimpleIdentifierContext) {
-      return ctx._id.text;
+      return this._name(ctx._id);
     }
     if (ctx instanceof EscapedIdentifierContext) {
       if (!this.enableIdentEscapeSyntax) {
         return new Error("unsupported syntax: '`'");
       }
-      return unescapeIdent(ctx._id.text);
+      const ident = unescapeIdent(ctx._id.text);
+      if (ident instanceof Error) {
+        return ident;
+      }
+      return this._name(ctx._id, ident);
     }
     return new Error('Unsupported ident kind.');
   }
+
+  /**
+   * _name returns the name of an identifier token, which is its text unless
+   * given otherwise. When the parser has a symbol table the name is interned,
+   * using the symbol id the scanner attached to the token if there is one.
+   */
+  private _name(token: Token, name = token.text) {
+    const symbols = this.symbols;
+    if (isNil(symbols)) {
+      return name;
+    }
+    const symbol = tokenSymbol(token);
+    return symbols.name(symbol >= 0 ? symbol : symbols.intern(name));
+  }
+
+  /**
+   * _intern returns the canonical instance of a name composed from several
+   * tokens when the parser has a symbol table.
+   */
+  private _intern(name: string) {
+    const symbols = this.symbols;
+    return isNil(symbols) ? name : symbols.name(symbols.intern(name));
+  }
+
+  /**
+   * _qualify prefixes the name, which has already been interned, with the
+   * leading dot (if any) of an identifier or global call.
+   */
+  private _qualify(prefix: string, name: string) {
+    return prefix.length === 0 ? name : this._intern(prefix + name);
+  }
 }
 
-function unescapeIdent(ident: string): string | Error {
-  if (ident.length < 2) {
-    return new Error('invalid escaped identifier: underflow');
+/**
+ * BailErrorListener records that the SLL stage of a two-stage parse observed
+ * a syntax error without reporting it, so that the LL stage can report it
+ * instead.
+ */
+class BailErrorListener extends ErrorListener<Token> {
+  failed = false;
+
+  override syntaxError(
+    recognizer: Recognizer<Token>,
+    offendingSymbol: Token,
+    line: number,
+    column: number,
+    msg: string,
+    e: RecognitionException | undefined
+  ): void {
+    this.failed = true;
+  }
+}
+
+/**
+ * ParseLimitError stops the generated parser when one of the parser's limits
+ * is exceeded. It is not a RecognitionException, so the generated rules do
+ * not attempt to recover from it. `notified` is set if the error has already
+ * been reported to the parser's error listeners.
+ */
+class ParseLimitError extends Error {
+  constructor(message: string, readonly notified = false) {
+    super(message);
+  }
+}
+
+/**
+ * LimitedErrorStrategy bounds the work spent recovering from syntax errors,
+ * as cel-go's recoveryLimitErrorStrategy does. At most `recoveryLimit`
+ * recovery attempts are made (-1 for no limit), and each call to recover may
+ * consume at most `lookaheadLimit` tokens while looking for a point to resume
+ * at. Parsing stops with a ParseLimitError beyond either.
+ */
+class LimitedErrorStrategy extends DefaultErrorStrategy {
+  #attempts = 0;
+
+  constructor(
+    private readonly recoveryLimit: number,
+    private readonly lookaheadLimit: number
+  ) {
+    super();
+  }
+
+  override recover(recognizer: GenCELParser, e: RecognitionException) {
+    this._checkAttempts(recognizer);
+    super.recover(this._lookaheadConsumer(recognizer), e);
+  }
+
+  override recoverInline(recognizer: GenCELParser) {
+    this._checkAttempts(recognizer);
+    return super.recoverInline(recognizer);
+  }
+
+  /**
+   * LookaheadConsumer returns a view of the parser whose consume counts the
+   * tokens consumed through it and stops at the lookahead limit, like
+   * cel-go's lookaheadConsumer. Everything else is delegated to the parser.
+   */
+  private _lookaheadConsumer(recognizer: GenCELParser): GenCELParser {
+    const limited = Object.create(recognizer) as GenCELParser;
+    let consumed = 0;
+    limited.consume = () => {
+      if (consumed >= this.lookaheadLimit) {
+        throw new ParseLimitError(
+          `error recovery token lookahead limit exceeded: ${this.lookaheadLimit}`
+        );
+      }
+      consumed++;
+      return recognizer.consume();
+    };
+    return limited;
+  }
+
+  private _checkAttempts(recognizer: GenCELParser) {
+    if (this.recoveryLimit === -1) {
+      return;
+    }
+    if (this.#attempts++ === this.recoveryLimit) {
+      const message = `error recovery attempt limit exceeded: ${this.recoveryLimit}`;
+      recognizer.notifyErrorListeners(
+        message,
+        recognizer._input.LT(1),
+        undefined
+      );
+      throw new ParseLimitError(message, true);
+    }
   }
-  return ident.substring(1, ident.length - 1);
 }
 
 class RecursionListener extends ParseTreeListener {
   #ruleTypeDepth: Map<number, number> = new Map();
-  #hasNotified = false;
 
   constructor(private readonly maxDepth: number) {
     super();
@@ -974,14 +1522,11 @@ class RecursionListener extends ParseTreeListener {
       depth++;
     }
     this.#ruleTypeDepth.set(ruleIndex, depth);
-    if (depth > this.maxDepth && !this.#hasNotified) {
-      const fakeToken = new Token();
-      fakeToken.line = -1;
-      fakeToken.column = -1;
-      ctx.parser?.notifyErrorListeners(
-        `expression recursion limit exceeded: ${this.maxDepth}`,
-        fakeToken,
-        undefined
+    if (depth > this.maxDepth) {
+      // Stop before the rules recurse any deeper rather than reporting the
+      // error and carrying on, so nesting cannot exhaust the stack.
+      throw new ParseLimitError(
+        `expression recursion limit exceeded: ${this.maxDepth}`
       );
     }
   }
@@ -0,0 +1,28 @@
+import { TextSource } from '../common/source';
+import { enablePrecedenceClimbing, Parser } from './parser';
+
+function chain(length: number, term: (i: number) => string, op: string) {
+  return Array.from({ length }, (_, i) => term(i)).join(` ${op} `);
+}
+
+const shapes = {
+  arithmetic: chain(200, (i) => `a${i} * ${i}`, '+'),
+  comparisons: chain(100, (i) => `a${i} < ${i}`, '&&'),
+  mixed: chain(50, (i) => `x${i} * 2 + ${i} >= y${i} - 1`, '||'),
+};
+
+for (const [name, expression] of Object.entries(shapes)) {
+  describe(`${name} chain`, () => {
+    const source = new TextSource(expression);
+    const generated = new Parser();
+    const climbing = new Parser(enablePrecedenceClimbing(true));
+
+    bench('generated parser', () => {
+      generated.parse(source);
+    });
+
+    bench('precedence climbing', () => {
+      climbing.parse(source);
+    });
+  });
+}
@@ -0,0 +1,205 @@
+import { ParserRuleContext, RecognitionException } from 'antlr4';
+import CELParser, {
+  CalcContext,
+  ConditionalAndContext,
+  ConditionalOrContext,
+  RelationContext,
+} from '../gen/CELParser';
+
+/**
+ * PrecedenceParser is a drop-in replacement for the generated CELParser which
+ * parses the binary operator tiers of the grammar (conditionalOr,
+ * conditionalAnd, relation and calc) by precedence climbing.
+ *
+ * The generated parser implements `relation` and `calc` as ANTLR left
+ * recursion rewrites, which run adaptive prediction and evaluate a precedence
+ * predicate for every operator. The binary tiers are LL(1), so a single token
+ * of lookahead is enough to decide whether an operator extends the current
+ * expression. The parse tree, including the contexts, their children, tokens
+ * and parse listener events, is identical to the one the generated parser
+ * builds, so the visitor in parser.ts does not need to know which parser was
+ * used.
+ *
+ * Invalid input is not guaranteed to report the same syntax errors as the
+ * generated parser, since error recovery depends on the ATN state at the
+ * point of failure. Callers should re-parse with the generated parser when
+ * any error is reported.
+ */
+export class PrecedenceParser extends CELParser {
+  // conditionalOr : e=conditionalAnd (ops+='||' e1+=conditionalAnd)* ;
+  public override conditionalOr(): ConditionalOrContext {
+    const localctx = new ConditionalOrContext(this, this._ctx, this.state);
+    this.enterRule(localctx, 4, CELParser.RULE_conditionalOr);
+    try {
+      this.enterOuterAlt(localctx, 1);
+      this.state = 45;
+      localctx._e = this.conditionalAnd();
+      while (this._input.LA(1) === CELParser.LOGICAL_OR) {
+        this.state = 46;
+        localctx._s9 = this.match(CELParser.LOGICAL_OR);
+        localctx._ops.push(localctx._s9);
+        this.state = 47;
+        localctx._conditionalAnd = this.conditionalAnd();
+        localctx._e1.push(localctx._conditionalAnd);
+      }
+    } catch (re) {
+      this._reportAndRecover(localctx, re);
+    } finally {
+      this.exitRule();
+    }
+    return localctx;
+  }
+
+  // conditionalAnd : e=relation (ops+='&&' e1+=relation)* ;
+  public override conditionalAnd(): ConditionalAndContext {
+    const localctx = new ConditionalAndContext(this, this._ctx, this.state);
+    this.enterRule(localctx, 6, CELParser.RULE_conditionalAnd);
+    try {
+      this.enterOuterAlt(localctx, 1);
+      this.state = 53;
+      localctx._e = this.relation(0);
+      while (this._input.LA(1) === CELParser.LOGICAL_AND) {
+        this.state = 54;
+        localctx._s8 = this.match(CELParser.LOGICAL_AND);
+        localctx._ops.push(localctx._s8);
+        this.state = 55;
+        localctx._relation = this.relation(0);
+        localctx._e1.push(localctx._relation);
+      }
+    } catch (re) {
+      this._reportAndRecover(localctx, re);
+    } finally {
+      this.exitRule();
+    }
+    return localctx;
+  }
+
+  // relation : calc | relation op=('<'|'<='|'>='|'>'|'=='|'!='|'in') relation ;
+  public override relation(_p = 0): RelationContext {
+    const parentctx = this._ctx;
+    const parentState = this.state;
+    let localctx = new RelationContext(this, parentctx, parentState);
+    this.enterRecursionRule(localctx, 8, CELParser.RULE_relation, _p);
+    try {
+      this.enterOuterAlt(localctx, 1);
+      this.state = 62;
+      this.calc(0);
+      this._ctx.stop = this._input.LT(-1);
+      // Relations are left associative with a single precedence level, so the
+      // right operand (parsed at precedence 2) never takes another operator.
+      while (_p <= 1 && isRelationOperator(this._input.LA(1))) {
+        localctx = this._pushOperator(
+          new RelationContext(this, parentctx, parentState),
+          8,
+          CELParser.RULE_relation
+        );
+        this.state = 65;
+        localctx._op = this._input.LT(1);
+        this._errHandler.reportMatch(this);
+        this.consume();
+        this.state = 66;
+        this.relation(2);
+      }
+    } catch (re) {
+      this._reportAndRecover(localctx, re);
+    } finally {
+      this.unrollRecursionContexts(parentctx);
+    }
+    return localctx;
+  }
+
+  // calc : unary
+  //      | calc op=('*'|'/'|'%') calc
+  //      | calc op=('+'|'-') calc
+  //      ;
+  public override calc(_p = 0): CalcContext {
+    const parentctx = this._ctx;
+    const parentState = this.state;
+    let localctx = new CalcContext(this, parentctx, parentState);
+    this.enterRecursionRule(localctx, 10, CELParser.RULE_calc, _p);
+    try {
+      this.enterOuterAlt(localctx, 1);
+      this.state = 73;
+      this.unary();
+      this._ctx.stop = this._input.LT(-1);
+      for (;;) {
+        const la = this._input.LA(1);
+        let next: number;
+        if (_p <= 2 && isMultiplicativeOperator(la)) {
+          next = 3;
+        } else if (_p <= 1 && isAdditiveOperator(la)) {
+          next = 2;
+        } else {
+          break;
+        }
+        localctx = this._pushOperator(
+          new CalcContext(this, parentctx, parentState),
+          10,
+          CELParser.RULE_calc
+        );
+        this.state = next === 3 ? 76 : 79;
+        localctx._op = this._input.LT(1);
+        this._errHandler.reportMatch(this);
+        this.consume();
+        this.state = next === 3 ? 77 : 80;
+        this.calc(next);
+      }
+    } catch (re) {
+      this._reportAndRecover(localctx, re);
+    } finally {
+      this.unrollRecursionContexts(parentctx);
+    }
+    return localctx;
+  }
+
+  /**
+   * Makes the operand parsed so far the left child of a new binary operator
+   * context, the same way the generated left recursion loop does.
+   */
+  private _pushOperator<T extends ParserRuleContext>(
+    localctx: T,
+    startState: number,
+    ruleIndex: number
+  ) {
+    if (this._parseListeners != null) {
+      this.triggerExitRuleEvent();
+    }
+    this.pushNewRecursionContext(localctx, startState, ruleIndex);
+    return localctx;
+  }
+
+  private _reportAndRecover(localctx: ParserRuleContext, re: unknown) {
+    if (re instanceof RecognitionException) {
+      localctx.exception = re;
+      this._errHandler.reportError(this, re);
+      this._errHandler.recover(this, re);
+    } else {
+      throw re;
+    }
+  }
+}
+
+export function isRelationOperator(la: number) {
+  switch (la) {
+    case CELParser.EQUALS:
+    case CELParser.NOT_EQUALS:
+    case CELParser.IN:
+    case CELParser.LESS:
+    case CELParser.LESS_EQUALS:
+    case CELParser.GREATER_EQUALS:
+    case CELParser.GREATER:
+      return true;
+    default:
+      return false;
+  }
+}
+
+export function isMultiplicativeOperator(la: number) {
+  return (
+    la === CELParser.STAR || la === CELParser.SLASH || la === CELParser.PERCENT
+  );
+}
+
+export function isAdditiveOperator(la: number) {
+  return la === CELParser.PLUS || la === CELParser.MINUS;
+}
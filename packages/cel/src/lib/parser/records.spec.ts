@@ -0,0 +1,88 @@
+import { AllMacros } from './macro';
+import { macros, Parser } from './parser';
+import { parseRecords, readRecords, RecordSource } from './records';
+
+const encoder = new TextEncoder();
+
+/**
+ * Splits the encoded text into chunks of the given size, which may cut
+ * through multi-byte characters and line endings.
+ */
+function chunked(text: string, size: number) {
+  const bytes = encoder.encode(text);
+  const chunks: Uint8Array[] = [];
+  for (let i = 0; i < bytes.length; i += size) {
+    chunks.push(bytes.slice(i, i + size));
+  }
+  return chunks;
+}
+
+async function collect<T>(iter: AsyncIterable<T>) {
+  const out: T[] = [];
+  for await (const item of iter) {
+    out.push(item);
+  }
+  return out;
+}
+
+function describeRecord(source: RecordSource) {
+  return [
+    source.content(),
+    source.description(),
+    source.index,
+    source.byteOffset,
+    source.byteLength,
+  ];
+}
+
+describe('records', () => {
+  const text = 'a + b\r\n\n"é😀" == x\n  \nf(1,\n2)';
+
+  for (const size of [1, 2, 3, 5, 1024]) {
+    it(`should read records from ${size} byte chunks`, async () => {
+      const records = await collect(
+        readRecords(chunked(text, size), { name: 'rules.cel' })
+      );
+      expect(records.map(describeRecord)).toEqual([
+        ['a + b', 'rules.cel#1', 0, 0, 6],
+        ['"é😀" == x', 'rules.cel#3', 2, 8, 13],
+        ['f(1,', 'rules.cel#5', 4, 25, 4],
+        ['2)', 'rules.cel#6', 5, 30, 2],
+      ]);
+    });
+  }
+
+  it('should split on a custom delimiter', async () => {
+    const records = await collect(
+      readRecords(chunked('f(1,\n2)\0a.b\0', 4), { delimiter: '\0' })
+    );
+    expect(records.map(describeRecord)).toEqual([
+      ['f(1,\n2)', '<input>#1', 0, 0, 7],
+      ['a.b', '<input>#2', 1, 8, 3],
+    ]);
+  });
+
+  it('should reject delimiters which are not a single ASCII character', async () => {
+    await expect(
+      collect(readRecords([], { delimiter: '\r\n' }))
+    ).rejects.toThrow();
+    await expect(
+      collect(readRecords([], { delimiter: 'é' }))
+    ).rejects.toThrow();
+  });
+
+  it('should parse each record with its own errors', async () => {
+    const parser = new Parser(macros(...AllMacros));
+    const results = await collect(
+      parseRecords(parser, chunked('x.all(y, y > 0)\na +\n[1, 2]\n', 7), {
+        name: 'rules.cel',
+      })
+    );
+    expect(results.map((result) => result.source.index)).toEqual([0, 1, 2]);
+    expect(results[0].ast.expr().exprKind.case).toEqual('comprehensionExpr');
+    expect(results[0].errors.length()).toEqual(0);
+    expect(results[1].errors.toDisplayString()).toContain('rules.cel#2');
+    expect(results[2].ast.expr().exprKind.case).toEqual('listExpr');
+    expect(results[2].errors.length()).toEqual(0);
+  });
+});
@@ -0,0 +1,173 @@
+import { StringSource } from '../common/source';
+import { BatchParseResult, Parser } from './parser';
+
+const CR = 0x0d;
+const LF = 0x0a;
+
+/**
+ * RecordSource is the source of one record of a multi-expression file. Along
+ * with the expression text it records where in the file the record was
+ * found, so that errors can be traced back to the original file.
+ */
+export class RecordSource extends StringSource {
+  constructor(
+    contents: string,
+    description: string,
+    /**
+     * The 0-based position of the record in the file, counting empty
+     * records.
+     */
+    readonly index: number,
+    /**
+     * The offset of the first byte of the record in the file.
+     */
+    readonly byteOffset: number,
+    /**
+     * The length of the record in bytes, excluding the delimiter.
+     */
+    readonly byteLength: number
+  ) {
+    super(contents, description);
+  }
+}
+
+export interface RecordOptions {
+  /**
+   * The file name used to describe each record, e.g. `rules.cel#12` for the
+   * twelfth record. Defaults to `<input>`.
+   */
+  name?: string;
+  /**
+   * The single ASCII character which separates records. Defaults to a
+   * newline, in which case a trailing carriage return is also removed.
+   */
+  delimiter?: string;
+}
+
+/**
+ * RecordParseResult is the outcome of parsing one record.
+ */
+export interface RecordParseResult extends BatchParseResult {
+  source: RecordSource;
+}
+
+/**
+ * ReadRecords splits a stream of UTF-8 bytes (e.g. `fs.createReadStream`)
+ * into records and yields a source for each one which is not blank. Only the
+ * current chunk and the bytes of the record being read are held in memory, so
+ * memory use does not grow with the size of the file.
+ */
+export async function* readRecords(
+  chunks: AsyncIterable<Uint8Array> | Iterable<Uint8Array>,
+  options: RecordOptions = {}
+): AsyncGenerator<RecordSource> {
+  for await (const records of splitRecords(chunks, options)) {
+    yield* records;
+  }
+}
+
+/**
+ * ParseRecords parses every record of a stream of UTF-8 bytes, yielding each
+ * AST together with the errors reported for it. The records of each chunk
+ * are parsed as a batch, so the parser's lexer and parser instances are
+ * reused.
+ */
+export async function* parseRecords(
+  parser: Parser,
+  chunks: AsyncIterable<Uint8Array> | Iterable<Uint8Array>,
+  options: RecordOptions = {}
+): AsyncGenerator<RecordParseResult> {
+  for await (const records of splitRecords(chunks, options)) {
+    yield* parser.parseEach(records) as Generator<RecordParseResult>;
+  }
+}
+
+/**
+ * SplitRecords yields the records which end in each chunk, plus the final
+ * record if the input does not end with a delimiter.
+ */
+async function* splitRecords(
+  chunks: AsyncIterable<Uint8Array> | Iterable<Uint8Array>,
+  options: RecordOptions
+) {
+  const name = options.name ?? '<input>';
+  const delimiter = options.delimiter ?? '\n';
+  if (delimiter.length !== 1 || delimiter.charCodeAt(0) > 0x7f) {
+    throw new Error(
+      `delimiter must be a single ASCII character: ${delimiter}`
+    );
+  }
+  const delimiterByte = delimiter.charCodeAt(0);
+  const decoder = new TextDecoder();
+  let pending: Uint8Array[] = [];
+  let index = 0;
+  let recordOffset = 0;
+  let chunkOffset = 0;
+
+  const newRecord = (tail: Uint8Array) => {
+    let bytes = concat(pending, tail);
+    pending = [];
+    const byteOffset = recordOffset;
+    const byteLength = bytes.length;
+    if (delimiterByte === LF && bytes[bytes.length - 1] === CR) {
+      bytes = bytes.subarray(0, bytes.length - 1);
+    }
+    const text = decoder.decode(bytes);
+    const record = index++;
+    if (text.trim() === '') {
+      return null;
+    }
+    return new RecordSource(
+      text,
+      `${name}#${record + 1}`,
+      record,
+      byteOffset,
+      byteLength
+    );
+  };
+
+  for await (const chunk of chunks) {
+    const records: RecordSource[] = [];
+    let start = 0;
+    let end = chunk.indexOf(delimiterByte);
+    while (end !== -1) {
+      const record = newRecord(chunk.subarray(start, end));
+      if (record !== null) {
+        records.push(record);
+      }
+      start = end + 1;
+      recordOffset = chunkOffset + start;
+      end = chunk.indexOf(delimiterByte, start);
+    }
+    if (start < chunk.length) {
+      // Streams may reuse their buffers, so the partial record is copied.
+      pending.push(chunk.slice(start));
+    }
+    chunkOffset += chunk.length;
+    yield records;
+  }
+  if (pending.length > 0) {
+    const record = newRecord(new Uint8Array(0));
+    if (record !== null) {
+      yield [record];
+    }
+  }
+}
+
+function concat(parts: Uint8Array[], tail: Uint8Array) {
+  if (parts.length === 0) {
+    return tail;
+  }
+  let length = tail.length;
+  for (const part of parts) {
+    length += part.length;
+  }
+  const bytes = new Uint8Array(length);
+  let offset = 0;
+  for (const part of parts) {
+    bytes.set(part, offset);
+    offset += part.length;
+  }
+  bytes.set(tail, offset);
+  return bytes;
+}
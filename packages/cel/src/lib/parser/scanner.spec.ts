@@ -0,0 +1,216 @@
+/* eslint-disable @typescript-eslint/no-unused-vars */
+import {
+  CharStream,
+  ErrorListener,
+  RecognitionException,
+  Recognizer,
+  Token,
+} from 'antlr4';
+import { TextSource } from '../common/source';
+import { SymbolTable } from '../common/symbols';
+import { conformanceExpressions } from '../conformance/corpus';
+import CELLexer from '../gen/CELLexer';
+import { AllMacros } from './macro';
+import {
+  enableHandWrittenLexer,
+  enableIdentEscapeSyntax,
+  enableOptionalSyntax,
+  macros,
+  Parser,
+} from './parser';
+import { Scanner, tokenSymbol } from './scanner';
+
+class RecordingErrorListener extends ErrorListener<number> {
+  constructor(private readonly messages: string[]) {
+    super();
+  }
+
+  override syntaxError(
+    recognizer: Recognizer<number>,
+    offendingSymbol: number,
+    line: number,
+    column: number,
+    msg: string,
+    e: RecognitionException | undefined
+  ): void {
+    this.messages.push(`${line}:${column}: ${msg}`);
+  }
+}
+
+interface Lexed {
+  tokens: string[];
+  errors: string[];
+}
+
+function describeToken(t: Token) {
+  return [t.type, t.channel, t.start, t.stop, t.line, t.column, t.text].join(
+    '|'
+  );
+}
+
+function lexWithAntlr(input: string): Lexed {
+  const errors: string[] = [];
+  const lexer = new CELLexer(new CharStream(input));
+  lexer.removeErrorListeners();
+  lexer.addErrorListener(new RecordingErrorListener(errors));
+  const tokens: string[] = [];
+  for (;;) {
+    const t = lexer.nextToken();
+    tokens.push(describeToken(t));
+    if (t.type === Token.EOF) {
+      break;
+    }
+  }
+  return { tokens, errors };
+}
+
+function lexWithScanner(input: string): Lexed {
+  const errors: string[] = [];
+  const scanner = new Scanner(input);
+  scanner.addErrorListener(new RecordingErrorListener(errors));
+  const tokens: string[] = [];
+  for (;;) {
+    const t = scanner.nextToken();
+    tokens.push(describeToken(t));
+    if (t.type === Token.EOF) {
+      break;
+    }
+  }
+  return { tokens, errors };
+}
+
+const edgeCases = [
+  '',
+  ' \t\r\n\f',
+  'a // comment\n+ b // trailing',
+  '1 / 2',
+  '0x',
+  '0xFFu',
+  '00x1',
+  '1e',
+  '1e+',
+  '1e-5',
+  '1.',
+  '1.5e10',
+  '.5',
+  '.5e-3',
+  '.e',
+  '1u 1U',
+  'in inx true truex false null nul',
+  '_a1 a_b A',
+  `r'' r"" r'''a''' r"""a""" R'\\d'`,
+  `b'abc' B"abc" br'abc' bR"abc" rb'abc'`,
+  `"""abc"""`,
+  `'''a'b''c'''`,
+  `"""abc`,
+  `r"""abc`,
+  `'abc`,
+  `"abc\ndef"`,
+  `"\\a\\b\\f\\n\\r\\t\\v\\"\\'\\\\\\?\\\``,
+  `"\\101\\x41\\X41\\u0041\\U00000041"`,
+  `"\\4"`,
+  `"\\1x"`,
+  `"\\xZ"`,
+  `"\\u00G0"`,
+  `"\\q"`,
+  `"""\\q"""`,
+  'a.`b-c`',
+  'a.`b c/d.e`',
+  '``',
+  'a.`$b`',
+  '`abc',
+  '= == != ! < <= > >= & && | ||',
+  '#',
+  '@foo ^ $',
+  `'3# < 10" '& tru ^^`,
+  'x["é😀"] == "ok"',
+  'ünicode',
+  'a\\b',
+];
+
+describe('Scanner', () => {
+  for (const input of edgeCases) {
+    it(`should lex ${JSON.stringify(input)} like CELLexer`, () => {
+      expect(lexWithScanner(input)).toEqual(lexWithAntlr(input));
+    });
+  }
+
+  for (const [file, exprs] of conformanceExpressions()) {
+    it(`should lex the ${file} conformance expressions like CELLexer`, () => {
+      for (const expr of exprs) {
+        expect(lexWithScanner(expr), expr).toEqual(lexWithAntlr(expr));
+      }
+    });
+  }
+
+  it('should expose token details without creating tokens', () => {
+    const scanner = new Scanner('a.b <= 10u');
+    const seen: [number, string][] = [];
+    while (scanner.advance() !== Token.EOF) {
+      seen.push([scanner.tokenType, scanner.tokenText()]);
+    }
+    expect(seen).toEqual([
+      [CELLexer.IDENTIFIER, 'a'],
+      [CELLexer.DOT, '.'],
+      [CELLexer.IDENTIFIER, 'b'],
+      [CELLexer.WHITESPACE, ' '],
+      [CELLexer.LESS_EQUALS, '<='],
+      [CELLexer.WHITESPACE, ' '],
+      [CELLexer.NUM_UINT, '10u'],
+    ]);
+    scanner.reset();
+    expect(scanner.advance()).toEqual(CELLexer.IDENTIFIER);
+    scanner.setInput('true');
+    expect(scanner.advance()).toEqual(CELLexer.CEL_TRUE);
+    expect(scanner.advance()).toEqual(Token.EOF);
+  });
+
+  it('should intern identifiers into its symbol table', () => {
+    const scanner = new Scanner('a.b + a.`b` + in + b"x"');
+    const symbols = new SymbolTable();
+    scanner.symbols = symbols;
+    const seen: [string, number][] = [];
+    while (scanner.advance() !== Token.EOF) {
+      if (scanner.tokenChannel === Token.DEFAULT_CHANNEL) {
+        seen.push([scanner.tokenText(), scanner.tokenSymbol]);
+      }
+    }
+    expect(seen).toEqual([
+      ['a', 0],
+      ['.', -1],
+      ['b', 1],
+      ['+', -1],
+      ['a', 0],
+      ['.', -1],
+      ['`b`', 1],
+      ['+', -1],
+      ['in', -1],
+      ['+', -1],
+      ['b"x"', -1],
+    ]);
+    scanner.setInput('b');
+    const token = scanner.nextToken();
+    expect(tokenSymbol(token)).toEqual(1);
+    expect(token.text).toBe(symbols.name(1));
+  });
+
+  it('should produce the same ASTs as CELLexer when used by the parser', () => {
+    const opts = [
+      macros(...AllMacros),
+      enableOptionalSyntax(true),
+      enableIdentEscapeSyntax(true),
+    ];
+    for (const exprs of conformanceExpressions().values()) {
+      for (const expr of exprs) {
+        const expected = new Parser(...opts);
+        const actual = new Parser(...opts, enableHandWrittenLexer(true));
+        const expectedAST = expected.parse(new TextSource(expr));
+        const actualAST = actual.parse(new TextSource(expr));
+        expect(actualAST.expr(), expr).toEqual(expectedAST.expr());
+        expect(actual.errors.toDisplayString(), expr).toEqual(
+          expected.errors.toDisplayString()
+        );
+      }
+    }
+  });
+});
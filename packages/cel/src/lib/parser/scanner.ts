@@ -0,0 +1,740 @@
+/* eslint-disable @typescript-eslint/no-explicit-any */
+import { CommonToken, ErrorListener, Recognizer, Token } from 'antlr4';
+import { SymbolTable } from '../common/symbols';
+import CELLexer from '../gen/CELLexer';
+
+// Character class bits used by the scanner tables.
+const LETTER = 1 << 0;
+const DIGIT = 1 << 1;
+const HEX = 1 << 2;
+const SPACE = 1 << 3;
+const ESC_IDENT = 1 << 4;
+
+const CR = 0x0d;
+const LF = 0x0a;
+const BACKSLASH = 0x5c;
+const BACKTICK = 0x60;
+const DOUBLE_QUOTE = 0x22;
+const SINGLE_QUOTE = 0x27;
+
+/**
+ * charClass maps every ASCII code unit to a bit set of the lexer fragments
+ * (LETTER, DIGIT, HEXDIGIT, ...) it belongs to. Code units outside of the
+ * ASCII range never start or continue a token other than string contents.
+ */
+const charClass = new Uint8Array(128);
+for (let c = 0; c < 128; c++) {
+  const ch = String.fromCharCode(c);
+  if ((ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z')) {
+    charClass[c] |= LETTER | ESC_IDENT;
+  }
+  if (ch >= '0' && ch <= '9') {
+    charClass[c] |= DIGIT | HEX | ESC_IDENT;
+  }
+  if ((ch >= 'a' && ch <= 'f') || (ch >= 'A' && ch <= 'F')) {
+    charClass[c] |= HEX;
+  }
+  if ('\t \r\n\f'.includes(ch)) {
+    charClass[c] |= SPACE;
+  }
+  if ('_.-/ '.includes(ch)) {
+    charClass[c] |= ESC_IDENT;
+  }
+}
+
+/**
+ * punctuation maps single character tokens which are never the prefix of a
+ * longer token to their token type.
+ */
+const punctuation = new Uint8Array(128);
+punctuation['['.charCodeAt(0)] = CELLexer.LBRACKET;
+punctuation[']'.charCodeAt(0)] = CELLexer.RPRACKET;
+punctuation['{'.charCodeAt(0)] = CELLexer.LBRACE;
+punctuation['}'.charCodeAt(0)] = CELLexer.RBRACE;
+punctuation['('.charCodeAt(0)] = CELLexer.LPAREN;
+punctuation[')'.charCodeAt(0)] = CELLexer.RPAREN;
+punctuation[','.charCodeAt(0)] = CELLexer.COMMA;
+punctuation['-'.charCodeAt(0)] = CELLexer.MINUS;
+punctuation['?'.charCodeAt(0)] = CELLexer.QUESTIONMARK;
+punctuation[':'.charCodeAt(0)] = CELLexer.COLON;
+punctuation['+'.charCodeAt(0)] = CELLexer.PLUS;
+punctuation['*'.charCodeAt(0)] = CELLexer.STAR;
+punctuation['%'.charCodeAt(0)] = CELLexer.PERCENT;
+
+/**
+ * simpleEscapes contains the characters which may follow a backslash in an
+ * ESC_CHAR_SEQ.
+ */
+const simpleEscapes = new Uint8Array(128);
+for (const ch of 'abfnrtv"\'\\?`') {
+  simpleEscapes[ch.charCodeAt(0)] = 1;
+}
+
+/**
+ * SymbolToken is an identifier token produced by a scanner with a symbol
+ * table. It carries the id of the identifier's name, without the backticks
+ * of an escaped identifier.
+ */
+export interface SymbolToken extends Token {
+  symbol: number;
+}
+
+/**
+ * TokenSymbol returns the symbol id carried by the token, or -1 if it has
+ * none.
+ */
+export function tokenSymbol(token: Token) {
+  return (token as Partial<SymbolToken>).symbol ?? -1;
+}
+
+function is(c: number, cls: number) {
+  return c >= 0 && c < 128 && (charClass[c] & cls) !== 0;
+}
+
+/**
+ * The token factory handed to the parser so that error recovery can conjure
+ * missing tokens which point back at the scanner's input.
+ */
+const scannerTokenFactory = {
+  create(
+    source: [any, any],
+    type: number,
+    text: string | null,
+    channel: number,
+    start: number,
+    stop: number,
+    line: number,
+    column: number
+  ) {
+    const t = new CommonToken(source as any, type, channel, start, stop);
+    t.line = line;
+    t.column = column;
+    if (text !== null) {
+      t.text = text;
+    }
+    return t;
+  },
+};
+
+/**
+ * Scanner is a hand-written, table-driven replacement for the generated
+ * CELLexer. It produces exactly the same token types, offsets, channels and
+ * recognition errors as the ATN-based lexer, but scans the source string
+ * directly rather than simulating the lexer ATN.
+ *
+ * The scanner can be consumed in two ways:
+ *
+ * - As an ANTLR TokenSource via `nextToken`, which allows it to be handed to
+ *   a CommonTokenStream in place of a CELLexer. The tokens it produces do not
+ *   copy their text; it is sliced from the source on demand.
+ * - Via `advance`, which scans the next token and exposes its type, channel
+ *   and offsets as fields on the scanner without allocating anything.
+ */
+export class Scanner {
+  #input: string;
+  #length: number;
+  #pos = 0;
+  #line = 1;
+  #column = 0;
+  #failAt = -1;
+  #listeners: ErrorListener<number>[] = [];
+  readonly #source: [any, any] = [this, this];
+
+  /**
+   * The type of the token most recently returned by `advance`.
+   */
+  tokenType: number = Token.INVALID_TYPE;
+  /**
+   * The channel of the token most recently returned by `advance`.
+   */
+  tokenChannel: number = Token.DEFAULT_CHANNEL;
+  /**
+   * The offset of the first code unit of the current token.
+   */
+  tokenStart = -1;
+  /**
+   * The offset of the last code unit of the current token (inclusive).
+   */
+  tokenStop = -1;
+  /**
+   * The 1-based line on which the current token starts.
+   */
+  tokenLine = 1;
+  /**
+   * The 0-based column at which the current token starts.
+   */
+  tokenColumn = 0;
+  /**
+   * The symbol id of the current token's name if it is an identifier and
+   * the scanner has a symbol table, otherwise -1.
+   */
+  tokenSymbol = -1;
+  /**
+   * The table identifier names are interned into as they are scanned.
+   * Identifier tokens created by `nextToken` then carry their symbol id and
+   * use the canonical name from the table as their text.
+   */
+  symbols?: SymbolTable;
+
+  _factory = scannerTokenFactory;
+
+  constructor(input: string) {
+    this.#input = input;
+    this.#length = input.length;
+  }
+
+  /**
+   * Reset rewinds the scanner to the beginning of its input.
+   */
+  reset() {
+    this.#pos = 0;
+    this.#line = 1;
+    this.#column = 0;
+    this.tokenType = Token.INVALID_TYPE;
+    this.tokenChannel = Token.DEFAULT_CHANNEL;
+    this.tokenStart = -1;
+    this.tokenStop = -1;
+    this.tokenLine = 1;
+    this.tokenColumn = 0;
+    this.tokenSymbol = -1;
+  }
+
+  /**
+   * SetInput replaces the scanner input and rewinds to its beginning.
+   */
+  setInput(input: string) {
+    this.#input = input;
+    this.#length = input.length;
+    this.reset();
+  }
+
+  /**
+   * Advance scans the next token and returns its type. The remaining details
+   * of the token are available from the `token*` fields until the next call.
+   * Lexical errors are reported to the registered error listeners and the
+   * offending input is skipped, mirroring the recovery of the ANTLR lexer.
+   */
+  advance(): number {
+    this.tokenSymbol = -1;
+    for (;;) {
+      const start = this.#pos;
+      if (start >= this.#length) {
+        this.tokenType = Token.EOF;
+        this.tokenChannel = Token.DEFAULT_CHANNEL;
+        this.tokenStart = start;
+        this.tokenStop = start - 1;
+        this.tokenLine = this.#line;
+        this.tokenColumn = this.#column;
+        return Token.EOF;
+      }
+      const end = this._scan(start);
+      if (end < 0) {
+        this._recover(start);
+        continue;
+      }
+      this.tokenStart = start;
+      this.tokenStop = end - 1;
+      this.tokenLine = this.#line;
+      this.tokenColumn = this.#column;
+      this._moveTo(end);
+      return this.tokenType;
+    }
+  }
+
+  /**
+   * TokenText returns the text of the token most recently returned by
+   * `advance`.
+   */
+  tokenText() {
+    if (this.tokenType === Token.EOF) {
+      return '<EOF>';
+    }
+    return this.#input.substring(this.tokenStart, this.tokenStop + 1);
+  }
+
+  /**
+   * NextToken implements the ANTLR TokenSource contract.
+   */
+  nextToken(): Token {
+    const type = this.advance();
+    const t = new CommonToken(
+      this.#source,
+      type,
+      this.tokenChannel,
+      this.tokenStart,
+      this.tokenStop
+    );
+    t.line = this.tokenLine;
+    t.column = this.tokenColumn;
+    const symbols = this.symbols;
+    if (this.tokenSymbol >= 0 && symbols !== undefined) {
+      (t as SymbolToken).symbol = this.tokenSymbol;
+      if (type === CELLexer.IDENTIFIER) {
+        t.text = symbols.name(this.tokenSymbol);
+      }
+    }
+    return t;
+  }
+
+  /**
+   * The line of the next character to be scanned.
+   */
+  get line() {
+    return this.#line;
+  }
+
+  /**
+   * The column of the next character to be scanned.
+   */
+  get column() {
+    return this.#column;
+  }
+
+  /**
+   * The number of code units in the input. Together with `getText` this
+   * allows the scanner to act as the input stream for its own tokens.
+   */
+  get size() {
+    return this.#length;
+  }
+
+  get sourceName() {
+    return '<input>';
+  }
+
+  getSourceName() {
+    return this.sourceName;
+  }
+
+  getInputStream() {
+    return this;
+  }
+
+  getText(start: number | { start: number; stop: number }, stop = -1) {
+    if (typeof start !== 'number') {
+      stop = start.stop;
+      start = start.start;
+    }
+    if (start >= this.#length) {
+      return '';
+    }
+    return this.#input.substring(start, Math.min(stop, this.#length - 1) + 1);
+  }
+
+  addErrorListener(listener: ErrorListener<number>) {
+    this.#listeners.push(listener);
+  }
+
+  removeErrorListeners() {
+    this.#listeners = [];
+  }
+
+  /**
+   * _scan recognizes the token beginning at `start`, sets the token type and
+   * channel, and returns the exclusive end offset of the token. When no token
+   * can be recognized it returns -1 and records the offset of the offending
+   * code unit.
+   */
+  private _scan(start: number): number {
+    const input = this.#input;
+    const c = input.charCodeAt(start);
+    const next = this._at(start + 1);
+    this.tokenChannel = Token.DEFAULT_CHANNEL;
+    if (c < 128 && punctuation[c] !== 0) {
+      this.tokenType = punctuation[c];
+      return start + 1;
+    }
+    if (is(c, SPACE)) {
+      let i = start + 1;
+      while (is(this._at(i), SPACE)) {
+        i++;
+      }
+      this.tokenType = CELLexer.WHITESPACE;
+      this.tokenChannel = Token.HIDDEN_CHANNEL;
+      return i;
+    }
+    if (is(c, LETTER) || c === 0x5f) {
+      return this._scanIdentifier(start, c, next);
+    }
+    if (is(c, DIGIT)) {
+      return this._scanNumber(start, c, next);
+    }
+    switch (c) {
+      case 0x3d: // =
+        if (next === 0x3d) {
+          this.tokenType = CELLexer.EQUALS;
+          return start + 2;
+        }
+        return this._fail(start + 1);
+      case 0x21: // !
+        if (next === 0x3d) {
+          this.tokenType = CELLexer.NOT_EQUALS;
+          return start + 2;
+        }
+        this.tokenType = CELLexer.EXCLAM;
+        return start + 1;
+      case 0x3c: // <
+        if (next === 0x3d) {
+          this.tokenType = CELLexer.LESS_EQUALS;
+          return start + 2;
+        }
+        this.tokenType = CELLexer.LESS;
+        return start + 1;
+      case 0x3e: // >
+        if (next === 0x3d) {
+          this.tokenType = CELLexer.GREATER_EQUALS;
+          return start + 2;
+        }
+        this.tokenType = CELLexer.GREATER;
+        return start + 1;
+      case 0x26: // &
+        if (next === 0x26) {
+          this.tokenType = CELLexer.LOGICAL_AND;
+          return start + 2;
+        }
+        return this._fail(start + 1);
+      case 0x7c: // |
+        if (next === 0x7c) {
+          this.tokenType = CELLexer.LOGICAL_OR;
+          return start + 2;
+        }
+        return this._fail(start + 1);
+      case 0x2f: // /
+        if (next === 0x2f) {
+          let i = start + 2;
+          while (i < this.#length && input.charCodeAt(i) !== LF) {
+            i++;
+          }
+          this.tokenType = CELLexer.COMMENT;
+          this.tokenChannel = Token.HIDDEN_CHANNEL;
+          return i;
+        }
+        this.tokenType = CELLexer.SLASH;
+        return start + 1;
+      case 0x2e: // .
+        if (is(next, DIGIT)) {
+          return this._scanFraction(start + 1);
+        }
+        this.tokenType = CELLexer.DOT;
+        return start + 1;
+      case DOUBLE_QUOTE:
+      case SINGLE_QUOTE:
+        this.tokenType = CELLexer.STRING;
+        return this._scanQuoted(start, false);
+      case BACKTICK:
+        return this._scanEscapedIdentifier(start);
+      default:
+        return this._fail(start);
+    }
+  }
+
+  private _scanIdentifier(start: number, c: number, next: number): number {
+    // Raw strings and bytes literals share their prefix with identifiers, so
+    // try them first and fall back to the identifier if they do not match.
+    if (c === 0x72 || c === 0x52) {
+      // r | R
+      if (next === DOUBLE_QUOTE || next === SINGLE_QUOTE) {
+        const end = this._scanQuoted(start + 1, true);
+        if (end >= 0) {
+          this.tokenType = CELLexer.STRING;
+          return end;
+        }
+        return this._identifier(start, start + 1);
+      }
+    } else if (c === 0x62 || c === 0x42) {
+      // b | B
+      let quote = start + 1;
+      let raw = false;
+      if (next === 0x72 || next === 0x52) {
+        quote++;
+        raw = true;
+      }
+      const q = this._at(quote);
+      if (q === DOUBLE_QUOTE || q === SINGLE_QUOTE) {
+        const end = this._scanQuoted(quote, raw);
+        if (end >= 0) {
+          this.tokenType = CELLexer.BYTES;
+          return end;
+        }
+        return this._identifier(start, quote);
+      }
+    }
+    let i = start + 1;
+    while (is(this._at(i), LETTER | DIGIT) || this._at(i) === 0x5f) {
+      i++;
+    }
+    return this._identifier(start, i);
+  }
+
+  private _identifier(start: number, end: number): number {
+    this.tokenType = CELLexer.IDENTIFIER;
+    const input = this.#input;
+    switch (end - start) {
+      case 2:
+        if (input.startsWith('in', start)) {
+          this.tokenType = CELLexer.IN;
+        }
+        break;
+      case 4:
+        if (input.startsWith('true', start)) {
+          this.tokenType = CELLexer.CEL_TRUE;
+        } else if (input.startsWith('null', start)) {
+          this.tokenType = CELLexer.NUL;
+        }
+        break;
+      case 5:
+        if (input.startsWith('false', start)) {
+          this.tokenType = CELLexer.CEL_FALSE;
+        }
+        break;
+      default:
+        break;
+    }
+    if (this.tokenType === CELLexer.IDENTIFIER && this.symbols !== undefined) {
+      this.tokenSymbol = this.symbols.internRange(input, start, end);
+    }
+    return end;
+  }
+
+  private _scanNumber(start: number, c: number, next: number): number {
+    if (c === 0x30 && next === 0x78) {
+      // 0x
+      let i = start + 2;
+      while (is(this._at(i), HEX)) {
+        i++;
+      }
+      if (i === start + 2) {
+        // No hex digits, so only the leading zero is an int.
+        this.tokenType = CELLexer.NUM_INT;
+        return start + 1;
+      }
+      return this._intSuffix(i);
+    }
+    let i = start + 1;
+    while (is(this._at(i), DIGIT)) {
+      i++;
+    }
+    const ch = this._at(i);
+    if (ch === 0x2e && is(this._at(i + 1), DIGIT)) {
+      return this._scanFraction(i + 1);
+    }
+    if (ch === 0x65 || ch === 0x45) {
+      const end = this._scanExponent(i);
+      if (end >= 0) {
+        this.tokenType = CELLexer.NUM_FLOAT;
+        return end;
+      }
+    }
+    return this._intSuffix(i);
+  }
+
+  private _intSuffix(i: number): number {
+    const ch = this._at(i);
+    if (ch === 0x75 || ch === 0x55) {
+      this.tokenType = CELLexer.NUM_UINT;
+      return i + 1;
+    }
+    this.tokenType = CELLexer.NUM_INT;
+    return i;
+  }
+
+  /**
+   * _scanFraction scans the digits following a decimal point (the first of
+   * which is known to exist) and an optional exponent.
+   */
+  private _scanFraction(i: number): number {
+    while (is(this._at(i), DIGIT)) {
+      i++;
+    }
+    this.tokenType = CELLexer.NUM_FLOAT;
+    const ch = this._at(i);
+    if (ch === 0x65 || ch === 0x45) {
+      const end = this._scanExponent(i);
+      if (end >= 0) {
+        return end;
+      }
+    }
+    return i;
+  }
+
+  private _scanExponent(i: number): number {
+    i++;
+    const sign = this._at(i);
+    if (sign === 0x2b || sign === 0x2d) {
+      i++;
+    }
+    if (!is(this._at(i), DIGIT)) {
+      return -1;
+    }
+    while (is(this._at(i), DIGIT)) {
+      i++;
+    }
+    return i;
+  }
+
+  /**
+   * _scanQuoted scans a quoted string whose opening quote is at `i`. Empty
+   * strings are complete matches, so an unterminated triple-quoted string
+   * falls back to the empty string just as the ATN lexer does.
+   */
+  private _scanQuoted(i: number, raw: boolean): number {
+    const quote = this.#input.charCodeAt(i);
+    if (this._at(i + 1) === quote) {
+      if (this._at(i + 2) === quote) {
+        const end = this._scanTripleQuoted(i + 3, quote, raw);
+        if (end >= 0) {
+          return end;
+        }
+      }
+      return i + 2;
+    }
+    i++;
+    for (;;) {
+      const ch = this._at(i);
+      if (ch === quote) {
+        return i + 1;
+      }
+      if (ch < 0 || ch === LF || ch === CR) {
+        return this._fail(i);
+      }
+      if (ch === BACKSLASH && !raw) {
+        i = this._scanEscape(i);
+        if (i < 0) {
+          return -1;
+        }
+        continue;
+      }
+      i++;
+    }
+  }
+
+  private _scanTripleQuoted(i: number, quote: number, raw: boolean): number {
+    for (;;) {
+      const ch = this._at(i);
+      if (ch < 0) {
+        return this._fail(i);
+      }
+      if (
+        ch === quote &&
+        this._at(i + 1) === quote &&
+        this._at(i + 2) === quote
+      ) {
+        return i + 3;
+      }
+      if (ch === BACKSLASH && !raw) {
+        i = this._scanEscape(i);
+        if (i < 0) {
+          return -1;
+        }
+        continue;
+      }
+      i++;
+    }
+  }
+
+  /**
+   * _scanEscape scans the ESC_SEQ starting with the backslash at `i`.
+   */
+  private _scanEscape(i: number): number {
+    const c = this._at(i + 1);
+    if (c >= 0 && c < 128 && simpleEscapes[c] !== 0) {
+      return i + 2;
+    }
+    if (c >= 0x30 && c <= 0x33) {
+      // \[0-3][0-7][0-7]
+      for (let j = i + 2; j < i + 4; j++) {
+        const o = this._at(j);
+        if (o < 0x30 || o > 0x37) {
+          return this._fail(j);
+        }
+      }
+      return i + 4;
+    }
+    let digits = 0;
+    if (c === 0x78 || c === 0x58) {
+      digits = 2;
+    } else if (c === 0x75) {
+      digits = 4;
+    } else if (c === 0x55) {
+      digits = 8;
+    } else {
+      return this._fail(i + 1);
+    }
+    for (let j = i + 2; j < i + 2 + digits; j++) {
+      if (!is(this._at(j), HEX)) {
+        return this._fail(j);
+      }
+    }
+    return i + 2 + digits;
+  }
+
+  private _scanEscapedIdentifier(start: number): number {
+    let i = start + 1;
+    if (!is(this._at(i), ESC_IDENT)) {
+      return this._fail(i);
+    }
+    while (is(this._at(i), ESC_IDENT)) {
+      i++;
+    }
+    if (this._at(i) !== BACKTICK) {
+      return this._fail(i);
+    }
+    this.tokenType = CELLexer.ESC_IDENTIFIER;
+    if (this.symbols !== undefined) {
+      this.tokenSymbol = this.symbols.internRange(this.#input, start + 1, i);
+    }
+    return i + 1;
+  }
+
+  /**
+   * _at returns the code unit at the given offset, or -1 past the end of the
+   * input.
+   */
+  private _at(i: number): number {
+    return i < this.#length ? this.#input.charCodeAt(i) : -1;
+  }
+
+  private _fail(i: number): number {
+    this.#failAt = i;
+    return -1;
+  }
+
+  /**
+   * _recover reports a token recognition error for the text between `start`
+   * and the offending code unit and skips past it, which is how the ANTLR
+   * lexer recovers from a LexerNoViableAltException.
+   */
+  private _recover(start: number) {
+    const failAt = Math.min(this.#failAt, this.#length);
+    const text = this.#input.substring(start, failAt + 1);
+    const msg = `token recognition error at: '${text}'`;
+    for (const listener of this.#listeners) {
+      listener.syntaxError(
+        this as unknown as Recognizer<number>,
+        undefined as unknown as number,
+        this.#line,
+        this.#column,
+        msg,
+        undefined
+      );
+    }
+    this._moveTo(failAt < this.#length ? failAt + 1 : failAt);
+  }
+
+  /**
+   * _moveTo advances the scanner position, keeping track of the line and
+   * column of the next code unit.
+   */
+  private _moveTo(end: number) {
+    const input = this.#input;
+    for (let i = this.#pos; i < end; i++) {
+      if (input.charCodeAt(i) === LF) {
+        this.#line++;
+        this.#column = 0;
+      } else {
+        this.#column++;
+      }
+    }
+    this.#pos = end;
+  }
+}
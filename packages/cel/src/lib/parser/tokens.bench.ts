@@ -0,0 +1,79 @@
+import { CommonTokenStream } from 'antlr4';
+import { allocatedBytes } from '../bench/allocation';
+import { conformanceWorkloads, stressWorkloads } from '../bench/workloads';
+import { TextSource } from '../common/source';
+import CELLexer from '../gen/CELLexer';
+import { AllMacros } from './macro';
+import {
+  enableHandWrittenLexer,
+  enableIdentEscapeSyntax,
+  enableOptionalSyntax,
+  enablePackedTokenStream,
+  macros,
+  Parser,
+} from './parser';
+import { Scanner } from './scanner';
+import { PackedTokenStream } from './tokens';
+
+/**
+ * Compares buffering every token of an expression in a CommonTokenStream with
+ * the PackedTokenStream, both fed by the hand-written scanner. The bytes
+ * allocated per operation are printed before the benchmarks run.
+ */
+
+const workloads = [...conformanceWorkloads(), ...stressWorkloads()];
+
+function common(expressions: string[]) {
+  for (const expr of expressions) {
+    const scanner = new Scanner(expr);
+    scanner.removeErrorListeners();
+    new CommonTokenStream(scanner as unknown as CELLexer).fill();
+  }
+}
+
+function packed(expressions: string[]) {
+  for (const expr of expressions) {
+    const scanner = new Scanner(expr);
+    scanner.removeErrorListeners();
+    new PackedTokenStream(scanner).fill();
+  }
+}
+
+const allocations: Record<string, Record<string, number>> = {};
+for (const { name, expressions } of workloads) {
+  allocations[name] = {
+    CommonTokenStream: allocatedBytes(() => common(expressions)),
+    PackedTokenStream: allocatedBytes(() => packed(expressions)),
+  };
+}
+console.log('Bytes allocated per operation');
+console.table(allocations);
+
+for (const { name, expressions } of workloads) {
+  describe(`${name} (${expressions.length} expressions)`, () => {
+    const sources = expressions.map((expr) => new TextSource(expr));
+    const opts = [
+      macros(...AllMacros),
+      enableOptionalSyntax(true),
+      enableIdentEscapeSyntax(true),
+      enableHandWrittenLexer(true),
+    ];
+    const parser = new Parser(...opts);
+    const packedParser = new Parser(...opts, enablePackedTokenStream(true));
+
+    bench('fill CommonTokenStream', () => common(expressions));
+    bench('fill PackedTokenStream', () => packed(expressions));
+
+    bench('parse with CommonTokenStream', () => {
+      for (const source of sources) {
+        parser.parse(source);
+      }
+    });
+
+    bench('parse with PackedTokenStream', () => {
+      for (const source of sources) {
+        packedParser.parse(source);
+      }
+    });
+  });
+}
@@ -0,0 +1,152 @@
+import { CharStream, CommonTokenStream, Token } from 'antlr4';
+import { TextSource } from '../common/source';
+import { SymbolTable } from '../common/symbols';
+import { conformanceExpressions } from '../conformance/corpus';
+import CELLexer from '../gen/CELLexer';
+import { AllMacros } from './macro';
+import {
+  enableHandWrittenLexer,
+  enableIdentEscapeSyntax,
+  enableOptionalSyntax,
+  enablePackedTokenStream,
+  macros,
+  Parser,
+} from './parser';
+import { Scanner, tokenSymbol } from './scanner';
+import { PackedTokenStream } from './tokens';
+
+function describeTokens(tokens: Token[]) {
+  return tokens.map((t) => [
+    t.type,
+    t.channel,
+    t.start,
+    t.stop,
+    t.line,
+    t.column,
+    t.tokenIndex,
+    t.text,
+  ]);
+}
+
+function onChannel(stream: {
+  LT(k: number): Token | null;
+  LA(k: number): number;
+  consume(): void;
+}) {
+  const tokens: Token[] = [];
+  for (;;) {
+    const t = stream.LT(1);
+    if (t === null) {
+      break;
+    }
+    tokens.push(t);
+    if (stream.LA(1) === Token.EOF) {
+      break;
+    }
+    stream.consume();
+  }
+  return tokens;
+}
+
+describe('PackedTokenStream', () => {
+  const inputs = [
+    '',
+    '  ',
+    'a.b.c(1, 2u, 3.0) // trailing comment',
+    "'str' + b'bytes' + r'''raw\nstring'''",
+    'a\n  ? b\n  : c',
+    '[1, 2, 3].map(x, x * 2).exists(y, y > 3)',
+    'a ++ b $',
+  ];
+
+  for (const input of inputs) {
+    it(`should buffer the same tokens as CommonTokenStream for ${JSON.stringify(
+      input
+    )}`, () => {
+      const expected = new CommonTokenStream(
+        new CELLexer(new CharStream(input))
+      );
+      const actual = new PackedTokenStream(new CELLexer(new CharStream(input)));
+      expect(describeTokens(onChannel(actual))).toEqual(
+        describeTokens(onChannel(expected))
+      );
+      expect(actual.LT(-1)?.tokenIndex).toEqual(expected.LT(-1)?.tokenIndex);
+      expected.fill();
+      actual.fill();
+      expect(actual.size).toEqual(expected.tokens.length);
+      expect(actual.getText()).toEqual(expected.getText());
+      expect(
+        describeTokens(expected.tokens.map((_, i) => actual.get(i)))
+      ).toEqual(describeTokens(expected.tokens));
+    });
+  }
+
+  it('should read tokens from the scanner', () => {
+    const input = 'a.b /* */ + 1';
+    const expected = new CommonTokenStream(new CELLexer(new CharStream(input)));
+    const actual = new PackedTokenStream(new Scanner(input));
+    expect(describeTokens(onChannel(actual))).toEqual(
+      describeTokens(onChannel(expected))
+    );
+  });
+
+  it('should return the same view for a token', () => {
+    const stream = new PackedTokenStream(new Scanner('a + b'));
+    const first = stream.LT(1);
+    expect(stream.LT(1)).toBe(first);
+    stream.consume();
+    expect(stream.LT(-1)).toBe(first);
+    expect(stream.get(0)).toBe(first);
+  });
+
+  it('should seek to the next token on the default channel', () => {
+    const stream = new PackedTokenStream(new Scanner('a   + b'));
+    stream.fill();
+    stream.seek(1);
+    expect(stream.LT(1)?.text).toEqual('+');
+    expect(stream.index).toEqual(2);
+  });
+
+  it('should not consume EOF', () => {
+    const stream = new PackedTokenStream(new Scanner('a'));
+    stream.consume();
+    expect(stream.LA(1)).toEqual(Token.EOF);
+    expect(() => stream.consume()).toThrow();
+  });
+
+  it('should carry symbols from the scanner', () => {
+    const symbols = new SymbolTable();
+    const scanner = new Scanner('foo.bar');
+    scanner.symbols = symbols;
+    const stream = new PackedTokenStream(scanner);
+    const token = stream.LT(1) as Token;
+    expect(tokenSymbol(token)).toEqual(symbols.lookup('foo'));
+    expect(token.text).toBe(symbols.name(symbols.lookup('foo')));
+  });
+
+  it('should produce the same ASTs and errors when used by the parser', () => {
+    const opts = [
+      macros(...AllMacros),
+      enableOptionalSyntax(true),
+      enableIdentEscapeSyntax(true),
+    ];
+    for (const lexer of [false, true]) {
+      for (const exprs of conformanceExpressions().values()) {
+        for (const expr of exprs) {
+          const expected = new Parser(...opts, enableHandWrittenLexer(lexer));
+          const actual = new Parser(
+            ...opts,
+            enableHandWrittenLexer(lexer),
+            enablePackedTokenStream(true)
+          );
+          const expectedAST = expected.parse(new TextSource(expr));
+          const actualAST = actual.parse(new TextSource(expr));
+          expect(actualAST.expr(), expr).toEqual(expectedAST.expr());
+          expect(actual.errors.toDisplayString(), expr).toEqual(
+            expected.errors.toDisplayString()
+          );
+        }
+      }
+    }
+  });
+});
@@ -0,0 +1,337 @@
+/* eslint-disable @typescript-eslint/no-explicit-any */
+import { CommonToken, Token } from 'antlr4';
+import CELLexer from '../gen/CELLexer';
+import { Scanner, SymbolToken } from './scanner';
+
+const INITIAL_CAPACITY = 64;
+
+/**
+ * TokenInterval is the token index range accepted by `getText`. Either end
+ * may be given as a token.
+ */
+interface TokenInterval {
+  start: number | Token;
+  stop: number | Token;
+}
+
+/**
+ * PackedTokenStream is a drop-in replacement for CommonTokenStream which
+ * stores the tokens of its source in packed integer arrays instead of a list
+ * of CommonToken objects.
+ *
+ * Only the tokens the parser actually asks for through `LT` or `get` are
+ * materialized, as CommonToken views which are created once and then reused,
+ * so the parser sees the same objects a CommonTokenStream would hand out.
+ * Hidden tokens (whitespace and comments) never become objects. The stream
+ * follows the buffering, channel and EOF rules of CommonTokenStream exactly,
+ * including lazily pulling tokens from the source as the parser advances,
+ * so errors are reported in the same order.
+ *
+ * When the source is a Scanner its tokens are read through `advance` and no
+ * token objects are created by the scanner either.
+ */
+export class PackedTokenStream {
+  readonly tokenSource: Scanner | CELLexer;
+  /**
+   * The index of the current token, -1 until the stream is first used.
+   */
+  index = -1;
+
+  readonly #scanner?: Scanner;
+  readonly #source: [any, any];
+  #types = new Int32Array(INITIAL_CAPACITY);
+  #channels = new Uint8Array(INITIAL_CAPACITY);
+  #starts = new Int32Array(INITIAL_CAPACITY);
+  #stops = new Int32Array(INITIAL_CAPACITY);
+  #lines = new Int32Array(INITIAL_CAPACITY);
+  #columns = new Int32Array(INITIAL_CAPACITY);
+  #symbols = new Int32Array(INITIAL_CAPACITY);
+  #views: (Token | undefined)[] = [];
+  #size = 0;
+  #fetchedEOF = false;
+
+  constructor(tokenSource: Scanner | CELLexer) {
+    this.tokenSource = tokenSource;
+    if (tokenSource instanceof Scanner) {
+      this.#scanner = tokenSource;
+      this.#source = [tokenSource, tokenSource];
+    } else {
+      this.#source = [
+        tokenSource,
+        (tokenSource as unknown as { inputStream: unknown }).inputStream,
+      ];
+    }
+  }
+
+  /**
+   * The number of tokens buffered so far.
+   */
+  get size() {
+    return this.#size;
+  }
+
+  getTokenSource() {
+    return this.tokenSource;
+  }
+
+  getSourceName() {
+    return this.tokenSource.getSourceName();
+  }
+
+  mark() {
+    return 0;
+  }
+
+  release() {
+    // Every token stays buffered, so there is nothing to release.
+  }
+
+  reset() {
+    this.seek(0);
+  }
+
+  seek(index: number) {
+    this._lazyInit();
+    this.index = this._nextOnChannel(index);
+  }
+
+  get(index: number) {
+    this._lazyInit();
+    if (index < 0 || index >= this.#size) {
+      throw new RangeError(
+        `token index ${index} out of range 0..${this.#size - 1}`
+      );
+    }
+    return this._view(index);
+  }
+
+  consume() {
+    let skipEofCheck = false;
+    if (this.index >= 0) {
+      skipEofCheck = this.#fetchedEOF
+        ? this.index < this.#size - 1
+        : this.index < this.#size;
+    }
+    if (!skipEofCheck && this.LA(1) === Token.EOF) {
+      throw new Error('cannot consume EOF');
+    }
+    if (this._sync(this.index + 1)) {
+      this.index = this._nextOnChannel(this.index + 1);
+    }
+  }
+
+  LA(k: number) {
+    const i = this._lookahead(k);
+    return i < 0 ? Token.INVALID_TYPE : this.#types[i];
+  }
+
+  LT(k: number) {
+    const i = this._lookahead(k);
+    return i < 0 ? null : this._view(i);
+  }
+
+  /**
+   * Fill pulls every remaining token from the source.
+   */
+  fill() {
+    this._lazyInit();
+    while (this._fetch(1000) === 1000) {
+      // Keep fetching until EOF.
+    }
+  }
+
+  getText(
+    interval?: TokenInterval | number | Token,
+    stop?: number | Token
+  ): string {
+    this._lazyInit();
+    this.fill();
+    let start: number | Token;
+    let end: number | Token;
+    if (interval === undefined) {
+      start = 0;
+      end = this.#size - 1;
+    } else if (typeof interval === 'number' || interval instanceof Token) {
+      start = interval;
+      end = stop ?? interval;
+    } else {
+      start = interval.start;
+      end = interval.stop;
+    }
+    const first = typeof start === 'number' ? start : start.tokenIndex;
+    let last = typeof end === 'number' ? end : end.tokenIndex;
+    if (first < 0 || last < 0) {
+      return '';
+    }
+    last = Math.min(last, this.#size - 1);
+    let text = '';
+    for (let i = first; i <= last; i++) {
+      if (this.#types[i] === Token.EOF) {
+        break;
+      }
+      text += this._text(i);
+    }
+    return text;
+  }
+
+  /**
+   * Returns the index of the k-th on-channel token from the current one,
+   * following the rules of CommonTokenStream.LT, or -1 if there is none.
+   */
+  private _lookahead(k: number) {
+    this._lazyInit();
+    if (k === 0) {
+      return -1;
+    }
+    if (k < 0) {
+      return this._lookback(-k);
+    }
+    let i = this.index;
+    for (let n = 1; n < k; n++) {
+      if (this._sync(i + 1)) {
+        i = this._nextOnChannel(i + 1);
+      }
+    }
+    return i;
+  }
+
+  private _lookback(k: number) {
+    if (this.index - k < 0) {
+      return -1;
+    }
+    let i = this.index;
+    for (let n = 1; n <= k; n++) {
+      i = this._previousOnChannel(i - 1);
+    }
+    return i;
+  }
+
+  private _lazyInit() {
+    if (this.index === -1) {
+      this._sync(0);
+      this.index = this._nextOnChannel(0);
+    }
+  }
+
+  private _nextOnChannel(i: number) {
+    this._sync(i);
+    if (i >= this.#size) {
+      return -1;
+    }
+    while (this.#channels[i] !== Token.DEFAULT_CHANNEL) {
+      if (this.#types[i] === Token.EOF) {
+        return -1;
+      }
+      i++;
+      this._sync(i);
+    }
+    return i;
+  }
+
+  private _previousOnChannel(i: number) {
+    while (i >= 0 && this.#channels[i] !== Token.DEFAULT_CHANNEL) {
+      i--;
+    }
+    return i;
+  }
+
+  /**
+   * Makes sure token `i` is buffered, returning false if the source ended
+   * before it.
+   */
+  private _sync(i: number) {
+    const n = i - this.#size + 1;
+    return n <= 0 || this._fetch(n) >= n;
+  }
+
+  private _fetch(n: number) {
+    if (this.#fetchedEOF) {
+      return 0;
+    }
+    for (let k = 0; k < n; k++) {
+      const i = this.#size;
+      if (i === this.#types.length) {
+        this._grow();
+      }
+      const scanner = this.#scanner;
+      if (scanner !== undefined) {
+        scanner.advance();
+        this.#types[i] = scanner.tokenType;
+        this.#channels[i] = scanner.tokenChannel;
+        this.#starts[i] = scanner.tokenStart;
+        this.#stops[i] = scanner.tokenStop;
+        this.#lines[i] = scanner.tokenLine;
+        this.#columns[i] = scanner.tokenColumn;
+        this.#symbols[i] = scanner.tokenSymbol;
+      } else {
+        const t = this.tokenSource.nextToken();
+        this.#types[i] = t.type;
+        this.#channels[i] = t.channel;
+        this.#starts[i] = t.start;
+        this.#stops[i] = t.stop;
+        this.#lines[i] = t.line;
+        this.#columns[i] = t.column;
+        this.#symbols[i] = -1;
+      }
+      this.#size++;
+      if (this.#types[i] === Token.EOF) {
+        this.#fetchedEOF = true;
+        return k + 1;
+      }
+    }
+    return n;
+  }
+
+  private _grow() {
+    const capacity = this.#types.length * 2;
+    this.#types = grow(this.#types, new Int32Array(capacity));
+    this.#channels = grow(this.#channels, new Uint8Array(capacity));
+    this.#starts = grow(this.#starts, new Int32Array(capacity));
+    this.#stops = grow(this.#stops, new Int32Array(capacity));
+    this.#lines = grow(this.#lines, new Int32Array(capacity));
+    this.#columns = grow(this.#columns, new Int32Array(capacity));
+    this.#symbols = grow(this.#symbols, new Int32Array(capacity));
+  }
+
+  /**
+   * Returns the token object for index `i`, creating it on first use.
+   */
+  private _view(i: number): Token {
+    let t = this.#views[i];
+    if (t === undefined) {
+      const token = new CommonToken(
+        this.#source,
+        this.#types[i],
+        this.#channels[i],
+        this.#starts[i],
+        this.#stops[i]
+      );
+      token.tokenIndex = i;
+      token.line = this.#lines[i];
+      token.column = this.#columns[i];
+      const symbol = this.#symbols[i];
+      const symbols = this.#scanner?.symbols;
+      if (symbol >= 0 && symbols !== undefined) {
+        (token as SymbolToken).symbol = symbol;
+        if (token.type === CELLexer.IDENTIFIER) {
+          token.text = symbols.name(symbol);
+        }
+      }
+      this.#views[i] = t = token;
+    }
+    return t;
+  }
+
+  private _text(i: number): string {
+    const view = this.#views[i];
+    if (view !== undefined) {
+      return view.text;
+    }
+    return this.#source[1].getText(this.#starts[i], this.#stops[i]);
+  }
+}
+
+function grow<T extends Int32Array | Uint8Array>(from: T, to: T) {
+  to.set(from);
+  return to;
+}
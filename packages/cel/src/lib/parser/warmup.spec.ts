@@ -0,0 +1,71 @@
+import {
+  clearDFA,
+  dfaStateCounts,
+  loadDFASnapshot,
+  trainDFASnapshot,
+} from './warmup';
+
+const corpus = [
+  'a && b',
+  'a && b',
+  'x.y[0] + 1 < 10 ? "yes" : "no"',
+  '[1, 2, 3].exists(i, i % 2 == 0)',
+  '{"a": 1u, "b": 2.0}.size() >= 2',
+  'msg.Type{field: b"bytes", other: -1}',
+  'x.y[0] + 1 < 10 ? "yes" : "no"',
+];
+
+describe('DFA warm-up', () => {
+  afterAll(() => {
+    clearDFA();
+  });
+
+  it('should start cold after clearing the DFA', () => {
+    clearDFA();
+    expect(dfaStateCounts()).toEqual({ lexer: 0, parser: 0 });
+  });
+
+  it('should only retain expressions which added DFA states', () => {
+    clearDFA();
+    const snapshot = trainDFASnapshot(corpus);
+    expect(snapshot.expressions.length).toBeGreaterThan(0);
+    expect(snapshot.expressions.length).toBeLessThan(corpus.length);
+    expect(new Set(snapshot.expressions).size).toEqual(
+      snapshot.expressions.length
+    );
+    expect(dfaStateCounts()).toEqual({
+      lexer: snapshot.lexerStates,
+      parser: snapshot.parserStates,
+    });
+  });
+
+  it('should restore the trained DFA from a persisted snapshot', () => {
+    clearDFA();
+    const persisted = JSON.stringify(trainDFASnapshot(corpus));
+    clearDFA();
+    const snapshot = JSON.parse(persisted);
+    expect(loadDFASnapshot(snapshot)).toEqual(true);
+    expect(dfaStateCounts()).toEqual({
+      lexer: snapshot.lexerStates,
+      parser: snapshot.parserStates,
+    });
+  });
+
+  it('should report snapshots which do not match the grammar', () => {
+    clearDFA();
+    const snapshot = trainDFASnapshot(corpus);
+    clearDFA();
+    expect(
+      loadDFASnapshot({ ...snapshot, parserStates: snapshot.parserStates + 1 })
+    ).toEqual(false);
+  });
+
+  it('should report snapshots of another grammar on a warm DFA', () => {
+    clearDFA();
+    const snapshot = trainDFASnapshot(corpus);
+    expect(loadDFASnapshot(snapshot)).toEqual(true);
+    const counts = dfaStateCounts();
+    expect(loadDFASnapshot({ ...snapshot, grammar: 'stale' })).toEqual(false);
+    expect(dfaStateCounts()).toEqual(counts);
+  });
+});
@@ -0,0 +1,140 @@
+import { CharStream, CommonTokenStream, DecisionState, DFA } from 'antlr4';
+import CELLexer from '../gen/CELLexer';
+import CELParser from '../gen/CELParser';
+
+/**
+ * DFASnapshot captures what the shared lexer and parser DFA caches learned
+ * from a training corpus, in a form which can be persisted (e.g. as JSON) and
+ * replayed when a new process starts.
+ *
+ * The ANTLR JavaScript runtime does not expose a way to serialize DFA states
+ * and their ATN configurations, so the snapshot records the minimal subset of
+ * the training corpus which produced new DFA states instead. Replaying it
+ * rebuilds the same states through the public parsing API and stays valid
+ * across runtime upgrades. The fingerprint of the grammar it was trained
+ * against allows a stale snapshot (e.g. after a grammar change) to be
+ * detected, and the state counts recorded at training time allow a replay
+ * into cold caches to be checked.
+ */
+export interface DFASnapshot {
+  grammar: string;
+  expressions: string[];
+  lexerStates: number;
+  parserStates: number;
+}
+
+let fingerprint: string | undefined;
+
+/**
+ * GrammarFingerprint returns a hash of the serialized lexer and parser ATNs,
+ * which changes whenever the grammar does.
+ */
+export function grammarFingerprint() {
+  if (fingerprint === undefined) {
+    // 32-bit FNV-1a.
+    let hash = 0x811c9dc5;
+    for (const atn of [CELLexer._serializedATN, CELParser._serializedATN]) {
+      for (const value of [atn.length, ...atn]) {
+        hash = Math.imul(hash ^ (value & 0xffff), 0x01000193);
+      }
+    }
+    fingerprint = (hash >>> 0).toString(16).padStart(8, '0');
+  }
+  return fingerprint;
+}
+
+/**
+ * DFAStateCounts returns the number of states currently cached in the shared
+ * lexer and parser DFAs.
+ */
+export function dfaStateCounts() {
+  return {
+    lexer: countStates(CELLexer.DecisionsToDFA),
+    parser: countStates(CELParser.DecisionsToDFA),
+  };
+}
+
+/**
+ * ClearDFA discards the shared lexer and parser DFA caches. Parsers created
+ * afterwards start cold, which is mostly useful for measuring warm-up.
+ */
+export function clearDFA() {
+  CELLexer.DecisionsToDFA = CELLexer._ATN.decisionToState.map(
+    (ds: DecisionState, index: number) => new DFA(ds, index)
+  );
+  CELParser.DecisionsToDFA = CELParser._ATN.decisionToState.map(
+    (ds: DecisionState, index: number) => new DFA(ds, index)
+  );
+}
+
+/**
+ * TrainDFASnapshot parses each expression in the corpus, warming the shared
+ * DFA caches of the current process, and returns a snapshot containing only
+ * the expressions which added lexer or parser DFA states.
+ */
+export function trainDFASnapshot(corpus: Iterable<string>): DFASnapshot {
+  const expressions: string[] = [];
+  let counts = dfaStateCounts();
+  for (const expr of corpus) {
+    parseForPrediction(expr);
+    const next = dfaStateCounts();
+    if (next.lexer > counts.lexer || next.parser > counts.parser) {
+      expressions.push(expr);
+    }
+    counts = next;
+  }
+  return {
+    grammar: grammarFingerprint(),
+    expressions,
+    lexerStates: counts.lexer,
+    parserStates: counts.parser,
+  };
+}
+
+/**
+ * LoadDFASnapshot replays a snapshot produced by `trainDFASnapshot` so that
+ * the shared DFA caches start in their trained state. It should be called
+ * once at startup, before the first expression is parsed. It returns false,
+ * without replaying anything, if the snapshot was trained against a different
+ * grammar. When the caches were cold it also returns false if the replay did
+ * not rebuild the number of states recorded in the snapshot.
+ */
+export function loadDFASnapshot(snapshot: DFASnapshot) {
+  if (snapshot.grammar !== grammarFingerprint()) {
+    return false;
+  }
+  const before = dfaStateCounts();
+  for (const expr of snapshot.expressions) {
+    parseForPrediction(expr);
+  }
+  if (before.lexer !== 0 || before.parser !== 0) {
+    // States learned before the replay make the counts incomparable.
+    return true;
+  }
+  const counts = dfaStateCounts();
+  return (
+    counts.lexer === snapshot.lexerStates &&
+    counts.parser === snapshot.parserStates
+  );
+}
+
+/**
+ * parseForPrediction runs the generated lexer and parser over the expression
+ * without building an AST. Only the prediction side effects matter.
+ */
+function parseForPrediction(expr: string) {
+  const lexer = new CELLexer(new CharStream(expr));
+  lexer.removeErrorListeners();
+  const parser = new CELParser(new CommonTokenStream(lexer));
+  parser.removeErrorListeners();
+  parser.buildParseTrees = false;
+  parser.start();
+}
+
+function countStates(dfas: DFA[]) {
+  let count = 0;
+  for (const dfa of dfas) {
+    count += (dfa as unknown as { states: { length: number } }).states.length;
+  }
+  return count;
+}
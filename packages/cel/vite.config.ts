@@ -65,6 +65,9 @@ export default defineConfig({
     include: ['src/**/*.{test,spec}.{js,mjs,cjs,ts,mts,cts,jsx,tsx}'],
 
     reporters: ['default'],
+    benchmark: {
+      include: ['src/**/*.bench.ts'],
+    },
     coverage: {
       reportsDirectory: '../../coverage/packages/cel',
       provider: 'v8',